@@ -0,0 +1,103 @@
+package com.example.android.notepad;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.MatrixCursor;
+import android.os.Bundle;
+
+import junit.framework.TestCase;
+
+/**
+ * 多选分类的筛选条件，以及读出快照时同时完成的筛选和计数。
+ */
+public class CategoryFilterTest extends TestCase {
+
+    public void testSelection() {
+        assertTrue(CategoryFilter.of().isAll());
+        assertSame(CategoryFilter.ALL, CategoryFilter.of());
+        assertNull(CategoryFilter.ALL.selection(null));
+        assertTrue(CategoryFilter.ALL.contains(42));
+
+        CategoryFilter filter = CategoryFilter.of(5, 2, 5);
+        assertEquals(2, filter.size());
+        assertTrue(filter.contains(2));
+        assertFalse(filter.contains(3));
+        assertEquals(NotePad.Notes.COLUMN_NAME_CATEGORY_ID + " IN (?,?)", filter.selection(null));
+        assertEquals("(title = ?) AND " + NotePad.Notes.COLUMN_NAME_CATEGORY_ID + " IN (?,?)",
+                filter.selection("title = ?"));
+        String[] args = filter.selectionArgs(new String[] {"a"});
+        assertEquals(3, args.length);
+        assertEquals("a", args[0]);
+        assertEquals("2", args[1]);
+        assertEquals("5", args[2]);
+        assertEquals(CategoryFilter.of(2, 5), filter);
+    }
+
+    /**
+     * 列表只含所选分类，计数包括所有分类
+     */
+    public void testFilterAndCountInOnePass() {
+        MatrixCursor cursor = newCursor();
+        NoteSnapshot snapshot = NoteSnapshot.fromCursor(cursor, CategoryFilter.of(1, 3));
+        assertEquals(7, snapshot.size());
+        for (int i = 0; i < snapshot.size(); i++) {
+            assertTrue(snapshot.id(i) % 3 != 1);
+        }
+        CategoryCounts counts = snapshot.categoryCounts();
+        assertEquals(4, counts.count(1));
+        assertEquals(3, counts.count(2));
+        assertEquals(3, counts.count(3));
+        assertEquals(0, counts.count(4));
+        assertEquals(10, counts.total());
+        assertSame(counts, snapshot.sortedBy(NoteSnapshot.SORT_TITLE).categoryCounts());
+
+        // Provider给出的统计（相关度搜索的全部匹配）优先于读出的行
+        Bundle extras = new Bundle();
+        CategoryCounts provided = new CategoryCounts();
+        for (int i = 0; i < 50; i++) {
+            provided.add(2);
+        }
+        provided.writeTo(extras);
+        snapshot = NoteSnapshot.fromCursor(new ExtrasCursor(newCursor(), extras),
+                CategoryFilter.ALL);
+        assertEquals(10, snapshot.size());
+        assertEquals(50, snapshot.categoryCounts().count(2));
+        assertEquals(50, snapshot.categoryCounts().total());
+
+        // 没有分类ID列时不筛选也不计数
+        cursor = new MatrixCursor(new String[] {NotePad.Notes._ID});
+        cursor.addRow(new Object[] {1});
+        snapshot = NoteSnapshot.fromCursor(cursor, CategoryFilter.of(2));
+        assertEquals(1, snapshot.size());
+        assertNull(snapshot.categoryCounts());
+    }
+
+    /**
+     * 10条笔记，分类ID依次为1、2、3
+     */
+    private static MatrixCursor newCursor() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {
+                NotePad.Notes._ID,
+                NotePad.Notes.COLUMN_NAME_TITLE,
+                NotePad.Notes.COLUMN_NAME_CATEGORY_ID
+        });
+        for (int i = 0; i < 10; i++) {
+            cursor.addRow(new Object[] {i, "note " + i, i % 3 + 1});
+        }
+        return cursor;
+    }
+
+    private static final class ExtrasCursor extends CursorWrapper {
+        private final Bundle mExtras;
+
+        ExtrasCursor(Cursor cursor, Bundle extras) {
+            super(cursor);
+            mExtras = extras;
+        }
+
+        @Override
+        public Bundle getExtras() {
+            return mExtras;
+        }
+    }
+}
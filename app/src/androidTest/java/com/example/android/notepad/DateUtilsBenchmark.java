@@ -0,0 +1,123 @@
+package com.example.android.notepad;
+
+import android.os.Debug;
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * 时间格式化的正确性检查与基准测试：与原来每次创建SimpleDateFormat的实现比较结果、
+ * 每次调用的耗时和对象分配数。
+ */
+public class DateUtilsBenchmark extends TestCase {
+
+    private static final String TAG = "DateUtilsBenchmark";
+
+    private static final int CALLS = 20000;
+
+    // 2024-01-02 03:04:05 东八区
+    private static final long NOW = 1704135845000L;
+
+    public void testMatchesSimpleDateFormat() {
+        Random random = new Random(42);
+        char[] buffer = new char[DateUtils.FORMATTED_LENGTH + 4];
+        for (int i = 0; i < 10000; i++) {
+            // 覆盖1900年前后到2100年，包括地方时和夏令时时期
+            long time = (long) (random.nextDouble() * 6.5e12) - 2500000000000L;
+            String expected = legacyFormat(time);
+            assertEquals(expected, DateUtils.formatTime(time));
+            int length = DateUtils.formatTime(time, buffer, 4);
+            assertEquals(expected, new String(buffer, 4, length));
+        }
+    }
+
+    public void testRelativeTime() {
+        assertEquals("刚刚", DateUtils.formatRelativeTime(NOW - 30 * 1000, NOW));
+        assertEquals("刚刚", DateUtils.formatRelativeTime(NOW + 30 * 1000, NOW));
+        assertEquals("3分钟前", DateUtils.formatRelativeTime(NOW - 3 * 60 * 1000, NOW));
+        assertEquals("59分钟前", DateUtils.formatRelativeTime(NOW - 3599 * 1000, NOW));
+        assertEquals("5小时前", DateUtils.formatRelativeTime(NOW - 5 * 3600 * 1000, NOW));
+        assertEquals("6天前", DateUtils.formatRelativeTime(NOW - 6 * 86400 * 1000L, NOW));
+        assertEquals("2023-12-26", DateUtils.formatRelativeTime(NOW - 7 * 86400 * 1000L, NOW));
+        assertEquals("2024-01-04", DateUtils.formatRelativeTime(NOW + 2 * 86400 * 1000L, NOW));
+    }
+
+    /**
+     * 列表中相邻的笔记修改时间各不相同，基准使用分散的时间，分钟前缀的缓存大多不会命中
+     */
+    public void testThroughputAndAllocations() {
+        long[] times = new long[CALLS];
+        Random random = new Random(7);
+        for (int i = 0; i < CALLS; i++) {
+            times[i] = NOW - (long) (random.nextDouble() * 365 * 86400 * 1000L);
+        }
+        char[] buffer = new char[DateUtils.FORMATTED_LENGTH];
+
+        // 预热
+        for (long time : times) {
+            legacyFormat(time);
+            DateUtils.formatTime(time);
+            DateUtils.formatTime(time, buffer, 0);
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        for (long time : times) {
+            legacyFormat(time);
+        }
+        long legacyNanos = (System.nanoTime() - start) / CALLS;
+        Debug.stopAllocCounting();
+        int legacyAllocations = Debug.getThreadAllocCount() / CALLS;
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        start = System.nanoTime();
+        for (long time : times) {
+            DateUtils.formatTime(time);
+        }
+        long stringNanos = (System.nanoTime() - start) / CALLS;
+        Debug.stopAllocCounting();
+        int stringAllocations = Debug.getThreadAllocCount() / CALLS;
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        start = System.nanoTime();
+        for (long time : times) {
+            DateUtils.formatTime(time, buffer, 0);
+        }
+        long charNanos = (System.nanoTime() - start) / CALLS;
+        Debug.stopAllocCounting();
+        int charAllocations = Debug.getThreadAllocCount();
+
+        Log.i(TAG, "legacy " + legacyNanos + "ns/" + legacyAllocations + " allocs, string "
+                + stringNanos + "ns/" + stringAllocations + " allocs, char[] "
+                + charNanos + "ns/" + charAllocations + " allocs total");
+
+        assertTrue("string path " + stringNanos + "ns vs legacy " + legacyNanos + "ns",
+                stringNanos < legacyNanos);
+        assertTrue("char[] path " + charNanos + "ns vs legacy " + legacyNanos + "ns",
+                charNanos < legacyNanos);
+        // 字符串版本只分配结果字符串本身（String和其字符数组）
+        assertTrue("string path allocated " + stringAllocations + " objects per call",
+                stringAllocations <= 2);
+        // 字符数组版本除了偶尔的平台内部缓存外不应分配对象
+        assertTrue("char[] path allocated " + charAllocations + " objects in " + CALLS + " calls",
+                charAllocations < CALLS / 100);
+    }
+
+    /**
+     * 原来的实现：每次调用都创建SimpleDateFormat并查找时区
+     */
+    private static String legacyFormat(long timeMillis) {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+        sdf.setTimeZone(TimeZone.getTimeZone("Asia/Shanghai"));
+        return sdf.format(new Date(timeMillis));
+    }
+}
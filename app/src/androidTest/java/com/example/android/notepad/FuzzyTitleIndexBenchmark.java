@@ -0,0 +1,131 @@
+package com.example.android.notepad;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * 标题模糊索引的正确性检查与基准测试。
+ *
+ * 基准以固定词表生成 1千 / 1万 / 10万 条笔记，测量带错字查询的平均耗时，
+ * 验证耗时远低于线性增长，并且在10万条笔记时仍处于延迟预算内。
+ */
+public class FuzzyTitleIndexBenchmark extends TestCase {
+
+    private static final int VOCABULARY_SIZE = 3000;
+    private static final int TERMS_PER_TITLE = 3;
+    private static final int QUERY_COUNT = 200;
+
+    public void testEditDistance() {
+        assertEquals(0, FuzzyTitleIndex.editDistance("note", "note"));
+        assertEquals(1, FuzzyTitleIndex.editDistance("note", "nte"));
+        assertEquals(1, FuzzyTitleIndex.editDistance("工作计划", "工做计划"));
+        assertEquals(3, FuzzyTitleIndex.editDistance("", "abc"));
+    }
+
+    public void testSearchToleratesTypos() {
+        FuzzyTitleIndex index = new FuzzyTitleIndex();
+        index.put(1, "Weekly report");
+        index.put(2, "Shopping list");
+        index.put(3, "工作计划 周报");
+
+        assertTrue(index.search("weekyl").contains(1L));
+        assertTrue(index.search("shoping list").contains(2L));
+        assertFalse(index.search("shoping list").contains(1L));
+        assertTrue(index.search("工做计划").contains(3L));
+
+        // 更新标题后旧词条不再命中
+        index.put(2, "Grocery list");
+        assertFalse(index.search("shopping").contains(2L));
+
+        index.remove(1);
+        assertTrue(index.search("weekly").isEmpty());
+    }
+
+    public void testSearchMatchesPrefixes() {
+        FuzzyTitleIndex index = new FuzzyTitleIndex();
+        index.put(1001, "Weekly meeting notes");
+        index.put(1002, "Shopping list");
+        index.put(1003, "工作计划 周报");
+
+        // 边输入边搜索：只输入了词条的开头
+        assertTrue(index.search("mee").contains(1001L));
+        assertTrue(index.search("weekl mee").contains(1001L));
+        assertFalse(index.search("mee").contains(1002L));
+        // 开头带错字
+        assertTrue(index.search("meetn").contains(1001L));
+        assertTrue(index.search("shopin").contains(1002L));
+        assertTrue(index.search("工作").contains(1003L));
+        // 只在词条开头匹配，不匹配词条中间
+        assertTrue(index.search("ting").isEmpty());
+
+        assertEquals(0, FuzzyTitleIndex.prefixDistance("mee", "meeting", 1));
+        assertEquals(1, FuzzyTitleIndex.prefixDistance("meetng", "meeting", 2));
+        assertEquals(2, FuzzyTitleIndex.prefixDistance("abc", "xyzabc", 1));
+
+        // 删除后前缀不再命中
+        index.remove(1001);
+        assertTrue(index.search("mee").isEmpty());
+    }
+
+    public void testQueryTimeGrowsSublinearly() {
+        String[] vocabulary = buildVocabulary(new Random(42));
+
+        long small = averageQueryNanos(vocabulary, 1000);
+        long large = averageQueryNanos(vocabulary, 100000);
+
+        // 笔记数增加100倍，查询耗时的增长应远小于100倍
+        assertTrue("query time grew from " + small + "ns to " + large + "ns",
+                large < small * 100 / 4);
+        assertTrue("query time " + large + "ns exceeds the latency budget",
+                large < FuzzyTitleIndex.LATENCY_BUDGET_NANOS);
+    }
+
+    private static long averageQueryNanos(String[] vocabulary, int noteCount) {
+        Random random = new Random(noteCount);
+        FuzzyTitleIndex index = new FuzzyTitleIndex();
+        StringBuilder title = new StringBuilder();
+        for (int i = 0; i < noteCount; i++) {
+            title.setLength(0);
+            for (int t = 0; t < TERMS_PER_TITLE; t++) {
+                title.append(vocabulary[random.nextInt(vocabulary.length)]).append(' ');
+            }
+            index.put(i, title.toString());
+        }
+
+        String[] queries = new String[QUERY_COUNT];
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            queries[i] = withTypo(vocabulary[random.nextInt(vocabulary.length)], random);
+        }
+
+        // 预热
+        for (String query : queries) {
+            index.findSimilarTerms(query);
+        }
+
+        long start = System.nanoTime();
+        for (String query : queries) {
+            index.findSimilarTerms(query);
+        }
+        return (System.nanoTime() - start) / QUERY_COUNT;
+    }
+
+    private static String[] buildVocabulary(Random random) {
+        String[] words = new String[VOCABULARY_SIZE];
+        for (int i = 0; i < words.length; i++) {
+            int length = 4 + random.nextInt(6);
+            char[] chars = new char[length];
+            for (int c = 0; c < length; c++) {
+                chars[c] = (char) ('a' + random.nextInt(26));
+            }
+            words[i] = new String(chars);
+        }
+        return words;
+    }
+
+    private static String withTypo(String word, Random random) {
+        char[] chars = word.toCharArray();
+        chars[random.nextInt(chars.length)] = (char) ('a' + random.nextInt(26));
+        return new String(chars);
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.android.notepad;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.View;
+
+/**
+ * 编辑框横线的渲染：正文从一千行增长到两万行时，每帧画出的横线数和耗时保持不变。
+ */
+public class LinedEditTextBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "LinedEditTextBenchmark";
+
+    private static final int WIDTH = 720;
+    private static final int HEIGHT = 1280;
+    private static final int FRAMES = 50;
+
+    public void testFrameCostIndependentOfLength() {
+        Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        int[] sizes = {1000, 5000, 20000};
+        long[] frameNanos = new long[sizes.length];
+        int[] drawnLines = new int[sizes.length];
+        try {
+            for (int i = 0; i < sizes.length; i++) {
+                NoteEditor.LinedEditText view = newView(sizes[i]);
+                // 滚动到正文中间，上下都有不可见的行
+                view.scrollTo(0, view.getLayout().getHeight() / 2);
+                Canvas canvas = new Canvas(bitmap);
+                drawFrame(view, canvas);
+
+                long start = System.nanoTime();
+                for (int frame = 0; frame < FRAMES; frame++) {
+                    drawFrame(view, canvas);
+                }
+                frameNanos[i] = (System.nanoTime() - start) / FRAMES;
+                drawnLines[i] = view.mDrawnLines;
+                Log.i(TAG, sizes[i] + " lines: " + drawnLines[i] + " ruled lines, "
+                        + frameNanos[i] / 1000 + " us/frame");
+            }
+        } finally {
+            bitmap.recycle();
+        }
+
+        // 可见的行数只取决于视口高度
+        assertTrue(drawnLines[0] > 0);
+        assertTrue(drawnLines[0] < sizes[0]);
+        assertEquals(drawnLines[0], drawnLines[1]);
+        assertEquals(drawnLines[0], drawnLines[2]);
+        // 行数增加到20倍，耗时不应随之增长；留出测量噪声的余量
+        assertTrue(frameNanos[2] / 1000 + " us vs " + frameNanos[0] / 1000 + " us",
+                frameNanos[2] < frameNanos[0] * 4 + 1000000L);
+    }
+
+    private NoteEditor.LinedEditText newView(int lines) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            text.append("line ").append(i).append('\n');
+        }
+        NoteEditor.LinedEditText view = new NoteEditor.LinedEditText(getContext(), null);
+        view.setText(text);
+        view.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, WIDTH, HEIGHT);
+        return view;
+    }
+
+    /**
+     * 与父视图绘制子视图时一样，按滚动位置平移并裁剪到视口
+     */
+    private static void drawFrame(View view, Canvas canvas) {
+        int saveCount = canvas.save();
+        canvas.translate(-view.getScrollX(), -view.getScrollY());
+        canvas.clipRect(view.getScrollX(), view.getScrollY(),
+                view.getScrollX() + WIDTH, view.getScrollY() + HEIGHT);
+        view.draw(canvas);
+        canvas.restoreToCount(saveCount);
+    }
+}
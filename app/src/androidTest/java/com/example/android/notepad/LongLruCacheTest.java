@@ -0,0 +1,66 @@
+package com.example.android.notepad;
+
+import junit.framework.TestCase;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 以 long 为键的LRU缓存：淘汰顺序，以及随机操作下与按访问顺序排列的 LinkedHashMap 一致。
+ */
+public class LongLruCacheTest extends TestCase {
+
+    public void testEvictsLeastRecentlyUsed() {
+        LongLruCache<String> cache = new LongLruCache<>(3);
+        cache.put(1000, "a");
+        cache.put(2000, "b");
+        cache.put(3000, "c");
+        // 访问过的条目变为最近使用
+        assertEquals("a", cache.get(1000));
+        cache.put(4000, "d");
+        assertEquals(3, cache.size());
+        assertNull(cache.get(2000));
+        assertEquals("a", cache.get(1000));
+        assertEquals("c", cache.get(3000));
+        assertEquals("d", cache.get(4000));
+
+        // 替换已有的键不淘汰其他条目
+        cache.put(1000, "A");
+        assertEquals(3, cache.size());
+        assertEquals("A", cache.get(1000));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get(1000));
+        cache.put(-1, "negative");
+        assertEquals("negative", cache.get(-1));
+    }
+
+    /**
+     * 键集中在少数槽位时删除要回移后面的条目，查找不能因此漏掉
+     */
+    public void testMatchesLinkedHashMap() {
+        for (final int maxSize : new int[] {1, 2, 7, 64, PreviewLayout.MAX_ENTRIES}) {
+            Random random = new Random(maxSize);
+            LongLruCache<Long> cache = new LongLruCache<>(maxSize);
+            Map<Long, Long> expected = new LinkedHashMap<Long, Long>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+                    return size() > maxSize;
+                }
+            };
+            for (int i = 0; i < 200000; i++) {
+                long key = random.nextInt(maxSize * 3) * (random.nextBoolean() ? 1L : 1024L);
+                if (random.nextInt(10) < 4) {
+                    long value = random.nextLong();
+                    cache.put(key, value);
+                    expected.put(key, value);
+                } else {
+                    assertEquals(expected.get(key), cache.get(key));
+                }
+                assertEquals(expected.size(), cache.size());
+            }
+        }
+    }
+}
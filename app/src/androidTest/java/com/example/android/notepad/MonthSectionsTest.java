@@ -0,0 +1,81 @@
+package com.example.android.notepad;
+
+import android.database.MatrixCursor;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * 按月份的分节：位置与分节的互相换算，以及按快照差异的增量调整与逐行计算结果一致。
+ */
+public class MonthSectionsTest extends TestCase {
+
+    // 东八区各月15日中午
+    private static final long MARCH = 1710475200000L;
+    private static final long FEBRUARY = 1707969600000L;
+    private static final long JANUARY = 1705291200000L;
+
+    public void testPositionsAndSections() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {
+                NotePad.Notes.COLUMN_NAME_MONTH, NotePad.Notes._COUNT});
+        cursor.addRow(new Object[] {"2024-03", 2});
+        cursor.addRow(new Object[] {"2024-02", 1});
+        cursor.addRow(new Object[] {"2024-01", 3});
+        MonthSections sections = MonthSections.fromCursor(cursor);
+
+        assertEquals(3, sections.size());
+        assertEquals(6, sections.count());
+        assertEquals(0, sections.positionForSection(0));
+        assertEquals(2, sections.positionForSection(1));
+        assertEquals(3, sections.positionForSection(2));
+        assertEquals(3, sections.positionForSection(5));
+
+        int[] expected = {0, 0, 1, 2, 2, 2};
+        for (int position = 0; position < expected.length; position++) {
+            assertEquals(expected[position], sections.sectionForPosition(position));
+        }
+        assertTrue(sections.isSectionStart(2));
+        assertFalse(sections.isSectionStart(4));
+        assertEquals("2024-02", sections.months()[1]);
+    }
+
+    public void testFromSnapshot() {
+        MonthSections sections = MonthSections.fromSnapshot(snapshot(
+                row(1, MARCH), row(2, FEBRUARY + 1000), row(3, FEBRUARY), row(4, JANUARY)));
+        assertEquals(Arrays.asList("2024-03", "2024-02", "2024-01"),
+                Arrays.asList(sections.months()));
+        assertEquals(1, sections.positionForSection(1));
+        assertEquals(3, sections.positionForSection(2));
+    }
+
+    /**
+     * 编辑一月的笔记使其移到三月，删除一条二月的笔记，再新建一条：增量结果与重新计算相同
+     */
+    public void testIncrementalUpdate() {
+        NoteSnapshot before = snapshot(row(1, MARCH), row(2, FEBRUARY), row(3, JANUARY + 1000),
+                row(4, JANUARY));
+        NoteSnapshot after = snapshot(row(5, MARCH + 2000), row(4, MARCH + 1000), row(1, MARCH),
+                row(3, JANUARY + 1000));
+        MonthSections sections = MonthSections.fromSnapshot(before);
+
+        MonthSections updated = sections.update(before, after,
+                SnapshotDiff.compute(before, after));
+        assertNotNull(updated);
+        assertTrue(updated.sameSections(MonthSections.fromSnapshot(after)));
+        assertEquals(Arrays.asList("2024-03", "2024-01"), Arrays.asList(updated.months()));
+        assertEquals(3, updated.positionForSection(1));
+
+        // 分节与快照对不上时不做调整
+        assertNull(MonthSections.EMPTY.update(before, after, SnapshotDiff.compute(before, after)));
+    }
+
+    private static NoteSnapshot snapshot(NoteSnapshot.Row... rows) {
+        return NoteSnapshot.of(Arrays.asList(rows));
+    }
+
+    private static NoteSnapshot.Row row(long id, long modified) {
+        return new NoteSnapshot.Row(id, "note " + id, 0, modified, null,
+                NotePad.Notes.MATCH_FIELD_NONE, 0, null, 0, 0);
+    }
+}
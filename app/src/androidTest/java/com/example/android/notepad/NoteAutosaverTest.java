@@ -0,0 +1,447 @@
+package com.example.android.notepad;
+
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+import android.text.SpannableStringBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 自动保存：判断修改所用的文本指纹，以及保存的时机、排队中保存的合并和写入失败后的恢复，
+ * 按写入Provider的次数和顺序检查。
+ */
+public class NoteAutosaverTest extends InstrumentationTestCase {
+
+    // 计时的容差：主线程消息和写入线程的调度延迟
+    private static final long TOLERANCE_MILLIS = 400;
+
+    private static final Uri NOTE_URI =
+            Uri.withAppendedPath(NotePad.Notes.CONTENT_ID_URI_BASE, "7");
+
+    /**
+     * 写入Provider的一次调用
+     */
+    private static final class Write {
+        final String method;
+        final Bundle extras;
+        final ContentValues values;
+        final long time = SystemClock.uptimeMillis();
+
+        Write(String method, Bundle extras, ContentValues values) {
+            this.method = method;
+            this.extras = extras;
+            this.values = values;
+        }
+    }
+
+    private final List<Write> mWrites = Collections.synchronizedList(new ArrayList<Write>());
+    // Provider中保存的正文，按写入的区间和整篇正文更新；只在写入线程中修改
+    private volatile String mStored = "早上开会";
+
+    // 为true时替换正文区间失败：先通知 mPatchEntered，等待 mPatchGate 后抛出异常
+    private volatile boolean mFailPatches;
+    private final CountDownLatch mPatchEntered = new CountDownLatch(1);
+    private final CountDownLatch mPatchGate = new CountDownLatch(1);
+
+    private CharSequence mTitle = "标题";
+    private final PieceTable mDocument = new PieceTable();
+    // 正文是否已全部读出
+    private volatile boolean mComplete = true;
+    private NoteAutosaver mSaver;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(NotePad.AUTHORITY, new MockContentProvider() {
+            @Override
+            public Bundle call(String method, String arg, Bundle extras) {
+                assertEquals("7", arg);
+                if (mFailPatches) {
+                    mPatchEntered.countDown();
+                    try {
+                        mPatchGate.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new IllegalStateException("database or disk is full");
+                }
+                mWrites.add(new Write(method, extras, null));
+                mStored = PieceTable.apply(mStored, toEdits(extras));
+                return new Bundle();
+            }
+
+            @Override
+            public int update(Uri uri, ContentValues values, String selection,
+                              String[] selectionArgs) {
+                assertEquals(NOTE_URI, uri);
+                mWrites.add(new Write(null, null, new ContentValues(values)));
+                if (values.containsKey(NotePad.Notes.COLUMN_NAME_NOTE)) {
+                    mStored = values.getAsString(NotePad.Notes.COLUMN_NAME_NOTE);
+                }
+                return 1;
+            }
+        });
+        mDocument.reset("早上开会");
+        mSaver = new NoteAutosaver(resolver, NOTE_URI, new NoteAutosaver.Source() {
+            @Override
+            public CharSequence title() {
+                return mTitle;
+            }
+
+            @Override
+            public PieceTable document() {
+                return mDocument;
+            }
+
+            @Override
+            public long categoryId() {
+                return NotePad.Categories.DEFAULT_ID;
+            }
+
+            @Override
+            public boolean complete() {
+                return mComplete;
+            }
+        });
+        runOnMain(() -> mSaver.markSaved());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        runOnMain(() -> mSaver.cancel());
+        super.tearDown();
+    }
+
+    public void testFingerprint() {
+        String text = "今天的会议记录\n第二行";
+        // 与文本的类型无关，编辑框中的 Editable 和数据库读出的 String 指纹相同
+        assertEquals(NoteAutosaver.fingerprint(text),
+                NoteAutosaver.fingerprint(new SpannableStringBuilder(text)));
+
+        // 改动一个字符、交换字符、末尾增加空字符都能发现
+        assertFalse(NoteAutosaver.fingerprint(text)
+                == NoteAutosaver.fingerprint("今天的会议记录\n第三行"));
+        assertFalse(NoteAutosaver.fingerprint("ab") == NoteAutosaver.fingerprint("ba"));
+        assertFalse(NoteAutosaver.fingerprint("a") == NoteAutosaver.fingerprint("a\0"));
+        assertFalse(NoteAutosaver.fingerprint("") == NoteAutosaver.fingerprint("\0"));
+    }
+
+    /**
+     * 输入停顿 {@link NoteAutosaver#DEBOUNCE_MILLIS} 后保存一次；停顿前的多次修改只写入一次
+     */
+    public void testDebounce() throws Exception {
+        final long[] lastEdit = new long[1];
+        for (int i = 0; i < 3; i++) {
+            final int at = i;
+            runOnMain(() -> {
+                mDocument.replace(at, at, "x");
+                mSaver.onEdited();
+                lastEdit[0] = SystemClock.uptimeMillis();
+            });
+            Thread.sleep(100);
+        }
+        Thread.sleep(NoteAutosaver.DEBOUNCE_MILLIS / 2);
+        flush();
+        assertEquals(0, mWrites.size());
+
+        Thread.sleep(NoteAutosaver.DEBOUNCE_MILLIS);
+        flush();
+        assertEquals(2, mWrites.size());
+        assertPatch(mWrites.get(0), 0, 0, "xxx");
+        assertUpdate(mWrites.get(1), NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE);
+        assertElapsed(NoteAutosaver.DEBOUNCE_MILLIS, lastEdit[0], mWrites.get(0).time);
+    }
+
+    /**
+     * 一直输入时，第一次修改后 {@link NoteAutosaver#MAX_DELAY_MILLIS} 保存，不再等待停顿
+     */
+    public void testMaxDelay() throws Exception {
+        final long[] firstEdit = new long[1];
+        long end = SystemClock.uptimeMillis() + NoteAutosaver.MAX_DELAY_MILLIS
+                + TOLERANCE_MILLIS * 2;
+        while (SystemClock.uptimeMillis() < end) {
+            runOnMain(() -> {
+                mTitle = mTitle + "x";
+                mSaver.onEdited();
+                if (firstEdit[0] == 0) {
+                    firstEdit[0] = SystemClock.uptimeMillis();
+                }
+            });
+            Thread.sleep(NoteAutosaver.DEBOUNCE_MILLIS / 4);
+        }
+        flush();
+
+        assertEquals(1, mWrites.size());
+        assertUpdate(mWrites.get(0), NotePad.Notes.COLUMN_NAME_TITLE,
+                NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE);
+        assertElapsed(NoteAutosaver.MAX_DELAY_MILLIS, firstEdit[0], mWrites.get(0).time);
+    }
+
+    /**
+     * 两次写入至少间隔 {@link NoteAutosaver#MIN_INTERVAL_MILLIS}，即使输入早已停顿
+     */
+    public void testMinInterval() throws Exception {
+        runOnMain(() -> {
+            mTitle = "新标题";
+            mSaver.save();
+            mTitle = "新标题2";
+            mSaver.onEdited();
+        });
+        flush();
+        assertEquals(1, mWrites.size());
+
+        Thread.sleep(NoteAutosaver.DEBOUNCE_MILLIS + TOLERANCE_MILLIS);
+        flush();
+        assertEquals(1, mWrites.size());
+
+        Thread.sleep(NoteAutosaver.MIN_INTERVAL_MILLIS);
+        flush();
+        assertEquals(2, mWrites.size());
+        assertEquals("新标题2", mWrites.get(1).values.getAsString(NotePad.Notes.COLUMN_NAME_TITLE));
+        assertElapsed(NoteAutosaver.MIN_INTERVAL_MILLIS, mWrites.get(0).time,
+                mWrites.get(1).time);
+    }
+
+    /**
+     * 写入线程忙时排队的保存合并为一次：正文区间按保存顺序写入，其他列只写入最新的值
+     */
+    public void testQueuedSavesCoalesce() throws Exception {
+        CountDownLatch busy = blockWriter();
+        runOnMain(() -> {
+            mTitle = "第一次";
+            mSaver.save();
+            mDocument.replace(0, 2, "晚上");
+            mSaver.save();
+            mDocument.replace(4, 4, "。");
+            mTitle = "第二次";
+            mSaver.save();
+        });
+        busy.countDown();
+        flush();
+
+        assertEquals(3, mWrites.size());
+        assertPatch(mWrites.get(0), 0, 2, "晚上");
+        assertPatch(mWrites.get(1), 4, 0, "。");
+        assertUpdate(mWrites.get(2), NotePad.Notes.COLUMN_NAME_TITLE,
+                NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE);
+        assertEquals("第二次", mWrites.get(2).values.getAsString(NotePad.Notes.COLUMN_NAME_TITLE));
+        assertEquals("晚上开会。", mDocument.toString());
+    }
+
+    /**
+     * 撤销修改时排队的整篇正文还没写入，之后的修改区间直接应用到它上面，只写入一次整篇正文
+     */
+    public void testPatchAppliedToQueuedRevert() throws Exception {
+        CountDownLatch busy = blockWriter();
+        runOnMain(() -> {
+            mDocument.replace(0, 2, "晚上");
+            mSaver.save();
+
+            // 撤销：写入原来的正文，编辑器回到原来的内容
+            ContentValues original = new ContentValues();
+            original.put(NotePad.Notes.COLUMN_NAME_NOTE, "早上开会");
+            mSaver.write(Collections.<PieceTable.Edit>emptyList(), original);
+            mDocument.reset("早上开会");
+
+            mDocument.replace(4, 4, "，带电脑");
+            mSaver.save();
+        });
+        busy.countDown();
+        flush();
+
+        assertEquals(1, mWrites.size());
+        assertUpdate(mWrites.get(0), NotePad.Notes.COLUMN_NAME_NOTE,
+                NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE);
+        assertEquals("早上开会，带电脑",
+                mWrites.get(0).values.getAsString(NotePad.Notes.COLUMN_NAME_NOTE));
+    }
+
+    /**
+     * 替换区间失败后，失败的区间排在已排队的区间前面，在下一次写入中按顺序重新写入，
+     * 没有写入的字段也一起写入
+     */
+    public void testFailedPatchRetriedWithQueuedSave() throws Exception {
+        mFailPatches = true;
+        runOnMain(() -> {
+            mTitle = "新标题";
+            mDocument.replace(0, 2, "晚上");
+            mSaver.save();
+        });
+        assertTrue(mPatchEntered.await(10, TimeUnit.SECONDS));
+        runOnMain(() -> {
+            mDocument.replace(4, 4, "。");
+            mSaver.save();
+        });
+        mFailPatches = false;
+        mPatchGate.countDown();
+        flush();
+
+        assertEquals(3, mWrites.size());
+        assertPatch(mWrites.get(0), 0, 2, "晚上");
+        assertPatch(mWrites.get(1), 4, 0, "。");
+        assertUpdate(mWrites.get(2), NotePad.Notes.COLUMN_NAME_TITLE,
+                NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE);
+        assertEquals("晚上开会。", mStored);
+
+        // 重新写入已成功，不再另外保存
+        Thread.sleep(NoteAutosaver.MIN_INTERVAL_MILLIS + TOLERANCE_MILLIS);
+        getInstrumentation().waitForIdleSync();
+        flush();
+        assertEquals(3, mWrites.size());
+    }
+
+    /**
+     * 正文已全部读出时，替换区间失败后按正常的时机再保存一次整篇正文；之后的保存恢复只写入区间
+     */
+    public void testFailedPatchFallsBackToFullBody() throws Exception {
+        mFailPatches = true;
+        runOnMain(() -> {
+            mDocument.replace(0, 2, "晚上");
+            mSaver.save();
+        });
+        assertTrue(mPatchEntered.await(10, TimeUnit.SECONDS));
+        mFailPatches = false;
+        mPatchGate.countDown();
+        flush();
+        assertEquals(0, mWrites.size());
+
+        Thread.sleep(NoteAutosaver.MIN_INTERVAL_MILLIS + TOLERANCE_MILLIS);
+        getInstrumentation().waitForIdleSync();
+        flush();
+        assertEquals(1, mWrites.size());
+        assertUpdate(mWrites.get(0), NotePad.Notes.COLUMN_NAME_NOTE,
+                NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE);
+        assertEquals("晚上开会", mStored);
+
+        runOnMain(() -> {
+            mDocument.replace(0, 0, "今天");
+            mSaver.save();
+        });
+        flush();
+        assertEquals(3, mWrites.size());
+        assertPatch(mWrites.get(1), 0, 0, "今天");
+        assertUpdate(mWrites.get(2), NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE);
+        assertEquals("今天晚上开会", mStored);
+    }
+
+    /**
+     * 正文还在分块读取时替换区间失败：编辑器中只有开头，不能写入整篇正文，
+     * 重新写入失败的区间，数据库中还没读出的部分保持不变；下一块按数据库中的位置读取
+     */
+    public void testFailedPatchWhileLoading() throws Exception {
+        StringBuilder tail = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            tail.append("\n第 ").append(i).append(" 行");
+        }
+        mStored = "早上开会" + tail;
+        mComplete = false;
+
+        mFailPatches = true;
+        final int[] saved = new int[1];
+        runOnMain(() -> {
+            mDocument.replace(0, 2, "今天晚上");
+            mSaver.save();
+            saved[0] = mDocument.savedCodePoints();
+        });
+        assertTrue(mPatchEntered.await(10, TimeUnit.SECONDS));
+        mFailPatches = false;
+        mPatchGate.countDown();
+        flush();
+        assertEquals(6, saved[0]);
+
+        // 失败的区间还没写入，已读出的开头在数据库中仍是原来的4个码点
+        final int[] stored = new int[1];
+        NoteAutosaver.execute(() -> stored[0] = mSaver.storedOffset(saved[0]));
+        flush();
+        assertEquals(4, stored[0]);
+
+        Thread.sleep(NoteAutosaver.MIN_INTERVAL_MILLIS + TOLERANCE_MILLIS);
+        getInstrumentation().waitForIdleSync();
+        flush();
+        for (Write write : mWrites) {
+            assertTrue(write.values == null
+                    || !write.values.containsKey(NotePad.Notes.COLUMN_NAME_NOTE));
+        }
+        assertPatch(mWrites.get(0), 0, 2, "今天晚上");
+        assertEquals(6 + tail.length(), mStored.length());
+        assertEquals("今天晚上开会" + tail, mStored);
+
+        NoteAutosaver.execute(() -> stored[0] = mSaver.storedOffset(saved[0]));
+        flush();
+        assertEquals(6, stored[0]);
+    }
+
+    /**
+     * 让写入线程等待，直到返回的计数器归零
+     */
+    private static CountDownLatch blockWriter() {
+        final CountDownLatch busy = new CountDownLatch(1);
+        NoteAutosaver.execute(() -> {
+            try {
+                busy.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        return busy;
+    }
+
+    /**
+     * 等待写入线程执行完已提交的写入
+     */
+    private static void flush() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        NoteAutosaver.execute(done::countDown);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    private void runOnMain(Runnable task) {
+        getInstrumentation().runOnMainSync(task);
+    }
+
+    private static List<PieceTable.Edit> toEdits(Bundle extras) {
+        int[] starts = extras.getIntArray(NotePad.Notes.EXTRA_PATCH_STARTS);
+        int[] lengths = extras.getIntArray(NotePad.Notes.EXTRA_PATCH_LENGTHS);
+        String[] texts = extras.getStringArray(NotePad.Notes.EXTRA_PATCH_TEXTS);
+        List<PieceTable.Edit> edits = new ArrayList<>();
+        for (int i = 0; i < starts.length; i++) {
+            edits.add(new PieceTable.Edit(starts[i], lengths[i], texts[i]));
+        }
+        return edits;
+    }
+
+    private static void assertPatch(Write write, int start, int length, String text) {
+        assertEquals(NotePad.Notes.METHOD_PATCH_NOTE, write.method);
+        assertTrue(Arrays.equals(new int[] {start},
+                write.extras.getIntArray(NotePad.Notes.EXTRA_PATCH_STARTS)));
+        assertTrue(Arrays.equals(new int[] {length},
+                write.extras.getIntArray(NotePad.Notes.EXTRA_PATCH_LENGTHS)));
+        assertTrue(Arrays.equals(new String[] {text},
+                write.extras.getStringArray(NotePad.Notes.EXTRA_PATCH_TEXTS)));
+    }
+
+    private static void assertUpdate(Write write, String... keys) {
+        assertNull(write.method);
+        assertEquals(keys.length, write.values.size());
+        for (String key : keys) {
+            assertTrue(key, write.values.containsKey(key));
+        }
+    }
+
+    private static void assertElapsed(long expected, long from, long to) {
+        long elapsed = to - from;
+        assertTrue(elapsed + " ms, expected " + expected + " ms",
+                elapsed >= expected - 50 && elapsed <= expected + TOLERANCE_MILLIS);
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.android.notepad;
+
+import android.content.ContentValues;
+import android.net.Uri;
+import android.test.ProviderTestCase2;
+import android.test.mock.MockContentResolver;
+import android.util.Log;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 编辑界面分块读取笔记：从开始读取到显示出正文开头（可以操作）的延迟与正文长度无关，
+ * 10MB的正文随后分块读完，拼接结果与原文一致。
+ */
+public class NoteLoaderBenchmark extends ProviderTestCase2<NotePadProvider> {
+
+    private static final String TAG = "NoteLoaderBenchmark";
+
+    private MockContentResolver mMockResolver;
+
+    public NoteLoaderBenchmark() {
+        super(NotePadProvider.class, NotePad.AUTHORITY);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mMockResolver = getMockContentResolver();
+    }
+
+    public void testOpenToInteractive() throws InterruptedException {
+        String note = "买牛奶\n😀 记得带伞";
+        long[] small = load(insertNote("短笔记", note), note);
+
+        StringBuilder log = new StringBuilder(10 * 1024 * 1024);
+        for (int line = 0; log.length() < 10 * 1024 * 1024; line++) {
+            log.append("2024-05-01 12:00:00.000 I/NotePad: 第 ").append(line).append(" 行\n");
+        }
+        note = log.toString();
+        long[] large = load(insertNote("日志", note), note);
+
+        Log.i(TAG, "small note: interactive " + small[0] / 1000 + " us, loaded "
+                + small[1] / 1000 + " us; 10 MB note: interactive " + large[0] / 1000
+                + " us, loaded " + large[1] / 1000000 + " ms in " + large[2] + " chunks");
+        assertEquals(0, small[2]);
+        assertTrue(large[2] > 1);
+        // 打开大笔记只多读一次长度，可以操作的延迟不应随正文增长；留出测量噪声的余量
+        assertTrue(large[0] / 1000 + " us vs " + small[0] / 1000 + " us",
+                large[0] < small[0] * 5 + 50000000L);
+    }
+
+    /**
+     * 读取一条笔记并核对内容
+     * @return 可以操作的耗时、读完的耗时（纳秒）以及读取正文开头之后的块数
+     */
+    private long[] load(Uri uri, String expected) throws InterruptedException {
+        final long[] result = new long[3];
+        final StringBuilder body = new StringBuilder();
+        final CountDownLatch done = new CountDownLatch(1);
+        final long start = System.nanoTime();
+        final NoteLoader[] loader = new NoteLoader[1];
+        loader[0] = new NoteLoader(mMockResolver, uri, null, new NoteLoader.Listener() {
+            // 已读出的码点数，即下一块的起点
+            int mCodePoints;
+
+            @Override
+            public void onHeader(NoteLoader.Header header) {
+                result[0] = System.nanoTime() - start;
+                if (header == null) {
+                    done.countDown();
+                    return;
+                }
+                body.append(header.body);
+                mCodePoints = header.body.codePointCount(0, header.body.length());
+                if (header.complete) {
+                    done.countDown();
+                } else {
+                    loader[0].loadNext(mCodePoints);
+                }
+            }
+
+            @Override
+            public void onChunk(String chunk, boolean last) {
+                result[2]++;
+                body.append(chunk);
+                mCodePoints += chunk.codePointCount(0, chunk.length());
+                if (last) {
+                    done.countDown();
+                } else {
+                    loader[0].loadNext(mCodePoints);
+                }
+            }
+
+            @Override
+            public void onChunkFailed() {
+                done.countDown();
+            }
+        });
+        loader[0].start();
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        result[1] = System.nanoTime() - start;
+        assertEquals(expected.length(), body.length());
+        assertEquals(expected, body.toString());
+        return result;
+    }
+
+    private Uri insertNote(String title, String note) {
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_TITLE, title);
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, note);
+        return mMockResolver.insert(NotePad.Notes.CONTENT_URI, values);
+    }
+}
@@ -22,6 +22,7 @@ import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Bundle;
 import android.os.ParcelFileDescriptor;
 import android.test.ProviderTestCase2;
 import android.test.mock.MockContentResolver;
@@ -31,8 +32,10 @@ import java.io.FileDescriptor;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
+import java.util.List;
 
 /*
  */
@@ -790,6 +793,701 @@ public class NotePadProviderTest extends ProviderTestCase2<NotePadProvider> {
 
     }
 
+    /*
+     * Tests ranked search: the provider should return the notes matching the query ordered by
+     * BM25 score, with title matches outranking body-only matches, and should keep its term
+     * statistics current as notes are updated and deleted.
+     */
+    public void testRankedSearch() {
+        Uri bodyMatch = insertNote("Shopping", "weekly report draft, weekly report again");
+        Uri titleMatch = insertNote("Weekly report", "summary of this week");
+        insertNote("Diary", "nothing relevant here");
+
+        Uri rankedUri = NotePad.Notes.CONTENT_URI.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_RANKED, "weekly report")
+                .build();
+
+        Cursor cursor = mMockResolver.query(rankedUri, new String[] { NotePad.Notes._ID },
+                null, null, null);
+        assertEquals(2, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(ContentUris.parseId(titleMatch), cursor.getLong(0));
+        cursor.moveToNext();
+        assertEquals(ContentUris.parseId(bodyMatch), cursor.getLong(0));
+        cursor.close();
+
+        // Updates and deletes must be reflected without rebuilding the index.
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, "groceries");
+        mMockResolver.update(bodyMatch, values, null, null);
+        mMockResolver.delete(titleMatch, null, null);
+
+        cursor = mMockResolver.query(rankedUri, new String[] { NotePad.Notes._ID },
+                null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+     * Tests the category facets of a ranked search: every match is counted by category, even
+     * the ones beyond the returned top results, and a category change is reflected.
+     */
+    public void testRankedSearchFacets() {
+        CategoryMap categories = CategoryMap.query(mMockResolver, false);
+        long work = categories.idOf("工作");
+        Uri moved = insertNote("Weekly report", "", 1000, "工作");
+        insertNote("Report draft", "", 2000, "工作");
+        insertNote("Travel report", "", 3000, "旅行");
+        insertNote("Diary", "nothing relevant here");
+        long travel = CategoryMap.query(mMockResolver, false).idOf("旅行");
+
+        Uri rankedUri = NotePad.Notes.CONTENT_URI.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_RANKED, "report")
+                .build();
+        CategoryCounts facets = queryFacets(rankedUri);
+        assertEquals(3, facets.total());
+        assertEquals(2, facets.count(work));
+        assertEquals(1, facets.count(travel));
+        assertEquals(0, facets.count(NotePad.Categories.DEFAULT_ID));
+
+        // A cached result carries the same facets.
+        assertEquals(3, queryFacets(rankedUri).total());
+
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_CATEGORY_ID, travel);
+        mMockResolver.update(moved, values, null, null);
+        facets = queryFacets(rankedUri);
+        assertEquals(1, facets.count(work));
+        assertEquals(2, facets.count(travel));
+
+        // Deleting a category moves its notes to the default category.
+        mMockResolver.delete(ContentUris.withAppendedId(
+                NotePad.Categories.CONTENT_ID_URI_BASE, travel), null, null);
+        facets = queryFacets(rankedUri);
+        assertEquals(2, facets.count(NotePad.Categories.DEFAULT_ID));
+
+        // With a caller selection the index cannot tell which matches qualify.
+        Cursor cursor = mMockResolver.query(rankedUri, new String[] { NotePad.Notes._ID },
+                NotePad.Notes.COLUMN_NAME_TITLE + " = ?", new String[] { "Report draft" }, null);
+        assertNull(CategoryCounts.fromExtras(cursor.getExtras()));
+        cursor.close();
+    }
+
+    /*
+     * Tests a ranked search limited to some categories: the top results are chosen among the
+     * notes of those categories, so a weaker match is not pushed out by more than the result
+     * limit of stronger matches elsewhere, while the facets still count every category.
+     */
+    public void testRankedSearchWithinCategories() {
+        ContentValues values = new ContentValues();
+        for (int i = 0; i < 300; i++) {
+            values.put(NotePad.Notes.COLUMN_NAME_TITLE, "Report " + i);
+            values.put(NotePad.Notes.COLUMN_NAME_NOTE, "report report");
+            mDb.insertOrThrow(NotePad.Notes.TABLE_NAME, null, values);
+        }
+        Uri travelNote = insertNote("Trip", "a report somewhere in a long travel diary", 1000,
+                "旅行");
+        long travel = CategoryMap.query(mMockResolver, false).idOf("旅行");
+
+        Uri.Builder rankedUri = NotePad.Notes.CONTENT_URI.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_RANKED, "report");
+        Cursor cursor = mMockResolver.query(rankedUri.build(),
+                new String[] { NotePad.Notes._ID }, null, null, null);
+        assertEquals(200, cursor.getCount());
+        while (cursor.moveToNext()) {
+            assertTrue(ContentUris.parseId(travelNote) != cursor.getLong(0));
+        }
+        cursor.close();
+
+        rankedUri.appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_RANKED_CATEGORIES,
+                CategoryFilter.of(travel).joinedIds());
+        cursor = mMockResolver.query(rankedUri.build(), new String[] { NotePad.Notes._ID },
+                null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(ContentUris.parseId(travelNote), cursor.getLong(0));
+        CategoryCounts facets = CategoryCounts.fromExtras(cursor.getExtras());
+        cursor.close();
+        assertEquals(301, facets.total());
+        assertEquals(1, facets.count(travel));
+        assertEquals(300, facets.count(NotePad.Categories.DEFAULT_ID));
+    }
+
+    private CategoryCounts queryFacets(Uri uri) {
+        Cursor cursor = mMockResolver.query(uri, new String[] { NotePad.Notes._ID },
+                null, null, null);
+        try {
+            CategoryCounts facets = CategoryCounts.fromExtras(cursor.getExtras());
+            assertNotNull(facets);
+            return facets;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+     * Tests the search snippet columns: the provider should report where the query matched and
+     * return the surrounding context with the highlight offsets already computed.
+     */
+    public void testSearchSnippets() {
+        insertNote("Groceries", "milk\nbread and butter for the week\neggs");
+        insertNote("Butter chicken", "recipe");
+
+        Uri searchUri = NotePad.Notes.CONTENT_URI.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_HIGHLIGHT, "butter")
+                .build();
+        String[] projection = {
+                NotePad.Notes.COLUMN_NAME_TITLE,
+                NotePad.Notes.COLUMN_NAME_MATCH_FIELD,
+                NotePad.Notes.COLUMN_NAME_MATCH_LINE,
+                NotePad.Notes.COLUMN_NAME_SNIPPET,
+                NotePad.Notes.COLUMN_NAME_SNIPPET_HIGHLIGHT_START,
+                NotePad.Notes.COLUMN_NAME_SNIPPET_HIGHLIGHT_END
+        };
+
+        Cursor cursor = mMockResolver.query(searchUri, projection,
+                NotePad.Notes.COLUMN_NAME_TITLE + " = ?", new String[] { "Groceries" }, null);
+        assertEquals(1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(NotePad.Notes.MATCH_FIELD_NOTE, cursor.getInt(1));
+        assertEquals(2, cursor.getInt(2));
+        String snippet = cursor.getString(3);
+        assertEquals("... and butter for ...", snippet);
+        assertEquals("butter", snippet.substring(cursor.getInt(4), cursor.getInt(5)));
+        cursor.close();
+
+        cursor = mMockResolver.query(searchUri, projection,
+                NotePad.Notes.COLUMN_NAME_TITLE + " = ?", new String[] { "Butter chicken" }, null);
+        cursor.moveToFirst();
+        // The search ignores case, so the capitalized title matches.
+        assertEquals(NotePad.Notes.MATCH_FIELD_TITLE, cursor.getInt(1));
+        snippet = cursor.getString(3);
+        assertEquals("Butter chic...", snippet);
+        assertEquals("Butter", snippet.substring(cursor.getInt(4), cursor.getInt(5)));
+        cursor.close();
+    }
+
+    /*
+     * Tests that searches ignore case, full-width forms and punctuation, and that the
+     * normalized columns follow updates.
+     */
+    public void testNormalizedSearch() {
+        Uri noteUri = insertNote("\uff25-mail \uff32\uff45\uff50\uff4f\uff52\uff54", "draft");
+        insertNote("Diary", "nothing relevant here");
+
+        Uri searchUri = NotePad.Notes.CONTENT_URI.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_QUERY, "EMAIL report")
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_HIGHLIGHT, "EMAIL report")
+                .build();
+        String[] projection = {
+                NotePad.Notes._ID,
+                NotePad.Notes.COLUMN_NAME_SNIPPET,
+                NotePad.Notes.COLUMN_NAME_SNIPPET_HIGHLIGHT_START,
+                NotePad.Notes.COLUMN_NAME_SNIPPET_HIGHLIGHT_END
+        };
+
+        Cursor cursor = mMockResolver.query(searchUri, projection, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(ContentUris.parseId(noteUri), cursor.getLong(0));
+        // The highlight is mapped back onto the original full-width text.
+        assertEquals("\uff25-mail",
+                cursor.getString(1).substring(cursor.getInt(2), cursor.getInt(3)));
+        cursor.close();
+
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_TITLE, "Letters");
+        mMockResolver.update(noteUri, values, null, null);
+
+        cursor = mMockResolver.query(searchUri, projection, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+     * Tests that repeated searches are served from the result cache and that any write
+     * invalidates it.
+     */
+    public void testSearchResultCache() {
+        Uri match = insertNote("Weekly report", "summary");
+        insertNote("Diary", "nothing relevant here");
+
+        Uri searchUri = NotePad.Notes.CONTENT_URI.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_QUERY, "report")
+                .build();
+        String[] projection = { NotePad.Notes._ID };
+
+        Cursor cursor = mMockResolver.query(searchUri, projection, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+
+        // The same search with redundant whitespace is a cache hit and returns the same rows.
+        Uri spacedUri = NotePad.Notes.CONTENT_URI.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_QUERY, "  report ")
+                .build();
+        cursor = mMockResolver.query(spacedUri, projection, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(ContentUris.parseId(match), cursor.getLong(0));
+        cursor.close();
+
+        Bundle stats = getProvider().call(NotePad.Notes.METHOD_SEARCH_CACHE_STATS, null, null);
+        assertEquals(1, stats.getLong(NotePad.Notes.EXTRA_CACHE_HITS));
+        assertEquals(1, stats.getLong(NotePad.Notes.EXTRA_CACHE_MISSES));
+        assertTrue(stats.getLong(NotePad.Notes.EXTRA_CACHE_BYTES) > 0);
+
+        // A write bumps the data version, so the next search must see the new note.
+        insertNote("Monthly report", "numbers");
+        cursor = mMockResolver.query(searchUri, projection, null, null, null);
+        assertEquals(2, cursor.getCount());
+        cursor.close();
+
+        stats = getProvider().call(NotePad.Notes.METHOD_SEARCH_CACHE_STATS, null, null);
+        assertEquals(1, stats.getLong(NotePad.Notes.EXTRA_CACHE_HITS));
+        assertEquals(2, stats.getLong(NotePad.Notes.EXTRA_CACHE_MISSES));
+    }
+
+    /*
+     * Tests that the patch call replaces only the given ranges, counts positions in code points
+     * like SQLite's substr(), and keeps the normalized column in step for searching.
+     */
+    public void testPatchNote() {
+        String original = "Alpha \uD83D\uDE00 beta gamma";
+        Uri noteUri = insertNote("Patched", original);
+        String noteId = noteUri.getLastPathSegment();
+
+        PieceTable document = new PieceTable();
+        document.reset(original);
+        // Delete "beta " (the emoji before it is two chars but one code point) and append text.
+        int beta = original.indexOf("beta");
+        document.replace(beta, beta + 5, "");
+        document.replace(document.length(), document.length(), " Zeta");
+        document.replace(0, 5, "ALPHA");
+        List<PieceTable.Edit> edits = document.changes();
+        assertEquals(3, edits.size());
+        assertEquals(8, edits.get(1).start);
+
+        Bundle result = getProvider().call(NotePad.Notes.METHOD_PATCH_NOTE, noteId,
+                NoteAutosaver.toExtras(edits));
+        assertEquals(1, result.getInt(NotePad.Notes.EXTRA_PATCH_COUNT));
+        assertEquals(document.toString(), queryNote(noteUri));
+        assertEquals("ALPHA \uD83D\uDE00 gamma Zeta", queryNote(noteUri));
+        assertEquals(1, countSearchResults("zeta"));
+
+        // Later patches are relative to the committed text.
+        document.commit();
+        document.replace(6, 8, "");
+        getProvider().call(NotePad.Notes.METHOD_PATCH_NOTE, noteId,
+                NoteAutosaver.toExtras(document.changes()));
+        assertEquals("ALPHA  gamma Zeta", queryNote(noteUri));
+
+        // A missing note is reported, not created.
+        result = getProvider().call(NotePad.Notes.METHOD_PATCH_NOTE, "9999",
+                NoteAutosaver.toExtras(edits));
+        assertEquals(0, result.getInt(NotePad.Notes.EXTRA_PATCH_COUNT));
+    }
+
+    /*
+     * Tests that Chinese titles can be found by pinyin and initials prefixes typed at any
+     * character of the title.
+     */
+    public void testPinyinSearch() {
+        Uri noteUri = insertNote("工作计划", "本周");
+        insertNote("学习笔记", "第一章");
+
+        assertEquals(1, countSearchResults("gzjh"));
+        assertEquals(1, countSearchResults("GongZuo"));
+        assertEquals(1, countSearchResults("jihua"));
+        assertEquals(1, countSearchResults("xxbj"));
+        assertEquals(0, countSearchResults("gzjhx"));
+
+        // Renaming replaces the pinyin keys.
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_TITLE, "学习计划");
+        mMockResolver.update(noteUri, values, null, null);
+        assertEquals(0, countSearchResults("gzjh"));
+        assertEquals(2, countSearchResults("xx"));
+
+        // Deleting the note removes its keys through the trigger.
+        mMockResolver.delete(noteUri, null, null);
+        Cursor keys = mDb.query(PinyinIndex.TABLE_NAME, null,
+                PinyinIndex.COLUMN_NAME_NOTE_ID + " = " + ContentUris.parseId(noteUri),
+                null, null, null, null);
+        assertEquals(0, keys.getCount());
+        keys.close();
+    }
+
+    /*
+     * Tests that the months URI returns one row per modification month, newest first, and
+     * honors the same selection as the notes list.
+     */
+    public void testMonthCounts() {
+        // Noon on January 15 and March 15, 2024, in UTC+8.
+        long january = 1705291200000L;
+        long march = 1710475200000L;
+        insertNote("January A", "", january, "工作");
+        insertNote("January B", "", january + 1000, "默认");
+        insertNote("March", "", march, "工作");
+
+        assertEquals(NotePad.Notes.MONTHS_CONTENT_TYPE,
+                mMockResolver.getType(NotePad.Notes.MONTHS_URI));
+
+        Cursor cursor = mMockResolver.query(NotePad.Notes.MONTHS_URI, null, null, null, null);
+        assertEquals(2, cursor.getCount());
+        int monthIndex = cursor.getColumnIndexOrThrow(NotePad.Notes.COLUMN_NAME_MONTH);
+        int countIndex = cursor.getColumnIndexOrThrow(NotePad.Notes._COUNT);
+        cursor.moveToFirst();
+        assertEquals("2024-03", cursor.getString(monthIndex));
+        assertEquals(1, cursor.getInt(countIndex));
+        cursor.moveToNext();
+        assertEquals("2024-01", cursor.getString(monthIndex));
+        assertEquals(2, cursor.getInt(countIndex));
+        cursor.close();
+
+        long work = CategoryMap.query(mMockResolver, false).idOf("工作");
+        cursor = mMockResolver.query(NotePad.Notes.MONTHS_URI, null,
+                NotePad.Notes.COLUMN_NAME_CATEGORY_ID + " = ?",
+                new String[] { Long.toString(work) }, null);
+        MonthSections sections = MonthSections.fromCursor(cursor);
+        cursor.close();
+        assertEquals(2, sections.count());
+        assertEquals(Arrays.asList("2024-03", "2024-01"), Arrays.asList(sections.months()));
+    }
+
+    /*
+     * Tests category CRUD: names written on notes resolve to ids, unknown names create
+     * categories, renames show up on notes, and deleting a category moves its notes to the
+     * default category, which itself cannot be deleted.
+     */
+    public void testCategories() {
+        CategoryMap presets = CategoryMap.query(mMockResolver, false);
+        assertEquals(NotePadProvider.DatabaseHelper.PRESET_CATEGORIES.length, presets.size());
+        assertEquals("默认", presets.nameOf(NotePad.Categories.DEFAULT_ID));
+        assertEquals(NotePad.Categories.CONTENT_TYPE,
+                mMockResolver.getType(NotePad.Categories.CONTENT_URI));
+
+        Uri workNote = insertNote("Plan", "", 1000, "工作");
+        Uri defaultNote = insertNote("Untitled", "");
+        Uri tripNote = insertNote("Trip", "", 2000, "旅行");
+
+        // A new name creates a category at the end of the list.
+        CategoryMap categories = CategoryMap.query(mMockResolver, true);
+        assertEquals(presets.size() + 1, categories.size());
+        assertEquals("旅行", categories.name(categories.size() - 1));
+        long travel = categories.idOf("旅行");
+        assertEquals(1, categories.count(categories.indexOf(travel)));
+        assertEquals(1, categories.count(categories.indexOf(presets.idOf("工作"))));
+        assertEquals(3, categories.total());
+        assertEquals(presets.idOf("工作"), queryCategoryId(workNote));
+        assertEquals(NotePad.Categories.DEFAULT_ID, queryCategoryId(defaultNote));
+
+        // Inserting an existing name returns the existing category.
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Categories.COLUMN_NAME_NAME, " 旅行 ");
+        assertEquals(travel,
+                ContentUris.parseId(mMockResolver.insert(NotePad.Categories.CONTENT_URI, values)));
+
+        // Renaming is visible through the notes' category column and in searches.
+        Uri travelUri = ContentUris.withAppendedId(NotePad.Categories.CONTENT_ID_URI_BASE, travel);
+        values.put(NotePad.Categories.COLUMN_NAME_NAME, "出差");
+        assertEquals(1, mMockResolver.update(travelUri, values, null, null));
+        Cursor cursor = mMockResolver.query(tripNote,
+                new String[] { NotePad.Notes.COLUMN_NAME_CATEGORY }, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("出差", cursor.getString(0));
+        cursor.close();
+        assertEquals(1, countSearchResults("category:出差"));
+        assertEquals(0, countSearchResults("category:旅行"));
+
+        // Deleting moves the notes to the default category.
+        assertEquals(1, mMockResolver.delete(travelUri, null, null));
+        assertEquals(NotePad.Categories.DEFAULT_ID, queryCategoryId(tripNote));
+        assertEquals(presets.size(), CategoryMap.query(mMockResolver, false).size());
+
+        // The default category survives an unrestricted delete.
+        assertEquals(presets.size() - 1,
+                mMockResolver.delete(NotePad.Categories.CONTENT_URI, null, null));
+        categories = CategoryMap.query(mMockResolver, true);
+        assertEquals(1, categories.size());
+        assertEquals(3, categories.count(0));
+        assertEquals(NotePad.Categories.DEFAULT_ID, queryCategoryId(workNote));
+    }
+
+    /*
+     * Tests the version 7 upgrade: category names stored on each note become ids, unknown
+     * names are added after the presets, and the pinyin cleanup trigger survives the table
+     * rebuild.
+     */
+    public void testCategoryMigration() {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        try {
+            db.execSQL("CREATE TABLE " + NotePad.Notes.TABLE_NAME + " ("
+                    + NotePad.Notes._ID + " INTEGER PRIMARY KEY,"
+                    + NotePad.Notes.COLUMN_NAME_TITLE + " TEXT,"
+                    + NotePad.Notes.COLUMN_NAME_NOTE + " TEXT,"
+                    + NotePad.Notes.COLUMN_NAME_CREATE_DATE + " INTEGER,"
+                    + NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE + " INTEGER,"
+                    + NotePad.Notes.COLUMN_NAME_CATEGORY + " TEXT DEFAULT '默认',"
+                    + NotePad.Notes.COLUMN_NAME_TITLE_NORMALIZED + " TEXT,"
+                    + NotePad.Notes.COLUMN_NAME_NOTE_NORMALIZED + " TEXT"
+                    + ");");
+            PinyinIndex.createTable(db);
+            db.execSQL("INSERT INTO notes (_id, title, category) VALUES (1, 'a', '学习')");
+            db.execSQL("INSERT INTO notes (_id, title, category) VALUES (2, 'b', '读书')");
+            db.execSQL("INSERT INTO notes (_id, title, category) VALUES (3, 'c', NULL)");
+            db.execSQL("INSERT INTO " + PinyinIndex.TABLE_NAME + " VALUES (2, 'b')");
+
+            new NotePadProvider.DatabaseHelper(getMockContext()).onUpgrade(db, 6, 7);
+
+            Cursor cursor = db.rawQuery("SELECT n._id, c.name FROM notes n"
+                    + " JOIN categories c ON c._id = n.category_id ORDER BY n._id", null);
+            assertEquals(3, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("学习", cursor.getString(1));
+            cursor.moveToNext();
+            assertEquals("读书", cursor.getString(1));
+            cursor.moveToNext();
+            assertEquals("默认", cursor.getString(1));
+            cursor.close();
+
+            cursor = db.rawQuery("SELECT position FROM categories WHERE name = '读书'", null);
+            assertTrue(cursor.moveToFirst());
+            assertEquals(NotePadProvider.DatabaseHelper.PRESET_CATEGORIES.length, cursor.getInt(0));
+            cursor.close();
+
+            db.execSQL("DELETE FROM notes WHERE _id = 2");
+            cursor = db.query(PinyinIndex.TABLE_NAME, null, null, null, null, null, null);
+            assertEquals(0, cursor.getCount());
+            cursor.close();
+        } finally {
+            db.close();
+        }
+    }
+
+    /*
+     * Tests tag CRUD, tagging notes by id or name, the tags_all and tags_any filters, and
+     * that deleting a note or a tag keeps the filters consistent.
+     */
+    public void testTags() {
+        Uri a = insertNote("a", "");
+        Uri b = insertNote("b", "");
+        Uri c = insertNote("c", "");
+        assertEquals(NotePad.Tags.CONTENT_TYPE,
+                mMockResolver.getType(NotePad.Tags.noteTagsUri(ContentUris.parseId(a))));
+
+        long red = addTag(a, "red");
+        assertEquals(red, addTag(b, " red "));
+        long blue = addTag(b, "blue");
+        assertEquals(blue, addTag(c, "blue"));
+
+        // Tagging by id, and tagging twice, are both accepted.
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Tags.COLUMN_NAME_TAG_ID, red);
+        mMockResolver.insert(NotePad.Tags.noteTagsUri(ContentUris.parseId(c)), values);
+        mMockResolver.insert(NotePad.Tags.noteTagsUri(ContentUris.parseId(c)), values);
+
+        Cursor cursor = mMockResolver.query(NotePad.Tags.CONTENT_URI,
+                new String[] { NotePad.Tags.COLUMN_NAME_NAME, NotePad.Tags._COUNT },
+                null, null, null);
+        assertEquals(2, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("blue", cursor.getString(0));
+        assertEquals(2, cursor.getInt(1));
+        cursor.moveToNext();
+        assertEquals("red", cursor.getString(0));
+        assertEquals(3, cursor.getInt(1));
+        cursor.close();
+
+        cursor = mMockResolver.query(NotePad.Tags.noteTagsUri(ContentUris.parseId(a)),
+                new String[] { NotePad.Tags._ID }, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+
+        assertEquals(3, countTagged(NotePad.Notes.QUERY_PARAMETER_TAGS_ALL, red));
+        assertEquals(2, countTagged(NotePad.Notes.QUERY_PARAMETER_TAGS_ALL, red, blue));
+        assertEquals(3, countTagged(NotePad.Notes.QUERY_PARAMETER_TAGS_ANY, red, blue));
+        assertEquals(0, countTagged(NotePad.Notes.QUERY_PARAMETER_TAGS_ALL, red, 999));
+
+        // The tag filter is combined with the caller's selection.
+        Cursor filtered = mMockResolver.query(NotePad.Notes.CONTENT_URI.buildUpon()
+                        .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_TAGS_ALL,
+                                Long.toString(red)).build(),
+                new String[] { NotePad.Notes._ID },
+                NotePad.Notes.COLUMN_NAME_TITLE + " = ?", new String[] { "b" }, null);
+        assertEquals(1, filtered.getCount());
+        filtered.close();
+
+        // Removing a tag from a note, deleting a note and deleting a tag update the filters.
+        mMockResolver.delete(NotePad.Tags.noteTagsUri(ContentUris.parseId(b)),
+                NotePad.Tags.COLUMN_NAME_TAG_ID + " = " + blue, null);
+        assertEquals(1, countTagged(NotePad.Notes.QUERY_PARAMETER_TAGS_ALL, red, blue));
+        mMockResolver.delete(c, null, null);
+        assertEquals(0, countTagged(NotePad.Notes.QUERY_PARAMETER_TAGS_ALL, red, blue));
+        assertEquals(0, countTagged(NotePad.Notes.QUERY_PARAMETER_TAGS_ANY, blue));
+        assertEquals(1, mMockResolver.delete(
+                ContentUris.withAppendedId(NotePad.Tags.CONTENT_ID_URI_BASE, red), null, null));
+        assertEquals(0, countTagged(NotePad.Notes.QUERY_PARAMETER_TAGS_ANY, red));
+
+        cursor = mMockResolver.query(NotePad.Tags.CONTENT_URI,
+                new String[] { NotePad.Tags._COUNT }, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(0, cursor.getInt(0));
+        cursor.close();
+    }
+
+    /*
+     * Filters 100,000 notes by tags whose matches form thousands of short runs and tens of
+     * thousands of isolated ids, which must not exceed SQLite's expression depth limit.
+     */
+    public void testTagFilterWith100kNotes() {
+        final int notes = 100000;
+        final long runs = 1;
+        final long odd = 2;
+        int runCount = 0;
+        int bothCount = 0;
+        int anyCount = 0;
+        int firstThousand = 0;
+        ContentValues values = new ContentValues();
+        mDb.beginTransaction();
+        try {
+            for (long tagId = runs; tagId <= odd; tagId++) {
+                values.clear();
+                values.put(NotePad.Tags._ID, tagId);
+                values.put(NotePad.Tags.COLUMN_NAME_NAME, "tag" + tagId);
+                mDb.insertOrThrow(NotePad.Tags.TABLE_NAME, null, values);
+            }
+            for (int i = 1; i <= notes; i++) {
+                values.clear();
+                values.put(NotePad.Notes._ID, i);
+                values.put(NotePad.Notes.COLUMN_NAME_TITLE, "Note " + i);
+                values.put(NotePad.Notes.COLUMN_NAME_NOTE, "");
+                mDb.insertOrThrow(NotePad.Notes.TABLE_NAME, null, values);
+
+                // Runs of nine notes out of every twenty, and every odd note.
+                boolean inRun = i % 20 < 9;
+                boolean isOdd = i % 2 == 1;
+                if (inRun) {
+                    linkTag(values, i, runs);
+                    runCount++;
+                }
+                if (isOdd) {
+                    linkTag(values, i, odd);
+                }
+                if (inRun && isOdd) {
+                    bothCount++;
+                    if (i <= 1000) {
+                        firstThousand++;
+                    }
+                }
+                if (inRun || isOdd) {
+                    anyCount++;
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+
+        assertEquals(runCount, countTagged(NotePad.Notes.QUERY_PARAMETER_TAGS_ALL, runs));
+        assertEquals(notes / 2, countTagged(NotePad.Notes.QUERY_PARAMETER_TAGS_ALL, odd));
+        assertEquals(bothCount, countTagged(NotePad.Notes.QUERY_PARAMETER_TAGS_ALL, runs, odd));
+        assertEquals(anyCount, countTagged(NotePad.Notes.QUERY_PARAMETER_TAGS_ANY, runs, odd));
+
+        // The tag filter is combined with the caller's selection and sort order.
+        Cursor cursor = mMockResolver.query(NotePad.Notes.CONTENT_URI.buildUpon()
+                        .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_TAGS_ALL,
+                                runs + "," + odd).build(),
+                new String[] { NotePad.Notes._ID },
+                NotePad.Notes._ID + " <= 1000", null, NotePad.Notes._ID + " ASC");
+        assertEquals(firstThousand, cursor.getCount());
+        while (cursor.moveToNext()) {
+            long id = cursor.getLong(0);
+            assertTrue(id % 20 < 9 && id % 2 == 1);
+        }
+        cursor.close();
+    }
+
+    private void linkTag(ContentValues values, long noteId, long tagId) {
+        values.clear();
+        values.put(NotePad.Tags.COLUMN_NAME_NOTE_ID, noteId);
+        values.put(NotePad.Tags.COLUMN_NAME_TAG_ID, tagId);
+        mDb.insertOrThrow(TagBitmapIndex.JOIN_TABLE_NAME, null, values);
+    }
+
+    private long addTag(Uri noteUri, String name) {
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Tags.COLUMN_NAME_NAME, name);
+        return ContentUris.parseId(mMockResolver.insert(
+                NotePad.Tags.noteTagsUri(ContentUris.parseId(noteUri)), values));
+    }
+
+    private int countTagged(String parameter, long... tagIds) {
+        StringBuilder ids = new StringBuilder();
+        for (long tagId : tagIds) {
+            if (ids.length() > 0) {
+                ids.append(',');
+            }
+            ids.append(tagId);
+        }
+        Cursor cursor = mMockResolver.query(NotePad.Notes.CONTENT_URI.buildUpon()
+                        .appendQueryParameter(parameter, ids.toString()).build(),
+                new String[] { NotePad.Notes._ID }, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private long queryCategoryId(Uri noteUri) {
+        Cursor cursor = mMockResolver.query(noteUri,
+                new String[] { NotePad.Notes.COLUMN_NAME_CATEGORY_ID }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private String queryNote(Uri noteUri) {
+        Cursor cursor = mMockResolver.query(noteUri,
+                new String[] { NotePad.Notes.COLUMN_NAME_NOTE }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int countSearchResults(String query) {
+        Uri searchUri = NotePad.Notes.CONTENT_URI.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_QUERY, query)
+                .build();
+        Cursor cursor = mMockResolver.query(searchUri, new String[] { NotePad.Notes._ID },
+                null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private Uri insertNote(String title, String note, long modified, String category) {
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_TITLE, title);
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, note);
+        values.put(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE, modified);
+        values.put(NotePad.Notes.COLUMN_NAME_CATEGORY, category);
+        return mMockResolver.insert(NotePad.Notes.CONTENT_URI, values);
+    }
+
+    // Inserts a note through the provider, so that the provider's search indexes see it.
+    private Uri insertNote(String title, String note) {
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_TITLE, title);
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, note);
+        return mMockResolver.insert(NotePad.Notes.CONTENT_URI, values);
+    }
+
     // A utility for converting note data to a ContentValues map.
     private static class NoteInfo {
         String title;
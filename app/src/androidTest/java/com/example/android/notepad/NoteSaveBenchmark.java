@@ -0,0 +1,151 @@
+package com.example.android.notepad;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.ProviderTestCase2;
+import android.test.mock.MockContentResolver;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 在Provider中保存10MB的正文：只写入修改区间（{@link NotePad.Notes#METHOD_PATCH_NOTE}）
+ * 与写入整篇正文的耗时对照。搜索索引已构建，保存后的正文和索引都要与修改一致。
+ *
+ * 自动保存通常每次只带一两处修改，因此逐次计量每次保存在Provider中的耗时（中位数），
+ * 并与编辑界面一侧（收集修改区间、打包参数）的耗时分开；再单独计量Provider每次保存都要对
+ * 整篇正文做的几步：分段读出、规范化、重建搜索索引，说明每次保存的开销来自哪里。
+ */
+public class NoteSaveBenchmark extends ProviderTestCase2<NotePadProvider> {
+
+    private static final String TAG = "NoteSaveBenchmark";
+
+    private static final int NOTE_LENGTH = 10 * 1024 * 1024;
+    private static final int SAVES = 9;
+    private static final int EDITS_PER_SAVE = 2;
+
+    private MockContentResolver mMockResolver;
+
+    public NoteSaveBenchmark() {
+        super(NotePadProvider.class, NotePad.AUTHORITY);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mMockResolver = getMockContentResolver();
+    }
+
+    public void testSaveLargeNote() {
+        StringBuilder log = new StringBuilder(NOTE_LENGTH);
+        for (int line = 0; log.length() < NOTE_LENGTH; line++) {
+            log.append("2024-05-01 12:00:00.000 I/NotePad: 第 ").append(line).append(" 行\n");
+        }
+        String saved = log.toString();
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_TITLE, "日志");
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, saved);
+        Uri uri = mMockResolver.insert(NotePad.Notes.CONTENT_URI, values);
+        // 先构建搜索索引，保存时同步更新索引
+        assertEquals(1, countRanked("NotePad"));
+
+        PieceTable document = new PieceTable();
+        document.reset(saved);
+        Random random = new Random(48);
+        String noteId = Long.toString(ContentUris.parseId(uri));
+        long[] editorNanos = new long[SAVES];
+        long[] patchNanos = new long[SAVES];
+        for (int save = 0; save < SAVES; save++) {
+            for (int i = 0; i < EDITS_PER_SAVE; i++) {
+                int at = random.nextInt(document.length());
+                document.replace(at, at, save == 0 && i == 0 ? " zebrafish " : "x");
+            }
+            long start = System.nanoTime();
+            List<PieceTable.Edit> edits = document.changes();
+            Bundle extras = NoteAutosaver.toExtras(edits);
+            document.commit();
+            editorNanos[save] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            Bundle result = mMockResolver.call(NotePad.Notes.CONTENT_URI,
+                    NotePad.Notes.METHOD_PATCH_NOTE, noteId, extras);
+            patchNanos[save] = System.nanoTime() - start;
+            assertEquals(1, result.getInt(NotePad.Notes.EXTRA_PATCH_COUNT));
+        }
+        String expected = document.toString();
+        long start = System.nanoTime();
+        assertEquals(expected, readNote(uri));
+        long readMillis = (System.nanoTime() - start) / 1000000;
+        assertEquals(1, countRanked("zebrafish"));
+
+        // Provider每次保存都要对整篇正文做的工作，分别计量
+        start = System.nanoTime();
+        String normalized = SearchNormalizer.normalize(expected);
+        long normalizeMillis = (System.nanoTime() - start) / 1000000;
+        assertNotNull(normalized);
+        start = System.nanoTime();
+        new Bm25Index().put(1, "日志", expected);
+        long indexMillis = (System.nanoTime() - start) / 1000000;
+
+        values.clear();
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, saved);
+        start = System.nanoTime();
+        assertEquals(1, mMockResolver.update(uri, values, null, null));
+        long updateMillis = (System.nanoTime() - start) / 1000000;
+        assertEquals(0, countRanked("zebrafish"));
+
+        Log.i(TAG, saved.length() / 1024 + " KB note, " + EDITS_PER_SAVE
+                + " ranges per save: editor " + median(editorNanos) / 1000
+                + " us, provider patch " + median(patchNanos) / 1000000
+                + " ms per save (read " + readMillis + " ms, normalize " + normalizeMillis
+                + " ms, reindex " + indexMillis + " ms); full update " + updateMillis + " ms");
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    /**
+     * 分段读出整篇正文，与编辑界面的读取方式相同
+     */
+    private String readNote(Uri uri) {
+        StringBuilder note = new StringBuilder();
+        for (int start = 0; ; start += NotePad.Notes.MAX_NOTE_CHUNK_LENGTH) {
+            Uri chunkUri = uri.buildUpon()
+                    .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_CHUNK_START,
+                            Integer.toString(start))
+                    .build();
+            Cursor c = mMockResolver.query(chunkUri,
+                    new String[] {NotePad.Notes.COLUMN_NAME_NOTE_CHUNK}, null, null, null);
+            String chunk;
+            try {
+                assertTrue(c.moveToFirst());
+                chunk = c.getString(0);
+            } finally {
+                c.close();
+            }
+            note.append(chunk);
+            if (chunk.codePointCount(0, chunk.length()) < NotePad.Notes.MAX_NOTE_CHUNK_LENGTH) {
+                return note.toString();
+            }
+        }
+    }
+
+    private int countRanked(String query) {
+        Cursor c = mMockResolver.query(NotePad.Notes.CONTENT_URI.buildUpon()
+                        .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_RANKED, query).build(),
+                new String[] {NotePad.Notes._ID}, null, null, null);
+        try {
+            return c.getCount();
+        } finally {
+            c.close();
+        }
+    }
+}
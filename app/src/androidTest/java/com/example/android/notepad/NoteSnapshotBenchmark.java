@@ -0,0 +1,209 @@
+package com.example.android.notepad;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.ProviderTestCase2;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 按列存放的列表快照：十万条笔记时由Provider的Cursor建立快照的堆占用，
+ * 与每条笔记再保留一份正文开头相对照；以及重新排序的正确性和耗时。
+ */
+public class NoteSnapshotBenchmark extends ProviderTestCase2<NotePadProvider> {
+
+    private static final String TAG = "NoteSnapshotBenchmark";
+
+    private static final int NOTES = 100000;
+    // 对照正文开头的占用时读取的条数，按条数放大到全部笔记
+    private static final int PREVIEW_SAMPLE = 10000;
+
+    // 与笔记列表的查询相同，不含正文开头
+    private static final String[] LIST_PROJECTION = {
+            NotePad.Notes._ID,
+            NotePad.Notes.COLUMN_NAME_TITLE,
+            NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE,
+            NotePad.Notes.COLUMN_NAME_CREATE_DATE,
+            NotePad.Notes.COLUMN_NAME_CATEGORY,
+            NotePad.Notes.COLUMN_NAME_CATEGORY_ID,
+    };
+
+    private static final String[] COLUMNS = {
+            NotePad.Notes._ID,
+            NotePad.Notes.COLUMN_NAME_TITLE,
+            NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE,
+            NotePad.Notes.COLUMN_NAME_CREATE_DATE,
+            NotePad.Notes.COLUMN_NAME_CATEGORY,
+    };
+
+    private static final String[] CATEGORIES = {"默认", "工作", "学习", "生活"};
+
+    private static final String[] WORDS = {
+            "今天", "会议", "记录", "需要", "确认", "下周", "的", "进度", "项目", "客户",
+            "买", "牛奶", "和", "面包", "记得", "带伞", "读书", "笔记", "第三章", "复习",
+            "meeting", "notes", "TODO", "review", "deadline", "2024-05-01", "12:30", "v2.1",
+    };
+
+    public NoteSnapshotBenchmark() {
+        super(NotePadProvider.class, NotePad.AUTHORITY);
+    }
+
+    /**
+     * 正文为几百字的真实长度，Cursor关闭后测量：快照每条笔记只保留几十字节，
+     * 再保留正文开头则每条笔记多出近一KB
+     */
+    public void testHeapFor100kNotes() {
+        insertNotes(NOTES);
+
+        long before = usedHeap();
+        Cursor cursor = getMockContentResolver().query(NotePad.Notes.CONTENT_URI,
+                LIST_PROJECTION, null, null, NotePad.Notes.DEFAULT_SORT_ORDER);
+        NoteSnapshot snapshot = NoteSnapshot.fromCursor(cursor);
+        cursor.close();
+        long columnar = usedHeap() - before;
+
+        before = usedHeap();
+        List<NoteSnapshot.Row> rows = new ArrayList<>(NOTES);
+        for (int i = 0; i < NOTES; i++) {
+            rows.add(snapshot.get(i));
+        }
+        long perRow = usedHeap() - before;
+
+        // 对照：快照中同时保留正文开头时多出的占用
+        before = usedHeap();
+        cursor = getMockContentResolver().query(NotePad.Notes.CONTENT_URI,
+                new String[] {NotePad.Notes._ID, NotePad.Notes.COLUMN_NAME_NOTE_PREVIEW},
+                NotePad.Notes._ID + " <= " + PREVIEW_SAMPLE, null, null);
+        String[] previews = new String[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            previews[i] = cursor.getString(1);
+        }
+        cursor.close();
+        long previewBytes = (usedHeap() - before) / previews.length * NOTES;
+
+        Log.i(TAG, NOTES + " notes: columnar " + columnar / NOTES + " bytes/note ("
+                + columnar / 1024 + " KB), row objects +" + perRow / NOTES + " bytes/note, "
+                + "previews would add " + previewBytes / NOTES + " bytes/note ("
+                + previewBytes / 1024 / 1024 + " MB)");
+        assertEquals(NOTES, snapshot.size());
+        assertEquals(NOTES, rows.size());
+        assertEquals(PREVIEW_SAMPLE, previews.length);
+        assertTrue("columnar " + columnar / NOTES + " bytes/note", columnar < NOTES * 128L);
+        assertTrue("columnar " + columnar + " bytes, row objects " + perRow + " bytes",
+                columnar < perRow);
+        assertTrue("previews " + previewBytes + " bytes, snapshot " + columnar + " bytes",
+                previewBytes > columnar * 4);
+    }
+
+    public void testSortedBy() {
+        NoteSnapshot snapshot = NoteSnapshot.fromCursor(newCursor(1000));
+
+        NoteSnapshot byCreated = snapshot.sortedBy(NoteSnapshot.SORT_CREATED);
+        for (int i = 1; i < byCreated.size(); i++) {
+            assertTrue(byCreated.created(i - 1) >= byCreated.created(i));
+        }
+        NoteSnapshot byTitle = byCreated.sortedBy(NoteSnapshot.SORT_TITLE);
+        for (int i = 1; i < byTitle.size(); i++) {
+            assertTrue(byTitle.title(i - 1).compareToIgnoreCase(byTitle.title(i)) <= 0);
+        }
+        NoteSnapshot byModified = byTitle.sortedBy(NoteSnapshot.SORT_MODIFIED);
+        for (int i = 1; i < byModified.size(); i++) {
+            assertTrue(byModified.modified(i - 1) >= byModified.modified(i));
+        }
+
+        // 重新排序只改变顺序，每一行的内容不变
+        assertEquals(snapshot.size(), byTitle.size());
+        NoteSnapshot.Row row = byTitle.get(0);
+        boolean found = false;
+        for (int i = 0; i < snapshot.size() && !found; i++) {
+            found = snapshot.id(i) == row.id && snapshot.get(i).sameContent(row);
+        }
+        assertTrue(found);
+        assertTrue(SnapshotDiff.compute(snapshot, byModified).changed.length == 0);
+    }
+
+    public void testSortThroughput() {
+        NoteSnapshot snapshot = NoteSnapshot.fromCursor(newCursor(NOTES));
+        snapshot.sortedBy(NoteSnapshot.SORT_TITLE);
+
+        long start = System.nanoTime();
+        NoteSnapshot byCreated = snapshot.sortedBy(NoteSnapshot.SORT_CREATED);
+        long createdMillis = (System.nanoTime() - start) / 1000000;
+        start = System.nanoTime();
+        NoteSnapshot byTitle = snapshot.sortedBy(NoteSnapshot.SORT_TITLE);
+        long titleMillis = (System.nanoTime() - start) / 1000000;
+
+        Log.i(TAG, "sort " + NOTES + " notes: created " + createdMillis + "ms, title "
+                + titleMillis + "ms");
+        assertEquals(NOTES, byCreated.size());
+        assertEquals(NOTES, byTitle.size());
+    }
+
+    private static MatrixCursor newCursor(int count) {
+        Random random = new Random(40);
+        long now = 1704135845000L;
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, count);
+        for (int i = 0; i < count; i++) {
+            long created = now - (long) (random.nextDouble() * 365 * 86400 * 1000L);
+            cursor.addRow(new Object[] {
+                    (long) i,
+                    // 标题有大量重复，快照中只保存一份
+                    "笔记 " + random.nextInt(count / 10 + 1),
+                    created + random.nextInt(86400 * 1000),
+                    created,
+                    CATEGORIES[random.nextInt(CATEGORIES.length)],
+            });
+        }
+        return cursor;
+    }
+
+    /**
+     * 在一个事务中直接写入数据库，每条笔记的正文约五六百字，超过正文开头的长度
+     */
+    private void insertNotes(int count) {
+        Random random = new Random(40);
+        long now = 1704135845000L;
+        SQLiteDatabase db = getProvider().getOpenHelperForTest().getWritableDatabase();
+        ContentValues values = new ContentValues();
+        StringBuilder note = new StringBuilder();
+        db.beginTransaction();
+        try {
+            for (int i = 1; i <= count; i++) {
+                note.setLength(0);
+                int length = 500 + random.nextInt(200);
+                while (note.length() < length) {
+                    note.append(WORDS[random.nextInt(WORDS.length)]);
+                    note.append(random.nextInt(12) == 0 ? '\n' : ' ');
+                }
+                long created = now - (long) (random.nextDouble() * 365 * 86400 * 1000L);
+                values.put(NotePad.Notes._ID, i);
+                values.put(NotePad.Notes.COLUMN_NAME_TITLE,
+                        "笔记 " + random.nextInt(count / 10 + 1));
+                values.put(NotePad.Notes.COLUMN_NAME_NOTE, note.toString());
+                values.put(NotePad.Notes.COLUMN_NAME_CREATE_DATE, created);
+                values.put(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE,
+                        created + random.nextInt(86400 * 1000));
+                values.put(NotePad.Notes.COLUMN_NAME_CATEGORY_ID,
+                        NotePad.Categories.DEFAULT_ID + random.nextInt(CATEGORIES.length));
+                db.insertOrThrow(NotePad.Notes.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            runtime.gc();
+            runtime.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
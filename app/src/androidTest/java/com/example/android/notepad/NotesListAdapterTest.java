@@ -0,0 +1,380 @@
+package com.example.android.notepad;
+
+import android.os.Debug;
+import android.os.Looper;
+import android.test.InstrumentationTestCase;
+import android.text.Spanned;
+import android.text.TextPaint;
+import android.text.style.StyleSpan;
+import android.view.View;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 笔记列表适配器的绑定检查：预览行（正文开头在后台按需读取）、时间文本，
+ * 以及滚动时绑定列表项的对象分配数。
+ */
+public class NotesListAdapterTest extends InstrumentationTestCase {
+
+    // 2024-01-02 03:04:05 东八区
+    private static final long TIME = 1704135845000L;
+
+    private static final int WARMUP_BINDS = 200;
+    private static final int MEASURED_BINDS = 1000;
+
+    // 除了把显示的文字设置到控件上（TextView内部的分配，例如单行显示的转换）以外，
+    // 每次绑定允许的分配数
+    private static final int ALLOCATION_BUDGET_PER_BIND = 0;
+
+    // 笔记ID从这里开始：127以上的ID装箱时会新建 Long，绑定中的装箱因此会计入分配数
+    private static final long FIRST_ID = 1001;
+
+    private NotesListAdapter mAdapter;
+    private ListView mListView;
+    private View mView;
+    private NoteSnapshot mSnapshot;
+
+    // 代替Provider提供正文开头，并记录读取的次数和是否在主线程读取
+    private final Map<Long, String> mNotes = new HashMap<>();
+    private final AtomicInteger mLoads = new AtomicInteger();
+    private volatile boolean mLoadedOnMainThread;
+    private final PreviewLayout.TextSource mSource = ids -> {
+        mLoads.incrementAndGet();
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            mLoadedOnMainThread = true;
+        }
+        Map<Long, String> texts = new HashMap<>();
+        for (long id : ids) {
+            if (mNotes.containsKey(id)) {
+                texts.put(id, mNotes.get(id));
+            }
+        }
+        return texts;
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        StringBuilder longNote = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            longNote.append("第").append(i).append("行：这一行的正文比三十个字符的预览宽度更长一些，需要折行显示\n");
+        }
+        mSnapshot = NoteSnapshot.of(Arrays.asList(
+                row(FIRST_ID, "Short", "one\n\ntwo", "工作"),
+                row(FIRST_ID + 1, "Long", longNote.toString(), null),
+                row(FIRST_ID + 2, "", "", "生活"),
+                match(FIRST_ID + 3, "Butter", 12, "Butter chicken", 7, 14),
+                match(FIRST_ID + 4, "Chicken", 3, "Chicken soup", 0, 7)));
+
+        getInstrumentation().runOnMainSync(() -> {
+            mListView = new ListView(getInstrumentation().getTargetContext());
+            mAdapter = new NotesListAdapter(getInstrumentation().getTargetContext(), mListView,
+                    mSource);
+            mView = mAdapter.newView(mListView);
+            mAdapter.setSnapshot(mSnapshot);
+        });
+    }
+
+    /**
+     * 在测试线程（相当于预渲染线程）读出所有行的正文开头
+     */
+    private void loadPreviews() {
+        List<NoteSnapshot.Row> rows = new ArrayList<>();
+        for (int i = 0; i < mSnapshot.size(); i++) {
+            rows.add(mSnapshot.get(i));
+        }
+        mAdapter.previewLayout().load(rows);
+    }
+
+    /**
+     * 快照中没有正文：绑定时正文开头还没读出就先空着，不在主线程读取；
+     * 预渲染一次查询读出这一段的正文开头，之后重新绑定显示预览
+     */
+    public void testPreviewLoadedLazily() throws Exception {
+        final NotesListAdapter.ViewHolder holder = (NotesListAdapter.ViewHolder) mView.getTag();
+        bindRow(0);
+        assertTrue(holder.previewPending);
+        assertEquals("", text(holder.lines[0]));
+        assertEquals(0, mLoads.get());
+
+        getInstrumentation().runOnMainSync(() ->
+                mAdapter.prerenderer().prefetch(mSnapshot, 0, mSnapshot.size()));
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!mAdapter.previewLayout().hasText(mSnapshot.get(mSnapshot.size() - 1))
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, mLoads.get());
+        assertFalse(mLoadedOnMainThread);
+
+        bindRow(0);
+        assertFalse(holder.previewPending);
+        assertEquals("one", text(holder.lines[0]));
+
+        // 已读出的正文不再重复读取
+        getInstrumentation().runOnMainSync(() ->
+                mAdapter.prerenderer().prefetch(mSnapshot, 0, mSnapshot.size()));
+        Thread.sleep(200);
+        assertEquals(1, mLoads.get());
+    }
+
+    public void testBindPreviewAndTimes() {
+        final NotesListAdapter.ViewHolder holder = (NotesListAdapter.ViewHolder) mView.getTag();
+        loadPreviews();
+
+        bindRow(0);
+        assertEquals("one", text(holder.lines[0]));
+        assertEquals("two", text(holder.lines[1]));
+        assertEquals("", text(holder.lines[2]));
+        assertEquals(View.INVISIBLE, holder.ellipsis.getVisibility());
+        assertEquals("创建时间：2024-01-02 03:04:05", text(holder.createTime));
+        assertEquals("修改时间：2024-01-02 03:04:05", text(holder.modifyTime));
+        assertEquals("工作", text(holder.category));
+
+        bindRow(1);
+        assertEquals(PreviewLayout.FALLBACK_LINE_LENGTH, text(holder.lines[0]).length());
+        assertEquals(View.VISIBLE, holder.ellipsis.getVisibility());
+        assertEquals("默认", text(holder.category));
+
+        bindRow(2);
+        assertEquals("暂无正文内容", text(holder.lines[0]));
+        assertEquals("", text(holder.lines[1]));
+        assertEquals(View.GONE, holder.ellipsis.getVisibility());
+    }
+
+    /**
+     * 有画笔和宽度时按实际显示宽度折行：窄字符每行放下的字符更多
+     */
+    public void testPreviewMeasuredByWidth() {
+        TextPaint paint = new TextPaint();
+        paint.setTextSize(40);
+        float width = paint.measureText("WWWWW");
+
+        PreviewLayout.Preview wide = PreviewLayout.layout("WWWWWWWWWWWW", 1, paint, width, 3);
+        assertEquals(3, wide.lineCount);
+        assertEquals(5, wide.ends[0] - wide.starts[0]);
+        assertFalse(wide.ellipsis);
+
+        PreviewLayout.Preview narrow = PreviewLayout.layout("iiiiiiiiiiii", 1, paint, width, 3);
+        assertTrue(narrow.ends[0] - narrow.starts[0] > 5);
+
+        PreviewLayout.Preview lines = PreviewLayout.layout("a\n\nb\nc\nd", 1, paint, width, 3);
+        assertEquals(3, lines.lineCount);
+        assertEquals(3, lines.starts[1]);
+        assertTrue(lines.ellipsis);
+    }
+
+    /**
+     * 后台预渲染之后，预览和搜索高亮都可以直接取用
+     */
+    public void testPrerenderInBackground() throws Exception {
+        TextPaint paint = new TextPaint();
+        paint.setTextSize(40);
+        PreviewLayout previewLayout = new PreviewLayout(NotesListAdapter.PREVIEW_LINES, mSource);
+        previewLayout.setMetrics(paint, paint.measureText("WWWWW"));
+        RowPrerenderer prerenderer = new RowPrerenderer(previewLayout);
+
+        NoteSnapshot.Row match = mSnapshot.get(3);
+        NoteSnapshot snapshot = NoteSnapshot.of(Arrays.asList(mSnapshot.get(1), match));
+        assertNull(previewLayout.peek(match));
+        assertNull(prerenderer.peekHighlight(match));
+
+        prerenderer.prefetch(snapshot, 0, snapshot.size());
+        long deadline = System.currentTimeMillis() + 2000;
+        while (prerenderer.peekHighlight(match) == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertNotNull(previewLayout.peek(mSnapshot.get(1)));
+        assertNotNull(previewLayout.peek(match));
+        RowPrerenderer.Highlight highlight = prerenderer.peekHighlight(match);
+        Spanned snippet = (Spanned) highlight.snippet;
+        assertEquals(1, snippet.getSpans(0, snippet.length(), StyleSpan.class).length);
+        assertEquals(7, snippet.getSpanStart(snippet.getSpans(0, snippet.length(),
+                StyleSpan.class)[0]));
+    }
+
+    public void testBindSearchLocation() {
+        NotesListAdapter.ViewHolder holder = (NotesListAdapter.ViewHolder) mView.getTag();
+        loadPreviews();
+        bindRow(3);
+        assertEquals(View.VISIBLE, holder.searchLocation.getVisibility());
+        assertEquals("搜索词在正文部分，第12行：", text(holder.searchLocation));
+        Spanned snippet = (Spanned) holder.contentMatch.getText();
+        assertEquals("Butter chicken", snippet.toString());
+        assertEquals(7, snippet.getSpanStart(snippet.getSpans(0, snippet.length(),
+                StyleSpan.class)[0]));
+
+        bindRow(0);
+        assertEquals(View.GONE, holder.searchLocation.getVisibility());
+        assertEquals(View.GONE, holder.contentMatch.getVisibility());
+    }
+
+    /**
+     * 预热后通过 {@link NotesListAdapter#getView} 交替显示两行，统计主线程上的对象分配数，
+     * 包括从快照取出行和查找预览缓存。把两行已经显示出来的文字原样设置到同样的控件上作为基准，
+     * 这部分是TextView自己的分配；绑定的分配数不应超过基准，长正文与短正文相同。
+     */
+    public void testBindAllocations() {
+        loadPreviews();
+        for (int i = 0; i < WARMUP_BINDS; i++) {
+            bindRow(i % 2);
+        }
+
+        final int[] extra = new int[1];
+        getInstrumentation().runOnMainSync(() ->
+                extra[0] = countAllocations(0, 1, false) - countAllocations(0, 1, true));
+
+        assertWithinBudget(extra[0]);
+    }
+
+    /**
+     * 搜索结果行：高亮已预渲染时绑定不分配对象；还没预渲染时只生成显示的摘要，
+     * 位置说明写入列表项的缓冲区
+     */
+    public void testBindSearchRowAllocations() throws Exception {
+        final int first = 3;
+        final int second = 4;
+        loadPreviews();
+        for (int i = 0; i < WARMUP_BINDS; i++) {
+            bindRow(i % 2 == 0 ? first : second);
+        }
+
+        final int[] extra = new int[2];
+        // 没有预渲染：基准包括每次重新生成摘要
+        getInstrumentation().runOnMainSync(() -> extra[0] =
+                countAllocations(first, second, false) - countAllocations(first, second, true));
+
+        getInstrumentation().runOnMainSync(() -> mAdapter.submit(mSnapshot));
+        long deadline = System.currentTimeMillis() + 2000;
+        while ((mAdapter.prerenderer().peekHighlight(mSnapshot.get(first)) == null
+                || mAdapter.prerenderer().peekHighlight(mSnapshot.get(second)) == null)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNotNull(mAdapter.prerenderer().peekHighlight(mSnapshot.get(first)));
+        assertNotNull(mAdapter.prerenderer().peekHighlight(mSnapshot.get(second)));
+        for (int i = 0; i < WARMUP_BINDS; i++) {
+            bindRow(i % 2 == 0 ? first : second);
+        }
+        getInstrumentation().runOnMainSync(() -> extra[1] =
+                countAllocations(first, second, false) - countAllocations(first, second, true));
+
+        assertWithinBudget(extra[0]);
+        assertWithinBudget(extra[1]);
+    }
+
+    /**
+     * 一行绑定后显示在列表项上的文字，作为分配数的基准
+     */
+    private static final class Shown {
+        final CharSequence title;
+        final CharSequence[] lines;
+        final int locationLength;
+        final CharSequence snippet;
+        final int createLength;
+        final int modifyLength;
+        final CharSequence category;
+
+        Shown(NotesListAdapter.ViewHolder holder, RowPrerenderer.Highlight highlight) {
+            title = holder.title.getText();
+            lines = new CharSequence[holder.lines.length];
+            for (int i = 0; i < lines.length; i++) {
+                lines[i] = holder.lines[i].getText();
+            }
+            boolean search = holder.row.matchField != NotePad.Notes.MATCH_FIELD_NONE;
+            locationLength = search ? holder.searchLocation.getText().length() : -1;
+            snippet = !search ? null
+                    : highlight != null ? highlight.snippet : holder.contentMatch.getText();
+            createLength = holder.createTime.getText().length();
+            modifyLength = holder.modifyTime.getText().length();
+            category = holder.category.getText();
+        }
+
+        /**
+         * 把文字原样设置回控件；没有预渲染的摘要与绑定一样每次重新生成
+         */
+        void setOn(NotesListAdapter.ViewHolder holder, NoteSnapshot.Row row,
+                   boolean prerendered) {
+            holder.title.setText(title);
+            for (int l = 0; l < lines.length; l++) {
+                holder.lines[l].setText(lines[l]);
+            }
+            if (locationLength >= 0) {
+                holder.searchLocation.setText(holder.locationBuffer, 0, locationLength);
+                holder.contentMatch.setText(prerendered ? snippet : RowPrerenderer.snippet(row));
+            }
+            holder.createTime.setText(holder.createTimeBuffer, 0, createLength);
+            holder.modifyTime.setText(holder.modifyTimeBuffer, 0, modifyLength);
+            holder.category.setText(category);
+        }
+    }
+
+    /**
+     * 统计交替显示两行、共 {@link #MEASURED_BINDS} 次的分配数
+     *
+     * @param baseline 为true时不调用 getView，而是把两行绑定后显示的文字原样设置到控件上
+     */
+    private int countAllocations(int first, int second, boolean baseline) {
+        NotesListAdapter.ViewHolder holder = (NotesListAdapter.ViewHolder) mView.getTag();
+        NoteSnapshot.Row[] rows = {mSnapshot.get(first), mSnapshot.get(second)};
+        Shown[] shown = new Shown[2];
+        boolean[] prerendered = new boolean[2];
+        for (int r = 0; r < 2; r++) {
+            mAdapter.getView(r == 0 ? first : second, mView, mListView);
+            RowPrerenderer.Highlight highlight = mAdapter.prerenderer().peekHighlight(rows[r]);
+            prerendered[r] = highlight != null;
+            shown[r] = new Shown(holder, highlight);
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        try {
+            for (int i = 0; i < MEASURED_BINDS; i++) {
+                int r = i % 2;
+                if (baseline) {
+                    shown[r].setOn(holder, rows[r], prerendered[r]);
+                } else {
+                    mAdapter.getView(r == 0 ? first : second, mView, mListView);
+                }
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        return Debug.getThreadAllocCount();
+    }
+
+    private static void assertWithinBudget(int extraAllocations) {
+        assertTrue("binding allocated " + extraAllocations + " extra objects in "
+                        + MEASURED_BINDS + " binds",
+                extraAllocations <= ALLOCATION_BUDGET_PER_BIND * MEASURED_BINDS);
+    }
+
+    private void bindRow(final int position) {
+        getInstrumentation().runOnMainSync(() -> mAdapter.getView(position, mView, mListView));
+    }
+
+    private NoteSnapshot.Row row(long id, String title, String note, String category) {
+        mNotes.put(id, note);
+        return new NoteSnapshot.Row(id, title, TIME, TIME, category,
+                NotePad.Notes.MATCH_FIELD_NONE, 0, null, 0, 0);
+    }
+
+    private NoteSnapshot.Row match(long id, String title, int line, String snippet,
+                                   int start, int end) {
+        mNotes.put(id, snippet);
+        return new NoteSnapshot.Row(id, title, TIME, TIME, null,
+                NotePad.Notes.MATCH_FIELD_NOTE, line, snippet, start, end);
+    }
+
+    private static String text(TextView view) {
+        return view.getText().toString();
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.android.notepad;
+
+import junit.framework.TestCase;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 性能计量的分桶、分位数、并发记录和开关。
+ */
+public class PerfMetricsTest extends TestCase {
+
+    private static final long MILLIS = 1000000L;
+
+    @Override
+    protected void tearDown() throws Exception {
+        PerfMetrics.setEnabled(BuildConfig.DEBUG);
+        PerfMetrics.reset();
+        super.tearDown();
+    }
+
+    public void testBucketsAndSlowCount() {
+        PerfMetrics.Histogram histogram = new PerfMetrics.Histogram("test", 16 * MILLIS);
+        histogram.record(500);              // 不足1微秒
+        histogram.record(3000);             // 3微秒：[2, 4)
+        histogram.record(10 * MILLIS);      // 10000微秒：[8192, 16384)
+        histogram.record(40 * MILLIS);
+        histogram.record(-1);               // 时钟回退的样本被忽略
+
+        assertEquals(4, histogram.count());
+        assertEquals(1, histogram.slowCount());
+        assertEquals(1, histogram.bucketCount(0));
+        assertEquals(1, histogram.bucketCount(1));
+        assertEquals(1, histogram.bucketCount(13));
+        assertEquals(1, histogram.bucketCount(15));
+        assertEquals(PerfMetrics.Histogram.BUCKETS - 1,
+                PerfMetrics.Histogram.bucket(Long.MAX_VALUE));
+    }
+
+    /**
+     * 分位数只按最近的样本计算，旧样本被环形缓冲区覆盖
+     */
+    public void testRecentPercentiles() {
+        PerfMetrics.Histogram histogram = new PerfMetrics.Histogram("test", 16 * MILLIS);
+        assertEquals(0, histogram.recentPercentile(50));
+        for (int i = 0; i < PerfMetrics.Histogram.RECENT; i++) {
+            histogram.record(100 * MILLIS);
+        }
+        for (int i = 1; i <= PerfMetrics.Histogram.RECENT; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(2L * PerfMetrics.Histogram.RECENT, histogram.count());
+        assertEquals(PerfMetrics.Histogram.RECENT / 2 * 1000L, histogram.recentPercentile(50));
+        assertEquals(PerfMetrics.Histogram.RECENT * 1000L, histogram.recentPercentile(100));
+    }
+
+    public void testConcurrentRecords() throws InterruptedException {
+        final PerfMetrics.Histogram histogram = new PerfMetrics.Histogram("test", 16 * MILLIS);
+        final int threads = 4;
+        final int records = 10000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final long nanos = (t + 1) * MILLIS;
+            new Thread(() -> {
+                for (int i = 0; i < records; i++) {
+                    histogram.record(nanos);
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+
+        assertEquals(threads * records, histogram.count());
+        long bucketed = 0;
+        for (int i = 0; i < PerfMetrics.Histogram.BUCKETS; i++) {
+            bucketed += histogram.bucketCount(i);
+        }
+        assertEquals(threads * records, bucketed);
+    }
+
+    public void testDisabledRecordsNothing() {
+        PerfMetrics.reset();
+        PerfMetrics.setEnabled(false);
+        long start = PerfMetrics.start();
+        assertEquals(0, start);
+        PerfMetrics.end(PerfMetrics.BINDS, start);
+        assertEquals(0, PerfMetrics.BINDS.count());
+
+        // dumpsys 参数可以重新开启计量
+        StringWriter out = new StringWriter();
+        PerfMetrics.dump("", new PrintWriter(out), new String[] {"perf", "on"});
+        assertTrue(PerfMetrics.isEnabled());
+        assertTrue(out.toString().contains("list frame"));
+
+        PerfMetrics.end(PerfMetrics.BINDS, PerfMetrics.start());
+        assertEquals(1, PerfMetrics.BINDS.count());
+    }
+}
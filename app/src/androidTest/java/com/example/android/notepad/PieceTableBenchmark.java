@@ -0,0 +1,185 @@
+package com.example.android.notepad;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 分段表：与 StringBuilder 对照的正确性，以及10MB正文的打开、修改和保存耗时。
+ */
+public class PieceTableBenchmark extends TestCase {
+
+    private static final String TAG = "PieceTableBenchmark";
+
+    private static final int NOTE_LENGTH = 10 * 1024 * 1024;
+    private static final int EDITS = 10000;
+
+    /**
+     * 随机替换后内容一致，修改区间应用到上次保存的正文上得到当前正文；包括代理对
+     */
+    public void testMatchesStringBuilder() {
+        Random random = new Random(48);
+        for (int round = 0; round < 100; round++) {
+            String saved = randomText(random, random.nextInt(50));
+            PieceTable document = new PieceTable();
+            document.reset(saved);
+            StringBuilder expected = new StringBuilder(saved);
+            for (int i = 0; i < 200; i++) {
+                int start = boundary(expected, random.nextInt(expected.length() + 1));
+                int end = boundary(expected,
+                        Math.min(expected.length(), start + random.nextInt(6)));
+                String text = randomText(random, random.nextInt(4));
+                expected.replace(start, end, text);
+                document.replace(start, end, text);
+                assertEquals(expected.toString(), document.toString());
+
+                if (random.nextInt(20) == 0) {
+                    assertEquals(expected.toString(),
+                            PieceTable.apply(saved, document.changes()));
+                    document.commit();
+                    saved = expected.toString();
+                    assertTrue(document.changes().isEmpty());
+                }
+            }
+            assertEquals(expected.toString(), PieceTable.apply(saved, document.changes()));
+            if (expected.length() > 0) {
+                int index = random.nextInt(expected.length());
+                assertEquals(expected.charAt(index), document.charAt(index));
+                assertEquals(expected.substring(index), document.subSequence(index,
+                        expected.length()).toString());
+            }
+        }
+    }
+
+    /**
+     * 连续输入合并为一个片段，保存时只有一个修改区间
+     */
+    public void testTypingIsOneEdit() {
+        PieceTable document = new PieceTable();
+        document.reset("hello world");
+        String typed = " there";
+        for (int i = 0; i < typed.length(); i++) {
+            document.replace(5 + i, 5 + i, typed, i, i + 1);
+        }
+        List<PieceTable.Edit> edits = document.changes();
+        assertEquals(1, edits.size());
+        assertEquals(5, edits.get(0).start);
+        assertEquals(0, edits.get(0).length);
+        assertEquals(" there", edits.get(0).text);
+        assertEquals("hello there world", document.toString());
+    }
+
+    /**
+     * 分块读取正文时，追加的已保存部分不算修改；读取期间保存的修改按数据库中的位置给出
+     */
+    public void testAppendSaved() {
+        Random random = new Random(50);
+        for (int round = 0; round < 50; round++) {
+            String stored = randomText(random, 200);
+            // Provider按码点分段，块的边界不会落在代理对中间
+            int first = boundary(stored, 50);
+            int second = boundary(stored, 120);
+            String[] chunks = {stored.substring(0, first), stored.substring(first, second),
+                    stored.substring(second)};
+            PieceTable document = new PieceTable();
+            document.reset(chunks[0]);
+            StringBuilder expected = new StringBuilder(chunks[0]);
+            for (int chunk = 1; chunk <= chunks.length; chunk++) {
+                for (int i = 0; i < 5; i++) {
+                    int start = boundary(expected, random.nextInt(expected.length() + 1));
+                    int end = boundary(expected,
+                            Math.min(expected.length(), start + random.nextInt(4)));
+                    String text = randomText(random, random.nextInt(3));
+                    expected.replace(start, end, text);
+                    document.replace(start, end, text);
+                }
+                // 保存：数据库中未读出的部分不受影响
+                stored = PieceTable.apply(stored, document.changes());
+                document.commit();
+                assertTrue(stored.startsWith(expected.toString()));
+                assertEquals(expected.codePointCount(0, expected.length()),
+                        document.savedCodePoints());
+                if (chunk < chunks.length) {
+                    document.appendSaved(chunks[chunk]);
+                    expected.append(chunks[chunk]);
+                    assertTrue(document.changes().isEmpty());
+                }
+            }
+            assertEquals(expected.toString(), stored);
+            assertEquals(stored, document.toString());
+        }
+    }
+
+    /**
+     * 10MB的日志正文：打开一次、一万次随机修改、再保存，修改和保存都与正文长度无关
+     */
+    public void testLargeNote() {
+        StringBuilder log = new StringBuilder(NOTE_LENGTH);
+        for (int line = 0; log.length() < NOTE_LENGTH; line++) {
+            log.append("2024-05-01 12:00:00.000 I/NotePad: line ").append(line)
+                    .append(" of a pasted log\n");
+        }
+        String text = log.toString();
+        PieceTable document = new PieceTable();
+
+        long start = System.nanoTime();
+        document.reset(text);
+        long openNanos = System.nanoTime() - start;
+
+        Random random = new Random(10);
+        start = System.nanoTime();
+        for (int i = 0; i < EDITS; i++) {
+            int at = random.nextInt(document.length());
+            document.replace(at, Math.min(document.length(), at + random.nextInt(3)), "x");
+        }
+        long editNanos = (System.nanoTime() - start) / EDITS;
+
+        start = System.nanoTime();
+        List<PieceTable.Edit> edits = document.changes();
+        document.commit();
+        long saveNanos = System.nanoTime() - start;
+
+        // 对照：每次保存都复制并比较整篇正文
+        start = System.nanoTime();
+        String copy = document.toString();
+        boolean changed = !copy.equals(text);
+        long fullCompareNanos = System.nanoTime() - start;
+
+        Log.i(TAG, text.length() / 1024 + " KB note: open " + openNanos / 1000000 + " ms, "
+                + editNanos / 1000 + " us/edit, save " + saveNanos / 1000000 + " ms for "
+                + edits.size() + " ranges, full copy+compare " + fullCompareNanos / 1000000
+                + " ms");
+        assertTrue(changed);
+        assertTrue(edits.size() <= EDITS);
+        assertTrue(editNanos / 1000 + " us", editNanos < 1000000L);
+        assertEquals(copy, document.toString());
+    }
+
+    /**
+     * 不落在代理对中间的位置
+     */
+    private static int boundary(CharSequence text, int index) {
+        if (index > 0 && index < text.length() && Character.isLowSurrogate(text.charAt(index))) {
+            return index - 1;
+        }
+        return index;
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            int kind = random.nextInt(10);
+            if (kind == 0) {
+                text.appendCodePoint(0x1F600 + random.nextInt(10));
+            } else if (kind == 1) {
+                text.append('中');
+            } else {
+                text.append((char) ('a' + random.nextInt(3)));
+            }
+        }
+        return text.toString();
+    }
+}
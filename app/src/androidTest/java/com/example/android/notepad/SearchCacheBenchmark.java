@@ -0,0 +1,135 @@
+package com.example.android.notepad;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.ProviderTestCase2;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 比较搜索结果缓存命中与未命中的查询耗时：结果接近 {@link SearchResultCache#MAX_IDS_PER_ENTRY} 条时，
+ * 命中只按主键取行再在内存中排序，应比重新执行搜索快；同时记录用 ORDER BY CASE 表达式
+ * 按缓存顺序排序的耗时作为对照，并验证命中与未命中返回的行和顺序一致。
+ */
+public class SearchCacheBenchmark extends ProviderTestCase2<NotePadProvider> {
+
+    private static final String TAG = "SearchCacheBenchmark";
+
+    private static final int NOTE_COUNT = 4000;
+    private static final int ROUNDS = 5;
+
+    private static final String[] PROJECTION = {
+            NotePad.Notes._ID, NotePad.Notes.COLUMN_NAME_TITLE
+    };
+
+    public SearchCacheBenchmark() {
+        super(NotePadProvider.class, NotePad.AUTHORITY);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        SQLiteDatabase db = getProvider().getOpenHelperForTest().getWritableDatabase();
+        Random random = new Random(11);
+        ContentValues values = new ContentValues();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < NOTE_COUNT; i++) {
+                // 约一半的笔记匹配，修改时间随机，结果顺序与ID顺序无关
+                // 直接写入数据库，规范化影子列由这里填写
+                String title = (i % 2 == 0 ? "工作周报 " : "旅行 ") + i;
+                String note = "第" + i + "条笔记";
+                values.put(NotePad.Notes.COLUMN_NAME_TITLE, title);
+                values.put(NotePad.Notes.COLUMN_NAME_NOTE, note);
+                values.put(NotePad.Notes.COLUMN_NAME_TITLE_NORMALIZED,
+                        SearchNormalizer.normalize(title));
+                values.put(NotePad.Notes.COLUMN_NAME_NOTE_NORMALIZED,
+                        SearchNormalizer.normalize(note));
+                values.put(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE,
+                        (long) random.nextInt(Integer.MAX_VALUE));
+                db.insertOrThrow(NotePad.Notes.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public void testCacheHitBeatsMiss() {
+        Uri searchUri = NotePad.Notes.CONTENT_URI.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_QUERY, "工作")
+                .build();
+        ContentValues touch = new ContentValues();
+
+        long[] missIds = null;
+        long[] hitIds = null;
+        long missNanos = 0;
+        long hitNanos = 0;
+        long caseNanos = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            // 任何写入都使缓存失效，下一次搜索未命中
+            touch.put(NotePad.Notes.COLUMN_NAME_NOTE, "第" + round + "次写入");
+            getMockContentResolver().update(
+                    Uri.withAppendedPath(NotePad.Notes.CONTENT_URI, "2"), touch, null, null);
+
+            long start = System.nanoTime();
+            missIds = ids(getMockContentResolver().query(searchUri, PROJECTION, null, null, null));
+            missNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            hitIds = ids(getMockContentResolver().query(searchUri, PROJECTION, null, null, null));
+            hitNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long[] caseIds = ids(queryOrderedByCase(missIds));
+            caseNanos += System.nanoTime() - start;
+            assertTrue(Arrays.equals(missIds, caseIds));
+        }
+
+        assertEquals(NOTE_COUNT / 2, missIds.length);
+        assertTrue(missIds.length <= SearchResultCache.MAX_IDS_PER_ENTRY);
+        assertTrue(Arrays.equals(missIds, hitIds));
+
+        Bundle stats = getProvider().call(NotePad.Notes.METHOD_SEARCH_CACHE_STATS, null, null);
+        assertEquals(ROUNDS, stats.getLong(NotePad.Notes.EXTRA_CACHE_HITS));
+        assertEquals(ROUNDS, stats.getLong(NotePad.Notes.EXTRA_CACHE_MISSES));
+
+        String result = missIds.length + " results: miss " + missNanos / ROUNDS
+                + "ns, hit " + hitNanos / ROUNDS + "ns, ORDER BY CASE " + caseNanos / ROUNDS + "ns";
+        Log.i(TAG, result);
+        assertTrue(result, hitNanos < missNanos);
+    }
+
+    /**
+     * 按ID取出同样的行，用 CASE 表达式排成给定顺序
+     */
+    private Cursor queryOrderedByCase(long[] ids) {
+        StringBuilder in = new StringBuilder(NotePad.Notes._ID).append(" IN (");
+        StringBuilder orderBy = new StringBuilder("CASE ").append(NotePad.Notes._ID);
+        for (int i = 0; i < ids.length; i++) {
+            in.append(i > 0 ? "," : "").append(ids[i]);
+            orderBy.append(" WHEN ").append(ids[i]).append(" THEN ").append(i);
+        }
+        SQLiteDatabase db = getProvider().getOpenHelperForTest().getReadableDatabase();
+        return db.query(NotePad.Notes.TABLE_NAME, PROJECTION, in.append(')').toString(), null,
+                null, null, orderBy.append(" END").toString());
+    }
+
+    private static long[] ids(Cursor cursor) {
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.android.notepad;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.ProviderTestCase2;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * 比较编译后的单条查询与逐词条扫描后在内存中求交集/差集的耗时，并验证两者结果一致。
+ */
+public class SearchQueryBenchmark extends ProviderTestCase2<NotePadProvider> {
+
+    private static final int NOTE_COUNT = 5000;
+    private static final int ROUNDS = 5;
+
+    private static final String[] WORDS = {
+            "工作", "周报", "草稿", "计划", "会议", "学习", "旅行", "预算", "总结", "灵感"
+    };
+
+    public SearchQueryBenchmark() {
+        super(NotePadProvider.class, NotePad.AUTHORITY);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        SQLiteDatabase db = getProvider().getOpenHelperForTest().getWritableDatabase();
+        Random random = new Random(7);
+        ContentValues values = new ContentValues();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < NOTE_COUNT; i++) {
+                values.put(NotePad.Notes.COLUMN_NAME_TITLE, randomText(random, 2));
+                values.put(NotePad.Notes.COLUMN_NAME_NOTE, randomText(random, 40));
+                db.insertOrThrow(NotePad.Notes.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public void testPlannedQueryBeatsPerTermScanning() {
+        Uri plannedUri = NotePad.Notes.CONTENT_URI.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_QUERY, "工作 AND 周报 -草稿")
+                .build();
+
+        Set<Long> planned = null;
+        Set<Long> naive = null;
+        long plannedNanos = 0;
+        long naiveNanos = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            planned = ids(getMockContentResolver().query(plannedUri,
+                    new String[] { NotePad.Notes._ID }, null, null, null));
+            plannedNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            naive = scan("工作");
+            naive.retainAll(scan("周报"));
+            naive.removeAll(scan("草稿"));
+            naiveNanos += System.nanoTime() - start;
+        }
+
+        assertEquals(naive, planned);
+        assertTrue("planned " + plannedNanos / ROUNDS + "ns, naive " + naiveNanos / ROUNDS + "ns",
+                plannedNanos < naiveNanos);
+    }
+
+    private Set<Long> scan(String term) {
+        return ids(getMockContentResolver().query(NotePad.Notes.CONTENT_URI,
+                new String[] { NotePad.Notes._ID },
+                NotePad.Notes.COLUMN_NAME_TITLE + " LIKE ? OR "
+                        + NotePad.Notes.COLUMN_NAME_NOTE + " LIKE ?",
+                new String[] { "%" + term + "%", "%" + term + "%" }, null));
+    }
+
+    private static Set<Long> ids(Cursor cursor) {
+        Set<Long> ids = new HashSet<>();
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    private static String randomText(Random random, int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            // 词频不均匀：靠前的词更常见
+            int index = (int) (WORDS.length * Math.pow(random.nextDouble(), 2));
+            text.append(WORDS[index]).append(i % 8 == 7 ? '\n' : ' ');
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.android.notepad;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * 查询语言解析与执行计划选择的测试。
+ */
+public class SearchQueryPlannerTest extends TestCase {
+
+    public void testParseBooleanQuery() {
+        assertEquals("AND[工作, 周报, -草稿]", SearchQuery.parse("工作 AND 周报 -草稿").toString());
+        assertEquals("AND[工作, 周报]", SearchQuery.parse("工作 周报").toString());
+        assertEquals("OR[AND[a, b], c]", SearchQuery.parse("a b OR c").toString());
+        assertEquals("AND[OR[a, b], c]", SearchQuery.parse("(a OR b) c").toString());
+    }
+
+    public void testParsePhrasesAndFields() {
+        assertEquals("AND[title:weekly report, category:工作]",
+                SearchQuery.parse("title:\"weekly report\" category:工作").toString());
+        // 未知前缀按普通词条处理
+        assertEquals("http://x", SearchQuery.parse("http://x").toString());
+        assertEquals("-note:draft", SearchQuery.parse("-note:draft").toString());
+    }
+
+    public void testParseIncompleteInput() {
+        // 实时搜索时输入总是不完整的，解析器不能抛出异常
+        assertNull(SearchQuery.parse(""));
+        assertNull(SearchQuery.parse("-"));
+        assertNull(SearchQuery.parse("title:"));
+        assertEquals("x", SearchQuery.parse("x AND").toString());
+        assertEquals("AND[a, b]", SearchQuery.parse("(a b").toString());
+        assertEquals("unfinished phrase", SearchQuery.parse("\"unfinished phrase").toString());
+        assertEquals("AND[a, b]", SearchQuery.parse("a) b").toString());
+    }
+
+    public void testPositiveTerms() {
+        assertEquals(Arrays.asList("工作", "周报"),
+                SearchQuery.positiveTerms(SearchQuery.parse("工作 AND 周报 -草稿 category:学习")));
+    }
+
+    public void testMostSelectiveTermEvaluatedFirst() {
+        HashMap<String, Double> frequencies = new HashMap<>();
+        frequencies.put("常见", 0.9);
+        frequencies.put("罕见", 0.01);
+        frequencies.put("中等", 0.3);
+        SearchQueryPlanner planner = new SearchQueryPlanner(
+                (field, text) -> frequencies.get(text));
+
+        SearchQueryPlanner.Plan plan = planner.compile(SearchQuery.parse("常见 中等 罕见"));
+        assertEquals(Arrays.asList("%罕见%", "%罕见%", "%中等%", "%中等%",
+                "%常见%", "%常见%"), Arrays.asList(plan.selectionArgs));
+        assertEquals(0.9 * 0.3 * 0.01, plan.estimate, 1e-9);
+    }
+
+    public void testCheapEqualityBeforeLike() {
+        SearchQueryPlanner planner = new SearchQueryPlanner((field, text) -> 0.2);
+
+        // 命中比例相同时，分类等值比较比 LIKE 扫描便宜，排在最前
+        SearchQueryPlanner.Plan plan = planner.compile(SearchQuery.parse("周报 category:工作"));
+        assertTrue(plan.selection, plan.selection.startsWith(
+                "(" + NotePad.Notes.COLUMN_NAME_CATEGORY_ID + " IN ("));
+        assertEquals("工作", plan.selectionArgs[0]);
+
+        // 只查标题比同时查标题和正文便宜
+        plan = planner.compile(SearchQuery.parse("周报 title:计划"));
+        assertEquals("%计划%", plan.selectionArgs[0]);
+    }
+
+    public void testExclusionEvaluatedLast() {
+        SearchQueryPlanner planner = new SearchQueryPlanner((field, text) -> 0.05);
+
+        // 排除条件几乎对所有行成立，无法提前过滤，应放在最后
+        SearchQueryPlanner.Plan plan = planner.compile(SearchQuery.parse("-草稿 工作"));
+        assertEquals("%工作%", plan.selectionArgs[0]);
+        assertTrue(plan.selection, plan.selection.contains(") AND (NOT ("));
+    }
+
+    public void testNormalizedColumnsMatched() {
+        SearchQueryPlanner planner = new SearchQueryPlanner(SearchQueryPlanner.DEFAULT_ESTIMATOR);
+
+        // 词条按影子列的规则规范化：全角转半角、大小写折叠、去掉标点
+        SearchQueryPlanner.Plan plan = planner.compile(SearchQuery.parse("title:Ｅ-Mail"));
+        assertTrue(plan.selection, plan.selection.startsWith(
+                NotePad.Notes.COLUMN_NAME_TITLE_NORMALIZED + " LIKE ? ESCAPE '\\'"));
+        assertEquals("%email%", plan.selectionArgs[0]);
+    }
+
+    public void testPinyinPrefixMatched() {
+        SearchQueryPlanner planner = new SearchQueryPlanner(SearchQueryPlanner.DEFAULT_ESTIMATOR);
+
+        // 纯字母的词条同时按标题拼音键的前缀范围匹配
+        SearchQueryPlanner.Plan plan = planner.compile(SearchQuery.parse("title:GZJH"));
+        assertTrue(plan.selection, plan.selection.contains(
+                " OR " + NotePad.Notes._ID + " IN (SELECT"));
+        assertEquals(Arrays.asList("%gzjh%", "gzjh", "gzji"), Arrays.asList(plan.selectionArgs));
+
+        // 含汉字的词条不可能是拼音，只匹配文本
+        plan = planner.compile(SearchQuery.parse("title:计划"));
+        assertEquals(1, plan.selectionArgs.length);
+    }
+
+    public void testLikeWildcardsEscaped() {
+        SearchQueryPlanner planner = new SearchQueryPlanner(SearchQueryPlanner.DEFAULT_ESTIMATOR);
+
+        // 只由标点组成的词条规范化后为空，退回匹配原始列，通配符按字面匹配
+        SearchQueryPlanner.Plan plan = planner.compile(SearchQuery.parse("title:%_"));
+        assertEquals(NotePad.Notes.COLUMN_NAME_TITLE + " LIKE ? ESCAPE '\\'", plan.selection);
+        assertEquals("%\\%\\_%", plan.selectionArgs[0]);
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.android.notepad;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 列表快照差异的检查：编辑、增删和重新排序时给出的操作应当最少。
+ */
+public class SnapshotDiffTest extends TestCase {
+
+    public void testIdenticalSnapshotsHaveNoChanges() {
+        NoteSnapshot snapshot = snapshot(row(3, 30), row(2, 20), row(1, 10));
+        SnapshotDiff diff = SnapshotDiff.compute(snapshot, snapshot(row(3, 30), row(2, 20),
+                row(1, 10)));
+        assertTrue(diff.isEmpty());
+    }
+
+    /**
+     * 编辑一条笔记后它移到最前面：只有这一行移动并变化，其余行不受影响
+     */
+    public void testEditedNoteMovesToTop() {
+        NoteSnapshot before = snapshot(row(5, 50), row(4, 40), row(3, 30), row(2, 20), row(1, 10));
+        NoteSnapshot after = snapshot(row(2, 60), row(5, 50), row(4, 40), row(3, 30), row(1, 10));
+
+        SnapshotDiff diff = SnapshotDiff.compute(before, after);
+        assertTrue(Arrays.equals(new int[] {0}, diff.moved));
+        assertTrue(Arrays.equals(new int[] {0}, diff.changed));
+        assertEquals(0, diff.inserted.length);
+        assertEquals(0, diff.removed.length);
+    }
+
+    public void testChangeInPlaceIsNotStructural() {
+        NoteSnapshot before = snapshot(row(3, 30), row(2, 20), row(1, 10));
+        NoteSnapshot after = snapshot(row(3, 30), new NoteSnapshot.Row(2, "renamed", 0, 20,
+                null, NotePad.Notes.MATCH_FIELD_NONE, 0, null, 0, 0), row(1, 10));
+
+        SnapshotDiff diff = SnapshotDiff.compute(before, after);
+        assertFalse(diff.isStructural());
+        assertTrue(Arrays.equals(new int[] {1}, diff.changed));
+    }
+
+    public void testInsertAndRemove() {
+        NoteSnapshot before = snapshot(row(3, 30), row(2, 20), row(1, 10));
+        NoteSnapshot after = snapshot(row(4, 40), row(3, 30), row(1, 10));
+
+        SnapshotDiff diff = SnapshotDiff.compute(before, after);
+        assertTrue(Arrays.equals(new int[] {0}, diff.inserted));
+        assertTrue(Arrays.equals(new int[] {1}, diff.removed));
+        assertEquals(0, diff.moved.length);
+        assertEquals(0, diff.changed.length);
+    }
+
+    public void testReverseMovesAllButOne() {
+        List<NoteSnapshot.Row> rows = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            rows.add(row(i, i));
+        }
+        NoteSnapshot before = NoteSnapshot.of(rows);
+        List<NoteSnapshot.Row> reversed = new ArrayList<>(rows);
+        Collections.reverse(reversed);
+
+        SnapshotDiff diff = SnapshotDiff.compute(before, NoteSnapshot.of(reversed));
+        assertEquals(99, diff.moved.length);
+        assertEquals(0, diff.changed.length);
+    }
+
+    private static NoteSnapshot snapshot(NoteSnapshot.Row... rows) {
+        return NoteSnapshot.of(Arrays.asList(rows));
+    }
+
+    private static NoteSnapshot.Row row(long id, long modified) {
+        return new NoteSnapshot.Row(id, "note " + id, 0, modified, null,
+                NotePad.Notes.MATCH_FIELD_NONE, 0, null, 0, 0);
+    }
+}
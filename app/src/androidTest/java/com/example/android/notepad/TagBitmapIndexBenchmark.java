@@ -0,0 +1,142 @@
+package com.example.android.notepad;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * 压缩位图与标签索引：与 TreeSet 对照的正确性，以及十万条笔记、一千个标签时的筛选耗时和内存。
+ */
+public class TagBitmapIndexBenchmark extends TestCase {
+
+    private static final String TAG = "TagBitmapIndexBenchmark";
+
+    private static final int NOTES = 100000;
+    private static final int TAGS = 1000;
+
+    /**
+     * 稀疏和稠密的块都与 TreeSet 的结果一致，包括数组与位图容器之间的转换
+     */
+    public void testMatchesTreeSet() {
+        Random random = new Random(44);
+        for (int round = 0; round < 20; round++) {
+            // 前几轮稀疏，后几轮单个块内超过4096个元素
+            int bound = round < 10 ? 1 << 20 : 1 << 14;
+            RoaringBitmap a = new RoaringBitmap();
+            RoaringBitmap b = new RoaringBitmap();
+            TreeSet<Integer> setA = new TreeSet<>();
+            TreeSet<Integer> setB = new TreeSet<>();
+            for (int i = 0; i < 8000; i++) {
+                int x = random.nextInt(bound);
+                a.add(x);
+                setA.add(x);
+                int y = random.nextInt(bound);
+                b.add(y);
+                setB.add(y);
+            }
+            for (int i = 0; i < 3000; i++) {
+                int x = random.nextInt(bound);
+                a.remove(x);
+                setA.remove(x);
+            }
+
+            assertEquals(setA.size(), a.cardinality());
+            assertContents(setA, a);
+            TreeSet<Integer> and = new TreeSet<>(setA);
+            and.retainAll(setB);
+            assertContents(and, RoaringBitmap.and(a, b));
+            TreeSet<Integer> or = new TreeSet<>(setA);
+            or.addAll(setB);
+            assertContents(or, RoaringBitmap.or(a, b));
+        }
+    }
+
+    public void testFilter() {
+        TagBitmapIndex index = new TagBitmapIndex();
+        index.add(1, 10);
+        index.add(1, 20);
+        index.add(1, 30);
+        index.add(2, 20);
+        index.add(2, 30);
+        index.add(3, 40);
+
+        assertNull(index.filter(null, new long[0]));
+        assertEquals(3, index.filter(new long[] {1}, null).length);
+        assertEquals(2, index.filter(new long[] {1, 2}, null).length);
+        assertEquals(0, index.filter(new long[] {1, 9}, null).length);
+        assertEquals(4, index.filter(null, new long[] {1, 3}).length);
+        long[] ids = index.filter(new long[] {2}, new long[] {1, 3});
+        assertEquals(2, ids.length);
+        assertEquals(20, ids[0]);
+        assertEquals(30, ids[1]);
+
+        // 单个标签的结果是副本，修改索引不影响已返回的位图
+        RoaringBitmap one = index.matchAll(new long[] {1});
+        index.removeNote(20);
+        assertEquals(3, one.cardinality());
+        assertEquals(2, index.count(1));
+        index.removeTag(3);
+        assertEquals(0, index.filter(null, new long[] {3}).length);
+    }
+
+    /**
+     * 每条笔记带1到5个标签，标签使用频率呈长尾分布；组合筛选应在几毫秒内完成
+     */
+    public void testFilterLatencyAndMemory() {
+        Random random = new Random(1000);
+        TagBitmapIndex index = new TagBitmapIndex();
+        long before = usedHeap();
+        long start = System.nanoTime();
+        for (int note = 1; note <= NOTES; note++) {
+            int tags = 1 + random.nextInt(5);
+            for (int i = 0; i < tags; i++) {
+                // 平方使小编号的标签更常用
+                double r = random.nextDouble();
+                index.add((long) (r * r * TAGS), note);
+            }
+        }
+        long buildNanos = System.nanoTime() - start;
+        long heap = usedHeap() - before;
+
+        long[][] queries = new long[200][];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = new long[] {random.nextInt(20), random.nextInt(TAGS)};
+        }
+        int matched = 0;
+        start = System.nanoTime();
+        for (long[] query : queries) {
+            matched += index.filter(query, null).length;
+            matched += index.filter(null, query).length;
+        }
+        long perQuery = (System.nanoTime() - start) / (queries.length * 2);
+
+        Log.i(TAG, NOTES + " notes, " + index.size() + " tags: build " + buildNanos / 1000000
+                + " ms, estimated " + index.sizeInBytes() / 1024 + " KB, heap "
+                + heap / 1024 + " KB, " + perQuery / 1000 + " us/filter, " + matched
+                + " matches");
+        // 约30万个关联，每个不超过4字节（外加稠密块的位图）
+        assertTrue(index.sizeInBytes() + " bytes", index.sizeInBytes() < 3L * 1024 * 1024);
+        assertTrue(perQuery / 1000 + " us", perQuery < 5000000L);
+    }
+
+    private static void assertContents(TreeSet<Integer> expected, RoaringBitmap actual) {
+        int[] values = actual.toArray();
+        assertEquals(expected.size(), values.length);
+        int i = 0;
+        for (int value : expected) {
+            assertEquals(value, values[i++]);
+            assertTrue(actual.contains(value));
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            runtime.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
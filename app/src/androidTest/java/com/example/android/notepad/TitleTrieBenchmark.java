@@ -0,0 +1,229 @@
+package com.example.android.notepad;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 标题前缀树的正确性检查与基准测试。
+ *
+ * 正确性：边的拆分、删除后的剪枝与合并、每个节点缓存的前 k 个标题，
+ * 以及随机插入、替换、删除后与逐条扫描所有标题的结果对照。
+ * 基准：1千 / 10万 条标题时补全一次的平均耗时，验证耗时与标题数量无关。
+ */
+public class TitleTrieBenchmark extends TestCase {
+
+    private static final String TAG = "TitleTrieBenchmark";
+
+    private static final int TOP_K = 8;
+    private static final int QUERY_COUNT = 10000;
+
+    public void testSplitPruneAndMerge() {
+        TitleTrie trie = new TitleTrie(TOP_K);
+        trie.put(1, "abc", 1);
+        assertEquals(2, trie.nodeCount());
+
+        // "abd" 在 "ab" 处拆分边：根 -> "ab" -> {"c", "d"}
+        trie.put(2, "abd", 2);
+        assertEquals(4, trie.nodeCount());
+        trie.put(3, "ab", 3);
+        assertEquals(4, trie.nodeCount());
+        assertEquals(ids(3, 2, 1), idsOf(trie.suggest("a")));
+        assertEquals(ids(3, 2, 1), idsOf(trie.suggest("ab")));
+        assertEquals(ids(2), idsOf(trie.suggest("abd")));
+        assertTrue(trie.suggest("abx").isEmpty());
+        assertTrue(trie.suggest("abcd").isEmpty());
+
+        // 删除叶子 "d"；"ab" 上还有标题，不合并
+        trie.remove(2);
+        assertEquals(3, trie.nodeCount());
+        assertEquals(ids(3, 1), idsOf(trie.suggest("ab")));
+
+        // "ab" 不再有标题且只剩一个子节点，与 "c" 合并为 "abc"
+        trie.remove(3);
+        assertEquals(2, trie.nodeCount());
+        assertEquals(ids(1), idsOf(trie.suggest("ab")));
+
+        trie.remove(1);
+        assertEquals(1, trie.nodeCount());
+        assertEquals(0, trie.size());
+        assertTrue(trie.suggest("a").isEmpty());
+    }
+
+    public void testWordPrefixesAndReplace() {
+        TitleTrie trie = new TitleTrie(TOP_K);
+        trie.put(1, "Weekly Report", 1);
+        trie.put(2, "工作 周报", 2);
+
+        assertEquals(ids(1), idsOf(trie.suggest("REP")));
+        assertEquals(ids(1), idsOf(trie.suggest("weekly r")));
+        assertEquals(ids(2), idsOf(trie.suggest("周")));
+
+        // 替换标题后旧键不再命中，树中不留下旧键的节点
+        int nodes = trie.nodeCount();
+        trie.put(1, "Monthly summary", 3);
+        assertTrue(trie.suggest("rep").isEmpty());
+        assertEquals(ids(1), idsOf(trie.suggest("sum")));
+        trie.put(1, "Weekly Report", 1);
+        assertEquals(nodes, trie.nodeCount());
+    }
+
+    public void testTopKFollowsRemovals() {
+        TitleTrie trie = new TitleTrie(2);
+        trie.put(1, "plan a", 10);
+        trie.put(2, "plan b", 20);
+        trie.put(3, "plan c", 30);
+        assertEquals(ids(3, 2), idsOf(trie.suggest("plan")));
+
+        // 删除最新的一条后，更深处被挤出缓存的标题补上来
+        trie.remove(3);
+        assertEquals(ids(2, 1), idsOf(trie.suggest("plan")));
+        assertEquals(ids(2, 1), idsOf(trie.suggest("p")));
+
+        // 修改时间变化后重新排序
+        trie.put(1, "plan a", 40);
+        assertEquals(ids(1, 2), idsOf(trie.suggest("pl")));
+    }
+
+    /**
+     * 小字母表上的随机标题使拆分、剪枝与合并频繁发生，每轮修改后与逐条扫描对照
+     */
+    public void testMatchesPrefixScan() {
+        Random random = new Random(34);
+        TitleTrie trie = new TitleTrie(TOP_K);
+        HashMap<Long, TitleTrie.Entry> titles = new HashMap<>();
+        for (int round = 0; round < 300; round++) {
+            for (int i = 0; i < 10; i++) {
+                long id = random.nextInt(60);
+                if (random.nextInt(4) == 0) {
+                    trie.remove(id);
+                    titles.remove(id);
+                } else {
+                    String title = randomTitle(random);
+                    long modified = random.nextInt(20);
+                    trie.put(id, title, modified);
+                    titles.put(id, new TitleTrie.Entry(id, title, modified));
+                }
+            }
+            assertEquals(titles.size(), trie.size());
+            for (int i = 0; i < 20; i++) {
+                String prefix = randomTitle(random);
+                prefix = prefix.substring(0, 1 + random.nextInt(Math.min(prefix.length(), 4)));
+                assertEquals(prefix, idsOf(scan(titles, prefix)), idsOf(trie.suggest(prefix)));
+            }
+        }
+
+        for (Long id : new ArrayList<>(titles.keySet())) {
+            trie.remove(id);
+        }
+        assertEquals(1, trie.nodeCount());
+    }
+
+    /**
+     * 补全的耗时只取决于前缀长度和 k，标题数量增加100倍不应明显变慢
+     */
+    public void testSuggestTimeIndependentOfSize() {
+        long small = averageSuggestNanos(1000);
+        long large = averageSuggestNanos(100000);
+        Log.i(TAG, "suggest: " + small + " ns with 1k titles, " + large + " ns with 100k titles");
+        assertTrue("suggest time grew from " + small + "ns to " + large + "ns",
+                large < small * 10 + 20000);
+    }
+
+    private static long averageSuggestNanos(int titleCount) {
+        Random random = new Random(titleCount);
+        String[] vocabulary = new String[3000];
+        for (int i = 0; i < vocabulary.length; i++) {
+            char[] chars = new char[4 + random.nextInt(6)];
+            for (int c = 0; c < chars.length; c++) {
+                chars[c] = (char) ('a' + random.nextInt(26));
+            }
+            vocabulary[i] = new String(chars);
+        }
+        TitleTrie trie = new TitleTrie(TOP_K);
+        for (int i = 0; i < titleCount; i++) {
+            trie.put(i, vocabulary[random.nextInt(vocabulary.length)] + " "
+                    + vocabulary[random.nextInt(vocabulary.length)], random.nextInt(1000000));
+        }
+
+        String[] prefixes = new String[QUERY_COUNT];
+        for (int i = 0; i < prefixes.length; i++) {
+            String word = vocabulary[random.nextInt(vocabulary.length)];
+            prefixes[i] = word.substring(0, 1 + random.nextInt(3));
+        }
+        // 预热
+        int found = 0;
+        for (String prefix : prefixes) {
+            found += trie.suggest(prefix).size();
+        }
+        long start = System.nanoTime();
+        for (String prefix : prefixes) {
+            found += trie.suggest(prefix).size();
+        }
+        long nanos = (System.nanoTime() - start) / QUERY_COUNT;
+        assertTrue(found > 0);
+        return nanos;
+    }
+
+    /**
+     * 逐条检查标题（整个标题以及每个单词开头的后缀）是否以前缀开头，按修改时间取前 k 个
+     */
+    private static List<TitleTrie.Entry> scan(HashMap<Long, TitleTrie.Entry> titles,
+                                              String prefix) {
+        String key = SearchNormalizer.fold(prefix).trim();
+        List<TitleTrie.Entry> matches = new ArrayList<>();
+        for (TitleTrie.Entry entry : titles.values()) {
+            String folded = SearchNormalizer.fold(entry.title).trim();
+            for (int i = 0; i < folded.length(); i++) {
+                if ((i == 0 || (Character.isWhitespace(folded.charAt(i - 1))
+                        && !Character.isWhitespace(folded.charAt(i))))
+                        && folded.startsWith(key, i)) {
+                    matches.add(entry);
+                    break;
+                }
+            }
+        }
+        Collections.sort(matches, new Comparator<TitleTrie.Entry>() {
+            @Override
+            public int compare(TitleTrie.Entry a, TitleTrie.Entry b) {
+                if (a.modified != b.modified) {
+                    return a.modified > b.modified ? -1 : 1;
+                }
+                return Long.compare(b.id, a.id);
+            }
+        });
+        return matches.subList(0, Math.min(TOP_K, matches.size()));
+    }
+
+    private static String randomTitle(Random random) {
+        String[] words = {"a", "ab", "abc", "abd", "b", "ba", "bab", "工", "工作", "工作计划"};
+        StringBuilder title = new StringBuilder(words[random.nextInt(words.length)]);
+        for (int i = random.nextInt(3); i > 0; i--) {
+            title.append(' ').append(words[random.nextInt(words.length)]);
+        }
+        return title.toString();
+    }
+
+    private static List<Long> idsOf(List<TitleTrie.Entry> entries) {
+        List<Long> ids = new ArrayList<>();
+        for (TitleTrie.Entry entry : entries) {
+            ids.add(entry.id);
+        }
+        return ids;
+    }
+
+    private static List<Long> ids(long... values) {
+        List<Long> ids = new ArrayList<>();
+        for (long value : values) {
+            ids.add(value);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,275 @@
+package com.example.android.notepad;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * 相关度搜索索引：对标题和正文分别统计词频，按BM25公式打分，标题命中有额外权重。
+ *
+ * 文档数、字段总长度、文档频率等统计量都随笔记写入增量维护，查询时不需要扫描全部笔记；
+ * 取前k条结果使用容量为k的小顶堆，排序代价为 O(n log k)。
+ * 中文没有空格分词，含汉字的词条按相邻两字切分（bigram）。
+ * 该类本身不是线程安全的，由 NotePadProvider 负责加锁。
+ */
+class Bm25Index {
+
+    // BM25 参数
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    // 标题命中相对于正文的权重
+    static final double TITLE_BOOST = 2.5;
+
+    /**
+     * 某个词条在一条笔记中的词频
+     */
+    private static final class Posting {
+        int titleFrequency;
+        int bodyFrequency;
+    }
+
+    /**
+     * 单条笔记的统计，用于删除和更新时回退全局统计
+     */
+    private static final class Document {
+        int titleLength;
+        int bodyLength;
+        String[] terms;
+        // 笔记所在的分类，用于统计搜索结果的分类分布
+        long categoryId;
+    }
+
+    /**
+     * 查询结果中的一项
+     */
+    private static final class ScoredNote {
+        final long noteId;
+        final double score;
+
+        ScoredNote(long noteId, double score) {
+            this.noteId = noteId;
+            this.score = score;
+        }
+    }
+
+    // 词条 -> (笔记ID -> 词频)，其大小即文档频率
+    private final HashMap<String, HashMap<Long, Posting>> mPostings = new HashMap<>();
+
+    private final HashMap<Long, Document> mDocuments = new HashMap<>();
+
+    private long mTotalTitleLength;
+    private long mTotalBodyLength;
+
+    /**
+     * 添加或替换一条笔记
+     */
+    void put(long noteId, String title, String body) {
+        put(noteId, title, body, NotePad.Categories.DEFAULT_ID);
+    }
+
+    /**
+     * 添加或替换一条笔记，并记录它所在的分类
+     */
+    void put(long noteId, String title, String body, long categoryId) {
+        remove(noteId);
+
+        List<String> titleTerms = analyze(title);
+        List<String> bodyTerms = analyze(body);
+
+        HashMap<String, Posting> postings = new HashMap<>();
+        for (String term : titleTerms) {
+            posting(postings, term).titleFrequency++;
+        }
+        for (String term : bodyTerms) {
+            posting(postings, term).bodyFrequency++;
+        }
+
+        Document document = new Document();
+        document.titleLength = titleTerms.size();
+        document.bodyLength = bodyTerms.size();
+        document.terms = postings.keySet().toArray(new String[postings.size()]);
+        document.categoryId = categoryId;
+        mDocuments.put(noteId, document);
+        mTotalTitleLength += document.titleLength;
+        mTotalBodyLength += document.bodyLength;
+
+        for (Map.Entry<String, Posting> entry : postings.entrySet()) {
+            HashMap<Long, Posting> notes = mPostings.get(entry.getKey());
+            if (notes == null) {
+                notes = new HashMap<>();
+                mPostings.put(entry.getKey(), notes);
+            }
+            notes.put(noteId, entry.getValue());
+        }
+    }
+
+    /**
+     * 从索引中移除一条笔记
+     */
+    void remove(long noteId) {
+        Document document = mDocuments.remove(noteId);
+        if (document == null) {
+            return;
+        }
+        mTotalTitleLength -= document.titleLength;
+        mTotalBodyLength -= document.bodyLength;
+        for (String term : document.terms) {
+            HashMap<Long, Posting> notes = mPostings.get(term);
+            notes.remove(noteId);
+            if (notes.isEmpty()) {
+                mPostings.remove(term);
+            }
+        }
+    }
+
+    /**
+     * 索引中的笔记数量
+     */
+    int size() {
+        return mDocuments.size();
+    }
+
+    /**
+     * 估计包含整段文本的笔记比例：取其中最稀有词条的文档频率，文本没有可索引的词条时返回1
+     */
+    double estimateSelectivity(String text) {
+        if (mDocuments.isEmpty()) {
+            return 1;
+        }
+        int minimum = Integer.MAX_VALUE;
+        for (String term : analyze(text)) {
+            HashMap<Long, Posting> notes = mPostings.get(term);
+            minimum = Math.min(minimum, notes != null ? notes.size() : 0);
+        }
+        return minimum == Integer.MAX_VALUE ? 1 : (double) minimum / mDocuments.size();
+    }
+
+    /**
+     * 按相关度查询，返回得分最高的至多 limit 条笔记ID，按得分从高到低排列
+     */
+    List<Long> search(String query, int limit) {
+        return search(query, limit, null);
+    }
+
+    /**
+     * 与 {@link #search(String, int)} 相同，同时把所有匹配的笔记（不只前 limit 条）
+     * 按分类计入 facets；打分时已经遍历了全部候选笔记，统计不需要额外的查询
+     */
+    List<Long> search(String query, int limit, CategoryCounts facets) {
+        return search(query, limit, CategoryFilter.ALL, facets);
+    }
+
+    /**
+     * 与 {@link #search(String, int, CategoryCounts)} 相同，但前 limit 条只在所选分类的笔记中选出；
+     * facets 仍统计所有分类中匹配的笔记
+     */
+    List<Long> search(String query, int limit, CategoryFilter categories,
+                      CategoryCounts facets) {
+        List<Long> result = new ArrayList<>();
+        int documentCount = mDocuments.size();
+        if (documentCount == 0 || limit <= 0) {
+            return result;
+        }
+
+        double averageTitleLength = Math.max(1.0, (double) mTotalTitleLength / documentCount);
+        double averageBodyLength = Math.max(1.0, (double) mTotalBodyLength / documentCount);
+
+        // 累加每条候选笔记的得分，候选集只来自查询词的倒排表
+        HashMap<Long, double[]> scores = new HashMap<>();
+        for (String term : new LinkedHashSet<>(analyze(query))) {
+            HashMap<Long, Posting> notes = mPostings.get(term);
+            if (notes == null) {
+                continue;
+            }
+            double idf = Math.log(1.0 + (documentCount - notes.size() + 0.5) / (notes.size() + 0.5));
+            for (Map.Entry<Long, Posting> entry : notes.entrySet()) {
+                Document document = mDocuments.get(entry.getKey());
+                Posting posting = entry.getValue();
+
+                // BM25F：先按字段长度归一化并加权词频，再做饱和
+                double frequency = TITLE_BOOST * posting.titleFrequency
+                        / (1 - B + B * document.titleLength / averageTitleLength)
+                        + posting.bodyFrequency
+                        / (1 - B + B * document.bodyLength / averageBodyLength);
+                double[] score = scores.get(entry.getKey());
+                if (score == null) {
+                    score = new double[1];
+                    scores.put(entry.getKey(), score);
+                }
+                score[0] += idf * frequency * (K1 + 1) / (frequency + K1);
+            }
+        }
+
+        if (facets != null) {
+            for (Long noteId : scores.keySet()) {
+                facets.add(mDocuments.get(noteId).categoryId);
+            }
+        }
+
+        // 容量为k的小顶堆，堆顶是当前第k名
+        PriorityQueue<ScoredNote> heap = new PriorityQueue<>(limit + 1, (a, b) -> {
+            int compare = Double.compare(a.score, b.score);
+            return compare != 0 ? compare : Long.compare(b.noteId, a.noteId);
+        });
+        for (Map.Entry<Long, double[]> entry : scores.entrySet()) {
+            if (!categories.isAll()
+                    && !categories.contains(mDocuments.get(entry.getKey()).categoryId)) {
+                continue;
+            }
+            double score = entry.getValue()[0];
+            if (heap.size() < limit) {
+                heap.add(new ScoredNote(entry.getKey(), score));
+            } else if (score > heap.peek().score) {
+                heap.poll();
+                heap.add(new ScoredNote(entry.getKey(), score));
+            }
+        }
+
+        while (!heap.isEmpty()) {
+            result.add(heap.poll().noteId);
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * 将文本切分为索引词条：普通词条原样保留，含汉字的词条切分为相邻两字
+     */
+    static List<String> analyze(String text) {
+        List<String> terms = new ArrayList<>();
+        for (String token : SearchTokenizer.tokenize(text)) {
+            if (!containsHan(token) || token.length() == 1) {
+                terms.add(token);
+                continue;
+            }
+            for (int i = 0; i + 1 < token.length(); i++) {
+                terms.add(token.substring(i, i + 2));
+            }
+        }
+        return terms;
+    }
+
+    private static boolean containsHan(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            if (Character.UnicodeBlock.of(token.charAt(i))
+                    == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Posting posting(HashMap<String, Posting> postings, String term) {
+        Posting posting = postings.get(term);
+        if (posting == null) {
+            posting = new Posting();
+            postings.put(term, posting);
+        }
+        return posting;
+    }
+}
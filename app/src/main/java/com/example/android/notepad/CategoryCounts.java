@@ -0,0 +1,91 @@
+package com.example.android.notepad;
+
+import android.os.Bundle;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 列表查询结果中每个分类的笔记数。
+ *
+ * 由 {@link NoteSnapshot#fromCursor(android.database.Cursor, CategoryFilter)} 在读出列表的同时
+ * 逐行累加，统计的是按分类筛选之前的所有行，因此分类弹窗的计数和列表来自同一次查询，
+ * 不需要另外扫描笔记表。读出快照后不再修改，可以在线程间传递。
+ *
+ * 搜索时统计的是匹配的笔记（分面计数）。相关度搜索的结果被截断，这时由Provider在搜索索引中
+ * 统计全部匹配笔记，随Cursor的extras一起返回（{@link #fromExtras(Bundle)}）。
+ */
+final class CategoryCounts {
+
+    static final CategoryCounts EMPTY = new CategoryCounts();
+
+    // 分类ID -> 笔记数，用数组作为可变的计数器
+    private final HashMap<Long, int[]> mCounts = new HashMap<>();
+    private int mTotal;
+
+    /**
+     * 计入一条笔记，只在读出快照的线程中调用
+     */
+    void add(long categoryId) {
+        int[] count = mCounts.get(categoryId);
+        if (count == null) {
+            count = new int[1];
+            mCounts.put(categoryId, count);
+        }
+        count[0]++;
+        mTotal++;
+    }
+
+    int count(long categoryId) {
+        int[] count = mCounts.get(categoryId);
+        return count != null ? count[0] : 0;
+    }
+
+    /**
+     * 所有分类的笔记数之和
+     */
+    int total() {
+        return mTotal;
+    }
+
+    /**
+     * 写入 {@link NotePad.Notes#EXTRA_FACET_CATEGORY_IDS} 和 {@link NotePad.Notes#EXTRA_FACET_COUNTS}
+     */
+    void writeTo(Bundle extras) {
+        long[] ids = new long[mCounts.size()];
+        int[] counts = new int[ids.length];
+        int i = 0;
+        for (Map.Entry<Long, int[]> entry : mCounts.entrySet()) {
+            ids[i] = entry.getKey();
+            counts[i++] = entry.getValue()[0];
+        }
+        extras.putLongArray(NotePad.Notes.EXTRA_FACET_CATEGORY_IDS, ids);
+        extras.putIntArray(NotePad.Notes.EXTRA_FACET_COUNTS, counts);
+    }
+
+    /**
+     * 读出Provider给出的分类统计，extras中没有时返回null
+     */
+    static CategoryCounts fromExtras(Bundle extras) {
+        long[] ids = extras != null
+                ? extras.getLongArray(NotePad.Notes.EXTRA_FACET_CATEGORY_IDS) : null;
+        int[] counts = extras != null
+                ? extras.getIntArray(NotePad.Notes.EXTRA_FACET_COUNTS) : null;
+        if (ids == null || counts == null || ids.length != counts.length) {
+            return null;
+        }
+        CategoryCounts result = new CategoryCounts();
+        for (int i = 0; i < ids.length; i++) {
+            result.mCounts.put(ids[i], new int[] {counts[i]});
+            result.mTotal += counts[i];
+        }
+        return result;
+    }
+
+    /**
+     * 估计占用的内存字节数
+     */
+    long sizeInBytes() {
+        return 48 + 64L * mCounts.size();
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.android.notepad;
+
+import java.util.Arrays;
+
+/**
+ * 列表选中的分类集合，为空表示不按分类筛选（全部）。
+ *
+ * 分类ID按从小到大保存，判断一条笔记是否属于所选分类是一次二分查找；
+ * 需要交给数据库时生成 category_id IN (?, ...) 条件。创建后不再修改。
+ */
+final class CategoryFilter {
+
+    static final CategoryFilter ALL = new CategoryFilter(new long[0]);
+
+    private final long[] mIds;
+
+    private CategoryFilter(long[] ids) {
+        mIds = ids;
+    }
+
+    /**
+     * 由选中的分类ID创建，重复的ID只保留一个
+     */
+    static CategoryFilter of(long... ids) {
+        if (ids.length == 0) {
+            return ALL;
+        }
+        long[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        int size = 1;
+        for (int i = 1; i < sorted.length; i++) {
+            if (sorted[i] != sorted[size - 1]) {
+                sorted[size++] = sorted[i];
+            }
+        }
+        return new CategoryFilter(Arrays.copyOf(sorted, size));
+    }
+
+    boolean isAll() {
+        return mIds.length == 0;
+    }
+
+    int size() {
+        return mIds.length;
+    }
+
+    long id(int index) {
+        return mIds[index];
+    }
+
+    /**
+     * 分类中的笔记是否显示；不筛选时总是显示
+     */
+    boolean contains(long categoryId) {
+        return mIds.length == 0 || Arrays.binarySearch(mIds, categoryId) >= 0;
+    }
+
+    /**
+     * 在 selection 之外再限定所选分类的条件；不筛选时原样返回
+     */
+    String selection(String selection) {
+        if (isAll()) {
+            return selection;
+        }
+        StringBuilder where = new StringBuilder(NotePad.Notes.COLUMN_NAME_CATEGORY_ID)
+                .append(" IN (");
+        for (int i = 0; i < mIds.length; i++) {
+            where.append(i == 0 ? "?" : ",?");
+        }
+        where.append(')');
+        return selection == null ? where.toString() : "(" + selection + ") AND " + where;
+    }
+
+    /**
+     * 与 {@link #selection(String)} 对应的参数
+     */
+    String[] selectionArgs(String[] selectionArgs) {
+        if (isAll()) {
+            return selectionArgs;
+        }
+        int offset = selectionArgs != null ? selectionArgs.length : 0;
+        String[] args = new String[offset + mIds.length];
+        if (selectionArgs != null) {
+            System.arraycopy(selectionArgs, 0, args, 0, offset);
+        }
+        for (int i = 0; i < mIds.length; i++) {
+            args[offset + i] = Long.toString(mIds[i]);
+        }
+        return args;
+    }
+
+    /**
+     * 逗号分隔的分类ID，用作URI参数（{@link NotePad.Notes#QUERY_PARAMETER_RANKED_CATEGORIES}）
+     */
+    String joinedIds() {
+        StringBuilder ids = new StringBuilder();
+        for (int i = 0; i < mIds.length; i++) {
+            if (i > 0) {
+                ids.append(',');
+            }
+            ids.append(mIds[i]);
+        }
+        return ids.toString();
+    }
+
+    /**
+     * 分类栏显示的文字：全部、一个分类的名称，或者多个分类的名称以顿号分隔
+     */
+    String label(CategoryMap categories) {
+        if (isAll()) {
+            return "全部";
+        }
+        StringBuilder label = new StringBuilder();
+        for (long id : mIds) {
+            String name = categories.nameOf(id);
+            if (name != null) {
+                if (label.length() > 0) {
+                    label.append('、');
+                }
+                label.append(name);
+            }
+        }
+        return label.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CategoryFilter && Arrays.equals(mIds, ((CategoryFilter) o).mIds);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(mIds);
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.android.notepad;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import java.util.HashMap;
+
+/**
+ * 分类表在内存中的副本：分类ID与名称的双向映射，按显示顺序排列，可选地带有每个分类的笔记数。
+ *
+ * 分类只有几个到几十个，整表读入后由名称或ID查找都是一次哈希查找。
+ * Provider用它把写入的分类名称转换为ID，界面用它显示分类选择列表。
+ *
+ * 创建后不再修改，可以在线程间传递；分类表改变后需要重新读取。
+ */
+final class CategoryMap {
+
+    static final CategoryMap EMPTY = new CategoryMap(new long[0], new String[0], new int[0]);
+
+    // 查询分类名称需要的列
+    static final String[] PROJECTION = new String[] {
+            NotePad.Categories._ID,
+            NotePad.Categories.COLUMN_NAME_NAME
+    };
+
+    // 同时查询各分类笔记数需要的列
+    static final String[] PROJECTION_WITH_COUNTS = new String[] {
+            NotePad.Categories._ID,
+            NotePad.Categories.COLUMN_NAME_NAME,
+            NotePad.Categories._COUNT
+    };
+
+    private final long[] mIds;
+    private final String[] mNames;
+    private final int[] mCounts;
+    private final HashMap<Long, Integer> mIndexById;
+    private final HashMap<String, Integer> mIndexByName;
+
+    private CategoryMap(long[] ids, String[] names, int[] counts) {
+        mIds = ids;
+        mNames = names;
+        mCounts = counts;
+        mIndexById = new HashMap<>(ids.length * 2);
+        mIndexByName = new HashMap<>(ids.length * 2);
+        for (int i = 0; i < ids.length; i++) {
+            mIndexById.put(ids[i], i);
+            mIndexByName.put(names[i], i);
+        }
+    }
+
+    /**
+     * 通过Provider读取分类表；withCounts 为true时同时统计每个分类的笔记数
+     */
+    static CategoryMap query(ContentResolver resolver, boolean withCounts) {
+        Cursor cursor = resolver.query(NotePad.Categories.CONTENT_URI,
+                withCounts ? PROJECTION_WITH_COUNTS : PROJECTION, null, null, null);
+        if (cursor == null) {
+            return EMPTY;
+        }
+        try {
+            return fromCursor(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * 读出分类表的查询结果，笔记数列（{@link NotePad.Categories#_COUNT}）可以没有。不关闭Cursor。
+     */
+    static CategoryMap fromCursor(Cursor cursor) {
+        int idIndex = cursor.getColumnIndexOrThrow(NotePad.Categories._ID);
+        int nameIndex = cursor.getColumnIndexOrThrow(NotePad.Categories.COLUMN_NAME_NAME);
+        int countIndex = cursor.getColumnIndex(NotePad.Categories._COUNT);
+        long[] ids = new long[cursor.getCount()];
+        String[] names = new String[ids.length];
+        int[] counts = new int[ids.length];
+        cursor.moveToPosition(-1);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(idIndex);
+            names[i] = cursor.getString(nameIndex);
+            counts[i] = countIndex >= 0 ? cursor.getInt(countIndex) : 0;
+        }
+        return new CategoryMap(ids, names, counts);
+    }
+
+    int size() {
+        return mIds.length;
+    }
+
+    long id(int index) {
+        return mIds[index];
+    }
+
+    String name(int index) {
+        return mNames[index];
+    }
+
+    /**
+     * 分类中的笔记数，读取时没有统计笔记数则为0
+     */
+    int count(int index) {
+        return mCounts[index];
+    }
+
+    /**
+     * 所有分类的笔记数之和
+     */
+    int total() {
+        int total = 0;
+        for (int count : mCounts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * 分类在显示顺序中的位置，不存在时返回-1
+     */
+    int indexOf(long id) {
+        Integer index = mIndexById.get(id);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * 名称对应的分类ID，不存在时返回-1
+     */
+    long idOf(String name) {
+        Integer index = name != null ? mIndexByName.get(name) : null;
+        return index != null ? mIds[index] : -1;
+    }
+
+    /**
+     * ID对应的分类名称，不存在时返回null
+     */
+    String nameOf(long id) {
+        int index = indexOf(id);
+        return index >= 0 ? mNames[index] : null;
+    }
+}
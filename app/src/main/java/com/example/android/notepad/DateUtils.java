@@ -1,15 +1,209 @@
 package com.example.android.notepad;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.Calendar;
 import java.util.Locale;
 import java.util.TimeZone;
 
+/**
+ * 时间格式化：固定使用东八区，格式为 yyyy-MM-dd HH:mm:ss，另有“3分钟前”式的相对时间。
+ *
+ * 每个线程缓存一个格式化器（Calendar和字符缓冲区），不再每次调用都创建SimpleDateFormat、查找时区。
+ * 同一分钟内的时间共用缓存的 “yyyy-MM-dd HH:mm:” 前缀，只需写入秒数；
+ * 同一秒内重复格式化直接返回上次的字符串。字符数组版本不分配任何对象，供列表绑定使用。
+ */
 public class DateUtils {
+
+    /** {@link #formatTime(long, char[], int)} 写入的字符数（yyyy-MM-dd HH:mm:ss） */
+    public static final int FORMATTED_LENGTH = 19;
+
+    private static final TimeZone TIME_ZONE = TimeZone.getTimeZone("Asia/Shanghai");
+
+    private static final long SECOND = 1000;
+    private static final long MINUTE = 60 * SECOND;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+
+    // “yyyy-MM-dd HH:mm:” 的长度，以及日期、月份部分的长度
+    private static final int MINUTE_PREFIX_LENGTH = 17;
+    private static final int DATE_LENGTH = 10;
+    private static final int MONTH_LENGTH = 7;
+
+    /**
+     * 单个线程使用的格式化状态
+     */
+    private static final class Formatter {
+        final Calendar calendar = Calendar.getInstance(TIME_ZONE, Locale.US);
+        final char[] buffer = new char[FORMATTED_LENGTH];
+
+        // 缓存的分钟（该分钟开始的时间戳）及其前缀
+        long minute = Long.MIN_VALUE;
+        final char[] minutePrefix = new char[MINUTE_PREFIX_LENGTH];
+
+        // 最近一次格式化的秒及其结果
+        long second = Long.MIN_VALUE;
+        String secondText;
+    }
+
+    private static final ThreadLocal<Formatter> sFormatter = new ThreadLocal<Formatter>() {
+        @Override
+        protected Formatter initialValue() {
+            return new Formatter();
+        }
+    };
+
     public static String formatTime(long timeMillis) {
-        //明确指定时区（东八区"Asia/Shanghai"）
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
-        sdf.setTimeZone(TimeZone.getTimeZone("Asia/Shanghai"));
-        return sdf.format(new Date(timeMillis));
+        Formatter formatter = sFormatter.get();
+        long second = floorDiv(timeMillis, SECOND);
+        if (second != formatter.second || formatter.secondText == null) {
+            format(formatter, timeMillis, formatter.buffer, 0);
+            formatter.secondText = new String(formatter.buffer);
+            formatter.second = second;
+        }
+        return formatter.secondText;
+    }
+
+    /**
+     * 按与 {@link #formatTime(long)} 相同的格式把时间写入字符数组，不分配对象
+     *
+     * @return 写入的字符数，即 {@link #FORMATTED_LENGTH}
+     */
+    public static int formatTime(long timeMillis, char[] dest, int offset) {
+        return format(sFormatter.get(), timeMillis, dest, offset);
+    }
+
+    /**
+     * 时间所在的月份，格式为 yyyy-MM
+     */
+    public static String formatMonth(long timeMillis) {
+        Formatter formatter = sFormatter.get();
+        format(formatter, timeMillis, formatter.buffer, 0);
+        return new String(formatter.buffer, 0, MONTH_LENGTH);
+    }
+
+    /**
+     * 相对于 nowMillis 的时间：一分钟内为“刚刚”，之后依次为“N分钟前”、“N小时前”、“N天前”，
+     * 超过一周（或在未来）时显示日期 yyyy-MM-dd
+     */
+    public static String formatRelativeTime(long timeMillis, long nowMillis) {
+        Formatter formatter = sFormatter.get();
+        int length = formatRelativeTime(timeMillis, nowMillis, formatter.buffer, 0);
+        return new String(formatter.buffer, 0, length);
+    }
+
+    /**
+     * {@link #formatRelativeTime(long, long)} 的字符数组版本，不分配对象；
+     * dest 从 offset 起至少要有 {@link #FORMATTED_LENGTH} 个字符的空间
+     *
+     * @return 写入的字符数
+     */
+    public static int formatRelativeTime(long timeMillis, long nowMillis, char[] dest,
+                                         int offset) {
+        long elapsed = nowMillis - timeMillis;
+        if (elapsed < -MINUTE || elapsed >= 7 * DAY) {
+            // 时钟偏差一分钟以内仍算“刚刚”，更远的未来和一周以前都显示日期
+            format(sFormatter.get(), timeMillis, dest, offset);
+            return DATE_LENGTH;
+        }
+        if (elapsed < MINUTE) {
+            return append(dest, offset, "刚刚") - offset;
+        }
+        int i;
+        if (elapsed < HOUR) {
+            i = appendNumber(dest, offset, (int) (elapsed / MINUTE));
+            i = append(dest, i, "分钟前");
+        } else if (elapsed < DAY) {
+            i = appendNumber(dest, offset, (int) (elapsed / HOUR));
+            i = append(dest, i, "小时前");
+        } else {
+            i = appendNumber(dest, offset, (int) (elapsed / DAY));
+            i = append(dest, i, "天前");
+        }
+        return i - offset;
+    }
+
+    private static int format(Formatter formatter, long timeMillis, char[] dest, int offset) {
+        long minute = timeMillis - floorMod(timeMillis, MINUTE);
+        if (minute != formatter.minute && !cacheMinutePrefix(formatter, minute)) {
+            // 时区偏移不是整分钟（1901年以前的地方时），秒数不能由时间戳直接算出
+            formatter.minute = Long.MIN_VALUE;
+            return formatFields(formatter.calendar, timeMillis, dest, offset);
+        }
+        System.arraycopy(formatter.minutePrefix, 0, dest, offset, MINUTE_PREFIX_LENGTH);
+        appendDigits(dest, offset + MINUTE_PREFIX_LENGTH,
+                (int) (floorMod(timeMillis, MINUTE) / SECOND), 2);
+        return FORMATTED_LENGTH;
+    }
+
+    private static boolean cacheMinutePrefix(Formatter formatter, long minute) {
+        Calendar calendar = formatter.calendar;
+        calendar.setTimeInMillis(minute);
+        if (calendar.get(Calendar.SECOND) != 0) {
+            return false;
+        }
+        formatFields(calendar, minute, formatter.minutePrefix, 0, MINUTE_PREFIX_LENGTH);
+        formatter.minute = minute;
+        return true;
+    }
+
+    private static int formatFields(Calendar calendar, long timeMillis, char[] dest, int offset) {
+        return formatFields(calendar, timeMillis, dest, offset, FORMATTED_LENGTH);
+    }
+
+    /**
+     * 用Calendar逐个字段写出时间，只写前 length 个字符（前缀长度时写到分钟后的冒号为止）
+     */
+    private static int formatFields(Calendar calendar, long timeMillis, char[] dest, int offset,
+                                    int length) {
+        calendar.setTimeInMillis(timeMillis);
+        int i = offset;
+        i = appendDigits(dest, i, calendar.get(Calendar.YEAR), 4);
+        dest[i++] = '-';
+        i = appendDigits(dest, i, calendar.get(Calendar.MONTH) + 1, 2);
+        dest[i++] = '-';
+        i = appendDigits(dest, i, calendar.get(Calendar.DAY_OF_MONTH), 2);
+        dest[i++] = ' ';
+        i = appendDigits(dest, i, calendar.get(Calendar.HOUR_OF_DAY), 2);
+        dest[i++] = ':';
+        i = appendDigits(dest, i, calendar.get(Calendar.MINUTE), 2);
+        dest[i++] = ':';
+        if (length == MINUTE_PREFIX_LENGTH) {
+            return i - offset;
+        }
+        i = appendDigits(dest, i, calendar.get(Calendar.SECOND), 2);
+        return i - offset;
+    }
+
+    private static int appendDigits(char[] dest, int offset, int value, int width) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            dest[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return offset + width;
+    }
+
+    /**
+     * 把非负整数写入 dest，返回写入后的位置
+     */
+    static int appendNumber(char[] dest, int offset, int value) {
+        int width = 1;
+        for (int v = value; v >= 10; v /= 10) {
+            width++;
+        }
+        return appendDigits(dest, offset, value, width);
+    }
+
+    private static int append(char[] dest, int offset, String text) {
+        text.getChars(0, text.length(), dest, offset);
+        return offset + text.length();
+    }
+
+    private static long floorDiv(long value, long divisor) {
+        long quotient = value / divisor;
+        return value % divisor < 0 ? quotient - 1 : quotient;
+    }
+
+    private static long floorMod(long value, long divisor) {
+        long remainder = value % divisor;
+        return remainder < 0 ? remainder + divisor : remainder;
     }
 }
@@ -0,0 +1,54 @@
+package com.example.android.notepad;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.view.Choreographer;
+
+/**
+ * 记录相邻两帧的间隔（{@link PerfMetrics#FRAMES}），只在列表滚动期间运行。
+ * 间隔超过一帧的时间预算即说明有掉帧。
+ *
+ * 依赖 {@link Choreographer}（API 16）。低版本上连这个类都无法加载，
+ * 调用方必须先检查系统版本再创建。
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+class FrameMonitor implements Choreographer.FrameCallback {
+
+    private boolean mRunning;
+    private long mLastFrameNanos;
+
+    /**
+     * 开始记录；计量关闭或已在记录时什么也不做。只在主线程调用。
+     */
+    void start() {
+        if (mRunning || !PerfMetrics.isEnabled()) {
+            return;
+        }
+        mRunning = true;
+        mLastFrameNanos = 0;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * 停止记录。只在主线程调用。
+     */
+    void stop() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mRunning) {
+            return;
+        }
+        if (mLastFrameNanos != 0) {
+            PerfMetrics.FRAMES.record(frameTimeNanos - mLastFrameNanos);
+        }
+        mLastFrameNanos = frameTimeNanos;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+}
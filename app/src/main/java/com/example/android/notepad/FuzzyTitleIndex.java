@@ -0,0 +1,316 @@
+package com.example.android.notepad;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 标题模糊搜索索引：对标题词条建立BK树（按编辑距离组织），容忍输入错字。
+ *
+ * 查询只在BK树中访问与查询词编辑距离可能落在阈值内的分支，
+ * 因此耗时取决于不同词条的数量，而不是笔记总数。
+ * 边输入边搜索时查询词通常只是词条的开头，因此还匹配开头与查询词相似的词条
+ * （例如 "mee" 匹配 "meeting"）：在按字典序排列的词条中只检查首字符与查询词相同的一段。
+ * 该类本身不是线程安全的，由 NotePadProvider 负责加锁。
+ */
+class FuzzyTitleIndex {
+
+    /**
+     * 单次模糊查询的延迟预算（纳秒），超出时由调用方记录警告
+     */
+    static final long LATENCY_BUDGET_NANOS = 20L * 1000 * 1000;
+
+    // 墓碑词条（已无笔记引用）超过存活词条时重建BK树
+    private static final int MIN_REBUILD_SIZE = 64;
+
+    /**
+     * BK树节点，子节点按与本节点的编辑距离分组
+     */
+    private static final class Node {
+        final String term;
+        HashMap<Integer, Node> children;
+
+        Node(String term) {
+            this.term = term;
+        }
+    }
+
+    private Node mRoot;
+
+    // 词条 -> 包含该词条的笔记ID
+    private final HashMap<String, HashSet<Long>> mPostings = new HashMap<>();
+
+    // 全部词条（包括墓碑词条）按字典序排列，用于前缀匹配
+    private final TreeSet<String> mSortedTerms = new TreeSet<>();
+
+    // 笔记ID -> 标题词条，用于更新和删除
+    private final HashMap<Long, List<String>> mNoteTerms = new HashMap<>();
+
+    // BK树中已无笔记引用的词条数量
+    private int mDeadTerms;
+
+    /**
+     * 添加或替换一条笔记的标题
+     */
+    void put(long noteId, String title) {
+        remove(noteId);
+
+        List<String> terms = SearchTokenizer.tokenize(title);
+        if (terms.isEmpty()) {
+            return;
+        }
+        mNoteTerms.put(noteId, terms);
+
+        for (String term : terms) {
+            HashSet<Long> ids = mPostings.get(term);
+            if (ids == null) {
+                ids = new HashSet<>();
+                mPostings.put(term, ids);
+                mSortedTerms.add(term);
+                addToTree(term);
+            } else if (ids.isEmpty()) {
+                // 墓碑词条重新被引用
+                mDeadTerms--;
+            }
+            ids.add(noteId);
+        }
+    }
+
+    /**
+     * 从索引中移除一条笔记
+     */
+    void remove(long noteId) {
+        List<String> terms = mNoteTerms.remove(noteId);
+        if (terms == null) {
+            return;
+        }
+        for (String term : terms) {
+            HashSet<Long> ids = mPostings.get(term);
+            if (ids != null && ids.remove(noteId) && ids.isEmpty()) {
+                mDeadTerms++;
+            }
+        }
+        if (mDeadTerms > MIN_REBUILD_SIZE && mDeadTerms > mPostings.size() - mDeadTerms) {
+            rebuildTree();
+        }
+    }
+
+    /**
+     * 索引中的笔记数量
+     */
+    int size() {
+        return mNoteTerms.size();
+    }
+
+    /**
+     * 查找与查询词相似的索引词条，以及开头与查询词相似的词条
+     */
+    List<String> findSimilarTerms(String queryTerm) {
+        if (mRoot == null || queryTerm.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        int maxDistance = maxDistanceFor(queryTerm);
+        HashSet<String> result = new HashSet<>();
+        findPrefixTerms(queryTerm, maxDistance, result);
+        ArrayList<Node> stack = new ArrayList<>();
+        stack.add(mRoot);
+        while (!stack.isEmpty()) {
+            Node node = stack.remove(stack.size() - 1);
+            int distance = editDistance(queryTerm, node.term);
+            if (distance <= maxDistance) {
+                HashSet<Long> ids = mPostings.get(node.term);
+                if (ids != null && !ids.isEmpty()) {
+                    result.add(node.term);
+                }
+            }
+            if (node.children == null) {
+                continue;
+            }
+            // 三角不等式：只有距离在 [d-k, d+k] 内的子树可能包含结果
+            for (int d = Math.max(1, distance - maxDistance); d <= distance + maxDistance; d++) {
+                Node child = node.children.get(d);
+                if (child != null) {
+                    stack.add(child);
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * 把开头与查询词的编辑距离不超过 maxDistance 的词条加入 result。
+     * 首字符的错字由整词匹配容忍，这里只检查首字符相同的词条
+     */
+    private void findPrefixTerms(String queryTerm, int maxDistance, Set<String> result) {
+        char first = queryTerm.charAt(0);
+        String from = String.valueOf(first);
+        Set<String> candidates = first == Character.MAX_VALUE
+                ? mSortedTerms.tailSet(from, true)
+                : mSortedTerms.subSet(from, true, String.valueOf((char) (first + 1)), false);
+        for (String term : candidates) {
+            if (term.length() > queryTerm.length()
+                    && prefixDistance(queryTerm, term, maxDistance) <= maxDistance) {
+                HashSet<Long> ids = mPostings.get(term);
+                if (!ids.isEmpty()) {
+                    result.add(term);
+                }
+            }
+        }
+    }
+
+    /**
+     * 模糊查询：每个查询词都需要在标题中有相似词条（词条之间为AND关系）
+     *
+     * @return 匹配的笔记ID，没有匹配时为空集合
+     */
+    Set<Long> search(String query) {
+        HashSet<Long> result = null;
+        for (String queryTerm : SearchTokenizer.tokenize(query)) {
+            HashSet<Long> matched = new HashSet<>();
+            for (String term : findSimilarTerms(queryTerm)) {
+                matched.addAll(mPostings.get(term));
+            }
+            if (result == null) {
+                result = matched;
+            } else {
+                result.retainAll(matched);
+            }
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result != null ? result : new HashSet<Long>();
+    }
+
+    /**
+     * 查询词允许的最大编辑距离，短词只允许更少的错字
+     */
+    static int maxDistanceFor(String term) {
+        int length = term.length();
+        if (length <= 2) {
+            return 0;
+        } else if (length <= 5) {
+            return 1;
+        }
+        return 2;
+    }
+
+    /**
+     * 计算两个字符串的Levenshtein编辑距离
+     */
+    static int editDistance(String a, String b) {
+        int n = a.length();
+        int m = b.length();
+        if (n == 0) {
+            return m;
+        }
+        if (m == 0) {
+            return n;
+        }
+
+        int[] previous = new int[m + 1];
+        int[] current = new int[m + 1];
+        for (int j = 0; j <= m; j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= n; i++) {
+            current[0] = i;
+            char ca = a.charAt(i - 1);
+            for (int j = 1; j <= m; j++) {
+                int cost = ca == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1),
+                        previous[j - 1] + cost);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[m];
+    }
+
+    /**
+     * 查询词与词条某个开头的最小编辑距离，即词条多出的结尾不计入距离。
+     * 超过 maxDistance 时提前返回 maxDistance + 1
+     */
+    static int prefixDistance(String query, String term, int maxDistance) {
+        int n = query.length();
+        // 与查询词长度相差超过 maxDistance 的开头不可能在阈值内
+        int m = Math.min(term.length(), n + maxDistance);
+
+        int[] previous = new int[m + 1];
+        int[] current = new int[m + 1];
+        for (int j = 0; j <= m; j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= n; i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            char ca = query.charAt(i - 1);
+            for (int j = 1; j <= m; j++) {
+                int cost = ca == term.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1),
+                        previous[j - 1] + cost);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            // 每一行的最小值不会减小
+            if (rowMin > maxDistance) {
+                return maxDistance + 1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        int distance = previous[0];
+        for (int j = 1; j <= m; j++) {
+            distance = Math.min(distance, previous[j]);
+        }
+        return distance;
+    }
+
+    private void addToTree(String term) {
+        if (mRoot == null) {
+            mRoot = new Node(term);
+            return;
+        }
+        Node node = mRoot;
+        while (true) {
+            int distance = editDistance(term, node.term);
+            if (distance == 0) {
+                return;
+            }
+            if (node.children == null) {
+                node.children = new HashMap<>();
+            }
+            Node child = node.children.get(distance);
+            if (child == null) {
+                node.children.put(distance, new Node(term));
+                return;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * 丢弃墓碑词条后重新构建BK树
+     */
+    private void rebuildTree() {
+        mRoot = null;
+        List<String> live = new ArrayList<>();
+        for (String term : mPostings.keySet()) {
+            if (!mPostings.get(term).isEmpty()) {
+                live.add(term);
+            }
+        }
+        mPostings.keySet().retainAll(live);
+        mSortedTerms.clear();
+        mSortedTerms.addAll(live);
+        for (String term : live) {
+            addToTree(term);
+        }
+        mDeadTerms = 0;
+    }
+}
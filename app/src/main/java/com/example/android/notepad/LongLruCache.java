@@ -0,0 +1,182 @@
+package com.example.android.notepad;
+
+import java.util.Arrays;
+
+/**
+ * 以 long（笔记ID）为键、容量固定的LRU缓存，超出容量时淘汰最久未使用的条目。
+ *
+ * 键直接存放在数组中，查找和插入都不装箱：列表绑定时按笔记ID查缓存不分配对象，
+ * 而 {@code LinkedHashMap<Long, V>} 对127以上的ID每次查找都会新建一个 Long。
+ * （{@code android.util.LongSparseArray} 需要API 16，而且不记录访问顺序。）
+ * 条目保存在容量大小的平行数组中，用下标组成按访问顺序排列的双向链表；
+ * 键到条目下标的映射是线性探测的开放寻址表，删除时回移后面的条目，不留墓碑。
+ * 创建后不再分配内存。该类不是线程安全的，由调用方同步。
+ */
+final class LongLruCache<V> {
+
+    private static final int EMPTY = -1;
+
+    private final int mMaxSize;
+    // 开放寻址表：槽位到条目下标，空槽为 EMPTY；长度为2的幂，至少是容量的两倍
+    private final int[] mSlots;
+    private final int mMask;
+    // 条目的键、值和在访问顺序链表中的前后条目
+    private final long[] mKeys;
+    private final Object[] mValues;
+    private final int[] mPrevious;
+    private final int[] mNext;
+    // 最近使用和最久未使用的条目
+    private int mHead = EMPTY;
+    private int mTail = EMPTY;
+    private int mSize;
+
+    LongLruCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize " + maxSize);
+        }
+        mMaxSize = maxSize;
+        int slots = Integer.highestOneBit(maxSize * 2 - 1) << 1;
+        mSlots = new int[slots];
+        mMask = slots - 1;
+        Arrays.fill(mSlots, EMPTY);
+        mKeys = new long[maxSize];
+        mValues = new Object[maxSize];
+        mPrevious = new int[maxSize];
+        mNext = new int[maxSize];
+    }
+
+    /**
+     * 返回键对应的值并标记为最近使用，没有时返回null
+     */
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        int slot = find(key);
+        if (slot < 0) {
+            return null;
+        }
+        int entry = mSlots[slot];
+        moveToHead(entry);
+        return (V) mValues[entry];
+    }
+
+    /**
+     * 放入或替换键对应的值并标记为最近使用；已满时淘汰最久未使用的条目
+     */
+    void put(long key, V value) {
+        int slot = find(key);
+        if (slot >= 0) {
+            int entry = mSlots[slot];
+            mValues[entry] = value;
+            moveToHead(entry);
+            return;
+        }
+        int entry;
+        if (mSize < mMaxSize) {
+            entry = mSize++;
+        } else {
+            entry = mTail;
+            unlink(entry);
+            removeSlot(find(mKeys[entry]));
+        }
+        mKeys[entry] = key;
+        mValues[entry] = value;
+        linkAtHead(entry);
+        slot = hash(key) & mMask;
+        while (mSlots[slot] != EMPTY) {
+            slot = (slot + 1) & mMask;
+        }
+        mSlots[slot] = entry;
+    }
+
+    void clear() {
+        Arrays.fill(mSlots, EMPTY);
+        Arrays.fill(mValues, 0, mSize, null);
+        mHead = EMPTY;
+        mTail = EMPTY;
+        mSize = 0;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * 键所在的槽位，没有时返回-1
+     */
+    private int find(long key) {
+        int slot = hash(key) & mMask;
+        while (true) {
+            int entry = mSlots[slot];
+            if (entry == EMPTY) {
+                return -1;
+            }
+            if (mKeys[entry] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mMask;
+        }
+    }
+
+    /**
+     * 清空槽位，并把同一探测序列中后面的条目回移，查找不会在空出的槽位提前停下
+     */
+    private void removeSlot(int hole) {
+        int slot = hole;
+        while (true) {
+            slot = (slot + 1) & mMask;
+            int entry = mSlots[slot];
+            if (entry == EMPTY) {
+                break;
+            }
+            int home = hash(mKeys[entry]) & mMask;
+            // 起始槽位不在 (hole, slot] 中的条目可以移到空位
+            boolean between = hole <= slot
+                    ? home > hole && home <= slot
+                    : home > hole || home <= slot;
+            if (!between) {
+                mSlots[hole] = entry;
+                hole = slot;
+            }
+        }
+        mSlots[hole] = EMPTY;
+    }
+
+    private void moveToHead(int entry) {
+        if (entry != mHead) {
+            unlink(entry);
+            linkAtHead(entry);
+        }
+    }
+
+    private void linkAtHead(int entry) {
+        mPrevious[entry] = EMPTY;
+        mNext[entry] = mHead;
+        if (mHead != EMPTY) {
+            mPrevious[mHead] = entry;
+        }
+        mHead = entry;
+        if (mTail == EMPTY) {
+            mTail = entry;
+        }
+    }
+
+    private void unlink(int entry) {
+        int previous = mPrevious[entry];
+        int next = mNext[entry];
+        if (previous != EMPTY) {
+            mNext[previous] = next;
+        } else {
+            mHead = next;
+        }
+        if (next != EMPTY) {
+            mPrevious[next] = previous;
+        } else {
+            mTail = previous;
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
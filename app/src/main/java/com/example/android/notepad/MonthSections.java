@@ -0,0 +1,197 @@
+package com.example.android.notepad;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按修改月份划分的列表分节，用于分节标题和快速滚动索引。列表必须按修改时间倒序排列。
+ *
+ * 分节只记录每个月份（从新到旧）及其第一行的位置，来自Provider的一条按月份分组的计数查询
+ * （{@link NotePad.Notes#MONTHS_URI}），不需要读取各行。之后数据变化时由前后两个快照的差异
+ * （{@link SnapshotDiff}）增量调整各月的行数，不再重新查询。
+ * 由分节求位置为 O(1)，由位置求分节为对各节起始位置的二分查找。
+ *
+ * 创建后不再修改，可以在线程间传递。
+ */
+final class MonthSections {
+
+    static final MonthSections EMPTY = new MonthSections(new String[0], new int[0]);
+
+    // 月份（yyyy-MM），从新到旧
+    private final String[] mMonths;
+    // 每节第一行的位置，最后多一个元素为总行数
+    private final int[] mStarts;
+
+    private MonthSections(String[] months, int[] counts) {
+        mMonths = months;
+        mStarts = new int[counts.length + 1];
+        for (int i = 0; i < counts.length; i++) {
+            mStarts[i + 1] = mStarts[i] + counts[i];
+        }
+    }
+
+    /**
+     * 读出 {@link NotePad.Notes#MONTHS_URI} 的查询结果。不关闭Cursor。
+     */
+    static MonthSections fromCursor(Cursor cursor) {
+        int monthIndex = cursor.getColumnIndexOrThrow(NotePad.Notes.COLUMN_NAME_MONTH);
+        int countIndex = cursor.getColumnIndexOrThrow(NotePad.Notes._COUNT);
+        String[] months = new String[cursor.getCount()];
+        int[] counts = new int[months.length];
+        cursor.moveToPosition(-1);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            months[i] = cursor.getString(monthIndex);
+            counts[i] = cursor.getInt(countIndex);
+        }
+        return new MonthSections(months, counts);
+    }
+
+    /**
+     * 逐行计算快照的分节，用于查询结果与快照不一致时
+     */
+    static MonthSections fromSnapshot(NoteSnapshot snapshot) {
+        List<String> months = new ArrayList<>();
+        List<Integer> counts = new ArrayList<>();
+        for (int i = 0; i < snapshot.size(); i++) {
+            String month = DateUtils.formatMonth(snapshot.modified(i));
+            int last = months.size() - 1;
+            if (last >= 0 && months.get(last).equals(month)) {
+                counts.set(last, counts.get(last) + 1);
+            } else {
+                months.add(month);
+                counts.add(1);
+            }
+        }
+        int[] countArray = new int[counts.size()];
+        for (int i = 0; i < countArray.length; i++) {
+            countArray[i] = counts.get(i);
+        }
+        return new MonthSections(months.toArray(new String[months.size()]), countArray);
+    }
+
+    /**
+     * 按两个快照的差异调整各月的行数：删除的行从原来的月份减去，插入的行加到所在月份，
+     * 修改时间变化的行从旧月份移到新月份。只处理差异中的行。
+     *
+     * @return 调整后的分节；结果的总行数与新快照不符时返回null，调用方应重新查询
+     */
+    MonthSections update(NoteSnapshot oldSnapshot, NoteSnapshot newSnapshot, SnapshotDiff diff) {
+        if (diff.isEmpty()) {
+            return count() == newSnapshot.size() ? this : null;
+        }
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < mMonths.length; i++) {
+            counts.put(mMonths[i], mStarts[i + 1] - mStarts[i]);
+        }
+        for (int position : diff.removed) {
+            add(counts, DateUtils.formatMonth(oldSnapshot.modified(position)), -1);
+        }
+        for (int position : diff.inserted) {
+            add(counts, DateUtils.formatMonth(newSnapshot.modified(position)), 1);
+        }
+        for (int position : diff.changed) {
+            long oldModified = oldSnapshot.modified(diff.sources[position]);
+            long newModified = newSnapshot.modified(position);
+            if (oldModified != newModified) {
+                add(counts, DateUtils.formatMonth(oldModified), -1);
+                add(counts, DateUtils.formatMonth(newModified), 1);
+            }
+        }
+
+        List<String> months = new ArrayList<>(counts.size());
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (entry.getValue() < 0) {
+                return null;
+            }
+            if (entry.getValue() > 0) {
+                months.add(entry.getKey());
+            }
+        }
+        // yyyy-MM 的字符串顺序就是时间顺序
+        Collections.sort(months, Collections.reverseOrder());
+        int[] countArray = new int[months.size()];
+        int total = 0;
+        for (int i = 0; i < countArray.length; i++) {
+            countArray[i] = counts.get(months.get(i));
+            total += countArray[i];
+        }
+        if (total != newSnapshot.size()) {
+            return null;
+        }
+        return new MonthSections(months.toArray(new String[months.size()]), countArray);
+    }
+
+    /**
+     * 分节数
+     */
+    int size() {
+        return mMonths.length;
+    }
+
+    /**
+     * 各分节的月份（yyyy-MM），从新到旧；返回的数组不得修改
+     */
+    String[] months() {
+        return mMonths;
+    }
+
+    /**
+     * 总行数
+     */
+    int count() {
+        return mStarts[mMonths.length];
+    }
+
+    /**
+     * 某一分节第一行的位置；超出范围时取最近的分节
+     */
+    int positionForSection(int section) {
+        if (mMonths.length == 0) {
+            return 0;
+        }
+        return mStarts[Math.max(0, Math.min(section, mMonths.length - 1))];
+    }
+
+    /**
+     * 某一行所在的分节；超出范围时取最近的分节
+     */
+    int sectionForPosition(int position) {
+        // 最后一个起始位置不大于 position 的分节
+        int low = 0;
+        int high = mMonths.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mStarts[mid] <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 某一行是否是其所在分节的第一行
+     */
+    boolean isSectionStart(int position) {
+        return mMonths.length > 0 && mStarts[sectionForPosition(position)] == position;
+    }
+
+    /**
+     * 分节的月份和起止位置是否都相同
+     */
+    boolean sameSections(MonthSections other) {
+        return Arrays.equals(mMonths, other.mMonths) && Arrays.equals(mStarts, other.mStarts);
+    }
+
+    private static void add(Map<String, Integer> counts, String month, int delta) {
+        Integer count = counts.get(month);
+        counts.put(month, (count != null ? count : 0) + delta);
+    }
+}
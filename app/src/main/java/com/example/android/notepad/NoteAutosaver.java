@@ -0,0 +1,335 @@
+package com.example.android.notepad;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 编辑界面的自动保存。
+ *
+ * 输入停顿 {@link #DEBOUNCE_MILLIS} 后保存一次；一直输入时最多推迟到第一次修改后
+ * {@link #MAX_DELAY_MILLIS}，两次写入至少间隔 {@link #MIN_INTERVAL_MILLIS}，写入频率因此有上限。
+ * 标题是否有修改通过比较指纹（64位哈希）判断，不保留上次写入内容的副本；正文由 {@link PieceTable}
+ * 记录修改过的区间，通过 {@link NotePad.Notes#METHOD_PATCH_NOTE} 只写入这些区间。
+ * 只写入有变化的列。
+ *
+ * 写入在所有编辑界面共用的一个后台线程中按顺序执行，主线程只计算标题的指纹和正文的修改区间。
+ * 还没轮到执行的保存会合并：排队期间又有新的保存时只更新待写入的值，不增加写入次数。
+ * 写入失败时没有写入的区间和字段留在写入线程中，按正常的时机再保存一次，排在新的修改前面重新写入；
+ * 正文已全部读出时改为写入整篇正文。正文还在分块读取时编辑器中只有开头，
+ * 只能重新写入区间，否则会截掉还没读出的部分。除注明的以外，所有方法都只能在主线程调用。
+ */
+final class NoteAutosaver {
+
+    /**
+     * 需要保存的内容，由编辑界面提供
+     */
+    interface Source {
+        CharSequence title();
+
+        PieceTable document();
+
+        long categoryId();
+
+        /**
+         * 正文是否已全部读出，{@link #document()} 是整篇正文
+         */
+        boolean complete();
+    }
+
+    // 输入停顿多久后保存
+    static final long DEBOUNCE_MILLIS = 800;
+    // 一直输入时，第一次修改后最多推迟多久保存
+    static final long MAX_DELAY_MILLIS = 5000;
+    // 两次写入的最小间隔
+    static final long MIN_INTERVAL_MILLIS = 2000;
+
+    private static final String TAG = "NoteAutosaver";
+
+    // 所有编辑界面共用一个写入线程，界面重建前后的写入也按提交顺序执行
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor();
+
+    private final ContentResolver mResolver;
+    private final Uri mUri;
+    private final Source mSource;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mSaveRunnable = this::save;
+    private final Runnable mWriteFailedRunnable = this::onWriteFailed;
+
+    // 写入失败后为true，直到之后的一次写入成功；写入线程设置，主线程读取
+    private volatile boolean mWriteFailed;
+    // 写入失败时还没写入的正文区间（按写入顺序）和字段，只在写入线程中访问
+    private final ArrayList<List<PieceTable.Edit>> mUnwritten = new ArrayList<>();
+    private final ContentValues mUnwrittenValues = new ContentValues();
+
+    // 最近一次保存（或从数据库读出）时各字段的指纹
+    private long mTitleFingerprint;
+    private long mCategoryId = -1;
+
+    // 第一次未保存修改的时间（uptimeMillis），没有未保存的修改时为0
+    private long mFirstEditTime;
+    private long mLastWriteTime;
+    private boolean mWritten;
+
+    // 等待写入线程取走的写入，为null时没有排队的写入任务；由 this 保护
+    private Batch mPending;
+
+    /**
+     * 一次写入任务：先按顺序替换正文区间，再更新其他列
+     */
+    private static final class Batch {
+        final ArrayList<List<PieceTable.Edit>> patches = new ArrayList<>();
+        final ContentValues values = new ContentValues();
+
+        void add(List<PieceTable.Edit> edits, ContentValues newValues) {
+            if (!edits.isEmpty()) {
+                String note = values.getAsString(NotePad.Notes.COLUMN_NAME_NOTE);
+                if (note != null) {
+                    // 排队中的整篇正文还没写入，区间直接应用到它上面
+                    values.put(NotePad.Notes.COLUMN_NAME_NOTE, PieceTable.apply(note, edits));
+                } else {
+                    patches.add(edits);
+                }
+            }
+            if (newValues.containsKey(NotePad.Notes.COLUMN_NAME_NOTE)) {
+                patches.clear();
+            }
+            values.putAll(newValues);
+        }
+    }
+
+    NoteAutosaver(ContentResolver resolver, Uri uri, Source source) {
+        mResolver = resolver;
+        mUri = uri;
+        mSource = source;
+    }
+
+    /**
+     * 当前内容与数据库一致（刚读出），取消尚未执行的保存。正文的 {@link PieceTable} 由调用方重置
+     */
+    void markSaved() {
+        mHandler.removeCallbacks(mSaveRunnable);
+        mFirstEditTime = 0;
+        mTitleFingerprint = fingerprint(mSource.title());
+        mCategoryId = mSource.categoryId();
+    }
+
+    /**
+     * 内容被修改，推迟到输入停顿后保存
+     */
+    void onEdited() {
+        long now = SystemClock.uptimeMillis();
+        if (mFirstEditTime == 0) {
+            mFirstEditTime = now;
+        }
+        long at = Math.min(now + DEBOUNCE_MILLIS, mFirstEditTime + MAX_DELAY_MILLIS);
+        at = Math.max(at, mLastWriteTime + MIN_INTERVAL_MILLIS);
+        mHandler.removeCallbacks(mSaveRunnable);
+        mHandler.postAtTime(mSaveRunnable, at);
+    }
+
+    /**
+     * 立即把有变化的字段交给写入线程，不等待写入完成
+     */
+    void save() {
+        mHandler.removeCallbacks(mSaveRunnable);
+        mFirstEditTime = 0;
+
+        // 上次写入失败：没有新的修改也要写入一次，重新写入失败的内容；
+        // 正文已全部读出时直接写入整篇正文，不再依赖失败的区间
+        boolean retry = mWriteFailed;
+        boolean full = retry && mSource.complete();
+        ContentValues values = new ContentValues();
+        CharSequence title = mSource.title();
+        long titleFingerprint = fingerprint(title);
+        if (titleFingerprint != mTitleFingerprint) {
+            values.put(NotePad.Notes.COLUMN_NAME_TITLE, title.toString());
+            mTitleFingerprint = titleFingerprint;
+        }
+        PieceTable document = mSource.document();
+        List<PieceTable.Edit> edits = document.changes();
+        if (full) {
+            values.put(NotePad.Notes.COLUMN_NAME_NOTE, document.toString());
+            edits = Collections.emptyList();
+        }
+        document.commit();
+        long categoryId = mSource.categoryId();
+        if (categoryId != mCategoryId) {
+            values.put(NotePad.Notes.COLUMN_NAME_CATEGORY_ID, categoryId);
+            mCategoryId = categoryId;
+        }
+        if (!retry && values.size() == 0 && edits.isEmpty()) {
+            return;
+        }
+        values.put(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE, System.currentTimeMillis());
+        write(edits, values);
+    }
+
+    /**
+     * 取消还没到时间的保存。已交给写入线程的保存照常执行，
+     * 之后 {@link #write} 的内容（例如撤销修改时的原始内容）排在它们后面
+     */
+    void cancel() {
+        mHandler.removeCallbacks(mSaveRunnable);
+        mFirstEditTime = 0;
+    }
+
+    /**
+     * 在写入线程中替换正文的区间（相对已保存的正文）并写入指定的值，排在之前的保存之后
+     */
+    void write(List<PieceTable.Edit> edits, ContentValues values) {
+        mLastWriteTime = SystemClock.uptimeMillis();
+        mWritten = true;
+        boolean submit;
+        synchronized (this) {
+            // 上一次保存还在排队时合并为一次写入
+            submit = mPending == null;
+            if (submit) {
+                mPending = new Batch();
+            }
+            mPending.add(edits, values);
+        }
+        if (submit) {
+            WRITER.execute(this::writePending);
+        }
+    }
+
+    /**
+     * 打开编辑界面以来是否写入过
+     */
+    boolean hasWritten() {
+        return mWritten;
+    }
+
+    /**
+     * 在写入线程中执行 task，排在已提交的所有写入之后。
+     * 用于读取笔记（{@link NoteLoader}），读到的总是此前的保存完成后的内容
+     */
+    static void execute(Runnable task) {
+        WRITER.execute(task);
+    }
+
+    /**
+     * 已保存正文中的位置换算成数据库中的位置：写入失败、还没重新写入的区间不计在内。
+     * 只在写入线程中调用，用于读取正文的下一块（{@link NoteLoader}）
+     */
+    int storedOffset(int savedOffset) {
+        for (List<PieceTable.Edit> edits : mUnwritten) {
+            for (PieceTable.Edit edit : edits) {
+                savedOffset -= edit.text.codePointCount(0, edit.text.length()) - edit.length;
+            }
+        }
+        return savedOffset;
+    }
+
+    private void writePending() {
+        Batch batch;
+        synchronized (this) {
+            batch = mPending;
+            mPending = null;
+        }
+        if (batch == null) {
+            return;
+        }
+        // 之前失败的内容排在前面；整篇正文取代所有区间，其他字段以新的值为准
+        if (batch.values.containsKey(NotePad.Notes.COLUMN_NAME_NOTE)) {
+            mUnwritten.clear();
+        }
+        mUnwritten.addAll(batch.patches);
+        mUnwrittenValues.putAll(batch.values);
+        try {
+            long start = PerfMetrics.start();
+            writeUnwritten();
+            mWriteFailed = false;
+            PerfMetrics.end(PerfMetrics.SAVES, start);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to save " + mUri, e);
+            mWriteFailed = true;
+            mHandler.post(mWriteFailedRunnable);
+        }
+    }
+
+    /**
+     * 编辑器将按数据库中的内容重新显示笔记，先重新写入失败的内容；仍然失败时放弃，
+     * 之后的区间相对重新读出的正文。只在写入线程中调用
+     */
+    void retryUnwritten() {
+        try {
+            writeUnwritten();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Dropped unsaved changes to " + mUri, e);
+            mUnwritten.clear();
+            mUnwrittenValues.clear();
+        }
+        mWriteFailed = false;
+    }
+
+    /**
+     * 按顺序写入失败后留下的区间和字段，写入成功的从中移除
+     */
+    private void writeUnwritten() {
+        String noteId = mUri.getLastPathSegment();
+        while (!mUnwritten.isEmpty()) {
+            mResolver.call(NotePad.Notes.CONTENT_URI, NotePad.Notes.METHOD_PATCH_NOTE,
+                    noteId, toExtras(mUnwritten.get(0)));
+            mUnwritten.remove(0);
+        }
+        if (mUnwrittenValues.size() > 0) {
+            mResolver.update(mUri, mUnwrittenValues, null, null);
+            mUnwrittenValues.clear();
+        }
+    }
+
+    /**
+     * 写入失败后按正常的时机再保存一次
+     */
+    private void onWriteFailed() {
+        if (mWriteFailed) {
+            onEdited();
+        }
+    }
+
+    /**
+     * {@link NotePad.Notes#METHOD_PATCH_NOTE} 的参数
+     */
+    static Bundle toExtras(List<PieceTable.Edit> edits) {
+        int[] starts = new int[edits.size()];
+        int[] lengths = new int[starts.length];
+        String[] texts = new String[starts.length];
+        for (int i = 0; i < starts.length; i++) {
+            PieceTable.Edit edit = edits.get(i);
+            starts[i] = edit.start;
+            lengths[i] = edit.length;
+            texts[i] = edit.text;
+        }
+        Bundle extras = new Bundle();
+        extras.putIntArray(NotePad.Notes.EXTRA_PATCH_STARTS, starts);
+        extras.putIntArray(NotePad.Notes.EXTRA_PATCH_LENGTHS, lengths);
+        extras.putStringArray(NotePad.Notes.EXTRA_PATCH_TEXTS, texts);
+        return extras;
+    }
+
+    /**
+     * 文本的64位FNV-1a哈希，逐字符读取，不复制文本
+     */
+    static long fingerprint(CharSequence text) {
+        long hash = 0xcbf29ce484222325L;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash ^ length;
+    }
+}
@@ -20,24 +20,32 @@ import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.ClipData;
 import android.content.ClipboardManager;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.net.Uri;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.Layout;
+import android.text.TextWatcher;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.EditText;
 import android.widget.TextView;
+import android.widget.Toast;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -50,22 +58,6 @@ public class NoteEditor extends Activity {
     // For logging and debugging purposes
     private static final String TAG = "NoteEditor";
 
-    /*
-     * Creates a projection that returns the note ID, title, note contents and category.
-     */
-    private static final String[] PROJECTION =
-            new String[] {
-                    NotePad.Notes._ID,
-                    NotePad.Notes.COLUMN_NAME_TITLE,
-                    NotePad.Notes.COLUMN_NAME_NOTE,
-                    NotePad.Notes.COLUMN_NAME_CATEGORY // 新增分类列
-            };
-
-    // 定义列索引
-    private static final int COLUMN_INDEX_TITLE = 1;
-    private static final int COLUMN_INDEX_NOTE = 2;
-    private static final int COLUMN_INDEX_CATEGORY = 3; // 新增分类列索引
-
     // 保存状态的标签
     private static final String ORIGINAL_CONTENT = "origContent";
     private static final String ORIGINAL_TITLE = "origTitle";
@@ -78,28 +70,46 @@ public class NoteEditor extends Activity {
     // 全局变量
     private int mState;
     private Uri mUri;
-    private Cursor mCursor;
+    // 笔记已读出且未被删除或撤销，暂停时需要保存
+    private boolean mLoaded;
     private EditText mTitleText; // 标题输入框
     private EditText mNoteText;  // 正文输入框
     private String mOriginalTitle;
     private String mOriginalContent;
-    private String mOriginalCategory; // 新增原始分类
-    private String mCurrentCategory = "默认"; // 当前分类，默认"默认"
+    private long mOriginalCategoryId = -1; // 原始分类ID，-1表示尚未读取
+    private long mCurrentCategoryId = NotePad.Categories.DEFAULT_ID; // 当前分类，默认"默认"
+    private String mCurrentCategory = "默认"; // 当前分类的名称，用于显示
     private TextView mCategoryView; // 分类显示视图
     // 新增：控制是否忽略保存的标志位
     private boolean mIgnoreSave = false;
+    // 输入停顿后在后台线程保存
+    private NoteAutosaver mAutosaver;
+    // 正文的分段表，与编辑框同步修改，保存时只写入修改过的区间
+    private final PieceTable mDocument = new PieceTable();
+    // 在后台读取笔记，正文较长时分块追加
+    private NoteLoader mLoader;
+    // 分块读取时累积的原始正文，读完后成为 mOriginalContent
+    private StringBuilder mLoadedContent;
+    // 正在追加读出的正文，不算作修改
+    private boolean mAppendingChunk;
+    // 创建界面的时间，用于计量打开到可操作和读完正文的耗时；0表示不计量
+    private long mCreateStart;
 
     /**
      * 自定义带行线的EditText
      */
     public static class LinedEditText extends EditText {
         private Rect mRect;
+        private Rect mClip;
         private Paint mPaint;
+        // 上一帧画出的横线数，供渲染测试检查
+        int mDrawnLines;
 
         public LinedEditText(Context context, AttributeSet attrs) {
             super(context, attrs);
 
             mRect = new Rect();
+            mClip = new Rect();
             mPaint = new Paint();
             mPaint.setStyle(Paint.Style.STROKE);
             mPaint.setColor(0x800000FF);
@@ -107,14 +117,26 @@ public class NoteEditor extends Activity {
 
         @Override
         protected void onDraw(Canvas canvas) {
-            int count = getLineCount();
+            Layout layout = getLayout();
             Rect r = mRect;
+            Rect clip = mClip;
             Paint paint = mPaint;
-
-            for (int i = 0; i < count; i++) {
-                int baseline = getLineBounds(i, r);
-                canvas.drawLine(r.left, baseline + 1, r.right, baseline + 1, paint);
+            int drawn = 0;
+
+            // 只画与裁剪区域和当前滚动位置相交的行，每帧的开销与正文总行数无关
+            if (layout != null && canvas.getClipBounds(clip)) {
+                int top = Math.max(clip.top, getScrollY());
+                int bottom = Math.min(clip.bottom, getScrollY() + getHeight());
+                int offset = getExtendedPaddingTop();
+                int first = layout.getLineForVertical(top - offset);
+                int last = layout.getLineForVertical(bottom - offset);
+                for (int i = first; i <= last && top < bottom; i++) {
+                    int baseline = getLineBounds(i, r);
+                    canvas.drawLine(r.left, baseline + 1, r.right, baseline + 1, paint);
+                    drawn++;
+                }
             }
+            mDrawnLines = drawn;
 
             super.onDraw(canvas);
         }
@@ -122,6 +144,9 @@ public class NoteEditor extends Activity {
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        // 计量从创建到首次绘制的耗时
+        final long createStart = PerfMetrics.start();
+        mCreateStart = createStart;
         super.onCreate(savedInstanceState);
 
         final Intent intent = getIntent();
@@ -142,7 +167,7 @@ public class NoteEditor extends Activity {
             initialValues.put(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE, currentTime);
             initialValues.put(NotePad.Notes.COLUMN_NAME_TITLE, "");
             initialValues.put(NotePad.Notes.COLUMN_NAME_NOTE, "");
-            initialValues.put(NotePad.Notes.COLUMN_NAME_CATEGORY, mCurrentCategory); // 新增默认分类
+            initialValues.put(NotePad.Notes.COLUMN_NAME_CATEGORY_ID, mCurrentCategoryId); // 新增默认分类
 
             mUri = getContentResolver().insert(intent.getData(), initialValues);
 
@@ -159,15 +184,6 @@ public class NoteEditor extends Activity {
             return;
         }
 
-        // 查询笔记数据（包含分类）
-        mCursor = managedQuery(
-                mUri,
-                PROJECTION,
-                null,
-                null,
-                null
-        );
-
         // 处理粘贴操作
         if (Intent.ACTION_PASTE.equals(action)) {
             performPaste();
@@ -183,17 +199,84 @@ public class NoteEditor extends Activity {
         mCategoryView = (TextView) findViewById(R.id.current_category);
         findViewById(R.id.select_category).setOnClickListener(v -> showCategoryDialog());
 
+        // 自动保存：标题、正文的每次修改都推迟到输入停顿后保存
+        mAutosaver = new NoteAutosaver(getContentResolver(), mUri, new NoteAutosaver.Source() {
+            @Override
+            public CharSequence title() {
+                return mTitleText.getText();
+            }
+
+            @Override
+            public PieceTable document() {
+                return mDocument;
+            }
+
+            @Override
+            public long categoryId() {
+                return mCurrentCategoryId;
+            }
+
+            @Override
+            public boolean complete() {
+                return mLoaded && mLoadedContent == null;
+            }
+        });
+        mTitleText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                mAutosaver.onEdited();
+            }
+        });
+        mNoteText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+                if (!mAppendingChunk) {
+                    mDocument.replace(start, start + before, s, start, start + count);
+                }
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                if (!mAppendingChunk) {
+                    mAutosaver.onEdited();
+                }
+            }
+        });
+
         // 恢复保存的状态
         if (savedInstanceState != null) {
             mOriginalTitle = savedInstanceState.getString(ORIGINAL_TITLE);
             mOriginalContent = savedInstanceState.getString(ORIGINAL_CONTENT);
-            mOriginalCategory = savedInstanceState.getString(ORIGINAL_CATEGORY);
-            mCurrentCategory = mOriginalCategory;
-            mCategoryView.setText(mCurrentCategory);
+            mOriginalCategoryId = savedInstanceState.getLong(ORIGINAL_CATEGORY, -1);
         }
 
         // 设置标题栏文本
         setTitleBarText();
+
+        if (createStart != 0) {
+            final View content = findViewById(android.R.id.content);
+            content.getViewTreeObserver().addOnPreDrawListener(
+                    new ViewTreeObserver.OnPreDrawListener() {
+                        @Override
+                        public boolean onPreDraw() {
+                            content.getViewTreeObserver().removeOnPreDrawListener(this);
+                            PerfMetrics.end(PerfMetrics.EDITOR_FIRST_DRAW, createStart);
+                            return true;
+                        }
+                    });
+        }
     }
 
     /**
@@ -211,41 +294,119 @@ public class NoteEditor extends Activity {
     protected void onResume() {
         super.onResume();
 
-        if (mCursor != null) {
-            mCursor.requery();
-            mCursor.moveToFirst();
-
-            // 加载标题、正文内容和分类
-            String title = mCursor.getString(COLUMN_INDEX_TITLE);
-            String content = mCursor.getString(COLUMN_INDEX_NOTE);
-            String category = mCursor.getString(COLUMN_INDEX_CATEGORY);
-
-            mTitleText.setText(title);
-            mNoteText.setTextKeepState(content);
-            mCurrentCategory = category;
-            mCategoryView.setText(mCurrentCategory);
-
-            // 保存原始内容用于判断修改
-            if (mOriginalTitle == null) {
-                mOriginalTitle = title;
+        // 在后台重新读取笔记；读取排在暂停时提交的保存之后
+        if (mLoader != null) {
+            mLoader.cancel();
+        }
+        mLoader = new NoteLoader(getContentResolver(), mUri, mAutosaver,
+                new NoteLoader.Listener() {
+            @Override
+            public void onHeader(NoteLoader.Header header) {
+                showNote(header);
             }
-            if (mOriginalContent == null) {
-                mOriginalContent = content;
+
+            @Override
+            public void onChunk(String chunk, boolean last) {
+                appendChunk(chunk, last);
             }
-            if (mOriginalCategory == null) {
-                mOriginalCategory = category;
+
+            @Override
+            public void onChunkFailed() {
+                // 正文没有读完：保留已读出的开头（mLoadedContent），撤销时只替换这一部分
+                if (mLoaded && mLoadedContent != null) {
+                    Toast.makeText(NoteEditor.this, R.string.error_partial_load,
+                            Toast.LENGTH_LONG).show();
+                }
             }
-        } else {
+        });
+        mLoader.start();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mLoader != null) {
+            mLoader.cancel();
+        }
+    }
+
+    /**
+     * 显示标题、分类和正文开头，正文较长时继续读取其余部分
+     */
+    private void showNote(NoteLoader.Header header) {
+        if (header == null) {
+            mLoaded = false;
             setTitle(getText(R.string.error_title));
             mNoteText.setText(getText(R.string.error_message));
+            return;
+        }
+
+        // 加载标题、正文内容和分类
+        mTitleText.setText(header.title);
+        mAppendingChunk = true;
+        mNoteText.setTextKeepState(header.body);
+        mAppendingChunk = false;
+        mCurrentCategoryId = header.categoryId;
+        mCurrentCategory = header.category;
+        mCategoryView.setText(mCurrentCategory);
+        mDocument.reset(header.body);
+        mAutosaver.markSaved();
+        mLoaded = true;
+
+        // 保存原始内容用于撤销修改
+        if (mOriginalTitle == null) {
+            mOriginalTitle = header.title;
+        }
+        if (mOriginalCategoryId < 0) {
+            mOriginalCategoryId = header.categoryId;
+        }
+        PerfMetrics.end(PerfMetrics.EDITOR_INTERACTIVE, mCreateStart);
+
+        if (header.complete) {
+            mLoadedContent = null;
+            finishLoading(header.body);
+        } else {
+            mLoadedContent = new StringBuilder(header.body);
+            mLoader.loadNext(mDocument.savedCodePoints());
         }
     }
 
+    /**
+     * 在正文末尾追加读出的一块；读取期间已输入的修改不受影响
+     */
+    private void appendChunk(String chunk, boolean last) {
+        if (!mLoaded || mLoadedContent == null) {
+            return;
+        }
+        mAppendingChunk = true;
+        mNoteText.getText().append(chunk);
+        mAppendingChunk = false;
+        mDocument.appendSaved(chunk);
+        mLoadedContent.append(chunk);
+
+        if (last) {
+            String content = mLoadedContent.toString();
+            mLoadedContent = null;
+            finishLoading(content);
+        } else {
+            mLoader.loadNext(mDocument.savedCodePoints());
+        }
+    }
+
+    private void finishLoading(String content) {
+        if (mOriginalContent == null) {
+            mOriginalContent = content;
+        }
+        PerfMetrics.end(PerfMetrics.EDITOR_FULL_LOAD, mCreateStart);
+        // 重新打开时（onResume）不再计量
+        mCreateStart = 0;
+    }
+
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         outState.putString(ORIGINAL_TITLE, mOriginalTitle);
         outState.putString(ORIGINAL_CONTENT, mOriginalContent);
-        outState.putString(ORIGINAL_CATEGORY, mOriginalCategory); // 保存原始分类
+        outState.putLong(ORIGINAL_CATEGORY, mOriginalCategoryId); // 保存原始分类
         super.onSaveInstanceState(outState);
     }
 
@@ -258,22 +419,21 @@ public class NoteEditor extends Activity {
             return;
         }
 
-        if (mCursor != null) {
-            String currentTitle = mTitleText.getText().toString();
-            String currentContent = mNoteText.getText().toString();
-
-            // 内容或分类有变化才更新
-            if (!currentTitle.equals(mOriginalTitle)
-                    || !currentContent.equals(mOriginalContent)
-                    || !mCurrentCategory.equals(mOriginalCategory)) {
-                updateNote(currentContent, currentTitle);
-                mOriginalTitle = currentTitle;
-                mOriginalContent = currentContent;
-                mOriginalCategory = mCurrentCategory;
-            }
+        // 内容或分类有变化才写入，写入在后台线程进行，不阻塞界面切换
+        if (mLoaded) {
+            mAutosaver.save();
         }
     }
 
+    /**
+     * adb shell dumpsys activity com.example.android.notepad/.NoteEditor 时输出性能计量
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        PerfMetrics.dump(prefix + "  ", writer, args);
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         MenuInflater inflater = getMenuInflater();
@@ -284,7 +444,7 @@ public class NoteEditor extends Activity {
 
     @Override
     public boolean onPrepareOptionsMenu(Menu menu) {
-        if (mCursor != null) {
+        if (mLoaded) {
             menu.findItem(R.id.menu_back).setVisible(true);
         }
         return super.onPrepareOptionsMenu(menu);
@@ -299,19 +459,15 @@ public class NoteEditor extends Activity {
             if (mState == STATE_INSERT) {
                 deleteNote();
             } else {
-                // 编辑状态：恢复原始内容（包括分类）
-                mTitleText.setText(mOriginalTitle);
-                mNoteText.setText(mOriginalContent);
-                mCurrentCategory = mOriginalCategory;
-                mCategoryView.setText(mCurrentCategory);
+                // 编辑状态：恢复原始内容（包括分类），已自动保存的修改也要撤销
+                mLoader.cancel();
+                revertSavedChanges();
             }
             mIgnoreSave = true; // 标记忽略保存
             finish(); // 返回主页
             return true;
         } else if (id == R.id.menu_save) {
-            String title = mTitleText.getText().toString();
-            String content = mNoteText.getText().toString();
-            updateNote(content, title);
+            mAutosaver.save();
             finish();
         } else if (id == R.id.menu_delete) {
             deleteNote();
@@ -335,36 +491,47 @@ public class NoteEditor extends Activity {
     }
 
     /**
-     * 更新笔记内容、标题和分类
+     * 撤销已自动保存的修改，恢复打开时的标题、正文和分类。
+     * 正文还没读完时只有已读出的开头可能被修改过，用原始的开头替换数据库中对应的部分
      */
-    private void updateNote(String content, String title) {
+    private void revertSavedChanges() {
+        mAutosaver.cancel();
+        if (!mAutosaver.hasWritten()) {
+            return;
+        }
         ContentValues values = new ContentValues();
-        values.put(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE, System.currentTimeMillis());
-        values.put(NotePad.Notes.COLUMN_NAME_NOTE, content);
-        values.put(NotePad.Notes.COLUMN_NAME_TITLE, title);
-        values.put(NotePad.Notes.COLUMN_NAME_CATEGORY, mCurrentCategory); // 新增分类更新
-
-        getContentResolver().update(mUri, values, null, null);
+        values.put(NotePad.Notes.COLUMN_NAME_TITLE, mOriginalTitle);
+        values.put(NotePad.Notes.COLUMN_NAME_CATEGORY_ID, mOriginalCategoryId); // 恢复分类
+        if (mOriginalContent != null) {
+            values.put(NotePad.Notes.COLUMN_NAME_NOTE, mOriginalContent);
+            mAutosaver.write(Collections.<PieceTable.Edit>emptyList(), values);
+        } else {
+            mAutosaver.write(Collections.singletonList(new PieceTable.Edit(
+                    0, mDocument.savedCodePoints(), mLoadedContent.toString())), values);
+        }
     }
 
     /**
      * 取消编辑，恢复原始内容（包括分类）
      */
     private void cancelNote() {
-        if (mCursor != null) {
+        if (mLoaded) {
             if (mState == STATE_EDIT) {
-                mCursor.close();
-                mCursor = null;
-                ContentValues values = new ContentValues();
-                values.put(NotePad.Notes.COLUMN_NAME_TITLE, mOriginalTitle);
-                values.put(NotePad.Notes.COLUMN_NAME_NOTE, mOriginalContent);
-                values.put(NotePad.Notes.COLUMN_NAME_CATEGORY, mOriginalCategory); // 恢复分类
-                getContentResolver().update(mUri, values, null, null);
+                mLoaded = false;
+                mLoader.cancel();
+                // 与自动保存使用同一个写入线程，恢复的内容不会被排队中的保存覆盖
+                revertSavedChanges();
 
                 mTitleText.setText(mOriginalTitle);
-                mNoteText.setText(mOriginalContent);
-                mCurrentCategory = mOriginalCategory;
+                if (mOriginalContent != null) {
+                    mNoteText.setText(mOriginalContent);
+                    mDocument.reset(mOriginalContent);
+                }
+                mCurrentCategoryId = mOriginalCategoryId;
+                mCurrentCategory = CategoryMap.query(getContentResolver(), false)
+                        .nameOf(mOriginalCategoryId);
                 mCategoryView.setText(mCurrentCategory);
+                mAutosaver.markSaved();
             } else if (mState == STATE_INSERT) {
                 deleteNote();
             }
@@ -376,13 +543,15 @@ public class NoteEditor extends Activity {
      * 删除笔记
      */
     private void deleteNote() {
-        if (mCursor != null) {
-            mCursor.close();
-            mCursor = null;
+        if (mLoaded) {
+            mLoaded = false;
+            mLoader.cancel();
             getContentResolver().delete(mUri, null, null);
             mTitleText.setText("");
             mNoteText.setText("");
             mCategoryView.setText("");
+            // 笔记已删除，不再保存清空后的内容
+            mAutosaver.cancel();
         }
     }
 
@@ -392,12 +561,52 @@ public class NoteEditor extends Activity {
     private void showCategoryDialog() {
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
         builder.setTitle("选择类别");
-        // 假设CategoryUtils包含静态分类列表
-        String[] categories = CategoryUtils.CATEGORIES.toArray(new String[0]);
-        builder.setItems(categories, (dialog, which) -> {
-            mCurrentCategory = categories[which];
-            mCategoryView.setText(mCurrentCategory);
+        // 分类表中的所有分类，最后一项用于新建分类
+        final CategoryMap categories = CategoryMap.query(getContentResolver(), false);
+        String[] items = new String[categories.size() + 1];
+        for (int i = 0; i < categories.size(); i++) {
+            items[i] = categories.name(i);
+        }
+        items[categories.size()] = "新建分类…";
+        builder.setItems(items, (dialog, which) -> {
+            if (which < categories.size()) {
+                setCategory(categories.id(which), categories.name(which));
+            } else {
+                showNewCategoryDialog();
+            }
         });
         builder.show();
     }
+
+    /**
+     * 输入名称新建分类，并把当前笔记移到这个分类；名称已存在时直接使用已有的分类
+     */
+    private void showNewCategoryDialog() {
+        final EditText nameText = new EditText(this);
+        nameText.setSingleLine();
+        new AlertDialog.Builder(this)
+                .setTitle("新建分类")
+                .setView(nameText)
+                .setPositiveButton(android.R.string.ok, (dialog, which) -> {
+                    String name = nameText.getText().toString().trim();
+                    if (name.isEmpty()) {
+                        return;
+                    }
+                    ContentValues values = new ContentValues();
+                    values.put(NotePad.Categories.COLUMN_NAME_NAME, name);
+                    Uri uri = getContentResolver().insert(NotePad.Categories.CONTENT_URI, values);
+                    if (uri != null) {
+                        setCategory(ContentUris.parseId(uri), name);
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    private void setCategory(long id, String name) {
+        mCurrentCategoryId = id;
+        mCurrentCategory = name;
+        mCategoryView.setText(mCurrentCategory);
+        mAutosaver.onEdited();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,203 @@
+package com.example.android.notepad;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * 编辑界面读取笔记：先在后台读出标题、分类和正文开头约一屏的内容，立即显示，界面即可操作；
+ * 较长的正文随后按块读取，每读一块交给主线程追加到编辑框，处理完一块才读下一块，
+ * 追加与输入事件交替进行，不会一次占住主线程。
+ *
+ * 读取在自动保存的写入线程中进行（{@link NoteAutosaver#execute}），与保存按提交顺序执行：
+ * 读到的总是此前的保存完成后的内容。下一块的起点由调用方按已保存正文的位置给出
+ * （{@link PieceTable#savedCodePoints()}），读取过程中保存了修改也能接上；
+ * 有写入失败的修改时按 {@link NoteAutosaver#storedOffset(int)} 换算成数据库中的位置。
+ */
+final class NoteLoader {
+
+    /**
+     * 读取结果回调，总是在主线程调用；取消后不再回调
+     */
+    interface Listener {
+        /**
+         * 标题、分类和正文开头已读出
+         * @param header 笔记不存在或读取失败时为null
+         */
+        void onHeader(Header header);
+
+        /**
+         * 正文的下一块已读出，处理后调用 {@link #loadNext(int)} 继续
+         * @param last 是否已读到正文末尾
+         */
+        void onChunk(String chunk, boolean last);
+
+        /**
+         * 读取正文的下一块失败（或笔记已被删除），正文没有读完，不再继续读取
+         */
+        void onChunkFailed();
+    }
+
+    /**
+     * 笔记的标题、分类和正文开头
+     */
+    static final class Header {
+        final String title;
+        final long categoryId;
+        final String category;
+        final String body;
+        // 正文的码点数
+        final int length;
+        // body 是否已是完整的正文
+        final boolean complete;
+
+        Header(String title, long categoryId, String category, String body, int length) {
+            this.title = title;
+            this.categoryId = categoryId;
+            this.category = category;
+            this.body = body;
+            this.length = length;
+            this.complete = body.codePointCount(0, body.length()) >= length;
+        }
+    }
+
+    // 正文开头读取的码点数，大约一屏
+    static final int FIRST_CHUNK_LENGTH = 4 * 1024;
+    // 之后每块的码点数
+    static final int CHUNK_LENGTH = 64 * 1024;
+
+    private static final String TAG = "NoteLoader";
+
+    private static final String[] HEADER_PROJECTION = new String[] {
+            NotePad.Notes.COLUMN_NAME_TITLE,
+            NotePad.Notes.COLUMN_NAME_CATEGORY_ID,
+            NotePad.Notes.COLUMN_NAME_CATEGORY,
+            NotePad.Notes.COLUMN_NAME_NOTE_CHUNK,
+            NotePad.Notes.COLUMN_NAME_NOTE_LENGTH
+    };
+
+    private static final String[] CHUNK_PROJECTION = new String[] {
+            NotePad.Notes.COLUMN_NAME_NOTE_CHUNK
+    };
+
+    private final ContentResolver mResolver;
+    private final Uri mUri;
+    // 同一笔记的自动保存，没有时为null
+    private final NoteAutosaver mSaver;
+    private final Listener mListener;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private volatile boolean mCancelled;
+
+    NoteLoader(ContentResolver resolver, Uri uri, NoteAutosaver saver, Listener listener) {
+        mResolver = resolver;
+        mUri = uri;
+        mSaver = saver;
+        mListener = listener;
+    }
+
+    void start() {
+        NoteAutosaver.execute(this::readHeader);
+    }
+
+    /**
+     * 读取从已保存正文第 start 个码点开始的下一块
+     */
+    void loadNext(int start) {
+        NoteAutosaver.execute(() -> readChunk(start));
+    }
+
+    /**
+     * 取消读取；取消后不会再回调
+     */
+    void cancel() {
+        mCancelled = true;
+    }
+
+    private void readHeader() {
+        if (mCancelled) {
+            return;
+        }
+        // 编辑器将按读出的内容重置，写入失败的修改要先补上
+        if (mSaver != null) {
+            mSaver.retryUnwritten();
+        }
+        Header header = null;
+        try {
+            Cursor c = mResolver.query(chunkUri(0, FIRST_CHUNK_LENGTH), HEADER_PROJECTION,
+                    null, null, null);
+            if (c != null) {
+                try {
+                    if (c.moveToFirst()) {
+                        String body = c.getString(3);
+                        header = new Header(c.getString(0), c.getLong(1), c.getString(2),
+                                body != null ? body : "", c.getInt(4));
+                    }
+                } finally {
+                    c.close();
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to load " + mUri, e);
+        }
+        final Header result = header;
+        mHandler.post(() -> {
+            if (!mCancelled) {
+                mListener.onHeader(result);
+            }
+        });
+    }
+
+    private void readChunk(int start) {
+        if (mCancelled) {
+            return;
+        }
+        if (mSaver != null) {
+            start = mSaver.storedOffset(start);
+        }
+        String chunk = null;
+        try {
+            Cursor c = mResolver.query(chunkUri(start, CHUNK_LENGTH), CHUNK_PROJECTION,
+                    null, null, null);
+            if (c != null) {
+                try {
+                    if (c.moveToFirst()) {
+                        chunk = c.getString(0) != null ? c.getString(0) : "";
+                    }
+                } finally {
+                    c.close();
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to load " + mUri, e);
+        }
+        if (chunk == null) {
+            mHandler.post(() -> {
+                if (!mCancelled) {
+                    mListener.onChunkFailed();
+                }
+            });
+            return;
+        }
+        // 不足一块说明已到末尾
+        final String result = chunk;
+        final boolean last = chunk.codePointCount(0, chunk.length()) < CHUNK_LENGTH;
+        mHandler.post(() -> {
+            if (!mCancelled) {
+                mListener.onChunk(result, last);
+            }
+        });
+    }
+
+    private Uri chunkUri(int start, int length) {
+        return mUri.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_CHUNK_START,
+                        Integer.toString(start))
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_CHUNK_LENGTH,
+                        Integer.toString(length))
+                .build();
+    }
+}
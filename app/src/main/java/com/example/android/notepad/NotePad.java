@@ -78,6 +78,11 @@ public final class NotePad {
          */
         private static final String PATH_LIVE_FOLDER = "/live_folders/notes";
 
+        /**
+         * 按月份汇总的路径
+         */
+        private static final String PATH_MONTHS = "/notes/months";
+
         /**
          * The content:// style URL for this table
          */
@@ -103,6 +108,12 @@ public final class NotePad {
         public static final Uri LIVE_FOLDER_URI
             = Uri.parse(SCHEME + AUTHORITY + PATH_LIVE_FOLDER);
 
+        /**
+         * 按修改月份汇总的笔记数，只能查询。每行一个月份（{@link #COLUMN_NAME_MONTH}）及该月的笔记数
+         * （{@link #_COUNT}），从新到旧排列，与按修改时间倒序的列表一致；可以带与列表相同的查询条件。
+         */
+        public static final Uri MONTHS_URI = Uri.parse(SCHEME + AUTHORITY + PATH_MONTHS);
+
         /*
          * MIME type definitions
          */
@@ -118,11 +129,129 @@ public final class NotePad {
          */
         public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.google.note";
 
+        /**
+         * {@link #MONTHS_URI} 的MIME类型
+         */
+        public static final String MONTHS_CONTENT_TYPE =
+                "vnd.android.cursor.dir/vnd.google.note-month";
+
         /**
          * The default sort order for this table
          */
         public static final String DEFAULT_SORT_ORDER = "modified DESC";
 
+        /*
+         * Query parameter definitions
+         */
+
+        /**
+         * 模糊搜索参数：附加到 {@link #CONTENT_URI} 后，按标题词条的编辑距离容错匹配
+         */
+        public static final String QUERY_PARAMETER_FUZZY = "fuzzy";
+
+        /**
+         * 相关度搜索参数：按BM25得分返回最相关的笔记，未指定排序时按得分从高到低排列
+         */
+        public static final String QUERY_PARAMETER_RANKED = "ranked";
+
+        /**
+         * 相关度搜索的分类参数：逗号分隔的分类ID，得分最高的笔记只在这些分类中选出；
+         * 随结果返回的分类统计仍包括所有分类中匹配的笔记
+         */
+        public static final String QUERY_PARAMETER_RANKED_CATEGORIES = "ranked_categories";
+
+        /**
+         * 查询语言参数：支持 AND / OR、以 - 排除、引号短语以及 title: / note: / category:
+         * 字段前缀，Provider会将其编译为一条查询条件
+         */
+        public static final String QUERY_PARAMETER_QUERY = "query";
+
+        /**
+         * 摘要参数：指定搜索词后，Provider为每行追加匹配位置和上下文摘要列
+         * （{@link #COLUMN_NAME_MATCH_FIELD} 等），客户端无需再自行扫描标题和正文
+         */
+        public static final String QUERY_PARAMETER_HIGHLIGHT = "highlight";
+
+        /**
+         * 限制参数：最多返回的行数，配合排序和查询条件可以分块读取笔记
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * 分段参数：查询单条笔记的 {@link #COLUMN_NAME_NOTE_CHUNK} 时该段在正文中的起点（码点，从0开始），
+         * 默认为0
+         */
+        public static final String QUERY_PARAMETER_CHUNK_START = "chunk_start";
+
+        /**
+         * 分段参数：{@link #COLUMN_NAME_NOTE_CHUNK} 的码点数，默认且最多为 {@link #MAX_NOTE_CHUNK_LENGTH}
+         */
+        public static final String QUERY_PARAMETER_CHUNK_LENGTH = "chunk_length";
+
+        /**
+         * 标签筛选参数：逗号分隔的标签ID，只返回带有其中每一个标签的笔记
+         */
+        public static final String QUERY_PARAMETER_TAGS_ALL = "tags_all";
+
+        /**
+         * 标签筛选参数：逗号分隔的标签ID，只返回至少带有其中一个标签的笔记。
+         * 与 {@link #QUERY_PARAMETER_TAGS_ALL} 同时使用时两个条件都要满足
+         */
+        public static final String QUERY_PARAMETER_TAGS_ANY = "tags_any";
+
+        /*
+         * Provider call() definitions
+         */
+
+        /**
+         * {@link android.content.ContentResolver#call} 方法名：返回搜索结果缓存的统计信息，
+         * Bundle中包含 {@link #EXTRA_CACHE_HITS} 等键
+         */
+        public static final String METHOD_SEARCH_CACHE_STATS = "search_cache_stats";
+
+        /** 缓存命中次数 <P>Type: long</P> */
+        public static final String EXTRA_CACHE_HITS = "hits";
+
+        /** 缓存未命中次数 <P>Type: long</P> */
+        public static final String EXTRA_CACHE_MISSES = "misses";
+
+        /** 缓存估计占用的内存字节数 <P>Type: long</P> */
+        public static final String EXTRA_CACHE_BYTES = "bytes";
+
+        /** 缓存的查询条目数 <P>Type: int</P> */
+        public static final String EXTRA_CACHE_ENTRIES = "entries";
+
+        /**
+         * {@link android.content.ContentResolver#call} 方法名：只替换正文中修改过的区间，
+         * arg 为笔记ID。{@link #EXTRA_PATCH_STARTS}、{@link #EXTRA_PATCH_LENGTHS} 和
+         * {@link #EXTRA_PATCH_TEXTS} 一一对应，区间按位置从前到后排列、互不重叠，
+         * 位置都相对修改前的正文，以码点计。返回的Bundle中 {@link #EXTRA_PATCH_COUNT} 为更新的行数
+         */
+        public static final String METHOD_PATCH_NOTE = "patch_note";
+
+        /** 每个区间的起始码点 <P>Type: int[]</P> */
+        public static final String EXTRA_PATCH_STARTS = "patch_starts";
+
+        /** 每个区间被替换的码点数 <P>Type: int[]</P> */
+        public static final String EXTRA_PATCH_LENGTHS = "patch_lengths";
+
+        /** 每个区间替换后的文本 <P>Type: String[]</P> */
+        public static final String EXTRA_PATCH_TEXTS = "patch_texts";
+
+        /** 更新的行数，笔记不存在时为0 <P>Type: int</P> */
+        public static final String EXTRA_PATCH_COUNT = "patch_count";
+
+        /*
+         * 搜索结果的分类统计。相关度搜索只返回得分最高的若干条，
+         * 这时全部匹配笔记按分类的笔记数放在Cursor的extras中（见 Cursor#getExtras()）
+         */
+
+        /** 有匹配笔记的分类ID <P>Type: long[]</P> */
+        public static final String EXTRA_FACET_CATEGORY_IDS = "facet_category_ids";
+
+        /** 与 {@link #EXTRA_FACET_CATEGORY_IDS} 一一对应的匹配笔记数 <P>Type: int[]</P> */
+        public static final String EXTRA_FACET_COUNTS = "facet_counts";
+
         /*
          * Column definitions
          */
@@ -152,9 +281,262 @@ public final class NotePad {
         public static final String COLUMN_NAME_MODIFICATION_DATE = "modified";
 
         /**
-         * 新增：分类字段定义
+         * 分类名称，查询时由 {@link #COLUMN_NAME_CATEGORY_ID} 从分类表中取得。
+         * 写入时也可以只给出名称，Provider会转换为分类ID，不存在的名称会自动新建分类
          * <P>Type: TEXT</P>
          */
         public static final String COLUMN_NAME_CATEGORY = "category";
+
+        /**
+         * 所属分类在 {@link Categories} 表中的ID，默认为 {@link Categories#DEFAULT_ID}。
+         * 按分类筛选时应比较这一列
+         * <P>Type: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_CATEGORY_ID = "category_id";
+
+        /**
+         * 标题的规范化影子列（NFKC、大小写折叠、去标点），由Provider在写入时维护，
+         * 只用于搜索条件，客户端不应写入
+         * <P>Type: TEXT</P>
+         */
+        public static final String COLUMN_NAME_TITLE_NORMALIZED = "title_norm";
+
+        /**
+         * 正文的规范化影子列，规则同 {@link #COLUMN_NAME_TITLE_NORMALIZED}
+         * <P>Type: TEXT</P>
+         */
+        public static final String COLUMN_NAME_NOTE_NORMALIZED = "note_norm";
+
+        /**
+         * 正文开头最多 {@link #NOTE_PREVIEW_LENGTH} 个字符，供列表预览使用，只能用于查询。
+         * 列表不需要读出完整的正文。
+         * <P>Type: TEXT</P>
+         */
+        public static final String COLUMN_NAME_NOTE_PREVIEW = "note_preview";
+
+        /**
+         * {@link #COLUMN_NAME_NOTE_PREVIEW} 的最大长度
+         */
+        public static final int NOTE_PREVIEW_LENGTH = 400;
+
+        /**
+         * 正文中的一段，位置由 {@link #QUERY_PARAMETER_CHUNK_START} 和
+         * {@link #QUERY_PARAMETER_CHUNK_LENGTH} 指定，只能用于查询单条笔记。
+         * 很长的正文超出 CursorWindow 的容量，需要分段读取
+         * <P>Type: TEXT</P>
+         */
+        public static final String COLUMN_NAME_NOTE_CHUNK = "note_chunk";
+
+        /**
+         * {@link #COLUMN_NAME_NOTE_CHUNK} 的最大码点数；每个码点在 CursorWindow 中最多占4字节
+         */
+        public static final int MAX_NOTE_CHUNK_LENGTH = 256 * 1024;
+
+        /**
+         * 正文的码点数，只能用于查询
+         * <P>Type: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_NOTE_LENGTH = "note_length";
+
+        /**
+         * 修改时间所在的月份（东八区），格式为 yyyy-MM，仅用于 {@link #MONTHS_URI}
+         * <P>Type: TEXT</P>
+         */
+        public static final String COLUMN_NAME_MONTH = "month";
+
+        /*
+         * 搜索摘要列，仅在查询带有 {@link #QUERY_PARAMETER_HIGHLIGHT} 参数时可用
+         */
+
+        /**
+         * 匹配所在字段：{@link #MATCH_FIELD_NONE}、{@link #MATCH_FIELD_TITLE} 或
+         * {@link #MATCH_FIELD_NOTE}
+         * <P>Type: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_MATCH_FIELD = "match_field";
+
+        /**
+         * 匹配所在的正文行号（从1开始），标题匹配时为0
+         * <P>Type: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_MATCH_LINE = "match_line";
+
+        /**
+         * 匹配词及其前后上下文
+         * <P>Type: TEXT</P>
+         */
+        public static final String COLUMN_NAME_SNIPPET = "snippet";
+
+        /**
+         * 匹配词在摘要中的起始位置（包含）
+         * <P>Type: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_SNIPPET_HIGHLIGHT_START = "snippet_start";
+
+        /**
+         * 匹配词在摘要中的结束位置（不包含）
+         * <P>Type: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_SNIPPET_HIGHLIGHT_END = "snippet_end";
+
+        /**
+         * {@link #COLUMN_NAME_MATCH_FIELD} 的取值
+         */
+        public static final int MATCH_FIELD_NONE = 0;
+        public static final int MATCH_FIELD_TITLE = 1;
+        public static final int MATCH_FIELD_NOTE = 2;
+    }
+
+    /**
+     * 分类表：用户可以新建、重命名和删除分类。笔记通过 {@link Notes#COLUMN_NAME_CATEGORY_ID}
+     * 引用分类；删除分类时其中的笔记移到默认分类，默认分类本身不能删除
+     */
+    public static final class Categories implements BaseColumns {
+
+        // This class cannot be instantiated
+        private Categories() {}
+
+        /**
+         * The table name offered by this provider
+         */
+        public static final String TABLE_NAME = "categories";
+
+        private static final String SCHEME = "content://";
+
+        private static final String PATH_CATEGORIES = "/categories";
+
+        private static final String PATH_CATEGORY_ID = "/categories/";
+
+        /**
+         * 0-relative position of a category ID segment in the path part of a category ID URI
+         */
+        public static final int CATEGORY_ID_PATH_POSITION = 1;
+
+        /**
+         * 所有分类，按 {@link #DEFAULT_SORT_ORDER} 排列。查询时可以取得每个分类的笔记数
+         * （{@link #_COUNT}）；插入已存在的名称时返回已有分类的URI
+         */
+        public static final Uri CONTENT_URI = Uri.parse(SCHEME + AUTHORITY + PATH_CATEGORIES);
+
+        /**
+         * 单个分类的URI前缀，后接分类ID
+         */
+        public static final Uri CONTENT_ID_URI_BASE
+            = Uri.parse(SCHEME + AUTHORITY + PATH_CATEGORY_ID);
+
+        /**
+         * {@link #CONTENT_URI} 的MIME类型
+         */
+        public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.google.note-category";
+
+        /**
+         * 单个分类的MIME类型
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                "vnd.android.cursor.item/vnd.google.note-category";
+
+        /**
+         * 默认排序：按显示位置，位置相同时按创建顺序
+         */
+        public static final String DEFAULT_SORT_ORDER = "position ASC, _id ASC";
+
+        /**
+         * 默认分类的ID，未指定分类的笔记和被删除分类中的笔记属于这个分类
+         */
+        public static final long DEFAULT_ID = 1;
+
+        /**
+         * 分类名称，不能为空且不能重复
+         * <P>Type: TEXT</P>
+         */
+        public static final String COLUMN_NAME_NAME = "name";
+
+        /**
+         * 显示位置，新建的分类排在最后
+         * <P>Type: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_POSITION = "position";
+    }
+
+    /**
+     * 标签表：一条笔记可以有多个标签，一个标签也可以属于多条笔记。
+     * 笔记的标签通过 {@link #noteTagsUri(long)} 查询、添加和移除；按标签筛选笔记时在
+     * {@link Notes#CONTENT_URI} 后附加 {@link Notes#QUERY_PARAMETER_TAGS_ALL} 或
+     * {@link Notes#QUERY_PARAMETER_TAGS_ANY} 参数
+     */
+    public static final class Tags implements BaseColumns {
+
+        // This class cannot be instantiated
+        private Tags() {}
+
+        /**
+         * The table name offered by this provider
+         */
+        public static final String TABLE_NAME = "tags";
+
+        private static final String SCHEME = "content://";
+
+        private static final String PATH_TAGS = "/tags";
+
+        private static final String PATH_TAG_ID = "/tags/";
+
+        /**
+         * 0-relative position of a tag ID segment in the path part of a tag ID URI
+         */
+        public static final int TAG_ID_PATH_POSITION = 1;
+
+        /**
+         * 所有标签，可以取得每个标签的笔记数（{@link #_COUNT}）；插入已存在的名称时返回已有标签的URI
+         */
+        public static final Uri CONTENT_URI = Uri.parse(SCHEME + AUTHORITY + PATH_TAGS);
+
+        /**
+         * 单个标签的URI前缀，后接标签ID
+         */
+        public static final Uri CONTENT_ID_URI_BASE = Uri.parse(SCHEME + AUTHORITY + PATH_TAG_ID);
+
+        /**
+         * {@link #CONTENT_URI} 的MIME类型
+         */
+        public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.google.note-tag";
+
+        /**
+         * 单个标签的MIME类型
+         */
+        public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.google.note-tag";
+
+        /**
+         * 默认按名称排序
+         */
+        public static final String DEFAULT_SORT_ORDER = "name ASC";
+
+        /**
+         * 标签名称，不能为空且不能重复
+         * <P>Type: TEXT</P>
+         */
+        public static final String COLUMN_NAME_NAME = "name";
+
+        /**
+         * 笔记与标签关联中的笔记ID，可以用在 {@link #noteTagsUri(long)} 的删除条件中
+         * <P>Type: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_NOTE_ID = "note_id";
+
+        /**
+         * 笔记与标签关联中的标签ID。向 {@link #noteTagsUri(long)} 插入时给出标签ID，
+         * 或者给出 {@link #COLUMN_NAME_NAME}（不存在的名称会自动新建标签）
+         * <P>Type: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_TAG_ID = "tag_id";
+
+        /**
+         * 一条笔记的所有标签，MIME类型为 {@link #CONTENT_TYPE}
+         */
+        public static Uri noteTagsUri(long noteId) {
+            return Notes.CONTENT_ID_URI_BASE.buildUpon()
+                    .appendPath(Long.toString(noteId))
+                    .appendPath(PATH_TAGS.substring(1))
+                    .build();
+        }
     }
 }
@@ -20,6 +20,7 @@ import com.example.android.notepad.NotePad;
 
 import android.content.ClipDescription;
 import android.content.ContentProvider;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
@@ -27,7 +28,10 @@ import android.content.UriMatcher;
 import android.content.ContentProvider.PipeDataWriter;
 import android.content.res.AssetFileDescriptor;
 import android.content.res.Resources;
+import android.database.AbstractCursor;
 import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
@@ -35,17 +39,25 @@ import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.ParcelFileDescriptor;
+import android.provider.BaseColumns;
 import android.provider.LiveFolders;
 import android.text.TextUtils;
 import android.util.Log;
 
+import java.io.FileDescriptor;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Provides access to a database of notes. Each note has a title, the note
@@ -63,7 +75,7 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
     /**
      * The database version
      */
-    private static final int DATABASE_VERSION = 3;
+    private static final int DATABASE_VERSION = 8;
 
     /**
      * A projection map used to select columns from the database
@@ -75,6 +87,21 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
      */
     private static HashMap<String, String> sLiveFolderProjectionMap;
 
+    /**
+     * 分类表的投影映射，笔记数由分类ID索引上的计数子查询得到
+     */
+    private static HashMap<String, String> sCategoriesProjectionMap;
+
+    /**
+     * 标签表的投影映射，笔记数由关联表上标签ID索引的计数子查询得到
+     */
+    private static HashMap<String, String> sTagsProjectionMap;
+
+    /**
+     * 一条笔记的标签：标签表与关联表连接
+     */
+    private static HashMap<String, String> sNoteTagsProjectionMap;
+
     /**
      * Standard projection for the interesting columns of a normal note.
      */
@@ -102,6 +129,39 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
     // The incoming URI matches the Live Folder URI pattern
     private static final int LIVE_FOLDER_NOTES = 3;
 
+    // 按月份汇总
+    private static final int MONTHS = 4;
+
+    // 所有分类
+    private static final int CATEGORIES = 5;
+
+    // 单个分类
+    private static final int CATEGORY_ID = 6;
+
+    // 所有标签
+    private static final int TAGS = 7;
+
+    // 单个标签
+    private static final int TAG_ID = 8;
+
+    // 一条笔记的标签
+    private static final int NOTE_TAGS = 9;
+
+    // 由笔记的分类ID取分类名称
+    private static final String CATEGORY_NAME_EXPRESSION = "(SELECT "
+            + NotePad.Categories.COLUMN_NAME_NAME + " FROM " + NotePad.Categories.TABLE_NAME
+            + " WHERE " + NotePad.Categories.TABLE_NAME + "." + NotePad.Categories._ID + " = "
+            + NotePad.Notes.TABLE_NAME + "." + NotePad.Notes.COLUMN_NAME_CATEGORY_ID + ")";
+
+    // 修改时间所在的月份（东八区，与列表显示的时间一致）
+    private static final String MONTH_EXPRESSION = "strftime('%Y-%m', "
+            + NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE + " / 1000, 'unixepoch', '+8 hours')";
+
+    private static final String[] MONTHS_PROJECTION = new String[] {
+            MONTH_EXPRESSION + " AS " + NotePad.Notes.COLUMN_NAME_MONTH,
+            "count(*) AS " + NotePad.Notes._COUNT
+    };
+
     /**
      * A UriMatcher instance
      */
@@ -110,6 +170,53 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
     // Handle to a new DatabaseHelper.
     private DatabaseHelper mOpenHelper;
 
+    // 保护内存搜索索引的锁，查询（Loader线程）和写入可能并发
+    private final Object mSearchIndexLock = new Object();
+
+    // 标题模糊索引和BM25相关度索引，首次搜索时一起从数据库构建；为null表示尚未构建或已失效
+    private FuzzyTitleIndex mFuzzyIndex;
+    private Bm25Index mRankIndex;
+
+    // 构建搜索索引需要的列
+    private static final String[] INDEX_PROJECTION = new String[] {
+            NotePad.Notes._ID,
+            NotePad.Notes.COLUMN_NAME_TITLE,
+            NotePad.Notes.COLUMN_NAME_NOTE
+    };
+
+    // 内存搜索索引另外记录每条笔记的分类，用于统计搜索结果的分类分布。
+    // 正文只读第一段，一行不会超过 CursorWindow 的容量；更长的正文另外分段读出
+    private static final String[] SEARCH_INDEX_PROJECTION = new String[] {
+            NotePad.Notes._ID,
+            NotePad.Notes.COLUMN_NAME_TITLE,
+            "substr(ifnull(" + NotePad.Notes.COLUMN_NAME_NOTE + ", ''), 1, "
+                    + NotePad.Notes.MAX_NOTE_CHUNK_LENGTH + ")",
+            NotePad.Notes.COLUMN_NAME_CATEGORY_ID
+    };
+
+    // 相关度搜索最多返回的结果数
+    private static final int RANKED_RESULT_LIMIT = 200;
+
+    // 按ID筛选时，连续ID合并为范围的最短长度；更短时写成 IN 列表中的ID反而更短
+    private static final int MIN_ID_RANGE_LENGTH = 8;
+    // 一个 IN 列表中最多的ID数
+    private static final int MAX_IDS_PER_IN_LIST = 500;
+
+    // 数据版本：每次成功写入后加一，搜索结果缓存据此整体失效
+    private final AtomicLong mDataVersion = new AtomicLong();
+
+    // 搜索结果ID缓存
+    private final SearchResultCache mSearchCache = new SearchResultCache();
+
+    // 分类表的内存副本，用于把写入的分类名称转换为ID；为null表示尚未读取或已失效。
+    // 分类表改变时先增加代数再清空，读取期间代数变化的结果不会被缓存
+    private volatile CategoryMap mCategories;
+    private long mCategoriesGeneration;
+    private final Object mCategoriesLock = new Object();
+
+    // 标签位图索引，首次按标签筛选时构建；为null表示尚未构建或已失效
+    private TagBitmapIndex mTagIndex;
+    private final Object mTagIndexLock = new Object();
 
     /**
      * A block that instantiates and sets static objects
@@ -133,6 +240,18 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
         // live folder operation
         sUriMatcher.addURI(NotePad.AUTHORITY, "live_folders/notes", LIVE_FOLDER_NOTES);
 
+        // 按月份汇总，必须在 notes/# 之外单独匹配
+        sUriMatcher.addURI(NotePad.AUTHORITY, "notes/months", MONTHS);
+
+        // 分类表
+        sUriMatcher.addURI(NotePad.AUTHORITY, "categories", CATEGORIES);
+        sUriMatcher.addURI(NotePad.AUTHORITY, "categories/#", CATEGORY_ID);
+
+        // 标签表，以及一条笔记的标签
+        sUriMatcher.addURI(NotePad.AUTHORITY, "tags", TAGS);
+        sUriMatcher.addURI(NotePad.AUTHORITY, "tags/#", TAG_ID);
+        sUriMatcher.addURI(NotePad.AUTHORITY, "notes/#/tags", NOTE_TAGS);
+
         /*
          * Creates and initializes a projection map that returns all columns
          */
@@ -159,8 +278,22 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
                 NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE,
                 NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE);
 
-        // 添加分类字段到投影映射
-        sNotesProjectionMap.put(NotePad.Notes.COLUMN_NAME_CATEGORY, NotePad.Notes.COLUMN_NAME_CATEGORY);
+        // 分类名称从分类表取得，笔记中只保存分类ID
+        sNotesProjectionMap.put(NotePad.Notes.COLUMN_NAME_CATEGORY,
+                CATEGORY_NAME_EXPRESSION + " AS " + NotePad.Notes.COLUMN_NAME_CATEGORY);
+        sNotesProjectionMap.put(NotePad.Notes.COLUMN_NAME_CATEGORY_ID,
+                NotePad.Notes.COLUMN_NAME_CATEGORY_ID);
+
+        // 正文开头，列表预览只读取这一部分
+        sNotesProjectionMap.put(NotePad.Notes.COLUMN_NAME_NOTE_PREVIEW,
+                "substr(" + NotePad.Notes.COLUMN_NAME_NOTE + ", 1, "
+                        + NotePad.Notes.NOTE_PREVIEW_LENGTH + ") AS "
+                        + NotePad.Notes.COLUMN_NAME_NOTE_PREVIEW);
+
+        // 正文长度，编辑界面据此判断是否需要分段读取
+        sNotesProjectionMap.put(NotePad.Notes.COLUMN_NAME_NOTE_LENGTH,
+                "length(" + NotePad.Notes.COLUMN_NAME_NOTE + ") AS "
+                        + NotePad.Notes.COLUMN_NAME_NOTE_LENGTH);
 
         /*
          * Creates an initializes a projection map for handling Live Folders
@@ -175,6 +308,30 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
         // Maps "NAME" to "title AS NAME"
         sLiveFolderProjectionMap.put(LiveFolders.NAME, NotePad.Notes.COLUMN_NAME_TITLE + " AS " +
                 LiveFolders.NAME);
+
+        sCategoriesProjectionMap = new HashMap<String, String>();
+        sCategoriesProjectionMap.put(NotePad.Categories._ID, NotePad.Categories._ID);
+        sCategoriesProjectionMap.put(NotePad.Categories.COLUMN_NAME_NAME,
+                NotePad.Categories.COLUMN_NAME_NAME);
+        sCategoriesProjectionMap.put(NotePad.Categories.COLUMN_NAME_POSITION,
+                NotePad.Categories.COLUMN_NAME_POSITION);
+        sCategoriesProjectionMap.put(NotePad.Categories._COUNT, "(SELECT count(*) FROM "
+                + NotePad.Notes.TABLE_NAME + " WHERE " + NotePad.Notes.TABLE_NAME + "."
+                + NotePad.Notes.COLUMN_NAME_CATEGORY_ID + " = " + NotePad.Categories.TABLE_NAME
+                + "." + NotePad.Categories._ID + ") AS " + NotePad.Categories._COUNT);
+
+        sTagsProjectionMap = new HashMap<String, String>();
+        sTagsProjectionMap.put(NotePad.Tags._ID, NotePad.Tags._ID);
+        sTagsProjectionMap.put(NotePad.Tags.COLUMN_NAME_NAME, NotePad.Tags.COLUMN_NAME_NAME);
+        sTagsProjectionMap.put(NotePad.Tags._COUNT, "(SELECT count(*) FROM "
+                + TagBitmapIndex.JOIN_TABLE_NAME + " WHERE " + TagBitmapIndex.JOIN_TABLE_NAME + "."
+                + NotePad.Tags.COLUMN_NAME_TAG_ID + " = " + NotePad.Tags.TABLE_NAME + "."
+                + NotePad.Tags._ID + ") AS " + NotePad.Tags._COUNT);
+
+        sNoteTagsProjectionMap = new HashMap<String, String>();
+        sNoteTagsProjectionMap.put(NotePad.Tags._ID,
+                NotePad.Tags.TABLE_NAME + "." + NotePad.Tags._ID + " AS " + NotePad.Tags._ID);
+        sNoteTagsProjectionMap.put(NotePad.Tags.COLUMN_NAME_NAME, NotePad.Tags.COLUMN_NAME_NAME);
     }
 
     /**
@@ -184,10 +341,21 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
      */
     static class DatabaseHelper extends SQLiteOpenHelper {
 
+        /**
+         * 新建数据库时预置的分类，第一个是默认分类（ID为 {@link NotePad.Categories#DEFAULT_ID}）
+         */
+        static final String[] PRESET_CATEGORIES = {
+                "默认", "工作", "行程", "学习", "灵感", "生活", "其他"
+        };
+
+        // 用于加载拼音对照表
+        private final Context mContext;
+
         DatabaseHelper(Context context) {
 
             // calls the super constructor, requesting the default cursor factory.
             super(context, DATABASE_NAME, null, DATABASE_VERSION);
+            mContext = context;
         }
 
         /**
@@ -197,14 +365,50 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
          */
         @Override
         public void onCreate(SQLiteDatabase db) {
-            db.execSQL("CREATE TABLE " + NotePad.Notes.TABLE_NAME + " ("
+            createCategoriesTable(db);
+            createNotesTable(db, NotePad.Notes.TABLE_NAME);
+
+            // 标题拼音键表
+            PinyinIndex.createTable(db);
+
+            createModifiedIndex(db);
+            createCategoryIndex(db);
+
+            // 标签表及笔记与标签的关联表
+            TagBitmapIndex.createTables(db);
+        }
+
+        private static void createNotesTable(SQLiteDatabase db, String table) {
+            db.execSQL("CREATE TABLE " + table + " ("
                     + NotePad.Notes._ID + " INTEGER PRIMARY KEY,"
                     + NotePad.Notes.COLUMN_NAME_TITLE + " TEXT,"
                     + NotePad.Notes.COLUMN_NAME_NOTE + " TEXT,"
                     + NotePad.Notes.COLUMN_NAME_CREATE_DATE + " INTEGER,"
                     + NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE + " INTEGER,"
-                    + NotePad.Notes.COLUMN_NAME_CATEGORY + " TEXT DEFAULT '默认'"
+                    + NotePad.Notes.COLUMN_NAME_CATEGORY_ID + " INTEGER NOT NULL DEFAULT "
+                    + NotePad.Categories.DEFAULT_ID + " REFERENCES "
+                    + NotePad.Categories.TABLE_NAME + "(" + NotePad.Categories._ID + "),"
+                    + NotePad.Notes.COLUMN_NAME_TITLE_NORMALIZED + " TEXT,"
+                    + NotePad.Notes.COLUMN_NAME_NOTE_NORMALIZED + " TEXT"
+                    + ");");
+        }
+
+        /**
+         * 创建分类表并按顺序写入预置分类
+         */
+        private static void createCategoriesTable(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + NotePad.Categories.TABLE_NAME + " ("
+                    + NotePad.Categories._ID + " INTEGER PRIMARY KEY,"
+                    + NotePad.Categories.COLUMN_NAME_NAME + " TEXT NOT NULL UNIQUE,"
+                    + NotePad.Categories.COLUMN_NAME_POSITION + " INTEGER NOT NULL DEFAULT 0"
                     + ");");
+            ContentValues values = new ContentValues();
+            for (int i = 0; i < PRESET_CATEGORIES.length; i++) {
+                values.put(NotePad.Categories._ID, NotePad.Categories.DEFAULT_ID + i);
+                values.put(NotePad.Categories.COLUMN_NAME_NAME, PRESET_CATEGORIES[i]);
+                values.put(NotePad.Categories.COLUMN_NAME_POSITION, i);
+                db.insert(NotePad.Categories.TABLE_NAME, null, values);
+            }
         }
 
         /**
@@ -225,8 +429,144 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
                         " ADD COLUMN " + NotePad.Notes.COLUMN_NAME_CATEGORY + " TEXT DEFAULT '默认'");
             }
 
+            // 版本4：添加规范化搜索影子列，并为已有笔记回填
+            if (oldVersion < 4) {
+                db.execSQL("ALTER TABLE " + NotePad.Notes.TABLE_NAME +
+                        " ADD COLUMN " + NotePad.Notes.COLUMN_NAME_TITLE_NORMALIZED + " TEXT");
+                db.execSQL("ALTER TABLE " + NotePad.Notes.TABLE_NAME +
+                        " ADD COLUMN " + NotePad.Notes.COLUMN_NAME_NOTE_NORMALIZED + " TEXT");
+                backfillNormalizedColumns(db);
+            }
+
+            // 版本5：添加标题拼音键表，并为已有笔记生成拼音键
+            if (oldVersion < 5) {
+                PinyinIndex.createTable(db);
+                backfillPinyinKeys(db);
+            }
+
+            // 版本6：修改时间索引，用于列表排序和按月份汇总
+            if (oldVersion < 6) {
+                createModifiedIndex(db);
+            }
+
+            // 版本7：分类移到单独的表，笔记中的分类名称换成分类ID
+            if (oldVersion < 7) {
+                migrateCategories(db);
+            }
+
+            // 版本8：标签表及笔记与标签的关联表
+            if (oldVersion < 8) {
+                TagBitmapIndex.createTables(db);
+            }
+
             // 未来若有更高版本升级需求，可在此处添加新的版本判断逻辑
-            // 例如：if (oldVersion < 4) { ... }
+            // 例如：if (oldVersion < 9) { ... }
+        }
+
+        /**
+         * 创建分类表，把笔记中出现过的其他分类名称追加在预置分类之后，
+         * 然后重建笔记表：原来每行的分类名称换成分类ID，空的或缺失的名称归入默认分类。
+         * 重建表会删除依附在旧表上的拼音键清理触发器，完成后重新创建
+         */
+        private static void migrateCategories(SQLiteDatabase db) {
+            createCategoriesTable(db);
+            Cursor c = db.query(NotePad.Notes.TABLE_NAME,
+                    new String[] { NotePad.Notes.COLUMN_NAME_CATEGORY },
+                    NotePad.Notes.COLUMN_NAME_CATEGORY + " <> ''", null,
+                    NotePad.Notes.COLUMN_NAME_CATEGORY, null, "min(" + NotePad.Notes._ID + ")");
+            try {
+                ContentValues values = new ContentValues();
+                int position = PRESET_CATEGORIES.length;
+                while (c.moveToNext()) {
+                    values.put(NotePad.Categories.COLUMN_NAME_NAME, c.getString(0));
+                    values.put(NotePad.Categories.COLUMN_NAME_POSITION, position);
+                    if (db.insertWithOnConflict(NotePad.Categories.TABLE_NAME, null, values,
+                            SQLiteDatabase.CONFLICT_IGNORE) != -1) {
+                        position++;
+                    }
+                }
+            } finally {
+                c.close();
+            }
+
+            String migrated = NotePad.Notes.TABLE_NAME + "_v7";
+            PinyinIndex.dropCleanupTrigger(db);
+            createNotesTable(db, migrated);
+            db.execSQL("INSERT INTO " + migrated + " ("
+                    + NotePad.Notes._ID + ", "
+                    + NotePad.Notes.COLUMN_NAME_TITLE + ", "
+                    + NotePad.Notes.COLUMN_NAME_NOTE + ", "
+                    + NotePad.Notes.COLUMN_NAME_CREATE_DATE + ", "
+                    + NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE + ", "
+                    + NotePad.Notes.COLUMN_NAME_CATEGORY_ID + ", "
+                    + NotePad.Notes.COLUMN_NAME_TITLE_NORMALIZED + ", "
+                    + NotePad.Notes.COLUMN_NAME_NOTE_NORMALIZED + ") SELECT "
+                    + NotePad.Notes._ID + ", "
+                    + NotePad.Notes.COLUMN_NAME_TITLE + ", "
+                    + NotePad.Notes.COLUMN_NAME_NOTE + ", "
+                    + NotePad.Notes.COLUMN_NAME_CREATE_DATE + ", "
+                    + NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE + ", "
+                    + "ifnull((SELECT " + NotePad.Categories._ID + " FROM "
+                    + NotePad.Categories.TABLE_NAME + " WHERE "
+                    + NotePad.Categories.COLUMN_NAME_NAME + " = "
+                    + NotePad.Notes.COLUMN_NAME_CATEGORY + "), "
+                    + NotePad.Categories.DEFAULT_ID + "), "
+                    + NotePad.Notes.COLUMN_NAME_TITLE_NORMALIZED + ", "
+                    + NotePad.Notes.COLUMN_NAME_NOTE_NORMALIZED
+                    + " FROM " + NotePad.Notes.TABLE_NAME);
+            db.execSQL("DROP TABLE " + NotePad.Notes.TABLE_NAME);
+            db.execSQL("ALTER TABLE " + migrated + " RENAME TO " + NotePad.Notes.TABLE_NAME);
+            PinyinIndex.createCleanupTrigger(db);
+            createModifiedIndex(db);
+            createCategoryIndex(db);
+        }
+
+        private static void createModifiedIndex(SQLiteDatabase db) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS notes_modified ON " + NotePad.Notes.TABLE_NAME
+                    + " (" + NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE + ")");
+        }
+
+        // 按分类筛选和统计各分类的笔记数
+        private static void createCategoryIndex(SQLiteDatabase db) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS notes_category ON " + NotePad.Notes.TABLE_NAME
+                    + " (" + NotePad.Notes.COLUMN_NAME_CATEGORY_ID + ")");
+        }
+
+        /**
+         * 为所有笔记生成拼音键（在升级事务中执行）
+         */
+        private void backfillPinyinKeys(SQLiteDatabase db) {
+            Cursor c = db.query(NotePad.Notes.TABLE_NAME, INDEX_PROJECTION,
+                    null, null, null, null, null);
+            try {
+                while (c.moveToNext()) {
+                    PinyinIndex.update(mContext, db, c.getLong(0), c.getString(1));
+                }
+            } finally {
+                c.close();
+            }
+        }
+
+        /**
+         * 为所有笔记计算规范化影子列（在升级事务中执行）
+         */
+        private void backfillNormalizedColumns(SQLiteDatabase db) {
+            Cursor c = db.query(NotePad.Notes.TABLE_NAME, INDEX_PROJECTION,
+                    null, null, null, null, null);
+            try {
+                ContentValues values = new ContentValues();
+                while (c.moveToNext()) {
+                    values.clear();
+                    values.put(NotePad.Notes.COLUMN_NAME_TITLE_NORMALIZED,
+                            SearchNormalizer.normalize(c.getString(1)));
+                    values.put(NotePad.Notes.COLUMN_NAME_NOTE_NORMALIZED,
+                            SearchNormalizer.normalize(c.getString(2)));
+                    db.update(NotePad.Notes.TABLE_NAME, values,
+                            NotePad.Notes._ID + " = " + c.getLong(0), null);
+                }
+            } finally {
+                c.close();
+            }
         }
     }
 
@@ -262,8 +602,18 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
 
         // Constructs a new query builder and sets its table name
         SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+
+        // 使用查询语言时，用其中的正向词条作为摘要高亮候选词
+        List<String> highlightTerms = null;
         qb.setTables(NotePad.Notes.TABLE_NAME);
 
+        // 搜索结果缓存的键和命中的结果；先读取数据版本，查询期间发生写入时不缓存本次结果
+        long dataVersion = mDataVersion.get();
+        String searchCacheKey = null;
+        long[] cachedIds = null;
+        // 搜索索引给出的分类统计，随Cursor的extras返回
+        CategoryCounts facets = null;
+
         /**
          * Choose the projection and adjust the "where" clause based on URI pattern-matching.
          */
@@ -271,6 +621,78 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
             // If the incoming URI is for notes, chooses the Notes projection
             case NOTES:
                 qb.setProjectionMap(sNotesProjectionMap);
+
+                // 同一数据版本下重复的搜索（例如在分类间来回切换）直接按缓存的ID取行，
+                // 跳过内存索引查询和 LIKE 扫描；缓存的ID已经是最终的结果顺序。
+                // 行按主键顺序取出，再在内存中排成缓存的顺序（IdOrderCursor），
+                // 因此投影中必须有ID列，没有时不使用缓存
+                searchCacheKey = SearchResultCache.keyFor(uri, selection, selectionArgs, sortOrder);
+                if (searchCacheKey != null && hasIdColumn(projection)) {
+                    SearchResultCache.Entry cached = mSearchCache.get(searchCacheKey, dataVersion);
+                    if (cached != null) {
+                        cachedIds = cached.ids;
+                        facets = cached.facets;
+                    }
+                }
+                if (cachedIds != null) {
+                    long[] sortedIds = cachedIds.clone();
+                    Arrays.sort(sortedIds);
+                    qb.appendWhere(sortedIdWhere(sortedIds));
+                    selection = null;
+                    selectionArgs = null;
+                    sortOrder = NotePad.Notes._ID;
+                    SearchQuery.Node cachedRoot = SearchQuery.parse(
+                            uri.getQueryParameter(NotePad.Notes.QUERY_PARAMETER_QUERY));
+                    if (cachedRoot != null) {
+                        highlightTerms = SearchQuery.positiveTerms(cachedRoot);
+                    }
+                    break;
+                }
+
+                // 标签筛选：由位图索引求出满足条件的笔记，再按ID从数据库取行
+                long[] taggedIds = tagFilter(uri);
+                if (taggedIds != null) {
+                    String tagWhere = sortedIdWhere(taggedIds);
+                    selection = TextUtils.isEmpty(selection)
+                            ? tagWhere : "(" + selection + ") AND " + tagWhere;
+                }
+
+                // 模糊搜索：先由内存索引找出候选笔记，再按ID从数据库取行
+                String fuzzyQuery = uri.getQueryParameter(NotePad.Notes.QUERY_PARAMETER_FUZZY);
+                if (!TextUtils.isEmpty(fuzzyQuery)) {
+                    appendIdFilter(qb, fuzzySearch(fuzzyQuery));
+                }
+
+                // 相关度搜索：由BM25索引在所选分类中选出前k条，未指定排序时按得分排序。
+                // 结果被截断，全部匹配笔记（包括其他分类）的分类统计在打分的同时得到；
+                // 有其他条件时索引不知道哪些笔记满足条件，不统计
+                String rankedQuery = uri.getQueryParameter(NotePad.Notes.QUERY_PARAMETER_RANKED);
+                if (!TextUtils.isEmpty(rankedQuery)) {
+                    facets = TextUtils.isEmpty(selection) ? new CategoryCounts() : null;
+                    long[] rankedCategories = parseIds(uri.getQueryParameter(
+                            NotePad.Notes.QUERY_PARAMETER_RANKED_CATEGORIES));
+                    List<Long> rankedIds = rankedSearch(rankedQuery, rankedCategories != null
+                            ? CategoryFilter.of(rankedCategories) : CategoryFilter.ALL, facets);
+                    appendIdFilter(qb, rankedIds);
+                    if (TextUtils.isEmpty(sortOrder) && !rankedIds.isEmpty()) {
+                        sortOrder = orderByIds(rankedIds);
+                    }
+                }
+
+                // 查询语言：编译为一条查询条件，接在调用方的条件（通常是分类等值比较）之后
+                String searchQuery = uri.getQueryParameter(NotePad.Notes.QUERY_PARAMETER_QUERY);
+                SearchQuery.Node searchRoot = SearchQuery.parse(searchQuery);
+                if (searchRoot != null) {
+                    SearchQueryPlanner.Plan plan = planSearch(searchRoot);
+                    if (TextUtils.isEmpty(selection)) {
+                        selection = plan.selection;
+                        selectionArgs = plan.selectionArgs;
+                    } else {
+                        selection = "(" + selection + ") AND (" + plan.selection + ")";
+                        selectionArgs = concat(selectionArgs, plan.selectionArgs);
+                    }
+                    highlightTerms = SearchQuery.positiveTerms(searchRoot);
+                }
                 break;
 
             /* If the incoming URI is for a single note identified by its ID, chooses the
@@ -278,7 +700,7 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
              * it selects that single note
              */
             case NOTE_ID:
-                qb.setProjectionMap(sNotesProjectionMap);
+                qb.setProjectionMap(noteIdProjectionMap(uri));
                 qb.appendWhere(
                         NotePad.Notes._ID +    // the name of the ID column
                                 "=" +
@@ -291,6 +713,25 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
                 qb.setProjectionMap(sLiveFolderProjectionMap);
                 break;
 
+            case MONTHS:
+                // 按月份汇总的笔记数：一条分组查询，
+                // 只用到修改时间和查询条件中的列，不读取笔记内容
+                Cursor months = mOpenHelper.getReadableDatabase().query(
+                        NotePad.Notes.TABLE_NAME, MONTHS_PROJECTION, selection, selectionArgs,
+                        NotePad.Notes.COLUMN_NAME_MONTH, null,
+                        NotePad.Notes.COLUMN_NAME_MONTH + " DESC");
+                months.setNotificationUri(getContext().getContentResolver(), uri);
+                return months;
+
+            case CATEGORIES:
+            case CATEGORY_ID:
+                return queryCategories(uri, projection, selection, selectionArgs, sortOrder);
+
+            case TAGS:
+            case TAG_ID:
+            case NOTE_TAGS:
+                return queryTags(uri, projection, selection, selectionArgs, sortOrder);
+
             default:
                 // If the URI doesn't match any of the known patterns, throw an exception.
                 throw new IllegalArgumentException("Unknown URI " + uri);
@@ -314,21 +755,186 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
          * object is returned; otherwise, the cursor variable contains null. If no records were
          * selected, then the Cursor object is empty, and Cursor.getCount() returns 0.
          */
+        // 需要搜索摘要时，数据库只查询原始列，摘要列随后在这里（Loader的后台线程）计算
+        String highlight = sUriMatcher.match(uri) == NOTES
+                ? uri.getQueryParameter(NotePad.Notes.QUERY_PARAMETER_HIGHLIGHT) : null;
+        boolean withSnippets = !TextUtils.isEmpty(highlight);
+
+        // 行数限制，用于分块读取
+        String limit = sUriMatcher.match(uri) == NOTES
+                ? uri.getQueryParameter(NotePad.Notes.QUERY_PARAMETER_LIMIT) : null;
+        if (limit != null && !TextUtils.isDigitsOnly(limit)) {
+            throw new IllegalArgumentException("Invalid limit " + limit);
+        }
+        // 缓存的结果已经按行数限制截断，而且这里取出的行还没有排成结果顺序
+        if (cachedIds != null) {
+            limit = null;
+        }
+
         Cursor c = qb.query(
                 db,            // The database to query
-                projection,    // The columns to return from the query
+                withSnippets   // The columns to return from the query
+                        ? SearchSnippets.baseProjection(projection) : projection,
                 selection,     // The columns for the where clause
                 selectionArgs, // The values for the where clause
                 null,          // don't group the rows
                 null,          // don't filter by row groups
-                orderBy        // The sort order
+                orderBy,       // The sort order
+                limit          // 最多返回的行数，null表示不限制
         );
 
+        // 未命中缓存的搜索：记录结果ID及其顺序，结果过多或投影中没有ID列时不缓存
+        if (searchCacheKey != null && cachedIds == null) {
+            int idIndex = c.getColumnIndex(NotePad.Notes._ID);
+            if (idIndex >= 0 && c.getCount() <= SearchResultCache.MAX_IDS_PER_ENTRY) {
+                long[] ids = new long[c.getCount()];
+                for (int i = 0; c.moveToNext(); i++) {
+                    ids[i] = c.getLong(idIndex);
+                }
+                c.moveToPosition(-1);
+                mSearchCache.put(searchCacheKey, dataVersion, ids, facets);
+            }
+        }
+
+        if (cachedIds != null) {
+            c = new IdOrderCursor(c, c.getColumnIndexOrThrow(NotePad.Notes._ID), cachedIds);
+        }
+
+        if (withSnippets) {
+            c = SearchSnippets.withSnippets(c, projection, highlightTerms != null
+                    ? highlightTerms : SearchSnippets.keywordsFor(highlight));
+        }
+
+        if (facets != null) {
+            Bundle extras = new Bundle();
+            facets.writeTo(extras);
+            c = new ExtrasCursor(c, extras);
+        }
+
         // Tells the Cursor what URI to watch, so it knows when its source data changes
         c.setNotificationUri(getContext().getContentResolver(), uri);
         return c;
     }
 
+    /**
+     * 把按ID升序排列的Cursor的行排成给定的ID顺序，每个ID二分查找一次源行号。
+     * 搜索结果缓存命中时用来代替 ORDER BY CASE _id WHEN ... 表达式：后者有多少个结果ID
+     * 就有多少个分支，SQLite要为每一行依次比较。源Cursor中没有的ID跳过。
+     * 关闭时一并关闭源Cursor。
+     */
+    private static final class IdOrderCursor extends AbstractCursor {
+        private final Cursor mSource;
+        // 本Cursor的行号到源Cursor的行号
+        private final int[] mPositions;
+        private final int mCount;
+
+        IdOrderCursor(Cursor source, int idIndex, long[] ids) {
+            mSource = source;
+            long[] sourceIds = new long[source.getCount()];
+            for (int i = 0; source.moveToNext(); i++) {
+                sourceIds[i] = source.getLong(idIndex);
+            }
+            mPositions = new int[ids.length];
+            int count = 0;
+            for (long id : ids) {
+                int position = Arrays.binarySearch(sourceIds, id);
+                if (position >= 0) {
+                    mPositions[count++] = position;
+                }
+            }
+            mCount = count;
+        }
+
+        @Override
+        public boolean onMove(int oldPosition, int newPosition) {
+            return mSource.moveToPosition(mPositions[newPosition]);
+        }
+
+        @Override
+        public int getCount() {
+            return mCount;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mSource.getColumnNames();
+        }
+
+        @Override
+        public String getString(int column) {
+            return mSource.getString(column);
+        }
+
+        @Override
+        public short getShort(int column) {
+            return mSource.getShort(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return mSource.getInt(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            return mSource.getLong(column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return mSource.getFloat(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return mSource.getDouble(column);
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            return mSource.getBlob(column);
+        }
+
+        @Override
+        public int getType(int column) {
+            return mSource.getType(column);
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return mSource.isNull(column);
+        }
+
+        @Override
+        public void deactivate() {
+            super.deactivate();
+            mSource.deactivate();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            mSource.close();
+        }
+    }
+
+    /**
+     * 带有extras的Cursor；Cursor#setExtras() 在API 23才加入
+     */
+    private static final class ExtrasCursor extends CursorWrapper {
+        private final Bundle mExtras;
+
+        ExtrasCursor(Cursor cursor, Bundle extras) {
+            super(cursor);
+            mExtras = extras;
+        }
+
+        @Override
+        public Bundle getExtras() {
+            return mExtras;
+        }
+    }
+
     /**
      * This is called when a client calls {@link android.content.ContentResolver#getType(Uri)}.
      * Returns the MIME data type of the URI given as a parameter.
@@ -354,6 +960,22 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
             case NOTE_ID:
                 return NotePad.Notes.CONTENT_ITEM_TYPE;
 
+            case MONTHS:
+                return NotePad.Notes.MONTHS_CONTENT_TYPE;
+
+            case CATEGORIES:
+                return NotePad.Categories.CONTENT_TYPE;
+
+            case CATEGORY_ID:
+                return NotePad.Categories.CONTENT_ITEM_TYPE;
+
+            case TAGS:
+            case NOTE_TAGS:
+                return NotePad.Tags.CONTENT_TYPE;
+
+            case TAG_ID:
+                return NotePad.Tags.CONTENT_ITEM_TYPE;
+
             // If the URI pattern doesn't match any permitted patterns, throws an exception.
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
@@ -389,6 +1011,11 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
             // supported for this type of URI.
             case NOTES:
             case LIVE_FOLDER_NOTES:
+            case CATEGORIES:
+            case CATEGORY_ID:
+            case TAGS:
+            case TAG_ID:
+            case NOTE_TAGS:
                 return null;
 
             // If the pattern is for note IDs and the MIME filter is text/plain, then return
@@ -506,6 +1133,16 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
     @Override
     public Uri insert(Uri uri, ContentValues initialValues) {
 
+        // 新建分类
+        if (sUriMatcher.match(uri) == CATEGORIES) {
+            return insertCategory(initialValues);
+        }
+
+        // 新建标签，或给笔记添加标签
+        if (sUriMatcher.match(uri) == TAGS || sUriMatcher.match(uri) == NOTE_TAGS) {
+            return insertTag(uri, initialValues);
+        }
+
         // Validates the incoming URI. Only the full provider URI is allowed for inserts.
         if (sUriMatcher.match(uri) != NOTES) {
             throw new IllegalArgumentException("Unknown URI " + uri);
@@ -548,28 +1185,48 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
             values.put(NotePad.Notes.COLUMN_NAME_NOTE, "");
         }
 
-        // 检查是否包含分类字段，没有则添加默认值
-        if (!values.containsKey(NotePad.Notes.COLUMN_NAME_CATEGORY)) {
-            values.put(NotePad.Notes.COLUMN_NAME_CATEGORY, "默认");
-        }
+        // 生成规范化搜索影子列
+        putNormalizedColumns(values);
 
         // Opens the database object in "write" mode.
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
 
         // Performs the insert and returns the ID of the new note.
-        long rowId = db.insert(
-                NotePad.Notes.TABLE_NAME,        // The table to insert into.
-                NotePad.Notes.COLUMN_NAME_NOTE,  // A hack, SQLite sets this column value to null
-                // if values is empty.
-                values                           // A map of column names, and the values to insert
-                // into the columns.
-        );
+        // 笔记和它的拼音键在同一个事务中写入；分类名称换成分类ID，未指定分类时由列的默认值
+        // 归入默认分类
+        long rowId;
+        boolean categoryCreated;
+        db.beginTransaction();
+        try {
+            categoryCreated = putCategoryId(db, values);
+            rowId = db.insert(
+                    NotePad.Notes.TABLE_NAME,        // The table to insert into.
+                    NotePad.Notes.COLUMN_NAME_NOTE,  // A hack, SQLite sets this column value to null
+                    // if values is empty.
+                    values                           // A map of column names, and the values to insert
+                    // into the columns.
+            );
+            if (rowId > 0) {
+                PinyinIndex.update(getContext(), db, rowId,
+                        values.getAsString(NotePad.Notes.COLUMN_NAME_TITLE));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (categoryCreated) {
+            categoriesChanged(false);
+        }
 
         // If the insert succeeded, the row ID exists.
         if (rowId > 0) {
             // Creates a URI with the note ID pattern and the new row ID appended to it.
             Uri noteUri = ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE, rowId);
 
+            // 同步更新已构建的搜索索引
+            mDataVersion.incrementAndGet();
+            reindexNote(db, rowId);
+
             // Notifies observers registered against this provider that the data changed.
             getContext().getContentResolver().notifyChange(noteUri, null);
             return noteUri;
@@ -595,6 +1252,17 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
     @Override
     public int delete(Uri uri, String where, String[] whereArgs) {
 
+        // 删除分类
+        int match = sUriMatcher.match(uri);
+        if (match == CATEGORIES || match == CATEGORY_ID) {
+            return deleteCategories(uri, where, whereArgs);
+        }
+
+        // 删除标签，或移除笔记的标签
+        if (match == TAGS || match == TAG_ID || match == NOTE_TAGS) {
+            return deleteTags(uri, where, whereArgs);
+        }
+
         // Opens the database object in "write" mode.
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         String finalWhere;
@@ -602,7 +1270,7 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
         int count;
 
         // Does the delete based on the incoming URI pattern.
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
 
             // If the incoming pattern matches the general pattern for notes, does a delete
             // based on the incoming "where" columns and arguments.
@@ -612,6 +1280,15 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
                         where,                     // The incoming where clause column names
                         whereArgs                  // The incoming where clause values
                 );
+
+                // 批量删除无法得知具体删除了哪些笔记，让搜索索引和标签索引失效后重建
+                if (count > 0) {
+                    mDataVersion.incrementAndGet();
+                    invalidateSearchIndexes();
+                    synchronized (mTagIndexLock) {
+                        mTagIndex = null;
+                    }
+                }
                 break;
 
             // If the incoming URI matches a single note ID, does the delete based on the
@@ -641,6 +1318,17 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
                         finalWhere,                // The final WHERE clause
                         whereArgs                  // The incoming where clause values.
                 );
+
+                if (count > 0) {
+                    mDataVersion.incrementAndGet();
+                    reindexNote(db, ContentUris.parseId(uri));
+                    // 关联表中的行由触发器删除，这里同步位图索引
+                    synchronized (mTagIndexLock) {
+                        if (mTagIndex != null) {
+                            mTagIndex.removeNote(ContentUris.parseId(uri));
+                        }
+                    }
+                }
                 break;
 
             // If the incoming pattern is invalid, throws an exception.
@@ -681,25 +1369,69 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
     @Override
     public int update(Uri uri, ContentValues values, String where, String[] whereArgs) {
 
+        // 修改分类
+        int match = sUriMatcher.match(uri);
+        if (match == CATEGORIES || match == CATEGORY_ID) {
+            return updateCategories(uri, values, where, whereArgs);
+        }
+
+        // 重命名标签
+        if (match == TAGS || match == TAG_ID) {
+            return updateTags(uri, values, where, whereArgs);
+        }
+
+        // 标题或正文改变时同步更新规范化影子列，分类名称随后换成分类ID；不修改调用方传入的对象
+        if (values.containsKey(NotePad.Notes.COLUMN_NAME_TITLE)
+                || values.containsKey(NotePad.Notes.COLUMN_NAME_NOTE)
+                || values.containsKey(NotePad.Notes.COLUMN_NAME_CATEGORY)) {
+            values = new ContentValues(values);
+            putNormalizedColumns(values);
+        }
+
         // Opens the database object in "write" mode.
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         int count;
         String finalWhere;
+        boolean categoryCreated;
 
         // Does the update based on the incoming URI pattern
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
 
             // If the incoming URI matches the general notes pattern, does the update based on
             // the incoming data.
             case NOTES:
 
-                // Does the update and returns the number of rows updated.
-                count = db.update(
-                        NotePad.Notes.TABLE_NAME, // The database table name.
-                        values,                   // A map of column names and new values to use.
-                        where,                    // The where clause column names.
-                        whereArgs                 // The where clause column values to select on.
-                );
+                // 标题改变时需要重建受影响笔记的拼音键，先在更新前找出这些笔记
+                db.beginTransaction();
+                try {
+                    categoryCreated = putCategoryId(db, values);
+                    long[] titleChangedIds = values.containsKey(NotePad.Notes.COLUMN_NAME_TITLE)
+                            ? queryIds(db, where, whereArgs) : null;
+
+                    // Does the update and returns the number of rows updated.
+                    count = db.update(
+                            NotePad.Notes.TABLE_NAME, // The database table name.
+                            values,                   // A map of column names and new values to use.
+                            where,                    // The where clause column names.
+                            whereArgs                 // The where clause column values to select on.
+                    );
+
+                    if (titleChangedIds != null) {
+                        String title = values.getAsString(NotePad.Notes.COLUMN_NAME_TITLE);
+                        for (long id : titleChangedIds) {
+                            PinyinIndex.update(getContext(), db, id, title);
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                // 批量更新无法得知具体更新了哪些笔记，让搜索索引失效后重建
+                if (count > 0) {
+                    mDataVersion.incrementAndGet();
+                    invalidateSearchIndexes();
+                }
                 break;
 
             // If the incoming URI matches a single note ID, does the update based on the incoming
@@ -727,19 +1459,41 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
 
 
                 // Does the update and returns the number of rows updated.
-                count = db.update(
-                        NotePad.Notes.TABLE_NAME, // The database table name.
-                        values,                   // A map of column names and new values to use.
-                        finalWhere,               // The final WHERE clause to use
-                        // placeholders for whereArgs
-                        whereArgs                 // The where clause column values to select on, or
-                        // null if the values are in the where argument.
-                );
+                db.beginTransaction();
+                try {
+                    categoryCreated = putCategoryId(db, values);
+                    count = db.update(
+                            NotePad.Notes.TABLE_NAME, // The database table name.
+                            values,                   // A map of column names and new values to use.
+                            finalWhere,               // The final WHERE clause to use
+                            // placeholders for whereArgs
+                            whereArgs                 // The where clause column values to select on, or
+                            // null if the values are in the where argument.
+                    );
+
+                    // 标题改变时同步更新拼音键
+                    if (count > 0 && values.containsKey(NotePad.Notes.COLUMN_NAME_TITLE)) {
+                        PinyinIndex.update(getContext(), db, Long.parseLong(noteId),
+                                values.getAsString(NotePad.Notes.COLUMN_NAME_TITLE));
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                if (count > 0) {
+                    mDataVersion.incrementAndGet();
+                    reindexNote(db, Long.parseLong(noteId),
+                            values.getAsString(NotePad.Notes.COLUMN_NAME_NOTE));
+                }
                 break;
             // If the incoming pattern is invalid, throws an exception.
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
+        if (categoryCreated) {
+            categoriesChanged(false);
+        }
 
         /*Gets a handle to the content resolver object for the current context, and notifies it
          * that the incoming URI changed. The object passes this along to the resolver framework,
@@ -751,6 +1505,895 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
         return count;
     }
 
+    /**
+     * 返回搜索结果缓存的统计信息，见 {@link NotePad.Notes#METHOD_SEARCH_CACHE_STATS}；
+     * 替换正文中的区间，见 {@link NotePad.Notes#METHOD_PATCH_NOTE}
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (NotePad.Notes.METHOD_PATCH_NOTE.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(NotePad.Notes.EXTRA_PATCH_COUNT, patchNote(Long.parseLong(arg), extras));
+            return result;
+        }
+        if (NotePad.Notes.METHOD_SEARCH_CACHE_STATS.equals(method)) {
+            Bundle stats = new Bundle();
+            stats.putLong(NotePad.Notes.EXTRA_CACHE_HITS, mSearchCache.hits());
+            stats.putLong(NotePad.Notes.EXTRA_CACHE_MISSES, mSearchCache.misses());
+            stats.putLong(NotePad.Notes.EXTRA_CACHE_BYTES, mSearchCache.bytes());
+            stats.putInt(NotePad.Notes.EXTRA_CACHE_ENTRIES, mSearchCache.size());
+            return stats;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * 在 dumpsys activity provider 的输出中报告搜索结果缓存的命中率和内存占用
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mSearchCache.dump(writer);
+    }
+
+    /**
+     * 在数据库中替换正文的若干区间，编辑界面保存大篇笔记时不需要传递整篇正文。
+     * 已保存的正文分段读出一次，在内存中替换全部区间后用一条语句写回正文和规范化影子列，
+     * 替换后的正文同时用于更新搜索索引，不再从数据库读取。
+     *
+     * 减少的只是跨进程传递的数据量：读出正文、重新规范化和重建搜索索引仍与正文长度成正比。
+     * 规范化影子列中的位置与正文不是一一对应的（去掉标点、兼容分解），只替换修改的部分需要
+     * 先规范化它之前的全部正文，因此没有按区间更新；各部分的耗时见 NoteSaveBenchmark
+     */
+    private int patchNote(long noteId, Bundle extras) {
+        int[] starts = extras.getIntArray(NotePad.Notes.EXTRA_PATCH_STARTS);
+        int[] lengths = extras.getIntArray(NotePad.Notes.EXTRA_PATCH_LENGTHS);
+        String[] texts = extras.getStringArray(NotePad.Notes.EXTRA_PATCH_TEXTS);
+        if (starts == null || lengths == null || texts == null
+                || starts.length != lengths.length || starts.length != texts.length) {
+            throw new IllegalArgumentException("Incomplete patch for note " + noteId);
+        }
+        List<PieceTable.Edit> edits = new ArrayList<>(starts.length);
+        for (int i = 0; i < starts.length; i++) {
+            if (starts[i] < 0 || lengths[i] < 0 || texts[i] == null
+                    || (i > 0 && starts[i] < (long) starts[i - 1] + lengths[i - 1])) {
+                throw new IllegalArgumentException("Overlapping patch ranges for note " + noteId);
+            }
+            edits.add(new PieceTable.Edit(starts[i], lengths[i], texts[i]));
+        }
+
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        String note;
+        db.beginTransaction();
+        try {
+            if (queryIds(db, NotePad.Notes._ID + " = " + noteId, null).length == 0) {
+                return 0;
+            }
+            if (edits.isEmpty()) {
+                return 1;
+            }
+            String saved = readNote(db, noteId);
+            PieceTable.Edit last = edits.get(edits.size() - 1);
+            if ((long) last.start + last.length > saved.codePointCount(0, saved.length())) {
+                // 区间与数据库中的正文不符，调用方应改为写入整篇正文
+                throw new IllegalArgumentException("Patch range beyond the end of note " + noteId);
+            }
+            note = PieceTable.apply(saved, edits);
+            ContentValues values = new ContentValues();
+            values.put(NotePad.Notes.COLUMN_NAME_NOTE, note);
+            values.put(NotePad.Notes.COLUMN_NAME_NOTE_NORMALIZED, SearchNormalizer.normalize(note));
+            db.update(NotePad.Notes.TABLE_NAME, values, NotePad.Notes._ID + " = " + noteId, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        mDataVersion.incrementAndGet();
+        reindexNote(db, noteId, note);
+        getContext().getContentResolver().notifyChange(
+                ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE, noteId), null);
+        return 1;
+    }
+
+    /**
+     * 单条笔记的投影，另外包含按查询参数截取的正文分段列
+     */
+    private static HashMap<String, String> noteIdProjectionMap(Uri uri) {
+        long start = parseChunkParameter(uri, NotePad.Notes.QUERY_PARAMETER_CHUNK_START, 0);
+        long length = Math.min(parseChunkParameter(uri, NotePad.Notes.QUERY_PARAMETER_CHUNK_LENGTH,
+                NotePad.Notes.MAX_NOTE_CHUNK_LENGTH), NotePad.Notes.MAX_NOTE_CHUNK_LENGTH);
+        HashMap<String, String> map = new HashMap<String, String>(sNotesProjectionMap);
+        map.put(NotePad.Notes.COLUMN_NAME_NOTE_CHUNK,
+                "substr(ifnull(" + NotePad.Notes.COLUMN_NAME_NOTE + ", ''), " + (start + 1)
+                        + ", " + length + ") AS " + NotePad.Notes.COLUMN_NAME_NOTE_CHUNK);
+        return map;
+    }
+
+    private static long parseChunkParameter(Uri uri, String name, long defaultValue) {
+        String value = uri.getQueryParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value.isEmpty() || value.length() > 9 || !TextUtils.isDigitsOnly(value)) {
+            throw new IllegalArgumentException("Invalid " + name + " " + value);
+        }
+        return Long.parseLong(value);
+    }
+
+    /**
+     * 分段读出整篇正文，单次读取不超过 CursorWindow 的容量
+     */
+    private static String readNote(SQLiteDatabase db, long noteId) {
+        StringBuilder note = new StringBuilder();
+        String[] args = new String[] {null, Integer.toString(NotePad.Notes.MAX_NOTE_CHUNK_LENGTH),
+                Long.toString(noteId)};
+        for (long start = 1; ; start += NotePad.Notes.MAX_NOTE_CHUNK_LENGTH) {
+            args[0] = Long.toString(start);
+            Cursor c = db.rawQuery("SELECT substr(ifnull(" + NotePad.Notes.COLUMN_NAME_NOTE
+                    + ", ''), ?, ?) FROM " + NotePad.Notes.TABLE_NAME
+                    + " WHERE " + NotePad.Notes._ID + " = ?", args);
+            String chunk;
+            try {
+                chunk = c.moveToFirst() ? c.getString(0) : null;
+            } finally {
+                c.close();
+            }
+            if (chunk == null) {
+                break;
+            }
+            note.append(chunk);
+            if (chunk.codePointCount(0, chunk.length()) < NotePad.Notes.MAX_NOTE_CHUNK_LENGTH) {
+                break;
+            }
+        }
+        return note.toString();
+    }
+
+    /**
+     * 查询满足条件的笔记ID
+     */
+    private static long[] queryIds(SQLiteDatabase db, String where, String[] whereArgs) {
+        Cursor c = db.query(NotePad.Notes.TABLE_NAME, new String[] { NotePad.Notes._ID },
+                where, whereArgs, null, null, null);
+        try {
+            long[] ids = new long[c.getCount()];
+            for (int i = 0; c.moveToNext(); i++) {
+                ids[i] = c.getLong(0);
+            }
+            return ids;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * 根据要写入的标题和正文计算对应的规范化影子列
+     */
+    private static void putNormalizedColumns(ContentValues values) {
+        if (values.containsKey(NotePad.Notes.COLUMN_NAME_TITLE)) {
+            values.put(NotePad.Notes.COLUMN_NAME_TITLE_NORMALIZED, SearchNormalizer.normalize(
+                    values.getAsString(NotePad.Notes.COLUMN_NAME_TITLE)));
+        }
+        if (values.containsKey(NotePad.Notes.COLUMN_NAME_NOTE)) {
+            values.put(NotePad.Notes.COLUMN_NAME_NOTE_NORMALIZED, SearchNormalizer.normalize(
+                    values.getAsString(NotePad.Notes.COLUMN_NAME_NOTE)));
+        }
+    }
+
+    /**
+     * 将查询限制在给定的笔记ID集合内，集合为空时不返回任何行
+     */
+    private static void appendIdFilter(SQLiteQueryBuilder qb, Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            qb.appendWhere("0");
+        } else {
+            qb.appendWhere(NotePad.Notes._ID + " IN (" + TextUtils.join(",", ids) + ")");
+        }
+    }
+
+    private static void appendIdFilter(SQLiteQueryBuilder qb, long[] ids) {
+        if (ids.length == 0) {
+            qb.appendWhere("0");
+            return;
+        }
+        StringBuilder where = new StringBuilder(NotePad.Notes._ID).append(" IN (");
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0) {
+                where.append(',');
+            }
+            where.append(ids[i]);
+        }
+        qb.appendWhere(where.append(')'));
+    }
+
+    /**
+     * 在标题模糊索引中查询，索引尚未构建时先从数据库构建
+     */
+    private Set<Long> fuzzySearch(String query) {
+        synchronized (mSearchIndexLock) {
+            ensureSearchIndexes();
+
+            long start = System.nanoTime();
+            Set<Long> ids = mFuzzyIndex.search(query);
+            long elapsed = System.nanoTime() - start;
+            if (elapsed > FuzzyTitleIndex.LATENCY_BUDGET_NANOS) {
+                Log.w(TAG, "Fuzzy search took " + (elapsed / 1000) + "us over "
+                        + mFuzzyIndex.size() + " notes, exceeding the latency budget");
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * 按BM25相关度查询，返回所选分类中得分最高的笔记ID，按得分从高到低排列；
+     * 全部匹配笔记（不限于返回的前k条和所选分类）按分类计入 facets
+     */
+    private List<Long> rankedSearch(String query, CategoryFilter categories,
+                                    CategoryCounts facets) {
+        synchronized (mSearchIndexLock) {
+            ensureSearchIndexes();
+            return mRankIndex.search(query, RANKED_RESULT_LIMIT, categories, facets);
+        }
+    }
+
+    /**
+     * 编译查询语言的语法树；搜索索引已构建时用其中的文档频率估计各词条的区分度
+     */
+    private SearchQueryPlanner.Plan planSearch(SearchQuery.Node root) {
+        // 分类等值条件按现有的分类数均分
+        final double categorySelectivity =
+                1.0 / Math.max(1, categories(mOpenHelper.getReadableDatabase()).size());
+        synchronized (mSearchIndexLock) {
+            final Bm25Index rankIndex = mRankIndex;
+            final boolean ranked = rankIndex != null && rankIndex.size() > 0;
+            SearchQueryPlanner.SelectivityEstimator estimator = (field, text) -> {
+                if (field == SearchQuery.FIELD_CATEGORY) {
+                    return categorySelectivity;
+                }
+                return ranked ? rankIndex.estimateSelectivity(text)
+                        : SearchQueryPlanner.DEFAULT_ESTIMATOR.estimate(field, text);
+            };
+            return new SearchQueryPlanner(estimator).compile(root);
+        }
+    }
+
+    private static String[] concat(String[] first, String[] second) {
+        if (first == null) {
+            return second;
+        }
+        String[] result = new String[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    /**
+     * 生成按给定ID顺序排序的ORDER BY子句
+     */
+    private static String orderByIds(List<Long> ids) {
+        StringBuilder orderBy = new StringBuilder("CASE ").append(NotePad.Notes._ID);
+        for (int i = 0; i < ids.size(); i++) {
+            orderBy.append(" WHEN ").append(ids.get(i)).append(" THEN ").append(i);
+        }
+        return orderBy.append(" END").toString();
+    }
+
+    private static boolean hasIdColumn(String[] projection) {
+        return projection == null || Arrays.asList(projection).contains(NotePad.Notes._ID);
+    }
+
+    /**
+     * 构建内存搜索索引，调用方需持有 mSearchIndexLock
+     */
+    private void ensureSearchIndexes() {
+        if (mFuzzyIndex != null) {
+            return;
+        }
+
+        FuzzyTitleIndex fuzzyIndex = new FuzzyTitleIndex();
+        Bm25Index rankIndex = new Bm25Index();
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        Cursor c = db.query(NotePad.Notes.TABLE_NAME,
+                SEARCH_INDEX_PROJECTION, null, null, null, null, null);
+        try {
+            while (c.moveToNext()) {
+                long noteId = c.getLong(0);
+                fuzzyIndex.put(noteId, c.getString(1));
+                rankIndex.put(noteId, c.getString(1), indexedNote(db, noteId, c.getString(2)),
+                        c.getLong(3));
+            }
+        } finally {
+            c.close();
+        }
+        mFuzzyIndex = fuzzyIndex;
+        mRankIndex = rankIndex;
+    }
+
+    /**
+     * 单条笔记写入后同步更新已构建的搜索索引；笔记不存在时从索引中移除
+     */
+    private void reindexNote(SQLiteDatabase db, long noteId) {
+        reindexNote(db, noteId, null);
+    }
+
+    /**
+     * 同上，调用方已有写入的整篇正文时直接使用，不再从数据库读出
+     *
+     * @param note 写入的正文，为null时从数据库读出
+     */
+    private void reindexNote(SQLiteDatabase db, long noteId, String note) {
+        synchronized (mSearchIndexLock) {
+            if (mFuzzyIndex == null) {
+                return;
+            }
+            Cursor c = db.query(NotePad.Notes.TABLE_NAME, SEARCH_INDEX_PROJECTION,
+                    NotePad.Notes._ID + " = " + noteId, null, null, null, null);
+            try {
+                if (c.moveToFirst()) {
+                    String body = note != null ? note : indexedNote(db, noteId, c.getString(2));
+                    mFuzzyIndex.put(noteId, c.getString(1));
+                    mRankIndex.put(noteId, c.getString(1), body, c.getLong(3));
+                } else {
+                    mFuzzyIndex.remove(noteId);
+                    mRankIndex.remove(noteId);
+                }
+            } finally {
+                c.close();
+            }
+        }
+    }
+
+    /**
+     * 搜索索引使用的正文：读出的第一段（{@link #SEARCH_INDEX_PROJECTION}）已是完整的正文时
+     * 直接使用，否则分段读出整篇
+     */
+    private static String indexedNote(SQLiteDatabase db, long noteId, String firstChunk) {
+        if (firstChunk.codePointCount(0, firstChunk.length())
+                < NotePad.Notes.MAX_NOTE_CHUNK_LENGTH) {
+            return firstChunk;
+        }
+        return readNote(db, noteId);
+    }
+
+    /**
+     * 查询分类表，可以带有每个分类的笔记数
+     */
+    private Cursor queryCategories(Uri uri, String[] projection, String selection,
+                                   String[] selectionArgs, String sortOrder) {
+        SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+        qb.setTables(NotePad.Categories.TABLE_NAME);
+        qb.setProjectionMap(sCategoriesProjectionMap);
+        if (sUriMatcher.match(uri) == CATEGORY_ID) {
+            qb.appendWhere(NotePad.Categories._ID + "="
+                    + uri.getPathSegments().get(NotePad.Categories.CATEGORY_ID_PATH_POSITION));
+        }
+        Cursor c = qb.query(mOpenHelper.getReadableDatabase(), projection, selection,
+                selectionArgs, null, null,
+                TextUtils.isEmpty(sortOrder) ? NotePad.Categories.DEFAULT_SORT_ORDER : sortOrder);
+        c.setNotificationUri(getContext().getContentResolver(), NotePad.Categories.CONTENT_URI);
+        return c;
+    }
+
+    /**
+     * 新建分类，名称去掉首尾空白后不能为空；名称已存在时返回已有分类的URI
+     */
+    private Uri insertCategory(ContentValues initialValues) {
+        String name = initialValues != null
+                ? initialValues.getAsString(NotePad.Categories.COLUMN_NAME_NAME) : null;
+        if (name == null || (name = name.trim()).isEmpty()) {
+            throw new IllegalArgumentException("Category name must not be empty");
+        }
+        ContentValues values = new ContentValues(initialValues);
+        values.put(NotePad.Categories.COLUMN_NAME_NAME, name);
+
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long id;
+        boolean created = false;
+        db.beginTransaction();
+        try {
+            id = categories(db).idOf(name);
+            if (id < 0) {
+                id = insertCategoryRow(db, values);
+                created = true;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (created) {
+            categoriesChanged(false);
+        }
+        return ContentUris.withAppendedId(NotePad.Categories.CONTENT_ID_URI_BASE, id);
+    }
+
+    /**
+     * 修改分类的名称或显示位置。名称与其他分类重复时抛出
+     * {@link android.database.sqlite.SQLiteConstraintException}
+     */
+    private int updateCategories(Uri uri, ContentValues values, String where,
+                                 String[] whereArgs) {
+        boolean renamed = values.containsKey(NotePad.Categories.COLUMN_NAME_NAME);
+        if (renamed) {
+            String name = values.getAsString(NotePad.Categories.COLUMN_NAME_NAME);
+            if (name == null || (name = name.trim()).isEmpty()) {
+                throw new IllegalArgumentException("Category name must not be empty");
+            }
+            values = new ContentValues(values);
+            values.put(NotePad.Categories.COLUMN_NAME_NAME, name);
+        }
+        String finalWhere = itemWhere(uri, CATEGORY_ID, NotePad.Categories.CATEGORY_ID_PATH_POSITION, where);
+        int count = mOpenHelper.getWritableDatabase().update(
+                NotePad.Categories.TABLE_NAME, values, finalWhere, whereArgs);
+
+        // 重命名改变了笔记显示的分类名称
+        if (count > 0) {
+            categoriesChanged(renamed);
+        }
+        return count;
+    }
+
+    /**
+     * 删除分类，其中的笔记移到默认分类。默认分类不会被删除
+     */
+    private int deleteCategories(Uri uri, String where, String[] whereArgs) {
+        String finalWhere = NotePad.Categories._ID + " <> " + NotePad.Categories.DEFAULT_ID
+                + " AND " + itemWhere(uri, CATEGORY_ID,
+                        NotePad.Categories.CATEGORY_ID_PATH_POSITION, where);
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int count;
+        int moved;
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            values.put(NotePad.Notes.COLUMN_NAME_CATEGORY_ID, NotePad.Categories.DEFAULT_ID);
+            moved = db.update(NotePad.Notes.TABLE_NAME, values,
+                    NotePad.Notes.COLUMN_NAME_CATEGORY_ID + " IN (SELECT "
+                            + NotePad.Categories._ID + " FROM " + NotePad.Categories.TABLE_NAME
+                            + " WHERE " + finalWhere + ")", whereArgs);
+            count = db.delete(NotePad.Categories.TABLE_NAME, finalWhere, whereArgs);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (moved > 0) {
+            // 搜索索引记录了每条笔记的分类
+            invalidateSearchIndexes();
+        }
+        if (count > 0) {
+            categoriesChanged(moved > 0);
+        }
+        return count;
+    }
+
+    /**
+     * 分类或标签URI对应的条件：单项的URI（itemMatch）限定其ID，再接上调用方的条件
+     */
+    private static String itemWhere(Uri uri, int itemMatch, int idPathPosition, String where) {
+        String finalWhere = null;
+        if (sUriMatcher.match(uri) == itemMatch) {
+            finalWhere = BaseColumns._ID + " = " + uri.getPathSegments().get(idPathPosition);
+        }
+        if (!TextUtils.isEmpty(where)) {
+            finalWhere = finalWhere == null ? "(" + where + ")"
+                    : finalWhere + " AND (" + where + ")";
+        }
+        return finalWhere != null ? finalWhere : "1";
+    }
+
+    /**
+     * 把写入值中的分类名称换成分类ID，名称不存在时新建分类（在调用方的事务中执行）。
+     * 同时给出分类ID时以分类ID为准
+     *
+     * @return 是否新建了分类
+     */
+    private boolean putCategoryId(SQLiteDatabase db, ContentValues values) {
+        if (!values.containsKey(NotePad.Notes.COLUMN_NAME_CATEGORY)) {
+            return false;
+        }
+        String name = values.getAsString(NotePad.Notes.COLUMN_NAME_CATEGORY);
+        values.remove(NotePad.Notes.COLUMN_NAME_CATEGORY);
+        if (values.containsKey(NotePad.Notes.COLUMN_NAME_CATEGORY_ID)) {
+            return false;
+        }
+        if (name == null || (name = name.trim()).isEmpty()) {
+            values.put(NotePad.Notes.COLUMN_NAME_CATEGORY_ID, NotePad.Categories.DEFAULT_ID);
+            return false;
+        }
+        long id = categories(db).idOf(name);
+        boolean created = id < 0;
+        if (created) {
+            ContentValues category = new ContentValues();
+            category.put(NotePad.Categories.COLUMN_NAME_NAME, name);
+            id = insertCategoryRow(db, category);
+        }
+        values.put(NotePad.Notes.COLUMN_NAME_CATEGORY_ID, id);
+        return created;
+    }
+
+    /**
+     * 插入一个分类，未指定显示位置时排在最后
+     */
+    private static long insertCategoryRow(SQLiteDatabase db, ContentValues values) {
+        if (!values.containsKey(NotePad.Categories.COLUMN_NAME_POSITION)) {
+            values.put(NotePad.Categories.COLUMN_NAME_POSITION, DatabaseUtils.longForQuery(db,
+                    "SELECT ifnull(max(" + NotePad.Categories.COLUMN_NAME_POSITION + "), -1) + 1"
+                            + " FROM " + NotePad.Categories.TABLE_NAME, null));
+        }
+        long id = db.insert(NotePad.Categories.TABLE_NAME, null, values);
+        if (id == -1) {
+            throw new SQLException("Failed to insert category "
+                    + values.getAsString(NotePad.Categories.COLUMN_NAME_NAME));
+        }
+        return id;
+    }
+
+    /**
+     * 返回分类表的内存副本，已失效时从数据库重新读取
+     */
+    private CategoryMap categories(SQLiteDatabase db) {
+        CategoryMap categories = mCategories;
+        if (categories != null) {
+            return categories;
+        }
+        long generation;
+        synchronized (mCategoriesLock) {
+            generation = mCategoriesGeneration;
+        }
+        Cursor c = db.query(NotePad.Categories.TABLE_NAME, CategoryMap.PROJECTION,
+                null, null, null, null, NotePad.Categories.DEFAULT_SORT_ORDER);
+        try {
+            categories = CategoryMap.fromCursor(c);
+        } finally {
+            c.close();
+        }
+        // 读取期间分类表被修改时不缓存，下次重新读取
+        synchronized (mCategoriesLock) {
+            if (generation == mCategoriesGeneration) {
+                mCategories = categories;
+            }
+        }
+        return categories;
+    }
+
+    /**
+     * 分类表改变后让内存副本失效并通知观察者。笔记显示的分类名称也随之改变时，
+     * 同时通知笔记的观察者，并让按分类名称搜索的缓存结果失效
+     */
+    private void categoriesChanged(boolean notesChanged) {
+        synchronized (mCategoriesLock) {
+            mCategoriesGeneration++;
+            mCategories = null;
+        }
+        ContentResolver resolver = getContext().getContentResolver();
+        resolver.notifyChange(NotePad.Categories.CONTENT_URI, null);
+        if (notesChanged) {
+            mDataVersion.incrementAndGet();
+            resolver.notifyChange(NotePad.Notes.CONTENT_URI, null);
+        }
+    }
+
+    /**
+     * 查询所有标签或一条笔记的标签
+     */
+    private Cursor queryTags(Uri uri, String[] projection, String selection,
+                             String[] selectionArgs, String sortOrder) {
+        SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+        int match = sUriMatcher.match(uri);
+        if (match == NOTE_TAGS) {
+            qb.setTables(NotePad.Tags.TABLE_NAME + " INNER JOIN " + TagBitmapIndex.JOIN_TABLE_NAME
+                    + " ON (" + NotePad.Tags.TABLE_NAME + "." + NotePad.Tags._ID + " = "
+                    + TagBitmapIndex.JOIN_TABLE_NAME + "." + NotePad.Tags.COLUMN_NAME_TAG_ID + ")");
+            qb.setProjectionMap(sNoteTagsProjectionMap);
+            qb.appendWhere(TagBitmapIndex.JOIN_TABLE_NAME + "." + NotePad.Tags.COLUMN_NAME_NOTE_ID
+                    + "=" + uri.getPathSegments().get(NotePad.Notes.NOTE_ID_PATH_POSITION));
+        } else {
+            qb.setTables(NotePad.Tags.TABLE_NAME);
+            qb.setProjectionMap(sTagsProjectionMap);
+            if (match == TAG_ID) {
+                qb.appendWhere(NotePad.Tags._ID + "="
+                        + uri.getPathSegments().get(NotePad.Tags.TAG_ID_PATH_POSITION));
+            }
+        }
+        Cursor c = qb.query(mOpenHelper.getReadableDatabase(), projection, selection,
+                selectionArgs, null, null,
+                TextUtils.isEmpty(sortOrder) ? NotePad.Tags.DEFAULT_SORT_ORDER : sortOrder);
+        c.setNotificationUri(getContext().getContentResolver(), NotePad.Tags.CONTENT_URI);
+        return c;
+    }
+
+    /**
+     * 新建标签，名称已存在时返回已有标签的URI；或者给笔记添加标签，
+     * 这时可以给出标签ID或名称，不存在的名称会新建标签。返回标签的URI
+     */
+    private Uri insertTag(Uri uri, ContentValues values) {
+        boolean noteTag = sUriMatcher.match(uri) == NOTE_TAGS;
+        Long tagId = noteTag && values != null
+                ? values.getAsLong(NotePad.Tags.COLUMN_NAME_TAG_ID) : null;
+        String name = values != null ? values.getAsString(NotePad.Tags.COLUMN_NAME_NAME) : null;
+        if (tagId == null && (name == null || (name = name.trim()).isEmpty())) {
+            throw new IllegalArgumentException("Tag name must not be empty");
+        }
+        long noteId = noteTag ? Long.parseLong(
+                uri.getPathSegments().get(NotePad.Notes.NOTE_ID_PATH_POSITION)) : -1;
+
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        boolean created = false;
+        boolean linked = false;
+        db.beginTransaction();
+        try {
+            if (tagId == null) {
+                tagId = findTag(db, name);
+                if (tagId < 0) {
+                    ContentValues tag = new ContentValues();
+                    tag.put(NotePad.Tags.COLUMN_NAME_NAME, name);
+                    tagId = db.insert(NotePad.Tags.TABLE_NAME, null, tag);
+                    if (tagId == -1) {
+                        throw new SQLException("Failed to insert tag " + name);
+                    }
+                    created = true;
+                }
+            }
+            if (noteTag) {
+                if (DatabaseUtils.longForQuery(db, "SELECT count(*) FROM "
+                        + NotePad.Notes.TABLE_NAME + " WHERE " + NotePad.Notes._ID + " = "
+                        + noteId, null) == 0) {
+                    throw new IllegalArgumentException("Unknown note " + noteId);
+                }
+                ContentValues link = new ContentValues();
+                link.put(NotePad.Tags.COLUMN_NAME_NOTE_ID, noteId);
+                link.put(NotePad.Tags.COLUMN_NAME_TAG_ID, tagId);
+                // 笔记已有该标签时忽略
+                linked = db.insertWithOnConflict(TagBitmapIndex.JOIN_TABLE_NAME, null, link,
+                        SQLiteDatabase.CONFLICT_IGNORE) != -1;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (linked) {
+            synchronized (mTagIndexLock) {
+                if (mTagIndex != null) {
+                    mTagIndex.add(tagId, noteId);
+                }
+            }
+        }
+        if (created || linked) {
+            tagsChanged(linked);
+        }
+        return ContentUris.withAppendedId(NotePad.Tags.CONTENT_ID_URI_BASE, tagId);
+    }
+
+    /**
+     * 重命名标签。名称与其他标签重复时抛出
+     * {@link android.database.sqlite.SQLiteConstraintException}
+     */
+    private int updateTags(Uri uri, ContentValues values, String where, String[] whereArgs) {
+        if (values.containsKey(NotePad.Tags.COLUMN_NAME_NAME)) {
+            String name = values.getAsString(NotePad.Tags.COLUMN_NAME_NAME);
+            if (name == null || (name = name.trim()).isEmpty()) {
+                throw new IllegalArgumentException("Tag name must not be empty");
+            }
+            values = new ContentValues(values);
+            values.put(NotePad.Tags.COLUMN_NAME_NAME, name);
+        }
+        int count = mOpenHelper.getWritableDatabase().update(NotePad.Tags.TABLE_NAME, values,
+                itemWhere(uri, TAG_ID, NotePad.Tags.TAG_ID_PATH_POSITION, where), whereArgs);
+        if (count > 0) {
+            tagsChanged(false);
+        }
+        return count;
+    }
+
+    /**
+     * 删除标签及其所有关联，或者移除一条笔记的标签（可以用 {@link NotePad.Tags#COLUMN_NAME_TAG_ID}
+     * 作为条件）。返回删除的标签数或关联数
+     */
+    private int deleteTags(Uri uri, String where, String[] whereArgs) {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        boolean noteTags = sUriMatcher.match(uri) == NOTE_TAGS;
+        long noteId = noteTags ? Long.parseLong(
+                uri.getPathSegments().get(NotePad.Notes.NOTE_ID_PATH_POSITION)) : -1;
+        long[] tagIds;
+        int count;
+        int unlinked;
+        db.beginTransaction();
+        try {
+            if (noteTags) {
+                String finalWhere = NotePad.Tags.COLUMN_NAME_NOTE_ID + " = " + noteId;
+                if (!TextUtils.isEmpty(where)) {
+                    finalWhere = finalWhere + " AND (" + where + ")";
+                }
+                tagIds = queryLongs(db, TagBitmapIndex.JOIN_TABLE_NAME,
+                        NotePad.Tags.COLUMN_NAME_TAG_ID, finalWhere, whereArgs);
+                count = db.delete(TagBitmapIndex.JOIN_TABLE_NAME, finalWhere, whereArgs);
+                unlinked = count;
+            } else {
+                String finalWhere = itemWhere(uri, TAG_ID, NotePad.Tags.TAG_ID_PATH_POSITION,
+                        where);
+                tagIds = queryLongs(db, NotePad.Tags.TABLE_NAME, NotePad.Tags._ID,
+                        finalWhere, whereArgs);
+                unlinked = db.delete(TagBitmapIndex.JOIN_TABLE_NAME,
+                        NotePad.Tags.COLUMN_NAME_TAG_ID + " IN (SELECT " + NotePad.Tags._ID
+                                + " FROM " + NotePad.Tags.TABLE_NAME + " WHERE " + finalWhere
+                                + ")", whereArgs);
+                count = db.delete(NotePad.Tags.TABLE_NAME, finalWhere, whereArgs);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        synchronized (mTagIndexLock) {
+            if (mTagIndex != null) {
+                for (long tagId : tagIds) {
+                    if (noteTags) {
+                        mTagIndex.remove(tagId, noteId);
+                    } else {
+                        mTagIndex.removeTag(tagId);
+                    }
+                }
+            }
+        }
+        if (count > 0) {
+            tagsChanged(unlinked > 0);
+        }
+        return count;
+    }
+
+    /**
+     * 按标签筛选参数求出满足条件的笔记ID（从小到大），URI中没有标签参数时返回null
+     */
+    private long[] tagFilter(Uri uri) {
+        long[] allTags = parseIds(uri.getQueryParameter(NotePad.Notes.QUERY_PARAMETER_TAGS_ALL));
+        long[] anyTags = parseIds(uri.getQueryParameter(NotePad.Notes.QUERY_PARAMETER_TAGS_ANY));
+        if (allTags == null && anyTags == null) {
+            return null;
+        }
+        synchronized (mTagIndexLock) {
+            if (mTagIndex == null) {
+                mTagIndex = TagBitmapIndex.load(mOpenHelper.getReadableDatabase());
+            }
+            return mTagIndex.filter(allTags, anyTags);
+        }
+    }
+
+    /**
+     * 解析逗号分隔的ID列表，参数为空时返回null
+     */
+    private static long[] parseIds(String ids) {
+        if (TextUtils.isEmpty(ids)) {
+            return null;
+        }
+        String[] parts = TextUtils.split(ids, ",");
+        long[] result = new long[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            try {
+                result[i] = Long.parseLong(parts[i].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid id " + parts[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 名称对应的标签ID，不存在时返回-1
+     */
+    private static long findTag(SQLiteDatabase db, String name) {
+        Cursor c = db.query(NotePad.Tags.TABLE_NAME, new String[] { NotePad.Tags._ID },
+                NotePad.Tags.COLUMN_NAME_NAME + " = ?", new String[] { name },
+                null, null, null);
+        try {
+            return c.moveToFirst() ? c.getLong(0) : -1;
+        } finally {
+            c.close();
+        }
+    }
+
+    private static long[] queryLongs(SQLiteDatabase db, String table, String column,
+                                     String where, String[] whereArgs) {
+        Cursor c = db.query(table, new String[] { column }, where, whereArgs,
+                null, null, null);
+        try {
+            long[] values = new long[c.getCount()];
+            for (int i = 0; c.moveToNext(); i++) {
+                values[i] = c.getLong(0);
+            }
+            return values;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * 标签或笔记的标签改变后通知观察者；笔记的标签改变时同时通知笔记的观察者，
+     * 并让按标签筛选的缓存结果失效
+     */
+    private void tagsChanged(boolean notesChanged) {
+        ContentResolver resolver = getContext().getContentResolver();
+        resolver.notifyChange(NotePad.Tags.CONTENT_URI, null);
+        if (notesChanged) {
+            mDataVersion.incrementAndGet();
+            resolver.notifyChange(NotePad.Notes.CONTENT_URI, null);
+        }
+    }
+
+    /**
+     * 将查询限制在给定的笔记ID集合内的条件，ID必须从小到大排列。
+     * 按标签筛选的结果可能有十万条：较长的连续ID合并为一个范围，其余的ID每
+     * {@link #MAX_IDS_PER_IN_LIST} 个放入一个 IN 列表，各项再两两加括号组成平衡的 OR，
+     * 表达式树的深度只随项数的对数增长，不会超过SQLite的表达式深度限制（1000）
+     */
+    private static String sortedIdWhere(long[] ids) {
+        if (ids.length == 0) {
+            return "0";
+        }
+        List<String> terms = new ArrayList<>();
+        StringBuilder singles = new StringBuilder();
+        int singleCount = 0;
+        int start = 0;
+        while (start < ids.length) {
+            int end = start;
+            while (end + 1 < ids.length && ids[end + 1] == ids[end] + 1) {
+                end++;
+            }
+            if (end - start + 1 >= MIN_ID_RANGE_LENGTH) {
+                terms.add(NotePad.Notes._ID + " BETWEEN " + ids[start] + " AND " + ids[end]);
+            } else {
+                for (int i = start; i <= end; i++) {
+                    if (singleCount == MAX_IDS_PER_IN_LIST) {
+                        terms.add(idInList(singles));
+                        singles.setLength(0);
+                        singleCount = 0;
+                    }
+                    if (singleCount > 0) {
+                        singles.append(',');
+                    }
+                    singles.append(ids[i]);
+                    singleCount++;
+                }
+            }
+            start = end + 1;
+        }
+        if (singleCount > 0) {
+            terms.add(idInList(singles));
+        }
+        StringBuilder where = new StringBuilder();
+        appendBalancedOr(where, terms, 0, terms.size());
+        return where.toString();
+    }
+
+    private static String idInList(CharSequence ids) {
+        return NotePad.Notes._ID + " IN (" + ids + ")";
+    }
+
+    /**
+     * 把 terms 中 [from, to) 的各项组合为 OR，左右两半各自加括号
+     */
+    private static void appendBalancedOr(StringBuilder where, List<String> terms,
+                                         int from, int to) {
+        if (to - from == 1) {
+            where.append(terms.get(from));
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        where.append('(');
+        appendBalancedOr(where, terms, from, middle);
+        where.append(" OR ");
+        appendBalancedOr(where, terms, middle, to);
+        where.append(')');
+    }
+
+    /**
+     * 丢弃所有内存搜索索引，下次查询时重新构建
+     */
+    private void invalidateSearchIndexes() {
+        synchronized (mSearchIndexLock) {
+            mFuzzyIndex = null;
+            mRankIndex = null;
+        }
+    }
+
     /**
      * A test package can call this to get a handle to the database underlying NotePadProvider,
      * so it can insert test data into the database. The test case class is responsible for
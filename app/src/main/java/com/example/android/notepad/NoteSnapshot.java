@@ -0,0 +1,562 @@
+package com.example.android.notepad;
+
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 笔记列表某一时刻的不可变快照。
+ *
+ * 快照在后台线程从Cursor一次读出，之后只读，因此可以在线程间传递，
+ * 也可以与下一个快照逐行比较（见 {@link SnapshotDiff}），只更新真正变化的行。
+ *
+ * 数据按列存放：ID、时间各是一个long数组，分类是指向分类表的下标，相同的标题只保存一份。
+ * 正文不在快照中：列表预览只需要可见的几行，由 {@link PreviewLayout} 在后台按需读取。
+ * 这样每条笔记只占几个数组元素而不是一个对象，十万条笔记时也不会给堆带来大量小对象。
+ * 显示顺序是单独的下标数组，{@link #sortedBy(int)} 重新排序时只生成新的下标数组，各列共用。
+ * {@link #get(int)} 按需组装一行，供比较使用；列表项绑定时用 {@link #read(int, Row)}
+ * 读入列表项自己的行对象，滚动时不分配。
+ *
+ * 按修改时间倒序的快照可以附带按月份的分节（{@link MonthSections}），
+ * 按分类筛选读出的快照附带筛选前各分类的笔记数（{@link CategoryCounts}）。
+ */
+final class NoteSnapshot {
+
+    /** 按修改时间从新到旧排序 */
+    static final int SORT_MODIFIED = 0;
+    /** 按创建时间从新到旧排序 */
+    static final int SORT_CREATED = 1;
+    /** 按标题排序 */
+    static final int SORT_TITLE = 2;
+
+    static final NoteSnapshot EMPTY = of(new ArrayList<Row>());
+
+    /**
+     * 列表中的一行。除了列表项复用的行对象（由 {@link NoteSnapshot#read(int, Row)} 覆盖）以外，
+     * 创建后不再修改
+     */
+    static final class Row {
+        long id;
+        String title;
+        long created;
+        long modified;
+        String category;
+        int matchField;
+        int matchLine;
+        String snippet;
+        int snippetStart;
+        int snippetEnd;
+
+        /**
+         * 供列表项复用的空行
+         */
+        Row() {
+            matchField = NotePad.Notes.MATCH_FIELD_NONE;
+        }
+
+        Row(long id, String title, long created, long modified, String category,
+            int matchField, int matchLine, String snippet, int snippetStart, int snippetEnd) {
+            this.id = id;
+            this.title = title;
+            this.created = created;
+            this.modified = modified;
+            this.category = category;
+            this.matchField = matchField;
+            this.matchLine = matchLine;
+            this.snippet = snippet;
+            this.snippetStart = snippetStart;
+            this.snippetEnd = snippetEnd;
+        }
+
+        /**
+         * 复制另一行的内容，用于列表项复用的行对象
+         */
+        void set(Row other) {
+            id = other.id;
+            title = other.title;
+            created = other.created;
+            modified = other.modified;
+            category = other.category;
+            matchField = other.matchField;
+            matchLine = other.matchLine;
+            snippet = other.snippet;
+            snippetStart = other.snippetStart;
+            snippetEnd = other.snippetEnd;
+        }
+
+        /**
+         * 两行显示的内容是否相同。正文的修改总会更新修改时间，因此不逐字比较正文；
+         * 标题和分类可能单独修改，搜索摘要随搜索词变化，这些字段逐一比较。
+         */
+        boolean sameContent(Row other) {
+            return modified == other.modified
+                    && created == other.created
+                    && TextUtils.equals(title, other.title)
+                    && TextUtils.equals(category, other.category)
+                    && sameMatch(other);
+        }
+
+        /**
+         * 两行的搜索匹配信息是否相同
+         */
+        boolean sameMatch(Row other) {
+            return matchField == other.matchField
+                    && matchLine == other.matchLine
+                    && snippetStart == other.snippetStart
+                    && snippetEnd == other.snippetEnd
+                    && TextUtils.equals(snippet, other.snippet);
+        }
+    }
+
+    /**
+     * 按行追加数据、生成快照；只在一个线程中使用
+     */
+    static final class Builder {
+        private int mSize;
+        private long[] mIds;
+        private long[] mCreated;
+        private long[] mModified;
+        private String[] mTitles;
+        private int[] mCategories;
+        private int[] mMatchFields;
+        private int[] mMatchLines;
+        private String[] mSnippets;
+        private int[] mSnippetStarts;
+        private int[] mSnippetEnds;
+
+        // 标题和分类去重用
+        private final HashMap<String, String> mTitlePool = new HashMap<>();
+        private final HashMap<String, Integer> mCategoryIndexes = new HashMap<>();
+        private final List<String> mCategoryTable = new ArrayList<>();
+
+        Builder(int capacity) {
+            capacity = Math.max(capacity, 16);
+            mIds = new long[capacity];
+            mCreated = new long[capacity];
+            mModified = new long[capacity];
+            mTitles = new String[capacity];
+            mCategories = new int[capacity];
+        }
+
+        Builder add(Row row) {
+            if (mSize == mIds.length) {
+                grow();
+            }
+            int i = mSize++;
+            mIds[i] = row.id;
+            mCreated[i] = row.created;
+            mModified[i] = row.modified;
+            mTitles[i] = intern(row.title);
+            mCategories[i] = categoryIndex(row.category);
+            if (row.matchField != NotePad.Notes.MATCH_FIELD_NONE || mMatchFields != null) {
+                ensureMatchColumns();
+                mMatchFields[i] = row.matchField;
+                mMatchLines[i] = row.matchLine;
+                mSnippets[i] = row.snippet;
+                mSnippetStarts[i] = row.snippetStart;
+                mSnippetEnds[i] = row.snippetEnd;
+            }
+            return this;
+        }
+
+        NoteSnapshot build() {
+            return build(null);
+        }
+
+        NoteSnapshot build(CategoryCounts categoryCounts) {
+            return new NoteSnapshot(mSize, mIds, mCreated, mModified, mTitles,
+                    mCategories, mCategoryTable.toArray(new String[mCategoryTable.size()]),
+                    mMatchFields, mMatchLines, mSnippets, mSnippetStarts, mSnippetEnds, null,
+                    null, categoryCounts);
+        }
+
+        private String intern(String title) {
+            if (title == null) {
+                return null;
+            }
+            String pooled = mTitlePool.get(title);
+            if (pooled == null) {
+                mTitlePool.put(title, title);
+                pooled = title;
+            }
+            return pooled;
+        }
+
+        private int categoryIndex(String category) {
+            Integer index = mCategoryIndexes.get(category);
+            if (index == null) {
+                index = mCategoryTable.size();
+                mCategoryTable.add(category);
+                mCategoryIndexes.put(category, index);
+            }
+            return index;
+        }
+
+        /**
+         * 第一次遇到搜索匹配时才分配匹配相关的列，之前的行都是无匹配
+         */
+        private void ensureMatchColumns() {
+            if (mMatchFields != null) {
+                return;
+            }
+            int capacity = mIds.length;
+            mMatchFields = new int[capacity];
+            for (int i = 0; i < mSize - 1; i++) {
+                mMatchFields[i] = NotePad.Notes.MATCH_FIELD_NONE;
+            }
+            mMatchLines = new int[capacity];
+            mSnippets = new String[capacity];
+            mSnippetStarts = new int[capacity];
+            mSnippetEnds = new int[capacity];
+        }
+
+        private void grow() {
+            int capacity = mIds.length * 2;
+            mIds = copyOf(mIds, capacity);
+            mCreated = copyOf(mCreated, capacity);
+            mModified = copyOf(mModified, capacity);
+            mTitles = copyOf(mTitles, capacity);
+            mCategories = copyOf(mCategories, capacity);
+            if (mMatchFields != null) {
+                mMatchFields = copyOf(mMatchFields, capacity);
+                mMatchLines = copyOf(mMatchLines, capacity);
+                mSnippets = copyOf(mSnippets, capacity);
+                mSnippetStarts = copyOf(mSnippetStarts, capacity);
+                mSnippetEnds = copyOf(mSnippetEnds, capacity);
+            }
+        }
+
+        private static long[] copyOf(long[] array, int length) {
+            long[] copy = new long[length];
+            System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+            return copy;
+        }
+
+        private static int[] copyOf(int[] array, int length) {
+            int[] copy = new int[length];
+            System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+            return copy;
+        }
+
+        private static String[] copyOf(String[] array, int length) {
+            String[] copy = new String[length];
+            System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+            return copy;
+        }
+    }
+
+    private final int mSize;
+    private final long[] mIds;
+    private final long[] mCreated;
+    private final long[] mModified;
+    private final String[] mTitles;
+    // 分类表中的下标，以及分类表本身
+    private final int[] mCategories;
+    private final String[] mCategoryTable;
+    // 搜索匹配相关的列，没有任何匹配时都为null
+    private final int[] mMatchFields;
+    private final int[] mMatchLines;
+    private final String[] mSnippets;
+    private final int[] mSnippetStarts;
+    private final int[] mSnippetEnds;
+    // 显示位置到数据下标的映射，为null时按读出的顺序显示
+    private final int[] mOrder;
+    // 按月份的分节，没有时为null
+    private final MonthSections mSections;
+    // 筛选前各分类的笔记数，没有统计时为null
+    private final CategoryCounts mCategoryCounts;
+
+    private NoteSnapshot(int size, long[] ids, long[] created, long[] modified, String[] titles,
+                         int[] categories, String[] categoryTable,
+                         int[] matchFields, int[] matchLines, String[] snippets,
+                         int[] snippetStarts, int[] snippetEnds, int[] order,
+                         MonthSections sections, CategoryCounts categoryCounts) {
+        mSize = size;
+        mIds = ids;
+        mCreated = created;
+        mModified = modified;
+        mTitles = titles;
+        mCategories = categories;
+        mCategoryTable = categoryTable;
+        mMatchFields = matchFields;
+        mMatchLines = matchLines;
+        mSnippets = snippets;
+        mSnippetStarts = snippetStarts;
+        mSnippetEnds = snippetEnds;
+        mOrder = order;
+        mSections = sections;
+        mCategoryCounts = categoryCounts;
+    }
+
+    static NoteSnapshot of(List<Row> rows) {
+        Builder builder = new Builder(rows.size());
+        for (Row row : rows) {
+            builder.add(row);
+        }
+        return builder.build();
+    }
+
+    /**
+     * 读出Cursor的全部行；搜索摘要列不存在时按无匹配处理。不读正文列。不关闭Cursor。
+     */
+    static NoteSnapshot fromCursor(Cursor cursor) {
+        return fromCursor(cursor, CategoryFilter.ALL);
+    }
+
+    /**
+     * 读出Cursor中属于所选分类的行，同时按分类统计所有行的笔记数（见 {@link #categoryCounts()}），
+     * 列表和各分类的计数由同一次遍历得到。Cursor中没有分类ID列时既不筛选也不统计。
+     * Cursor的extras带有Provider统计的分类计数时（结果被截断的相关度搜索）以其为准。不关闭Cursor。
+     */
+    static NoteSnapshot fromCursor(Cursor cursor, CategoryFilter filter) {
+        if (cursor == null) {
+            return EMPTY;
+        }
+        int idIndex = cursor.getColumnIndexOrThrow(NotePad.Notes._ID);
+        int titleIndex = cursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_TITLE);
+        int createdIndex = cursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_CREATE_DATE);
+        int modifiedIndex = cursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE);
+        int categoryIndex = cursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_CATEGORY);
+        int categoryIdIndex = cursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_CATEGORY_ID);
+        int matchFieldIndex = cursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_MATCH_FIELD);
+        int matchLineIndex = cursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_MATCH_LINE);
+        int snippetIndex = cursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_SNIPPET);
+        int snippetStartIndex = cursor.getColumnIndex(
+                NotePad.Notes.COLUMN_NAME_SNIPPET_HIGHLIGHT_START);
+        int snippetEndIndex = cursor.getColumnIndex(
+                NotePad.Notes.COLUMN_NAME_SNIPPET_HIGHLIGHT_END);
+
+        Builder builder = new Builder(filter.isAll() ? cursor.getCount() : 16);
+        CategoryCounts counts = categoryIdIndex >= 0 ? new CategoryCounts() : null;
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            if (counts != null) {
+                long categoryId = cursor.getLong(categoryIdIndex);
+                counts.add(categoryId);
+                if (!filter.contains(categoryId)) {
+                    continue;
+                }
+            }
+            builder.add(new Row(
+                    cursor.getLong(idIndex),
+                    getString(cursor, titleIndex),
+                    getLong(cursor, createdIndex),
+                    getLong(cursor, modifiedIndex),
+                    getString(cursor, categoryIndex),
+                    matchFieldIndex >= 0
+                            ? cursor.getInt(matchFieldIndex) : NotePad.Notes.MATCH_FIELD_NONE,
+                    (int) getLong(cursor, matchLineIndex),
+                    getString(cursor, snippetIndex),
+                    (int) getLong(cursor, snippetStartIndex),
+                    (int) getLong(cursor, snippetEndIndex)));
+        }
+        CategoryCounts provided = CategoryCounts.fromExtras(cursor.getExtras());
+        return builder.build(provided != null ? provided : counts);
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    long id(int position) {
+        return mIds[index(position)];
+    }
+
+    long modified(int position) {
+        return mModified[index(position)];
+    }
+
+    long created(int position) {
+        return mCreated[index(position)];
+    }
+
+    String title(int position) {
+        return mTitles[index(position)];
+    }
+
+    String category(int position) {
+        return mCategoryTable[mCategories[index(position)]];
+    }
+
+    /**
+     * 按月份的分节，没有时返回null
+     */
+    MonthSections sections() {
+        return mSections;
+    }
+
+    /**
+     * 返回附带指定分节的快照，与本快照共用各列
+     */
+    NoteSnapshot withSections(MonthSections sections) {
+        return new NoteSnapshot(mSize, mIds, mCreated, mModified, mTitles, mCategories,
+                mCategoryTable, mMatchFields, mMatchLines, mSnippets, mSnippetStarts,
+                mSnippetEnds, mOrder, sections, mCategoryCounts);
+    }
+
+    /**
+     * 按分类筛选前各分类的笔记数，读出时没有分类ID列则为null
+     */
+    CategoryCounts categoryCounts() {
+        return mCategoryCounts;
+    }
+
+    /**
+     * 组装某个位置的一行
+     */
+    Row get(int position) {
+        int i = index(position);
+        if (mMatchFields == null) {
+            return new Row(mIds[i], mTitles[i], mCreated[i], mModified[i],
+                    mCategoryTable[mCategories[i]], NotePad.Notes.MATCH_FIELD_NONE, 0, null, 0, 0);
+        }
+        return new Row(mIds[i], mTitles[i], mCreated[i], mModified[i],
+                mCategoryTable[mCategories[i]], mMatchFields[i], mMatchLines[i], mSnippets[i],
+                mSnippetStarts[i], mSnippetEnds[i]);
+    }
+
+    /**
+     * 把某个位置的一行读入已有的行对象，不分配
+     */
+    void read(int position, Row into) {
+        int i = index(position);
+        into.id = mIds[i];
+        into.title = mTitles[i];
+        into.created = mCreated[i];
+        into.modified = mModified[i];
+        into.category = mCategoryTable[mCategories[i]];
+        if (mMatchFields == null) {
+            into.matchField = NotePad.Notes.MATCH_FIELD_NONE;
+            into.matchLine = 0;
+            into.snippet = null;
+            into.snippetStart = 0;
+            into.snippetEnd = 0;
+        } else {
+            into.matchField = mMatchFields[i];
+            into.matchLine = mMatchLines[i];
+            into.snippet = mSnippets[i];
+            into.snippetStart = mSnippetStarts[i];
+            into.snippetEnd = mSnippetEnds[i];
+        }
+    }
+
+    /**
+     * 某个位置的一行与 row 是否是同一条笔记且显示的内容相同；直接比较列，不组装行
+     */
+    boolean sameRow(int position, Row row) {
+        int i = index(position);
+        if (mIds[i] != row.id
+                || mModified[i] != row.modified
+                || mCreated[i] != row.created
+                || !TextUtils.equals(mTitles[i], row.title)
+                || !TextUtils.equals(mCategoryTable[mCategories[i]], row.category)) {
+            return false;
+        }
+        if (mMatchFields == null) {
+            return row.matchField == NotePad.Notes.MATCH_FIELD_NONE && row.matchLine == 0
+                    && row.snippet == null && row.snippetStart == 0 && row.snippetEnd == 0;
+        }
+        return mMatchFields[i] == row.matchField
+                && mMatchLines[i] == row.matchLine
+                && mSnippetStarts[i] == row.snippetStart
+                && mSnippetEnds[i] == row.snippetEnd
+                && TextUtils.equals(mSnippets[i], row.snippet);
+    }
+
+    /**
+     * 与 {@link Row#sameContent(Row)} 相同，但直接比较两个快照的列，不组装行
+     */
+    boolean sameContent(int position, NoteSnapshot other, int otherPosition) {
+        int i = index(position);
+        int j = other.index(otherPosition);
+        if (mModified[i] != other.mModified[j]
+                || mCreated[i] != other.mCreated[j]
+                || !TextUtils.equals(mTitles[i], other.mTitles[j])
+                || !TextUtils.equals(mCategoryTable[mCategories[i]],
+                        other.mCategoryTable[other.mCategories[j]])) {
+            return false;
+        }
+        if (mMatchFields == null && other.mMatchFields == null) {
+            return true;
+        }
+        return get(position).sameMatch(other.get(otherPosition));
+    }
+
+    /**
+     * 返回按指定方式重新排序的快照，与本快照共用各列，只新建一个下标数组。
+     * 排序是稳定的，相同的键保持原来的相对顺序。按修改时间排序时保留分节，其他排序不带分节。
+     *
+     * @param sort {@link #SORT_MODIFIED}、{@link #SORT_CREATED} 或 {@link #SORT_TITLE}
+     */
+    NoteSnapshot sortedBy(int sort) {
+        int[] order = new int[mSize];
+        for (int i = 0; i < mSize; i++) {
+            order[i] = index(i);
+        }
+        mergeSort(order, new int[mSize], 0, mSize, sort);
+        return new NoteSnapshot(mSize, mIds, mCreated, mModified, mTitles, mCategories,
+                mCategoryTable, mMatchFields, mMatchLines, mSnippets, mSnippetStarts,
+                mSnippetEnds, order, sort == SORT_MODIFIED ? mSections : null, mCategoryCounts);
+    }
+
+    private int index(int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("position " + position + ", size " + mSize);
+        }
+        return mOrder != null ? mOrder[position] : position;
+    }
+
+    /**
+     * 对下标数组的 [from, to) 归并排序；比较的是下标指向的列，不装箱
+     */
+    private void mergeSort(int[] order, int[] buffer, int from, int to, int sort) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(order, buffer, from, middle, sort);
+        mergeSort(order, buffer, middle, to, sort);
+        if (compare(order[middle - 1], order[middle], sort) <= 0) {
+            return;
+        }
+        System.arraycopy(order, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || left < middle
+                    && compare(buffer[left], buffer[right], sort) <= 0) {
+                order[i] = buffer[left++];
+            } else {
+                order[i] = buffer[right++];
+            }
+        }
+    }
+
+    private int compare(int a, int b, int sort) {
+        switch (sort) {
+            case SORT_CREATED:
+                return compareDescending(mCreated[a], mCreated[b]);
+            case SORT_TITLE:
+                String titleA = mTitles[a] != null ? mTitles[a] : "";
+                String titleB = mTitles[b] != null ? mTitles[b] : "";
+                return titleA.compareToIgnoreCase(titleB);
+            default:
+                return compareDescending(mModified[a], mModified[b]);
+        }
+    }
+
+    private static int compareDescending(long a, long b) {
+        return a > b ? -1 : (a == b ? 0 : 1);
+    }
+
+    private static String getString(Cursor cursor, int index) {
+        return index >= 0 ? cursor.getString(index) : null;
+    }
+
+    private static long getLong(Cursor cursor, int index) {
+        return index >= 0 ? cursor.getLong(index) : 0;
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.android.notepad;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+/**
+ * 在后台线程查询笔记并读成 {@link NoteSnapshot} 的Loader，用法与CursorLoader相同。
+ *
+ * 查询得到的Cursor在读完后立即关闭，界面只持有不可变的快照；
+ * 数据变化时通过监听Provider的通知重新加载。
+ *
+ * 按分类筛选时不把分类条件交给数据库，而是读出所有行、在读快照时跳过未选中的分类，
+ * 同一次遍历顺便统计各分类的笔记数（{@link NoteSnapshot#categoryCounts()}），
+ * 分类弹窗的计数因此不需要再扫描一遍笔记表。
+ *
+ * 需要按月份分节时，第一次加载另外查询一次各月份的笔记数（{@link NotePad.Notes#MONTHS_URI}），
+ * 之后重新加载时按与上次结果的差异增量调整分节。
+ */
+class NoteSnapshotLoader extends AsyncTaskLoader<NoteSnapshot> {
+
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+    private final Uri mUri;
+    private final String[] mProjection;
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+    private final String mSortOrder;
+    private final CategoryFilter mCategoryFilter;
+    private final boolean mMonthSections;
+
+    private NoteSnapshot mSnapshot;
+    // 后台线程最近一次加载的结果，用于增量计算分节
+    private volatile NoteSnapshot mLastLoaded;
+    private boolean mObserverRegistered;
+
+    NoteSnapshotLoader(Context context, Uri uri, String[] projection, String selection,
+                       String[] selectionArgs, String sortOrder, CategoryFilter categoryFilter,
+                       boolean monthSections) {
+        super(context);
+        mUri = uri;
+        mProjection = projection;
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mSortOrder = sortOrder;
+        mCategoryFilter = categoryFilter;
+        mMonthSections = monthSections;
+    }
+
+    @Override
+    public NoteSnapshot loadInBackground() {
+        long start = PerfMetrics.start();
+        Cursor cursor = getContext().getContentResolver().query(
+                mUri, mProjection, mSelection, mSelectionArgs, mSortOrder);
+        if (cursor == null) {
+            return NoteSnapshot.EMPTY;
+        }
+        NoteSnapshot snapshot;
+        try {
+            snapshot = NoteSnapshot.fromCursor(cursor, mCategoryFilter);
+        } finally {
+            cursor.close();
+        }
+        if (mMonthSections) {
+            snapshot = snapshot.withSections(loadSections(snapshot));
+            mLastLoaded = snapshot;
+        }
+        // 查询、读出快照和计算分节的总耗时
+        PerfMetrics.end(PerfMetrics.LOADS, start);
+        return snapshot;
+    }
+
+    /**
+     * 由上次的分节和两次结果的差异得到新的分节；没有上次的结果或调整后对不上时重新查询，
+     * 查询期间数据又发生变化、结果仍对不上时逐行计算
+     */
+    private MonthSections loadSections(NoteSnapshot snapshot) {
+        NoteSnapshot previous = mLastLoaded;
+        if (previous != null && previous.sections() != null) {
+            MonthSections sections = previous.sections().update(previous, snapshot,
+                    SnapshotDiff.compute(previous, snapshot));
+            if (sections != null) {
+                return sections;
+            }
+        }
+        // 各月份的计数只针对所选分类，这里的分类条件交给数据库
+        Cursor cursor = getContext().getContentResolver().query(
+                NotePad.Notes.MONTHS_URI, null, mCategoryFilter.selection(mSelection),
+                mCategoryFilter.selectionArgs(mSelectionArgs), null);
+        if (cursor != null) {
+            try {
+                MonthSections sections = MonthSections.fromCursor(cursor);
+                if (sections.count() == snapshot.size()) {
+                    return sections;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return MonthSections.fromSnapshot(snapshot);
+    }
+
+    @Override
+    public void deliverResult(NoteSnapshot snapshot) {
+        if (isReset()) {
+            return;
+        }
+        mSnapshot = snapshot;
+        if (isStarted()) {
+            super.deliverResult(snapshot);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserverRegistered) {
+            // 查询参数（搜索词等）不影响通知的匹配，只按路径监听
+            getContext().getContentResolver().registerContentObserver(
+                    mUri.buildUpon().clearQuery().build(), true, mObserver);
+            mObserverRegistered = true;
+        }
+        if (mSnapshot != null) {
+            deliverResult(mSnapshot);
+        }
+        if (takeContentChanged() || mSnapshot == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        mSnapshot = null;
+        if (mObserverRegistered) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserverRegistered = false;
+        }
+    }
+}
@@ -28,23 +28,14 @@ import android.content.ContentUris;
 import android.content.Context;
 import android.content.Intent;
 import android.content.Loader;
-import android.database.Cursor;
 import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.Typeface;
 import android.graphics.drawable.ColorDrawable;
 import android.net.Uri;
 import android.os.Bundle;
 import android.text.Editable;
-import android.text.Spannable;
-import android.text.SpannableString;
-import android.text.Spanned;
 import android.text.TextUtils;
 import android.text.TextWatcher;
-import android.text.style.StyleSpan;
-import android.text.style.UnderlineSpan;
 import android.util.Log;
-import android.util.TypedValue;
 import android.view.ContextMenu;
 import android.view.Gravity;
 import android.view.KeyEvent;
@@ -61,23 +52,27 @@ import android.widget.AdapterView;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ImageButton;
+import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
+import android.widget.ListPopupWindow;
 import android.widget.ListView;
 import android.widget.PopupMenu;
-import android.widget.SimpleCursorAdapter;
 import android.widget.TextView;
 import android.widget.TextView.OnEditorActionListener;
-import android.content.CursorLoader;
+import android.widget.Toast;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * Displays a list of notes with category filtering and search functionality.
  */
-public class NotesList extends ListActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+public class NotesList extends ListActivity implements LoaderManager.LoaderCallbacks<NoteSnapshot> {
 
     private LinearLayout mSearchBar;
     private EditText mSearchEditText;
@@ -85,35 +80,64 @@ public class NotesList extends ListActivity implements LoaderManager.LoaderCallb
     private Button mCancelButton;
     private String mSearchQuery;
 
-    // 新增分类相关变量
-    private String mSelectedCategory = "全部"; // 默认选中全部
-    private HashMap<String, Integer> mCategoryCounts;
+    // 新增分类相关变量：选中的分类（可以多选）及其显示文字，默认选中全部
+    private CategoryFilter mCategoryFilter = CategoryFilter.ALL;
+    private String mCategoryLabel = "全部";
+    // 最近一次列表查询中各分类的笔记数，与列表一同读出
+    private CategoryCounts mCategoryCounts = CategoryCounts.EMPTY;
     private TextView mCategoryTitle;
     private ImageView mCategoryDropdown;
 
-    private SimpleCursorAdapter mAdapter;
+    private NotesListAdapter mAdapter;
     private TextWatcher mSearchTextWatcher;
 
     private static final String TAG = "NotesList";
     private static final int LOADER_ID = 1;
     private boolean isRealTimeSearch = true;
 
+    // 搜索匹配方式：子串匹配、容错的模糊匹配、按相关度排序或正则表达式
+    private static final int MATCH_MODE_SUBSTRING = 0;
+    private static final int MATCH_MODE_FUZZY = 1;
+    private static final int MATCH_MODE_RANKED = 2;
+    private static final int MATCH_MODE_REGEX = 3;
+    private int mMatchMode = MATCH_MODE_SUBSTRING;
+
+    // 正在进行的正则搜索，正则搜索不经过Loader
+    private RegexSearch mRegexSearch;
+
+    // 搜索框下方的标题补全
+    private TitleSuggestions mTitleSuggestions;
+    private ListPopupWindow mSuggestionPopup;
+    private ArrayAdapter<String> mSuggestionAdapter;
+
     /**
-     * 投影字段添加分类列
+     * 投影字段添加分类列。不含正文，预览由列表适配器只为可见的行另外读取
      */
     private static final String[] PROJECTION = new String[] {
             NotePad.Notes._ID, // 0
             NotePad.Notes.COLUMN_NAME_TITLE, // 1
             NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE, // 2
-            NotePad.Notes.COLUMN_NAME_NOTE, // 3
-            NotePad.Notes.COLUMN_NAME_CREATE_DATE, // 4
-            NotePad.Notes.COLUMN_NAME_CATEGORY // 5 新增分类字段
+            NotePad.Notes.COLUMN_NAME_CREATE_DATE, // 3
+            NotePad.Notes.COLUMN_NAME_CATEGORY, // 4 新增分类字段
+            NotePad.Notes.COLUMN_NAME_CATEGORY_ID // 5 按分类筛选和计数
     };
 
-    private static final int COLUMN_INDEX_TITLE = 1;
-    private static final int COLUMN_INDEX_MODIFICATION_DATE = 2;
-    private static final int COLUMN_INDEX_CREATE_DATE = 4;
-    private static final int COLUMN_INDEX_CATEGORY = 5; // 分类字段索引
+    /**
+     * 搜索时的投影：在普通投影之后追加由Provider预先计算的匹配摘要列
+     */
+    private static final String[] SEARCH_PROJECTION = new String[] {
+            NotePad.Notes._ID, // 0
+            NotePad.Notes.COLUMN_NAME_TITLE, // 1
+            NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE, // 2
+            NotePad.Notes.COLUMN_NAME_CREATE_DATE, // 3
+            NotePad.Notes.COLUMN_NAME_CATEGORY, // 4
+            NotePad.Notes.COLUMN_NAME_CATEGORY_ID, // 5
+            NotePad.Notes.COLUMN_NAME_MATCH_FIELD, // 6
+            NotePad.Notes.COLUMN_NAME_MATCH_LINE, // 7
+            NotePad.Notes.COLUMN_NAME_SNIPPET, // 8
+            NotePad.Notes.COLUMN_NAME_SNIPPET_HIGHLIGHT_START, // 9
+            NotePad.Notes.COLUMN_NAME_SNIPPET_HIGHLIGHT_END // 10
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -145,177 +169,7 @@ public class NotesList extends ListActivity implements LoaderManager.LoaderCallb
         initCategoryBar();
 
         // 初始化适配器
-        mAdapter = new SimpleCursorAdapter(
-                this,
-                R.layout.noteslist_item,
-                null,
-                new String[]{},
-                new int[]{},
-                0
-        ) {
-            @Override
-            public void bindView(View view, Context context, Cursor cursor) {
-                super.bindView(view, context, cursor);
-
-                // 1. 处理标题
-                String title = cursor.getString(COLUMN_INDEX_TITLE);
-                TextView titleView = (TextView) view.findViewById(android.R.id.text1);
-                if (titleView != null) {
-                    String displayTitle = TextUtils.isEmpty(title) ? getString(R.string.undefined_title) : title;
-                    titleView.setText(displayTitle);
-                    titleView.setSingleLine(true);
-                    titleView.setEllipsize(TextUtils.TruncateAt.END);
-                }
-
-                // 2. 处理正文内容
-                String content = cursor.getString(cursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_NOTE));
-                TextView line1 = (TextView) view.findViewById(R.id.content_line1);
-                TextView line2 = (TextView) view.findViewById(R.id.content_line2);
-                TextView line3 = (TextView) view.findViewById(R.id.content_line3);
-                TextView contentEllipsis = (TextView) view.findViewById(R.id.content_ellipsis);
-
-                line1.setText("");
-                line2.setText("");
-                line3.setText("");
-                contentEllipsis.setVisibility(View.GONE);
-
-                int textColor = getResources().getColor(R.color.note_content_color);
-                float textSize = 14;
-
-                line1.setSingleLine(true);
-                line1.setEllipsize(TextUtils.TruncateAt.END);
-                line1.setTextSize(TypedValue.COMPLEX_UNIT_SP, textSize);
-                line1.setTextColor(textColor);
-                line1.setPadding(0, 4, 0, 4);
-
-                line2.setSingleLine(true);
-                line2.setEllipsize(TextUtils.TruncateAt.END);
-                line2.setTextSize(TypedValue.COMPLEX_UNIT_SP, textSize);
-                line2.setTextColor(textColor);
-                line2.setPadding(0, 4, 0, 4);
-
-                line3.setSingleLine(true);
-                line3.setEllipsize(TextUtils.TruncateAt.END);
-                line3.setTextSize(TypedValue.COMPLEX_UNIT_SP, textSize);
-                line3.setTextColor(textColor);
-                line3.setPadding(0, 4, 0, 4);
-
-                if (!TextUtils.isEmpty(content)) {
-                    line1.setPaintFlags(line1.getPaintFlags() | Paint.UNDERLINE_TEXT_FLAG);
-                    line2.setPaintFlags(line2.getPaintFlags() | Paint.UNDERLINE_TEXT_FLAG);
-                    line3.setPaintFlags(line3.getPaintFlags() | Paint.UNDERLINE_TEXT_FLAG);
-
-                    String[] originalLines = content.split("\n");
-                    List<String> contentLines = new ArrayList<>();
-
-                    for (String line : originalLines) {
-                        String remaining = line;
-                        while (remaining.length() > 30) {
-                            contentLines.add(remaining.substring(0, 30));
-                            remaining = remaining.substring(30);
-                        }
-                        if (!remaining.isEmpty()) {
-                            contentLines.add(remaining);
-                        }
-                    }
-
-                    if (!contentLines.isEmpty()) {
-                        line1.setText(contentLines.get(0));
-                    }
-                    if (contentLines.size() > 1) {
-                        line2.setText(contentLines.get(1));
-                    }
-                    if (contentLines.size() > 2) {
-                        line3.setText(contentLines.get(2));
-                    }
-
-                    if (contentLines.size() > 3) {
-                        contentEllipsis.setVisibility(View.VISIBLE);
-                    } else {
-                        contentEllipsis.setVisibility(View.INVISIBLE);
-                    }
-
-                } else {
-                    line1.setPaintFlags(line1.getPaintFlags() & ~Paint.UNDERLINE_TEXT_FLAG);
-                    line1.setText("暂无正文内容");
-                    line2.setPaintFlags(line2.getPaintFlags() & ~Paint.UNDERLINE_TEXT_FLAG);
-                    line3.setPaintFlags(line3.getPaintFlags() & ~Paint.UNDERLINE_TEXT_FLAG);
-                }
-
-                // 3. 处理搜索匹配信息
-                TextView searchLocationView = (TextView) view.findViewById(R.id.text_search_location);
-                TextView contentMatchView = (TextView) view.findViewById(R.id.text_content_match);
-
-                searchLocationView.setVisibility(View.GONE);
-                contentMatchView.setVisibility(View.GONE);
-
-                if (!TextUtils.isEmpty(mSearchQuery) && (!TextUtils.isEmpty(title) || !TextUtils.isEmpty(content))) {
-                    boolean titleHasMatch = !TextUtils.isEmpty(title) && title.contains(mSearchQuery);
-                    boolean contentHasMatch = !TextUtils.isEmpty(content) && content.contains(mSearchQuery);
-
-                    SpannableString matchContextText = null;
-                    String locationText = "";
-
-                    if (titleHasMatch) {
-                        locationText = "搜索词在标题部分：";
-                        String contextText = getKeywordContext(title, mSearchQuery);
-                        matchContextText = new SpannableString(contextText);
-                        int start = contextText.indexOf(mSearchQuery);
-                        int end = start + mSearchQuery.length();
-                        matchContextText.setSpan(new StyleSpan(Typeface.BOLD), start, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                        matchContextText.setSpan(new UnderlineSpan(), start, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                    } else if (contentHasMatch) {
-                        String[] originalLines = content.split("\n");
-                        int lineNumber = -1;
-                        String lineWithKeyword = "";
-                        for (int i = 0; i < originalLines.length; i++) {
-                            if (originalLines[i].contains(mSearchQuery)) {
-                                lineNumber = i + 1;
-                                lineWithKeyword = originalLines[i];
-                                break;
-                            }
-                        }
-
-                        if (lineNumber != -1) {
-                            locationText = "搜索词在正文部分，第" + lineNumber + "行：";
-                            String contextText = getKeywordContext(lineWithKeyword, mSearchQuery);
-                            matchContextText = new SpannableString(contextText);
-                            int start = contextText.indexOf(mSearchQuery);
-                            int end = start + mSearchQuery.length();
-                            matchContextText.setSpan(new StyleSpan(Typeface.BOLD), start, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                            matchContextText.setSpan(new UnderlineSpan(), start, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                        }
-                    }
-
-                    if (matchContextText != null && !TextUtils.isEmpty(locationText)) {
-                        searchLocationView.setText(locationText);
-                        searchLocationView.setVisibility(View.VISIBLE);
-                        contentMatchView.setText(matchContextText);
-                        contentMatchView.setVisibility(View.VISIBLE);
-                    }
-                }
-
-                // 4. 处理时间显示
-                long createTimeMillis = cursor.getLong(COLUMN_INDEX_CREATE_DATE);
-                long modifyTimeMillis = cursor.getLong(COLUMN_INDEX_MODIFICATION_DATE);
-
-                TextView createTimeView = (TextView)view.findViewById(R.id.text_create_time);
-                String createTimeStr = "创建时间：" + DateUtils.formatTime(createTimeMillis);
-                createTimeView.setText(createTimeStr);
-                createTimeView.setTextSize(TypedValue.COMPLEX_UNIT_SP, 12);
-
-                TextView modifyTimeView = (TextView)view.findViewById(R.id.text_modify_time);
-                String absoluteModifyTime = DateUtils.formatTime(modifyTimeMillis);
-                String modifyTimeStr = "修改时间：" + absoluteModifyTime;
-                modifyTimeView.setText(modifyTimeStr);
-                modifyTimeView.setTextSize(TypedValue.COMPLEX_UNIT_SP, 12);
-
-                // 5. 设置分类标签（替换原有"默认"文本）
-                String category = cursor.getString(COLUMN_INDEX_CATEGORY);
-                TextView categoryLabel =  (TextView) view.findViewById(R.id.category_label);
-                categoryLabel.setText(category != null ? category : "默认");
-            }
-        };
+        mAdapter = new NotesListAdapter(this, getListView());
 
         setListAdapter(mAdapter);
 
@@ -373,6 +227,7 @@ public class NotesList extends ListActivity implements LoaderManager.LoaderCallb
 
         if (mSearchEditText != null) {
             mSearchEditText.addTextChangedListener(mSearchTextWatcher);
+            initTitleSuggestions();
 
             mSearchEditText.setOnEditorActionListener((v, actionId, event) -> {
                 if (actionId == EditorInfo.IME_ACTION_SEARCH) {
@@ -385,11 +240,69 @@ public class NotesList extends ListActivity implements LoaderManager.LoaderCallb
             });
         }
 
-        // 加载分类数量并初始化Loader
-        loadCategoryCounts();
+        // 显示当前分类并初始化Loader
+        updateCategoryTitle();
         getLoaderManager().initLoader(LOADER_ID, null, this);
     }
 
+    /**
+     * 初始化搜索框的标题补全：输入时从内存前缀树中取出最近修改的匹配标题，显示在搜索框下方
+     */
+    private void initTitleSuggestions() {
+        mTitleSuggestions = new TitleSuggestions(this);
+        mTitleSuggestions.start();
+
+        mSuggestionAdapter = new ArrayAdapter<>(this, android.R.layout.simple_list_item_1);
+        mSuggestionPopup = new ListPopupWindow(this);
+        mSuggestionPopup.setAnchorView(mSearchEditText);
+        mSuggestionPopup.setAdapter(mSuggestionAdapter);
+        mSuggestionPopup.setInputMethodMode(ListPopupWindow.INPUT_METHOD_NEEDED);
+        mSuggestionPopup.setOnItemClickListener((parent, view, position, id) -> {
+            String title = mSuggestionAdapter.getItem(position);
+            mSearchEditText.setText(title);
+            mSearchEditText.setSelection(title.length());
+            if (!isRealTimeSearch) {
+                performSearch();
+            }
+            // 选中建议后不再立即弹出同一个建议
+            mSuggestionPopup.dismiss();
+        });
+
+        mSearchEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+                updateTitleSuggestions(s.toString());
+            }
+
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+            @Override
+            public void afterTextChanged(Editable s) {}
+        });
+    }
+
+    private void updateTitleSuggestions(String prefix) {
+        List<TitleTrie.Entry> suggestions = mMatchMode == MATCH_MODE_REGEX
+                || mSearchBar == null || mSearchBar.getVisibility() != View.VISIBLE
+                ? null : mTitleSuggestions.suggest(prefix);
+        if (suggestions == null || suggestions.isEmpty()
+                || (suggestions.size() == 1 && suggestions.get(0).title.equals(prefix))) {
+            mSuggestionPopup.dismiss();
+            return;
+        }
+
+        mSuggestionAdapter.setNotifyOnChange(false);
+        mSuggestionAdapter.clear();
+        for (TitleTrie.Entry entry : suggestions) {
+            mSuggestionAdapter.add(entry.title);
+        }
+        mSuggestionAdapter.notifyDataSetChanged();
+        if (!mSuggestionPopup.isShowing()) {
+            mSuggestionPopup.show();
+        }
+    }
+
     /**
      * 初始化分类选择栏
      */
@@ -405,44 +318,61 @@ public class NotesList extends ListActivity implements LoaderManager.LoaderCallb
     }
 
     /**
-     * 显示分类选择弹窗
+     * 显示分类选择弹窗，可以同时选中多个分类
      */
     private void showCategoryPopup() {
-        AlertDialog.Builder builder = new AlertDialog.Builder(this);
-        builder.setTitle("选择分类");
-
-        List<String> items = new ArrayList<>();
-        mCategoryCounts = CategoryUtils.getCategoryCounts(this);
-
-        // 构建分类列表（包含数量）
-        for (String cat : CategoryUtils.CATEGORIES) {
-            int count = mCategoryCounts.containsKey(cat) ? mCategoryCounts.get(cat) : 0;
-            items.add(cat + " (" + count + ")");
-
-        }
-        // 插入"全部"选项到首位
-        int totalCount = mCategoryCounts.containsKey("全部") ? mCategoryCounts.get("全部") : 0;
-        items.add(0, "全部 (" + totalCount + ")");
+        // 分类表很小，只读名称；各分类的笔记数取自最近一次列表查询，不再扫描笔记表。
+        // 搜索时是各分类中匹配的笔记数，由搜索本身统计
+        final CategoryMap categories = CategoryMap.query(getContentResolver(), false);
+        CategoryCounts counts = mCategoryCounts;
+        boolean searching = !TextUtils.isEmpty(mSearchQuery);
+
+        // 构建分类列表（包含数量），勾选当前选中的分类
+        String[] items = new String[categories.size()];
+        final boolean[] checked = new boolean[categories.size()];
+        for (int i = 0; i < categories.size(); i++) {
+            items[i] = categories.name(i) + " (" + counts.count(categories.id(i)) + ")";
+            checked[i] = !mCategoryFilter.isAll() && mCategoryFilter.contains(categories.id(i));
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle((searching ? "选择分类（匹配 " : "选择分类（全部 ")
+                        + counts.total() + "）")
+                .setMultiChoiceItems(items, checked,
+                        (dialog, which, isChecked) -> checked[which] = isChecked)
+                .setPositiveButton(android.R.string.ok, (dialog, which) -> {
+                    List<Long> ids = new ArrayList<>();
+                    for (int i = 0; i < checked.length; i++) {
+                        if (checked[i]) {
+                            ids.add(categories.id(i));
+                        }
+                    }
+                    long[] selected = new long[ids.size()];
+                    for (int i = 0; i < selected.length; i++) {
+                        selected[i] = ids.get(i);
+                    }
+                    setCategoryFilter(CategoryFilter.of(selected), categories);
+                })
+                .setNeutralButton("全部",
+                        (dialog, which) -> setCategoryFilter(CategoryFilter.ALL, categories))
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
 
-        builder.setItems(items.toArray(new String[0]), (dialog, which) -> {
-            mSelectedCategory = which == 0 ? "全部" : CategoryUtils.CATEGORIES.get(which - 1);
-            // 更新分类显示文本
-            if (mCategoryTitle != null) {
-                mCategoryTitle.setText("分类显示: " + mSelectedCategory);
-            }
-            performSearch(); // 执行搜索（包含分类筛选）
-        });
-        builder.show();
+    private void setCategoryFilter(CategoryFilter filter, CategoryMap categories) {
+        mCategoryFilter = filter;
+        mCategoryLabel = filter.label(categories);
+        // 更新分类显示文本
+        updateCategoryTitle();
+        performSearch(); // 执行搜索（包含分类筛选）
     }
 
     /**
-     * 加载分类数量统计
+     * 显示当前选中的分类
      */
-    private void loadCategoryCounts() {
-        mCategoryCounts = CategoryUtils.getCategoryCounts(this);
-        // 初始化分类显示文本
+    private void updateCategoryTitle() {
         if (mCategoryTitle != null) {
-            mCategoryTitle.setText("分类显示: " + mSelectedCategory);
+            mCategoryTitle.setText("分类显示: " + mCategoryLabel);
         }
     }
 
@@ -493,56 +423,6 @@ public class NotesList extends ListActivity implements LoaderManager.LoaderCallb
         }
     }
 
-    private SpannableString addUnderlineToKeyword(String text, String keyword) {
-        SpannableString spannable = new SpannableString(text);
-        if (TextUtils.isEmpty(text) || TextUtils.isEmpty(keyword)) {
-            return spannable;
-        }
-        int start = text.indexOf(keyword);
-        while (start != -1) {
-            int end = start + keyword.length();
-            spannable.setSpan(new UnderlineSpan(), start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-            start = text.indexOf(keyword, end);
-        }
-        return spannable;
-    }
-
-    private int findKeywordLine(String content, String keyword) {
-        if (TextUtils.isEmpty(content) || TextUtils.isEmpty(keyword)) return 0;
-        String[] lines = content.split("\n");
-        for (int i = 0; i < lines.length; i++) {
-            if (lines[i].contains(keyword)) {
-                return i + 1;
-            }
-        }
-        return 0;
-    }
-
-    private String getKeywordContext(String lineText, String keyword) {
-        if (TextUtils.isEmpty(lineText) || TextUtils.isEmpty(keyword)) {
-            return "";
-        }
-
-        int startIndex = lineText.indexOf(keyword);
-        if (startIndex == -1) {
-            return "";
-        }
-
-        int contextLength = 5;
-        int start = Math.max(0, startIndex - contextLength);
-        int end = Math.min(lineText.length(), startIndex + keyword.length() + contextLength);
-
-        String context = lineText.substring(start, end);
-        if (start > 0) {
-            context = "..." + context;
-        }
-        if (end < lineText.length()) {
-            context += "...";
-        }
-
-        return context;
-    }
-
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         MenuInflater inflater = getMenuInflater();
@@ -633,27 +513,47 @@ public class NotesList extends ListActivity implements LoaderManager.LoaderCallb
         popup.setOnMenuItemClickListener(item -> {
             int itemId = item.getItemId();
             if (itemId == R.id.menu_real_time_search) {
-                isRealTimeSearch = true;
-                showSearchBar();
-                updateSearchButtons();
-                mSearchEditText.removeTextChangedListener(mSearchTextWatcher);
-                mSearchEditText.addTextChangedListener(mSearchTextWatcher);
-                mSearchQuery = mSearchEditText.getText().toString().trim();
-                performSearch();
+                startRealTimeSearch(MATCH_MODE_SUBSTRING);
                 return true;
             } else if (itemId == R.id.menu_click_search) {
                 isRealTimeSearch = false;
+                mMatchMode = MATCH_MODE_SUBSTRING;
                 showSearchBar();
                 updateSearchButtons();
                 mSearchEditText.removeTextChangedListener(mSearchTextWatcher);
                 clearSearch();
                 return true;
+            } else if (itemId == R.id.menu_fuzzy_search) {
+                // 模糊搜索和相关度搜索都由内存索引完成，足够快，因此同样随输入实时更新
+                startRealTimeSearch(MATCH_MODE_FUZZY);
+                return true;
+            } else if (itemId == R.id.menu_ranked_search) {
+                startRealTimeSearch(MATCH_MODE_RANKED);
+                return true;
+            } else if (itemId == R.id.menu_regex_search) {
+                // 正则搜索在后台线程分块执行，随输入取消旧搜索并重新开始
+                startRealTimeSearch(MATCH_MODE_REGEX);
+                return true;
             }
             return false;
         });
         popup.show();
     }
 
+    /**
+     * 以指定的匹配方式开启随输入实时更新的搜索
+     */
+    private void startRealTimeSearch(int matchMode) {
+        isRealTimeSearch = true;
+        mMatchMode = matchMode;
+        showSearchBar();
+        updateSearchButtons();
+        mSearchEditText.removeTextChangedListener(mSearchTextWatcher);
+        mSearchEditText.addTextChangedListener(mSearchTextWatcher);
+        mSearchQuery = mSearchEditText.getText().toString().trim();
+        performSearch();
+    }
+
     private void showSearchBar() {
         if (mSearchBar != null) {
             mSearchBar.setVisibility(View.VISIBLE);
@@ -679,6 +579,9 @@ public class NotesList extends ListActivity implements LoaderManager.LoaderCallb
     private void hideSearchBar() {
         if (mSearchBar != null) {
             mSearchBar.setVisibility(View.GONE);
+            if (mSuggestionPopup != null) {
+                mSuggestionPopup.dismiss();
+            }
             if (mSearchEditText != null) {
                 mSearchEditText.setText("");
             }
@@ -690,9 +593,52 @@ public class NotesList extends ListActivity implements LoaderManager.LoaderCallb
     }
 
     private void restartLoader() {
+        cancelRegexSearch();
         getLoaderManager().restartLoader(LOADER_ID, null, this);
     }
 
+    /**
+     * 开始正则搜索：表达式只编译一次，结果分块到达时逐步显示在列表中
+     */
+    private void startRegexSearch() {
+        cancelRegexSearch();
+
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(mSearchQuery);
+        } catch (PatternSyntaxException e) {
+            // 输入过程中表达式常常不完整，保留上一次的结果
+            mSearchEditText.setError(getString(R.string.regex_invalid));
+            return;
+        }
+        mSearchEditText.setError(null);
+
+        // 正则结果由搜索直接提供，停止Loader，避免它的结果覆盖列表
+        getLoaderManager().destroyLoader(LOADER_ID);
+
+        // 正则搜索匹配所有分类，结果中只保留所选分类，同时得到各分类的匹配数
+        mRegexSearch = new RegexSearch(getContentResolver(), getIntent().getData(),
+                SEARCH_PROJECTION, null, null, mCategoryFilter, pattern,
+                (results, finished, truncated) -> {
+                    if (results.categoryCounts() != null) {
+                        mCategoryCounts = results.categoryCounts();
+                    }
+                    mAdapter.submit(results);
+                    if (finished && truncated) {
+                        Toast.makeText(this, R.string.regex_partial_results,
+                                Toast.LENGTH_SHORT).show();
+                    }
+                });
+        mRegexSearch.start();
+    }
+
+    private void cancelRegexSearch() {
+        if (mRegexSearch != null) {
+            mRegexSearch.cancel();
+            mRegexSearch = null;
+        }
+    }
+
     /**
      * 执行搜索（结合分类筛选和关键词搜索）
      */
@@ -703,7 +649,11 @@ public class NotesList extends ListActivity implements LoaderManager.LoaderCallb
         }
 
         mSearchQuery = mSearchEditText.getText().toString().trim();
-        getLoaderManager().restartLoader(LOADER_ID, null, this);
+        if (mMatchMode == MATCH_MODE_REGEX && !TextUtils.isEmpty(mSearchQuery)) {
+            startRegexSearch();
+        } else {
+            restartLoader();
+        }
     }
 
     private void clearSearch() {
@@ -716,7 +666,8 @@ public class NotesList extends ListActivity implements LoaderManager.LoaderCallb
         }
 
         mSearchQuery = null;
-        getLoaderManager().restartLoader(LOADER_ID, null, this);
+        mSearchEditText.setError(null);
+        restartLoader();
     }
 
     @Override
@@ -729,13 +680,13 @@ public class NotesList extends ListActivity implements LoaderManager.LoaderCallb
             return;
         }
 
-        Cursor cursor = (Cursor) mAdapter.getItem(info.position);
-        if (cursor == null) {
+        NoteSnapshot.Row row = mAdapter.getItem(info.position);
+        if (row == null) {
             return;
         }
 
         // 获取标题并处理空值情况
-        String title = cursor.getString(COLUMN_INDEX_TITLE);
+        String title = row.title;
         if (TextUtils.isEmpty(title)) {
             // 使用已定义的"未定义标题"字符串资源
             title = getString(R.string.undefined_title);
@@ -786,8 +737,6 @@ public class NotesList extends ListActivity implements LoaderManager.LoaderCallb
                     null,
                     null
             );
-            // 删除后更新分类数量
-            loadCategoryCounts();
             return true;
         }
         return super.onContextItemSelected(item);
@@ -812,65 +761,90 @@ public class NotesList extends ListActivity implements LoaderManager.LoaderCallb
      * 创建Loader，结合分类和搜索条件
      */
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        String selection = null;
-        String[] selectionArgs = null;
+    public Loader<NoteSnapshot> onCreateLoader(int id, Bundle args) {
+        Uri uri = getIntent().getData();
+        String sortOrder = NotePad.Notes.DEFAULT_SORT_ORDER;
 
-        // 1. 处理分类筛选条件
-        if (!"全部".equals(mSelectedCategory)) {
-            selection = NotePad.Notes.COLUMN_NAME_CATEGORY + " = ?";
-            selectionArgs = new String[]{mSelectedCategory};
-        }
+        // 1. 分类筛选由Loader在读出结果时进行，同时统计各分类的笔记数（见 NoteSnapshotLoader）
 
-        // 2. 处理搜索条件
+        // 2. 处理搜索条件，搜索时同时请求Provider计算匹配摘要
+        String[] projection = PROJECTION;
         if (!TextUtils.isEmpty(mSearchQuery)) {
-            String searchSelection = NotePad.Notes.COLUMN_NAME_TITLE + " LIKE ? OR "
-                    + NotePad.Notes.COLUMN_NAME_NOTE + " LIKE ?";
-            String[] searchArgs = new String[]{
-                    "%" + mSearchQuery + "%",
-                    "%" + mSearchQuery + "%"
-            };
-
-            // 合并分类和搜索条件
-            if (selection == null) {
-                selection = searchSelection;
-                selectionArgs = searchArgs;
-            } else {
-                selection += " AND (" + searchSelection + ")";
-                selectionArgs = new String[]{
-                        mSelectedCategory,
-                        "%" + mSearchQuery + "%",
-                        "%" + mSearchQuery + "%"
-                };
+            uri = uri.buildUpon()
+                    .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_HIGHLIGHT, mSearchQuery)
+                    .build();
+            projection = SEARCH_PROJECTION;
+        }
+        if (!TextUtils.isEmpty(mSearchQuery) && mMatchMode == MATCH_MODE_FUZZY) {
+            // 模糊搜索交给Provider的标题索引处理
+            uri = uri.buildUpon()
+                    .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_FUZZY, mSearchQuery)
+                    .build();
+        } else if (!TextUtils.isEmpty(mSearchQuery) && mMatchMode == MATCH_MODE_RANKED) {
+            // 相关度搜索不指定排序，由Provider按BM25得分排序；
+            // 前k条在所选分类中选出，否则其他分类的高分笔记会把所选分类的结果挤出前k条
+            Uri.Builder builder = uri.buildUpon()
+                    .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_RANKED, mSearchQuery);
+            if (!mCategoryFilter.isAll()) {
+                builder.appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_RANKED_CATEGORIES,
+                        mCategoryFilter.joinedIds());
             }
+            uri = builder.build();
+            sortOrder = null;
+        } else if (!TextUtils.isEmpty(mSearchQuery)) {
+            // 子串搜索支持查询语言（AND / OR / -排除 / "短语" / 字段前缀），
+            // 由Provider编译为一条查询条件
+            uri = uri.buildUpon()
+                    .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_QUERY, mSearchQuery)
+                    .build();
         }
 
-        return new CursorLoader(
+        return new NoteSnapshotLoader(
                 this,
-                getIntent().getData(),
-                PROJECTION,
-                selection,
-                selectionArgs,
-                NotePad.Notes.DEFAULT_SORT_ORDER
+                uri,
+                projection,
+                null,
+                null,
+                sortOrder,
+                mCategoryFilter,
+                // 按修改时间排列的列表（非搜索）按月份分节
+                TextUtils.isEmpty(mSearchQuery)
         );
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        mAdapter.changeCursor(data);
-        // 加载完成后更新分类数量
-        loadCategoryCounts();
+    public void onLoadFinished(Loader<NoteSnapshot> loader, NoteSnapshot data) {
+        if (data.categoryCounts() != null) {
+            mCategoryCounts = data.categoryCounts();
+        }
+        mAdapter.submit(data);
+    }
+
+    @Override
+    public void onLoaderReset(Loader<NoteSnapshot> loader) {
+        mAdapter.submit(NoteSnapshot.EMPTY);
     }
 
+    /**
+     * adb shell dumpsys activity com.example.android.notepad/.NotesList 时输出列表的预渲染命中情况
+     * 和性能计量（见 {@link PerfMetrics}）
+     */
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        mAdapter.changeCursor(null);
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        if (mAdapter != null) {
+            mAdapter.dump(prefix + "  ", writer);
+        }
+        PerfMetrics.dump(prefix + "  ", writer, args);
     }
 
     @Override
-    protected void onResume() {
-        super.onResume();
-        //  resume时刷新分类数量
-        loadCategoryCounts();
+    protected void onDestroy() {
+        cancelRegexSearch();
+        if (mTitleSuggestions != null) {
+            mTitleSuggestions.stop();
+            mSuggestionPopup.dismiss();
+        }
+        super.onDestroy();
     }
 }
\ No newline at end of file
@@ -0,0 +1,480 @@
+package com.example.android.notepad;
+
+import android.content.Context;
+import android.graphics.Paint;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.util.TypedValue;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.View.MeasureSpec;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
+import android.widget.SectionIndexer;
+import android.widget.TextView;
+
+import java.io.PrintWriter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 笔记列表的适配器，数据来自不可变的 {@link NoteSnapshot}。
+ *
+ * 新快照提交后先在后台线程与当前快照比较（{@link SnapshotDiff}），再回到主线程应用：
+ * 没有变化时什么也不做；只有内容变化时直接重新绑定可见的那几行；有增删或移动时才通知列表刷新，
+ * 此时借助稳定ID和列表项记住的已绑定行，内容没变的行不会重新绑定。
+ * 因此编辑一条笔记只会重新绑定这一行。
+ *
+ * 每个列表项在创建时查找一次子控件并缓存在 {@link ViewHolder} 中，固定的样式也只在创建时设置；
+ * 列表项还带有一个复用的行对象，绑定时从快照的列读入（{@link NoteSnapshot#read}），不组装新的行。
+ * 快照中没有正文：正文预览（按需读取正文开头并按显示宽度折行，见 {@link PreviewLayout}）
+ * 和搜索高亮由 {@link RowPrerenderer} 在滚动时提前在后台准备好，绑定时只设置现成的对象；
+ * 正文开头还没有读出的行先不显示预览，读出后重新绑定。时间和搜索结果的位置说明写入列表项自己的
+ * 字符缓冲区，再用 {@link TextView#setText(char[], int, int)} 显示，滚动时不分配对象。
+ * 搜索摘要还没预渲染时在绑定中生成，此时只分配显示的摘要本身。
+ *
+ * 快照带有按月份的分节（{@link MonthSections}）时，每个月份的第一行显示月份标题，
+ * 并作为 {@link SectionIndexer} 为列表的快速滚动提供索引。
+ *
+ * 计量开启时（{@link PerfMetrics}）记录每次绑定的耗时，并在滚动期间记录帧间隔。
+ */
+class NotesListAdapter extends BaseAdapter
+        implements AbsListView.OnScrollListener, SectionIndexer {
+
+    // 正文预览最多显示的行数
+    static final int PREVIEW_LINES = 3;
+
+    // 滚动时在可见范围之外提前排版的行数
+    private static final int PREFETCH_ROWS = 20;
+
+    private static final String CREATE_TIME_PREFIX = "创建时间：";
+    private static final String MODIFY_TIME_PREFIX = "修改时间：";
+    private static final String EMPTY_CONTENT = "暂无正文内容";
+    private static final String TITLE_MATCH_LOCATION = "搜索词在标题部分：";
+    private static final String NOTE_MATCH_PREFIX = "搜索词在正文部分，第";
+    private static final String NOTE_MATCH_SUFFIX = "行：";
+    private static final String DEFAULT_CATEGORY = "默认";
+
+    // 所有列表的比较共用一个后台线程，按提交顺序执行
+    private static final ExecutorService DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final LayoutInflater mInflater;
+    private final ListView mListView;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final String mUndefinedTitle;
+    private final int mContentColor;
+
+    private final PreviewLayout mPreviewLayout;
+    private final RowPrerenderer mPrerenderer;
+
+    // 滚动期间记录帧间隔，API 16以下为null
+    private final FrameMonitor mFrameMonitor =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ? new FrameMonitor() : null;
+
+    private NoteSnapshot mSnapshot = NoteSnapshot.EMPTY;
+
+    // 测量预览行宽度时列表的宽度，列表宽度变化后重新测量
+    private int mMeasuredListWidth;
+    // 预览排版参数每变化一次加一，之前绑定的列表项需要重新绑定
+    private int mLayoutGeneration;
+    private int mPrefetchedFirst = -1;
+
+    // 每次提交加一，只应用最后一次提交的比较结果
+    private int mGeneration;
+
+    /**
+     * 缓存一个列表项的子控件和绑定时间用的字符缓冲区
+     */
+    static final class ViewHolder {
+        TextView monthHeader;
+        TextView title;
+        final TextView[] lines = new TextView[PREVIEW_LINES];
+        TextView ellipsis;
+        TextView searchLocation;
+        TextView contentMatch;
+        TextView createTime;
+        TextView modifyTime;
+        TextView category;
+        // 最近一次绑定的行（列表项自己的行对象，每次绑定时覆盖），用于跳过内容没有变化的重新绑定
+        final NoteSnapshot.Row row = new NoteSnapshot.Row();
+        boolean bound;
+        int boundLayoutGeneration;
+        // 绑定时正文开头还没有读出，读出后需要重新绑定
+        boolean previewPending;
+        // 当前显示的月份标题，不显示时为null
+        String boundMonth;
+        final char[] createTimeBuffer =
+                new char[CREATE_TIME_PREFIX.length() + DateUtils.FORMATTED_LENGTH];
+        final char[] modifyTimeBuffer =
+                new char[MODIFY_TIME_PREFIX.length() + DateUtils.FORMATTED_LENGTH];
+        // 行号最多10位
+        final char[] locationBuffer =
+                new char[NOTE_MATCH_PREFIX.length() + 10 + NOTE_MATCH_SUFFIX.length()];
+    }
+
+    NotesListAdapter(Context context, ListView listView) {
+        this(context, listView, PreviewLayout.providerSource(context.getContentResolver()));
+    }
+
+    /**
+     * @param previewSource 正文开头的来源
+     */
+    NotesListAdapter(Context context, ListView listView, PreviewLayout.TextSource previewSource) {
+        mInflater = LayoutInflater.from(context);
+        mListView = listView;
+        mUndefinedTitle = context.getString(R.string.undefined_title);
+        mContentColor = context.getResources().getColor(R.color.note_content_color);
+        mPreviewLayout = new PreviewLayout(PREVIEW_LINES, previewSource);
+        mPrerenderer = new RowPrerenderer(mPreviewLayout);
+        mPrerenderer.setOnTextsLoaded(this::rebindPendingPreviews);
+        mListView.setOnScrollListener(this);
+    }
+
+    /**
+     * 提交新的快照；比较在后台线程进行，结果稍后在主线程应用。必须在主线程调用。
+     */
+    void submit(final NoteSnapshot snapshot) {
+        final int generation = ++mGeneration;
+        final NoteSnapshot current = mSnapshot;
+        DIFF_EXECUTOR.execute(() -> {
+            final SnapshotDiff diff = SnapshotDiff.compute(current, snapshot);
+            mHandler.post(() -> {
+                if (generation == mGeneration) {
+                    apply(snapshot, diff);
+                }
+            });
+        });
+    }
+
+    private void apply(NoteSnapshot snapshot, SnapshotDiff diff) {
+        MonthSections oldSections = mSnapshot.sections();
+        mSnapshot = snapshot;
+        mPrefetchedFirst = -1;
+        prefetch(mListView.getFirstVisiblePosition(), mListView.getChildCount());
+        MonthSections sections = snapshot.sections();
+        boolean sectionsChanged = oldSections != sections && (oldSections == null
+                || sections == null || !oldSections.sameSections(sections));
+        if (diff.isStructural() || sectionsChanged) {
+            // 分节变化时同样需要刷新，列表据此更新快速滚动的索引和各行的月份标题
+            notifyDataSetChanged();
+            return;
+        }
+        if (diff.isEmpty()) {
+            return;
+        }
+        // 行的顺序没变，只重新绑定内容变化且正在显示的行
+        int first = mListView.getFirstVisiblePosition() - mListView.getHeaderViewsCount();
+        for (int position : diff.changed) {
+            View child = mListView.getChildAt(position - first);
+            if (child != null && child.getTag() instanceof ViewHolder) {
+                ViewHolder holder = (ViewHolder) child.getTag();
+                snapshot.read(position, holder.row);
+                bind(holder, holder.row);
+            }
+        }
+    }
+
+    /**
+     * 重新绑定正文开头已经读出的可见行
+     */
+    private void rebindPendingPreviews() {
+        for (int i = 0; i < mListView.getChildCount(); i++) {
+            Object tag = mListView.getChildAt(i).getTag();
+            if (tag instanceof ViewHolder) {
+                ViewHolder holder = (ViewHolder) tag;
+                if (holder.previewPending && mPreviewLayout.hasText(holder.row)) {
+                    bind(holder, holder.row);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getCount() {
+        return mSnapshot.size();
+    }
+
+    @Override
+    public NoteSnapshot.Row getItem(int position) {
+        return mSnapshot.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mSnapshot.id(position);
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        View view = convertView != null ? convertView : newView(parent);
+        ViewHolder holder = (ViewHolder) view.getTag();
+        if (mListView.getWidth() != mMeasuredListWidth) {
+            measurePreviewWidth(view, holder);
+        }
+        if (holder.boundLayoutGeneration != mLayoutGeneration || !holder.bound
+                || holder.previewPending || !mSnapshot.sameRow(position, holder.row)) {
+            mSnapshot.read(position, holder.row);
+            bind(holder, holder.row);
+        }
+        bindMonthHeader(holder, position);
+        return view;
+    }
+
+    @Override
+    public Object[] getSections() {
+        MonthSections sections = mSnapshot.sections();
+        return sections != null ? sections.months() : MonthSections.EMPTY.months();
+    }
+
+    @Override
+    public int getPositionForSection(int sectionIndex) {
+        MonthSections sections = mSnapshot.sections();
+        return sections != null ? sections.positionForSection(sectionIndex) : 0;
+    }
+
+    @Override
+    public int getSectionForPosition(int position) {
+        MonthSections sections = mSnapshot.sections();
+        return sections != null ? sections.sectionForPosition(position) : 0;
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        if (mFrameMonitor == null) {
+            return;
+        }
+        if (scrollState == SCROLL_STATE_IDLE) {
+            mFrameMonitor.stop();
+        } else {
+            mFrameMonitor.start();
+        }
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                         int totalItemCount) {
+        if (firstVisibleItem != mPrefetchedFirst) {
+            mPrefetchedFirst = firstVisibleItem;
+            prefetch(firstVisibleItem, visibleItemCount);
+        }
+    }
+
+    /**
+     * 在后台预渲染可见范围前后 {@link #PREFETCH_ROWS} 行
+     */
+    private void prefetch(int firstVisible, int visibleCount) {
+        int first = firstVisible - mListView.getHeaderViewsCount();
+        mPrerenderer.prefetch(mSnapshot, first - PREFETCH_ROWS,
+                first + visibleCount + PREFETCH_ROWS);
+    }
+
+    /**
+     * 按列表当前的宽度测量一个列表项，得到预览行可用于显示文字的宽度
+     */
+    private void measurePreviewWidth(View view, ViewHolder holder) {
+        int listWidth = mListView.getWidth();
+        mMeasuredListWidth = listWidth;
+        int width = listWidth - mListView.getPaddingLeft() - mListView.getPaddingRight();
+        if (width <= 0) {
+            return;
+        }
+        view.measure(MeasureSpec.makeMeasureSpec(width, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+        TextView line = holder.lines[0];
+        int lineWidth = line.getMeasuredWidth() - line.getTotalPaddingLeft()
+                - line.getTotalPaddingRight();
+        if (lineWidth > 0 && mPreviewLayout.setMetrics(line.getPaint(), lineWidth)) {
+            mLayoutGeneration++;
+        }
+    }
+
+    View newView(ViewGroup parent) {
+        View view = mInflater.inflate(R.layout.noteslist_item, parent, false);
+
+        ViewHolder holder = new ViewHolder();
+        holder.monthHeader = (TextView) view.findViewById(R.id.month_header);
+        holder.title = (TextView) view.findViewById(android.R.id.text1);
+        holder.lines[0] = (TextView) view.findViewById(R.id.content_line1);
+        holder.lines[1] = (TextView) view.findViewById(R.id.content_line2);
+        holder.lines[2] = (TextView) view.findViewById(R.id.content_line3);
+        holder.ellipsis = (TextView) view.findViewById(R.id.content_ellipsis);
+        holder.searchLocation = (TextView) view.findViewById(R.id.text_search_location);
+        holder.contentMatch = (TextView) view.findViewById(R.id.text_content_match);
+        holder.createTime = (TextView) view.findViewById(R.id.text_create_time);
+        holder.modifyTime = (TextView) view.findViewById(R.id.text_modify_time);
+        holder.category = (TextView) view.findViewById(R.id.category_label);
+
+        // 固定样式只在创建列表项时设置一次
+        holder.title.setSingleLine(true);
+        holder.title.setEllipsize(TextUtils.TruncateAt.END);
+        for (TextView line : holder.lines) {
+            line.setSingleLine(true);
+            line.setEllipsize(TextUtils.TruncateAt.END);
+            line.setTextSize(TypedValue.COMPLEX_UNIT_SP, 14);
+            line.setTextColor(mContentColor);
+            line.setPadding(0, 4, 0, 4);
+        }
+        holder.createTime.setTextSize(TypedValue.COMPLEX_UNIT_SP, 12);
+        holder.modifyTime.setTextSize(TypedValue.COMPLEX_UNIT_SP, 12);
+        CREATE_TIME_PREFIX.getChars(0, CREATE_TIME_PREFIX.length(), holder.createTimeBuffer, 0);
+        MODIFY_TIME_PREFIX.getChars(0, MODIFY_TIME_PREFIX.length(), holder.modifyTimeBuffer, 0);
+        NOTE_MATCH_PREFIX.getChars(0, NOTE_MATCH_PREFIX.length(), holder.locationBuffer, 0);
+
+        view.setTag(holder);
+        return view;
+    }
+
+    void bind(ViewHolder holder, NoteSnapshot.Row row) {
+        long start = PerfMetrics.start();
+        if (row != holder.row) {
+            holder.row.set(row);
+        }
+        holder.bound = true;
+        holder.boundLayoutGeneration = mLayoutGeneration;
+
+        // 1. 标题
+        holder.title.setText(TextUtils.isEmpty(row.title) ? mUndefinedTitle : row.title);
+
+        // 2. 正文预览
+        boolean prerendered = bindPreview(holder, row);
+
+        // 3. 搜索匹配信息
+        if (row.matchField != NotePad.Notes.MATCH_FIELD_NONE) {
+            RowPrerenderer.Highlight highlight = mPrerenderer.peekHighlight(row);
+            CharSequence snippet;
+            if (highlight != null) {
+                snippet = highlight.snippet;
+            } else {
+                prerendered = false;
+                snippet = RowPrerenderer.snippet(row);
+            }
+            bindMatchLocation(holder, row);
+            holder.searchLocation.setVisibility(View.VISIBLE);
+            holder.contentMatch.setText(snippet);
+            holder.contentMatch.setVisibility(View.VISIBLE);
+        } else {
+            holder.searchLocation.setVisibility(View.GONE);
+            holder.contentMatch.setVisibility(View.GONE);
+        }
+        mPrerenderer.recordBind(prerendered);
+
+        // 4. 时间
+        bindTime(holder.createTime, holder.createTimeBuffer, CREATE_TIME_PREFIX.length(),
+                row.created);
+        bindTime(holder.modifyTime, holder.modifyTimeBuffer, MODIFY_TIME_PREFIX.length(),
+                row.modified);
+
+        // 5. 分类标签
+        holder.category.setText(row.category != null ? row.category : DEFAULT_CATEGORY);
+
+        PerfMetrics.end(PerfMetrics.BINDS, start);
+    }
+
+    /**
+     * 某一行是其月份的第一行时显示月份标题
+     */
+    private void bindMonthHeader(ViewHolder holder, int position) {
+        MonthSections sections = mSnapshot.sections();
+        String month = sections != null && sections.isSectionStart(position)
+                ? sections.months()[sections.sectionForPosition(position)] : null;
+        if (TextUtils.equals(month, holder.boundMonth)) {
+            return;
+        }
+        holder.boundMonth = month;
+        holder.monthHeader.setText(month);
+        holder.monthHeader.setVisibility(month != null ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * 显示正文的前三个显示行，超过三行时显示省略号；正文开头还没有读出时先空着
+     *
+     * @return 是否使用了预先排版好的预览
+     */
+    private boolean bindPreview(ViewHolder holder, NoteSnapshot.Row row) {
+        TextView[] lines = holder.lines;
+        PreviewLayout.Preview preview = mPreviewLayout.peek(row);
+        boolean prerendered = preview != null;
+        if (preview == null) {
+            preview = mPreviewLayout.get(row);
+        }
+        holder.previewPending = preview == null;
+        if (preview == null || preview.lineCount == 0) {
+            for (TextView line : lines) {
+                line.setPaintFlags(line.getPaintFlags() & ~Paint.UNDERLINE_TEXT_FLAG);
+                line.setText(null);
+            }
+            if (preview != null) {
+                lines[0].setText(EMPTY_CONTENT);
+                holder.ellipsis.setVisibility(View.GONE);
+            } else {
+                holder.ellipsis.setVisibility(View.INVISIBLE);
+            }
+            return prerendered;
+        }
+
+        for (int i = 0; i < PREVIEW_LINES; i++) {
+            TextView line = lines[i];
+            line.setPaintFlags(line.getPaintFlags() | Paint.UNDERLINE_TEXT_FLAG);
+            line.setText(i < preview.lineCount ? preview.lines[i] : null);
+        }
+        holder.ellipsis.setVisibility(preview.ellipsis ? View.VISIBLE : View.INVISIBLE);
+        return prerendered;
+    }
+
+    /**
+     * 直接换成指定的快照，不比较、不预渲染也不通知列表；测试用来通过 {@link #getView} 绑定指定的行
+     */
+    void setSnapshot(NoteSnapshot snapshot) {
+        mSnapshot = snapshot;
+    }
+
+    /**
+     * 预渲染器，测试用来等待预渲染完成
+     */
+    RowPrerenderer prerenderer() {
+        return mPrerenderer;
+    }
+
+    /**
+     * 预览的读取和排版，测试用来检查正文开头是否已读出
+     */
+    PreviewLayout previewLayout() {
+        return mPreviewLayout;
+    }
+
+    /**
+     * 输出预渲染的命中情况
+     */
+    void dump(String prefix, PrintWriter writer) {
+        mPrerenderer.dump(prefix, writer);
+    }
+
+    /**
+     * 显示搜索词所在的部分；在正文中时带上行号
+     */
+    private static void bindMatchLocation(ViewHolder holder, NoteSnapshot.Row row) {
+        if (row.matchField == NotePad.Notes.MATCH_FIELD_TITLE) {
+            holder.searchLocation.setText(TITLE_MATCH_LOCATION);
+            return;
+        }
+        char[] buffer = holder.locationBuffer;
+        int length = DateUtils.appendNumber(buffer, NOTE_MATCH_PREFIX.length(),
+                Math.max(0, row.matchLine));
+        NOTE_MATCH_SUFFIX.getChars(0, NOTE_MATCH_SUFFIX.length(), buffer, length);
+        holder.searchLocation.setText(buffer, 0, length + NOTE_MATCH_SUFFIX.length());
+    }
+
+    private static void bindTime(TextView view, char[] buffer, int prefixLength, long timeMillis) {
+        int length = DateUtils.formatTime(timeMillis, buffer, prefixLength);
+        view.setText(buffer, 0, prefixLength + length);
+    }
+}
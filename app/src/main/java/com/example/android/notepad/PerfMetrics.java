@@ -0,0 +1,248 @@
+package com.example.android.notepad;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 性能计量：列表滚动时的帧间隔、列表项绑定耗时、Loader加载耗时、编辑界面从创建到首次绘制的耗时、
+ * 编辑界面后台保存一次的耗时，以及编辑界面从创建到显示出正文开头（可以操作）和读完整篇正文的耗时。
+ *
+ * 每项计量是一个 {@link Histogram}，按耗时的对数分桶计数，
+ * 并在环形缓冲区中保留最近的样本用于计算分位数。
+ * 记录一个样本只有几次原子操作，不加锁、不分配对象，可以在任何线程调用。
+ *
+ * 计量默认只在调试版本中开启。关闭时调用方只读一个 volatile 字段，不取时间也不记录。
+ * 结果通过 dumpsys 输出，并可以用参数开关或清零：
+ * adb shell dumpsys activity com.example.android.notepad/.NotesList perf on|off|reset
+ */
+final class PerfMetrics {
+
+    // 一帧的时间预算（60Hz）
+    static final long FRAME_NANOS = 16666667L;
+
+    private static final long MILLIS = 1000000L;
+
+    static final Histogram FRAMES = new Histogram("list frame", FRAME_NANOS);
+    static final Histogram BINDS = new Histogram("list bind", 2 * MILLIS);
+    static final Histogram LOADS = new Histogram("loader query", 100 * MILLIS);
+    static final Histogram EDITOR_FIRST_DRAW = new Histogram("editor first draw", 300 * MILLIS);
+    static final Histogram SAVES = new Histogram("editor save", 50 * MILLIS);
+    static final Histogram EDITOR_INTERACTIVE =
+            new Histogram("editor open to interactive", 200 * MILLIS);
+    static final Histogram EDITOR_FULL_LOAD = new Histogram("editor full body load", 1000 * MILLIS);
+
+    private static final Histogram[] ALL = {FRAMES, BINDS, LOADS, EDITOR_FIRST_DRAW, SAVES,
+            EDITOR_INTERACTIVE, EDITOR_FULL_LOAD};
+
+    private static volatile boolean sEnabled = BuildConfig.DEBUG;
+
+    private PerfMetrics() {
+    }
+
+    static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    /**
+     * 开始计时；计量关闭时返回0，之后的 {@link #end} 什么也不做
+     */
+    static long start() {
+        return sEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * 结束计时并记录到指定的计量中
+     */
+    static void end(Histogram histogram, long start) {
+        if (start != 0) {
+            histogram.record(System.nanoTime() - start);
+        }
+    }
+
+    static void reset() {
+        for (Histogram histogram : ALL) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * 处理 dumpsys 参数（perf on / perf off / perf reset）后输出所有计量
+     */
+    static void dump(String prefix, PrintWriter writer, String[] args) {
+        if (args != null && args.length >= 2 && "perf".equals(args[0])) {
+            if ("on".equals(args[1])) {
+                setEnabled(true);
+            } else if ("off".equals(args[1])) {
+                setEnabled(false);
+            } else if ("reset".equals(args[1])) {
+                reset();
+            }
+        }
+        writer.print(prefix);
+        writer.print("perf metrics ");
+        writer.println(sEnabled ? "enabled" : "disabled");
+        for (Histogram histogram : ALL) {
+            histogram.dump(prefix + "  ", writer);
+        }
+    }
+
+    /**
+     * 耗时分布：第 i 个桶统计 [2^i, 2^(i+1)) 微秒的样本，另有总数、总和、最大值、
+     * 超过阈值的样本数，以及最近 {@link #RECENT} 个样本
+     */
+    static final class Histogram {
+
+        static final int BUCKETS = 24;
+        static final int RECENT = 512;
+
+        private final String mName;
+        private final long mSlowNanos;
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+        private final AtomicLong mSlow = new AtomicLong();
+        private final AtomicLongArray mRecent = new AtomicLongArray(RECENT);
+        private final AtomicInteger mNext = new AtomicInteger();
+
+        Histogram(String name, long slowNanos) {
+            mName = name;
+            mSlowNanos = slowNanos;
+        }
+
+        void record(long nanos) {
+            if (nanos < 0) {
+                return;
+            }
+            mBuckets.incrementAndGet(bucket(nanos));
+            mCount.incrementAndGet();
+            mSum.addAndGet(nanos);
+            long max;
+            while (nanos > (max = mMax.get()) && !mMax.compareAndSet(max, nanos)) {
+                // 其他线程同时更新了最大值，重新比较
+            }
+            if (nanos > mSlowNanos) {
+                mSlow.incrementAndGet();
+            }
+            mRecent.set(mNext.getAndIncrement() & (RECENT - 1), nanos);
+        }
+
+        long count() {
+            return mCount.get();
+        }
+
+        long slowCount() {
+            return mSlow.get();
+        }
+
+        long bucketCount(int bucket) {
+            return mBuckets.get(bucket);
+        }
+
+        /**
+         * 最近的样本中第 percent 百分位的耗时（纳秒），没有样本时返回0
+         */
+        long recentPercentile(int percent) {
+            long[] recent = recentSamples();
+            if (recent.length == 0) {
+                return 0;
+            }
+            Arrays.sort(recent);
+            int index = (int) Math.ceil(recent.length * percent / 100.0) - 1;
+            return recent[Math.max(0, Math.min(index, recent.length - 1))];
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                mBuckets.set(i, 0);
+            }
+            mCount.set(0);
+            mSum.set(0);
+            mMax.set(0);
+            mSlow.set(0);
+            mNext.set(0);
+        }
+
+        void dump(String prefix, PrintWriter writer) {
+            long count = mCount.get();
+            writer.print(prefix);
+            writer.print(mName);
+            writer.print(": ");
+            writer.print(count);
+            writer.print(" samples");
+            if (count == 0) {
+                writer.println();
+                return;
+            }
+            writer.print(", avg ");
+            writer.print(formatDuration(mSum.get() / count));
+            writer.print(", max ");
+            writer.print(formatDuration(mMax.get()));
+            writer.print(", over ");
+            writer.print(formatDuration(mSlowNanos));
+            writer.print(": ");
+            writer.print(mSlow.get());
+            writer.print(" (");
+            writer.print(mSlow.get() * 100 / count);
+            writer.println("%)");
+
+            writer.print(prefix);
+            writer.print("  recent p50 ");
+            writer.print(formatDuration(recentPercentile(50)));
+            writer.print(", p90 ");
+            writer.print(formatDuration(recentPercentile(90)));
+            writer.print(", p99 ");
+            writer.println(formatDuration(recentPercentile(99)));
+
+            writer.print(prefix);
+            writer.print(" ");
+            for (int i = 0; i < BUCKETS; i++) {
+                long bucketCount = mBuckets.get(i);
+                if (bucketCount > 0) {
+                    writer.print(" <");
+                    writer.print(formatDuration((2L << i) * 1000));
+                    writer.print(':');
+                    writer.print(bucketCount);
+                }
+            }
+            writer.println();
+        }
+
+        private long[] recentSamples() {
+            int next = mNext.get();
+            // 计数溢出为负数时缓冲区早已写满
+            int size = next >= 0 && next < RECENT ? next : RECENT;
+            long[] samples = new long[size];
+            for (int i = 0; i < size; i++) {
+                samples[i] = mRecent.get(i);
+            }
+            return samples;
+        }
+
+        static int bucket(long nanos) {
+            long micros = nanos / 1000;
+            if (micros <= 0) {
+                return 0;
+            }
+            return Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+        }
+    }
+
+    /**
+     * 一毫秒以下显示微秒，以上显示一位小数的毫秒
+     */
+    private static String formatDuration(long nanos) {
+        if (nanos < MILLIS) {
+            return nanos / 1000 + "us";
+        }
+        long tenths = nanos / (MILLIS / 10);
+        return tenths / 10 + "." + tenths % 10 + "ms";
+    }
+}
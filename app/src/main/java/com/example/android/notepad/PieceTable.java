@@ -0,0 +1,409 @@
+package com.example.android.notepad;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 编辑界面正文的分段表（piece table）。
+ *
+ * 正文由若干片段组成，每个片段引用只读的原文缓冲区或只追加的新增缓冲区中的一段，
+ * 修改只拆分、增删片段，不移动已有的字符。片段保存在按位置排列的 treap（随机平衡二叉树）中，
+ * 节点记录子树的字符数，定位、替换都是期望 O(log n)（n 为片段数），与正文长度无关；
+ * 连续输入时追加到同一个片段，不会每个字符产生一个片段。
+ *
+ * 每个片段还记得自己在上次保存的正文中的位置，保存时按顺序遍历片段即可得出相对上次保存的
+ * 修改区间（{@link #changes()}），只把这些区间交给Provider，不需要比较或复制整篇正文。
+ * 保存时的位置按码点计算，与 SQLite 的 substr() 一致。
+ * 该类不是线程安全的，只在主线程中使用。
+ */
+final class PieceTable implements CharSequence {
+
+    /**
+     * 相对上次保存的一处修改：把保存时正文中从第 start 个码点开始的 length 个码点替换为 text
+     */
+    static final class Edit {
+        final int start;
+        final int length;
+        final String text;
+
+        Edit(int start, int length, String text) {
+            this.start = start;
+            this.length = length;
+            this.text = text;
+        }
+    }
+
+    private static final class Node {
+        // 引用新增缓冲区还是原文
+        final boolean added;
+        // 在缓冲区中的起始字符
+        final int start;
+        // 字符数和码点数；新增片段在末尾继续输入时会变长，拆分时变短
+        int length;
+        int codePoints;
+        // 在上次保存的正文中的码点偏移，-1 表示保存之后才加入
+        int saved;
+        final int priority;
+        Node left;
+        Node right;
+        // 子树的字符数
+        int size;
+
+        Node(boolean added, int start, int length, int codePoints, int saved, int priority) {
+            this.added = added;
+            this.start = start;
+            this.length = length;
+            this.codePoints = codePoints;
+            this.saved = saved;
+            this.priority = priority;
+            this.size = length;
+        }
+    }
+
+    private final Random mRandom = new Random();
+
+    private String mOriginal = "";
+    private final StringBuilder mAdded = new StringBuilder();
+    // 缓冲区中没有代理对时码点数等于字符数，拆分片段时不需要逐字符计数
+    private boolean mOriginalSurrogates;
+    private boolean mAddedSurrogates;
+
+    private Node mRoot;
+    // 上次保存的正文的码点数
+    private int mSavedCodePoints;
+    private boolean mModified;
+
+    /**
+     * 以 text 作为已保存的正文重新开始，丢弃之前的片段和新增缓冲区
+     */
+    void reset(String text) {
+        mOriginal = text;
+        mAdded.setLength(0);
+        mAddedSurrogates = false;
+        int length = text.length();
+        mOriginalSurrogates = hasSurrogates(text, 0, length);
+        mSavedCodePoints = mOriginalSurrogates ? text.codePointCount(0, length) : length;
+        mRoot = length == 0 ? null
+                : new Node(false, 0, length, mSavedCodePoints, 0, mRandom.nextInt());
+        mModified = false;
+    }
+
+    /**
+     * 在末尾追加已保存正文的后续部分（分段读取的正文），不算作修改。
+     * 追加的内容在已保存正文中紧接着 {@link #savedCodePoints()} 之后
+     */
+    void appendSaved(String text) {
+        int length = text.length();
+        if (length == 0) {
+            return;
+        }
+        int addedStart = mAdded.length();
+        mAdded.append(text);
+        boolean surrogates = hasSurrogates(text, 0, length);
+        mAddedSurrogates |= surrogates;
+        int codePoints = surrogates ? text.codePointCount(0, length) : length;
+        mRoot = merge(mRoot, new Node(true, addedStart, length, codePoints, mSavedCodePoints,
+                mRandom.nextInt()));
+        mSavedCodePoints += codePoints;
+    }
+
+    /**
+     * 上次保存的正文（包括追加的已保存部分）的码点数
+     */
+    int savedCodePoints() {
+        return mSavedCodePoints;
+    }
+
+    /**
+     * 把 [start, end) 替换为 text
+     */
+    void replace(int start, int end, CharSequence text) {
+        replace(start, end, text, 0, text.length());
+    }
+
+    /**
+     * 把 [start, end) 替换为 text 中的 [textStart, textEnd)，与 TextWatcher#onTextChanged 的参数对应
+     */
+    void replace(int start, int end, CharSequence text, int textStart, int textEnd) {
+        if (start < 0 || start > end || end > length()) {
+            throw new IndexOutOfBoundsException("replace " + start + ".." + end
+                    + " in length " + length());
+        }
+        Node[] parts = split(mRoot, end);
+        Node right = parts[1];
+        parts = split(parts[0], start);
+        Node left = parts[0];
+
+        int count = textEnd - textStart;
+        if (count > 0) {
+            int addedStart = mAdded.length();
+            mAdded.append(text, textStart, textEnd);
+            boolean surrogates = hasSurrogates(mAdded, addedStart, addedStart + count);
+            mAddedSurrogates |= surrogates;
+            int codePoints = surrogates
+                    ? Character.codePointCount(mAdded, addedStart, addedStart + count) : count;
+
+            // 接着上一次输入的位置继续输入时延长原来的片段
+            Node last = last(left);
+            if (last != null && last.added && last.saved < 0
+                    && last.start + last.length == addedStart) {
+                for (Node node = left; node != null; node = node.right) {
+                    node.size += count;
+                    if (node == last) {
+                        node.length += count;
+                        node.codePoints += codePoints;
+                    }
+                }
+            } else {
+                left = merge(left, new Node(true, addedStart, count, codePoints, -1,
+                        mRandom.nextInt()));
+            }
+        }
+        mRoot = merge(left, right);
+        mModified = true;
+    }
+
+    /**
+     * 上次保存（{@link #reset} 或 {@link #commit}）之后是否修改过
+     */
+    boolean isModified() {
+        return mModified;
+    }
+
+    /**
+     * 相对上次保存的修改区间，按位置从前到后排列，互不重叠；没有修改时为空
+     */
+    List<Edit> changes() {
+        ArrayList<Edit> edits = new ArrayList<>();
+        if (!mModified) {
+            return edits;
+        }
+        // 已保存的片段按原来的顺序出现，相邻两段之间的空隙是被删除的内容，
+        // 夹在中间的新片段是插入的内容
+        int savedPos = 0;
+        StringBuilder inserted = new StringBuilder();
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        Node node = mRoot;
+        while (node != null || !stack.isEmpty()) {
+            while (node != null) {
+                stack.push(node);
+                node = node.left;
+            }
+            node = stack.pop();
+            if (node.saved < 0) {
+                inserted.append(buffer(node), node.start, node.start + node.length);
+            } else {
+                if (node.saved != savedPos || inserted.length() > 0) {
+                    edits.add(new Edit(savedPos, node.saved - savedPos, inserted.toString()));
+                    inserted.setLength(0);
+                }
+                savedPos = node.saved + node.codePoints;
+            }
+            node = node.right;
+        }
+        if (savedPos != mSavedCodePoints || inserted.length() > 0) {
+            edits.add(new Edit(savedPos, mSavedCodePoints - savedPos, inserted.toString()));
+        }
+        return edits;
+    }
+
+    /**
+     * 当前内容已经保存，之后的 {@link #changes()} 相对当前内容计算
+     */
+    void commit() {
+        int savedPos = 0;
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        Node node = mRoot;
+        while (node != null || !stack.isEmpty()) {
+            while (node != null) {
+                stack.push(node);
+                node = node.left;
+            }
+            node = stack.pop();
+            node.saved = savedPos;
+            savedPos += node.codePoints;
+            node = node.right;
+        }
+        mSavedCodePoints = savedPos;
+        mModified = false;
+    }
+
+    /**
+     * 把 {@link #changes()} 的结果应用到上次保存的正文上，得到当前正文
+     */
+    static String apply(String text, List<Edit> edits) {
+        StringBuilder result = new StringBuilder(text.length());
+        int index = 0;
+        int codePoint = 0;
+        for (Edit edit : edits) {
+            int start = text.offsetByCodePoints(index, edit.start - codePoint);
+            result.append(text, index, start).append(edit.text);
+            index = text.offsetByCodePoints(start, edit.length);
+            codePoint = edit.start + edit.length;
+        }
+        return result.append(text, index, text.length()).toString();
+    }
+
+    @Override
+    public int length() {
+        return size(mRoot);
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length()) {
+            throw new IndexOutOfBoundsException("index " + index + " in length " + length());
+        }
+        Node node = mRoot;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index < leftSize + node.length) {
+                return buffer(node).charAt(node.start + index - leftSize);
+            } else {
+                index -= leftSize + node.length;
+                node = node.right;
+            }
+        }
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || start > end || end > length()) {
+            throw new IndexOutOfBoundsException("subSequence " + start + ".." + end
+                    + " in length " + length());
+        }
+        StringBuilder result = new StringBuilder(end - start);
+        append(mRoot, start, end, result);
+        return result.toString();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder(length());
+        append(mRoot, 0, length(), result);
+        return result.toString();
+    }
+
+    /**
+     * 把子树中 [start, end) 的字符追加到 out
+     */
+    private void append(Node node, int start, int end, StringBuilder out) {
+        if (node == null || start >= end) {
+            return;
+        }
+        int leftSize = size(node.left);
+        if (start < leftSize) {
+            append(node.left, start, Math.min(end, leftSize), out);
+        }
+        int from = Math.max(start - leftSize, 0);
+        int to = Math.min(end - leftSize, node.length);
+        if (from < to) {
+            out.append(buffer(node), node.start + from, node.start + to);
+        }
+        int rightStart = leftSize + node.length;
+        if (end > rightStart) {
+            append(node.right, Math.max(start - rightStart, 0), end - rightStart, out);
+        }
+    }
+
+    /**
+     * 把子树分成前 pos 个字符和其余部分，位置落在片段内部时拆分该片段
+     */
+    private Node[] split(Node node, int pos) {
+        if (node == null) {
+            return new Node[2];
+        }
+        int leftSize = size(node.left);
+        if (pos <= leftSize) {
+            Node[] parts = split(node.left, pos);
+            node.left = parts[1];
+            update(node);
+            parts[1] = node;
+            return parts;
+        }
+        if (pos >= leftSize + node.length) {
+            Node[] parts = split(node.right, pos - leftSize - node.length);
+            node.right = parts[0];
+            update(node);
+            parts[0] = node;
+            return parts;
+        }
+
+        // 只对较短的一半计数码点
+        int offset = pos - leftSize;
+        int headCodePoints = offset <= node.length / 2
+                ? codePoints(node, 0, offset)
+                : node.codePoints - codePoints(node, offset, node.length);
+        // 后半段沿用原节点的优先级，作为原右子树的父节点仍满足堆性质
+        Node tail = new Node(node.added, node.start + offset, node.length - offset,
+                node.codePoints - headCodePoints,
+                node.saved < 0 ? -1 : node.saved + headCodePoints, node.priority);
+        tail.right = node.right;
+        update(tail);
+        node.length = offset;
+        node.codePoints = headCodePoints;
+        node.right = null;
+        update(node);
+        return new Node[] {node, tail};
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        }
+        right.left = merge(left, right.left);
+        update(right);
+        return right;
+    }
+
+    private static Node last(Node node) {
+        while (node != null && node.right != null) {
+            node = node.right;
+        }
+        return node;
+    }
+
+    private static int size(Node node) {
+        return node != null ? node.size : 0;
+    }
+
+    private static void update(Node node) {
+        node.size = size(node.left) + node.length + size(node.right);
+    }
+
+    private CharSequence buffer(Node node) {
+        return node.added ? mAdded : mOriginal;
+    }
+
+    /**
+     * 片段中 [from, to) 的码点数
+     */
+    private int codePoints(Node node, int from, int to) {
+        if (!(node.added ? mAddedSurrogates : mOriginalSurrogates)) {
+            return to - from;
+        }
+        return Character.codePointCount(buffer(node), node.start + from, node.start + to);
+    }
+
+    private static boolean hasSurrogates(CharSequence text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
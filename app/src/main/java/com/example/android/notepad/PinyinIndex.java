@@ -0,0 +1,227 @@
+package com.example.android.notepad;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 标题拼音索引：在写入时把中文标题转换为全拼和首字母，存入带索引的键表，
+ * 搜索时用前缀范围查询匹配，例如 “gzjh” 和 “gongzuo” 都能找到“工作计划”。
+ *
+ * 每个标题从开头以及每个汉字处各生成一个全拼键和一个首字母键，
+ * 因此输入标题中间任意汉字开始的拼音前缀也能命中。汉字到拼音的对照表
+ * 来自 res/raw/pinyin.txt，首次使用时加载一次。
+ */
+final class PinyinIndex {
+
+    /** 拼音键表 */
+    static final String TABLE_NAME = "title_pinyin";
+
+    /** 所属笔记的ID */
+    static final String COLUMN_NAME_NOTE_ID = "note_id";
+
+    /** 全拼或首字母键，只含小写字母和数字 */
+    static final String COLUMN_NAME_KEY = "key";
+
+    // 对照表覆盖的汉字范围（CJK统一表意文字基本区）
+    private static final char FIRST_HAN = '一';
+    private static final char LAST_HAN = '龥';
+
+    // 单个键的最大长度，标题很长时只索引开头部分
+    private static final int MAX_KEY_LENGTH = 48;
+
+    // 按 汉字 - FIRST_HAN 索引的拼音音节，没有收录的字为null
+    private static volatile String[] sSyllables;
+
+    // 工具类，不允许实例化
+    private PinyinIndex() {
+    }
+
+    /**
+     * 创建拼音键表、索引以及删除笔记时自动清理键的触发器
+     */
+    static void createTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_NAME + " ("
+                + COLUMN_NAME_NOTE_ID + " INTEGER NOT NULL,"
+                + COLUMN_NAME_KEY + " TEXT NOT NULL"
+                + ");");
+        db.execSQL("CREATE INDEX " + TABLE_NAME + "_key ON " + TABLE_NAME
+                + " (" + COLUMN_NAME_KEY + ");");
+        db.execSQL("CREATE INDEX " + TABLE_NAME + "_note ON " + TABLE_NAME
+                + " (" + COLUMN_NAME_NOTE_ID + ");");
+        createCleanupTrigger(db);
+    }
+
+    /**
+     * 删除笔记时清理其拼音键的触发器。触发器依附在笔记表上，重建笔记表后需要重新创建
+     */
+    static void createCleanupTrigger(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER " + TABLE_NAME + "_cleanup AFTER DELETE ON "
+                + NotePad.Notes.TABLE_NAME + " BEGIN DELETE FROM " + TABLE_NAME
+                + " WHERE " + COLUMN_NAME_NOTE_ID + " = old." + NotePad.Notes._ID + "; END;");
+    }
+
+    /**
+     * 删除清理触发器，重建笔记表时先调用，避免删除旧表时清空拼音键
+     */
+    static void dropCleanupTrigger(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS " + TABLE_NAME + "_cleanup");
+    }
+
+    /**
+     * 用新的标题替换笔记的拼音键
+     */
+    static void update(Context context, SQLiteDatabase db, long noteId, String title) {
+        db.delete(TABLE_NAME, COLUMN_NAME_NOTE_ID + " = " + noteId, null);
+        Set<String> keys = keysFor(syllables(context), title);
+        if (keys.isEmpty()) {
+            return;
+        }
+        ContentValues values = new ContentValues();
+        for (String key : keys) {
+            values.clear();
+            values.put(COLUMN_NAME_NOTE_ID, noteId);
+            values.put(COLUMN_NAME_KEY, key);
+            db.insert(TABLE_NAME, null, values);
+        }
+    }
+
+    /**
+     * 生成标题的全部拼音键；不含汉字的标题返回空集合，普通的标题匹配已经能找到它们
+     */
+    static Set<String> keysFor(String[] syllables, String title) {
+        Set<String> keys = new LinkedHashSet<>();
+        if (title == null) {
+            return keys;
+        }
+
+        // 把标题转换为单元序列：汉字转为拼音音节，字母数字保持原样，其余字符丢弃
+        String normalized = SearchNormalizer.normalize(title);
+        int length = normalized.length();
+        String[] units = new String[length];
+        boolean[] han = new boolean[length];
+        int count = 0;
+        boolean hasHan = false;
+        for (int i = 0; i < length; i++) {
+            char c = normalized.charAt(i);
+            String syllable = c >= FIRST_HAN && c <= LAST_HAN ? syllables[c - FIRST_HAN] : null;
+            if (syllable != null) {
+                units[count] = syllable;
+                han[count++] = true;
+                hasHan = true;
+            } else if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+                units[count] = String.valueOf(c);
+                han[count++] = false;
+            }
+        }
+        if (!hasHan) {
+            return keys;
+        }
+
+        // 从开头和每个汉字处各生成一个全拼键和一个首字母键
+        StringBuilder full = new StringBuilder();
+        StringBuilder initials = new StringBuilder();
+        for (int start = 0; start < count; start++) {
+            if (start > 0 && !han[start]) {
+                continue;
+            }
+            full.setLength(0);
+            initials.setLength(0);
+            for (int i = start; i < count && full.length() < MAX_KEY_LENGTH; i++) {
+                full.append(units[i]);
+                initials.append(units[i].charAt(0));
+            }
+            full.setLength(Math.min(full.length(), MAX_KEY_LENGTH));
+            keys.add(full.toString());
+            keys.add(initials.toString());
+        }
+        return keys;
+    }
+
+    /**
+     * 搜索词是否可能是拼音输入：规范化后只含小写字母和数字，且至少有一个字母
+     */
+    static boolean isPinyinQuery(String normalized) {
+        boolean hasLetter = false;
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (c >= 'a' && c <= 'z') {
+                hasLetter = true;
+            } else if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return hasLetter;
+    }
+
+    /**
+     * 追加按拼音前缀匹配笔记的条件。使用范围比较而不是 LIKE，以便SQLite使用键索引。
+     */
+    static void appendPrefixMatch(String prefix, StringBuilder selection, List<String> args) {
+        selection.append(NotePad.Notes._ID).append(" IN (SELECT ").append(COLUMN_NAME_NOTE_ID)
+                .append(" FROM ").append(TABLE_NAME).append(" WHERE ").append(COLUMN_NAME_KEY)
+                .append(" >= ? AND ").append(COLUMN_NAME_KEY).append(" < ?)");
+        args.add(prefix);
+        args.add(prefix.substring(0, prefix.length() - 1)
+                + (char) (prefix.charAt(prefix.length() - 1) + 1));
+    }
+
+    /**
+     * 返回汉字到拼音的对照表，首次调用时从资源加载
+     */
+    static String[] syllables(Context context) {
+        String[] syllables = sSyllables;
+        if (syllables == null) {
+            synchronized (PinyinIndex.class) {
+                syllables = sSyllables;
+                if (syllables == null) {
+                    syllables = load(context);
+                    sSyllables = syllables;
+                }
+            }
+        }
+        return syllables;
+    }
+
+    private static String[] load(Context context) {
+        String[] syllables = new String[LAST_HAN - FIRST_HAN + 1];
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(
+                    context.getResources().openRawResource(R.raw.pinyin),
+                    Charset.forName("UTF-8")));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (line.startsWith("#") || space < 0) {
+                    continue;
+                }
+                String syllable = line.substring(0, space).intern();
+                for (int i = space + 1; i < line.length(); i++) {
+                    char c = line.charAt(i);
+                    if (c >= FIRST_HAN && c <= LAST_HAN) {
+                        syllables[c - FIRST_HAN] = syllable;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to load the pinyin table", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        return syllables;
+    }
+}
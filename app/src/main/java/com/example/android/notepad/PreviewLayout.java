@@ -0,0 +1,322 @@
+package com.example.android.notepad;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.text.TextPaint;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 列表正文预览的读取和排版：计算正文的前三个显示行以及是否需要省略号。
+ *
+ * 列表快照不含正文。正文开头（{@link NotePad.Notes#COLUMN_NAME_NOTE_PREVIEW}）只为即将显示的行
+ * 在后台线程按ID一次读出（{@link #load}），以（笔记ID、修改时间）为键缓存，最多缓存
+ * {@link #MAX_ENTRIES} 条，因此内存占用与笔记总数无关。缓存以 long 为键（{@link LongLruCache}），
+ * 绑定时查找不装箱。
+ *
+ * 正文按换行切分，空行跳过，过长的行按实际显示宽度（用预览行的画笔测量）折行，
+ * 而不是固定的字符数。结果（各行的文字和在正文中的起止位置）同样按（笔记ID、修改时间）缓存，
+ * 同一条笔记在修改前只排版一次。列表滚动时由 {@link RowPrerenderer} 在后台线程提前读取并排版即将出现的行，
+ * 绑定时通常直接命中缓存。
+ *
+ * 缓存的读写是同步的，可以同时在主线程和一个后台排版线程中访问。
+ */
+class PreviewLayout {
+
+    /**
+     * 按ID读取正文开头，在后台线程调用
+     */
+    interface TextSource {
+        /**
+         * @return 笔记ID到正文开头的映射，不存在的笔记不在其中
+         */
+        Map<Long, String> load(long[] ids);
+    }
+
+    // 最多缓存的笔记数
+    static final int MAX_ENTRIES = 512;
+
+    // 没有测量宽度时使用的每行字符数
+    static final int FALLBACK_LINE_LENGTH = 30;
+
+    private static final String TAG = "PreviewLayout";
+
+    // 一次查询最多读取的笔记数
+    private static final int MAX_IDS_PER_QUERY = 200;
+
+    /**
+     * 一条笔记的预览：最多 {@link NotesListAdapter#PREVIEW_LINES} 行的文字及其在正文中的起止位置
+     */
+    static final class Preview {
+        final long modified;
+        final int lineCount;
+        final String[] lines;
+        final int[] starts;
+        final int[] ends;
+        final boolean ellipsis;
+
+        Preview(long modified, int lineCount, String[] lines, int[] starts, int[] ends,
+                boolean ellipsis) {
+            this.modified = modified;
+            this.lineCount = lineCount;
+            this.lines = lines;
+            this.starts = starts;
+            this.ends = ends;
+            this.ellipsis = ellipsis;
+        }
+    }
+
+    /**
+     * 读出的正文开头及其对应的修改时间
+     */
+    private static final class Text {
+        final long modified;
+        final String content;
+
+        Text(long modified, String content) {
+            this.modified = modified;
+            this.content = content;
+        }
+    }
+
+    private final int mMaxLines;
+    private final TextSource mSource;
+
+    // 正文开头，排版参数变化时不需要重新读取
+    private final LongLruCache<Text> mTexts = new LongLruCache<>(MAX_ENTRIES);
+
+    // 排版好的预览；同时作为两个缓存共用的锁
+    private final LongLruCache<Preview> mCache = new LongLruCache<>(MAX_ENTRIES);
+
+    // 主线程和排版线程各用一支画笔，画笔的测量不是线程安全的
+    private TextPaint mPaint;
+    private TextPaint mBackgroundPaint;
+    private float mWidth;
+
+    PreviewLayout(int maxLines, TextSource source) {
+        mMaxLines = maxLines;
+        mSource = source;
+    }
+
+    /**
+     * 从Provider读取正文开头，ID较多时分批查询
+     */
+    static TextSource providerSource(final ContentResolver resolver) {
+        return ids -> {
+            Map<Long, String> texts = new HashMap<>();
+            String[] projection = {NotePad.Notes._ID, NotePad.Notes.COLUMN_NAME_NOTE_PREVIEW};
+            for (int from = 0; from < ids.length; from += MAX_IDS_PER_QUERY) {
+                StringBuilder where = new StringBuilder(NotePad.Notes._ID).append(" IN (");
+                int to = Math.min(ids.length, from + MAX_IDS_PER_QUERY);
+                for (int i = from; i < to; i++) {
+                    where.append(i > from ? "," : "").append(ids[i]);
+                }
+                try {
+                    Cursor c = resolver.query(NotePad.Notes.CONTENT_URI, projection,
+                            where.append(')').toString(), null, null);
+                    if (c == null) {
+                        continue;
+                    }
+                    try {
+                        while (c.moveToNext()) {
+                            texts.put(c.getLong(0), c.getString(1));
+                        }
+                    } finally {
+                        c.close();
+                    }
+                } catch (RuntimeException e) {
+                    // 读取失败的行按空正文显示，笔记修改或列表重新加载后再读
+                    Log.e(TAG, "Failed to load previews", e);
+                }
+            }
+            return texts;
+        };
+    }
+
+    /**
+     * 设置预览行的画笔和可用宽度；与之前不同时清空缓存。必须在主线程调用。
+     *
+     * @return 排版参数是否变化
+     */
+    boolean setMetrics(TextPaint paint, float width) {
+        synchronized (mCache) {
+            if (mPaint != null && width == mWidth
+                    && paint.getTextSize() == mPaint.getTextSize()
+                    && paint.getTypeface() == mPaint.getTypeface()) {
+                return false;
+            }
+            mPaint = new TextPaint(paint);
+            mBackgroundPaint = new TextPaint(paint);
+            mWidth = width;
+            mCache.clear();
+            return true;
+        }
+    }
+
+    boolean hasMetrics() {
+        synchronized (mCache) {
+            return mPaint != null;
+        }
+    }
+
+    /**
+     * 返回已缓存的预览，没有时返回null
+     */
+    Preview peek(NoteSnapshot.Row row) {
+        synchronized (mCache) {
+            Preview preview = mCache.get(row.id);
+            return preview != null && preview.modified == row.modified ? preview : null;
+        }
+    }
+
+    /**
+     * 正文开头是否已经读出
+     */
+    boolean hasText(NoteSnapshot.Row row) {
+        synchronized (mCache) {
+            return text(row) != null;
+        }
+    }
+
+    /**
+     * 返回一行的预览，没有缓存时在当前线程排版；正文开头还没有读出时返回null。只应在主线程调用。
+     */
+    Preview get(NoteSnapshot.Row row) {
+        return getOrLayout(row, false);
+    }
+
+    /**
+     * 在后台线程一次读出这些行中还没有读过的正文开头。只应在一个后台线程中调用。
+     *
+     * @return 是否读出了新的正文
+     */
+    boolean load(List<NoteSnapshot.Row> rows) {
+        long[] ids = new long[rows.size()];
+        int count = 0;
+        synchronized (mCache) {
+            for (NoteSnapshot.Row row : rows) {
+                if (text(row) == null) {
+                    ids[count++] = row.id;
+                }
+            }
+        }
+        if (count == 0) {
+            return false;
+        }
+        long[] missing = new long[count];
+        System.arraycopy(ids, 0, missing, 0, count);
+        Map<Long, String> texts = mSource.load(missing);
+        synchronized (mCache) {
+            for (NoteSnapshot.Row row : rows) {
+                if (text(row) == null) {
+                    // 已被删除的笔记按空正文处理，列表随后会重新加载
+                    String content = texts.get(row.id);
+                    mTexts.put(row.id, new Text(row.modified, content != null ? content : ""));
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 在后台线程排版一行并放入缓存；已缓存、正文还没有读出或尚未设置画笔时什么也不做。
+     * 只应在一个后台线程中调用。
+     */
+    void prepare(NoteSnapshot.Row row) {
+        if (hasMetrics()) {
+            getOrLayout(row, true);
+        }
+    }
+
+    /**
+     * 与行的修改时间对应的正文开头，调用方需持有 mCache
+     */
+    private String text(NoteSnapshot.Row row) {
+        Text text = mTexts.get(row.id);
+        return text != null && text.modified == row.modified ? text.content : null;
+    }
+
+    private Preview getOrLayout(NoteSnapshot.Row row, boolean background) {
+        TextPaint paint;
+        float width;
+        String content;
+        synchronized (mCache) {
+            Preview preview = mCache.get(row.id);
+            if (preview != null && preview.modified == row.modified) {
+                return preview;
+            }
+            content = text(row);
+            if (content == null) {
+                return null;
+            }
+            paint = background ? mBackgroundPaint : mPaint;
+            width = mWidth;
+        }
+        Preview preview = layout(content, row.modified, paint, width, mMaxLines);
+        synchronized (mCache) {
+            // 排版期间画笔或宽度变了，结果作废
+            if (paint == (background ? mBackgroundPaint : mPaint)) {
+                mCache.put(row.id, preview);
+            }
+        }
+        return preview;
+    }
+
+    /**
+     * 排版正文。画笔为null或宽度未知时按 {@link #FALLBACK_LINE_LENGTH} 个字符折行。
+     */
+    static Preview layout(String content, long modified, TextPaint paint, float width,
+                          int maxLines) {
+        int[] starts = new int[maxLines];
+        int[] ends = new int[maxLines];
+        int lineCount = 0;
+        if (content != null) {
+            int length = content.length();
+            int position = 0;
+            while (position < length && lineCount <= maxLines) {
+                int lineEnd = content.indexOf('\n', position);
+                if (lineEnd < 0) {
+                    lineEnd = length;
+                }
+                int start = position;
+                while (start < lineEnd && lineCount <= maxLines) {
+                    int end = start + fit(content, start, lineEnd, paint, width);
+                    if (lineCount < maxLines) {
+                        starts[lineCount] = start;
+                        ends[lineCount] = end;
+                    }
+                    lineCount++;
+                    start = end;
+                }
+                position = lineEnd + 1;
+            }
+        }
+        int count = Math.min(lineCount, maxLines);
+        String[] lines = new String[count];
+        for (int i = 0; i < count; i++) {
+            lines[i] = content.substring(starts[i], ends[i]);
+        }
+        return new Preview(modified, count, lines, starts, ends, lineCount > maxLines);
+    }
+
+    /**
+     * 从 start 开始一行能放下的字符数，至少为1；不拆开代理对
+     */
+    private static int fit(String content, int start, int end, TextPaint paint, float width) {
+        int count;
+        if (paint == null || width <= 0) {
+            count = Math.min(FALLBACK_LINE_LENGTH, end - start);
+        } else {
+            count = Math.max(1, paint.breakText(content, start, end, true, width, null));
+        }
+        int split = start + count;
+        if (split < end && Character.isHighSurrogate(content.charAt(split - 1))
+                && Character.isLowSurrogate(content.charAt(split))) {
+            count += count > 1 ? -1 : 1;
+        }
+        return count;
+    }
+}
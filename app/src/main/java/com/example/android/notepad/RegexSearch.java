@@ -0,0 +1,294 @@
+package com.example.android.notepad;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 正则表达式搜索：在后台线程中按块从Provider读取笔记，用预先编译好的正则匹配标题和正文，
+ * 每处理完一块就把目前为止的结果作为快照发布到主线程，列表可以边搜边显示。
+ *
+ * 正则匹配无法下推给SQLite，而且病态的表达式（例如 {@code (a+)+b}）可能出现灾难性回溯，
+ * 因此对每条笔记和整个搜索都设置了时间预算：匹配过程中读取字符时检查期限，超时即中止该笔记，
+ * 总时间用完时停止搜索并把已有结果作为部分结果发布。
+ *
+ * 按分类筛选时仍搜索所有分类，发布时才只保留所选分类的结果，
+ * 这样同一次搜索顺便得到各分类的匹配数（{@link NoteSnapshot#categoryCounts()}）。
+ */
+class RegexSearch {
+
+    /**
+     * 搜索结果回调，总是在主线程调用
+     */
+    interface Listener {
+        /**
+         * @param results 到目前为止匹配的笔记
+         * @param finished 搜索是否已结束（完成、超出总时间预算或结果数达到上限）
+         * @param truncated 是否有笔记因超时被跳过或搜索被提前中止，结果可能不完整
+         */
+        void onResults(NoteSnapshot results, boolean finished, boolean truncated);
+    }
+
+    // 每次从Provider读取的行数
+    static final int CHUNK_SIZE = 100;
+
+    // 单条笔记和整个搜索的时间预算
+    static final long NOTE_BUDGET_MILLIS = 50;
+    static final long TOTAL_BUDGET_MILLIS = 3000;
+
+    // 最多返回的结果数
+    static final int MAX_RESULTS = 500;
+
+    // 每读取这么多个字符检查一次期限，避免频繁读取时钟
+    private static final int DEADLINE_CHECK_INTERVAL = 1024;
+
+    // 所有正则搜索共用一个后台线程，新搜索开始前旧搜索已被取消，不会堆积
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final ContentResolver mResolver;
+    private final Uri mUri;
+    private final String[] mProjection;
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+    private final CategoryFilter mCategoryFilter;
+    private final Pattern mPattern;
+    private final Listener mListener;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private volatile boolean mCancelled;
+
+    /**
+     * @param pattern 已编译的正则表达式，所有笔记共用
+     * @param projection 结果列，可以包含 {@link SearchSnippets#SNIPPET_COLUMNS}，
+     *                   但必须包含 _id 和修改时间；包含分类ID列时统计各分类的匹配数
+     * @param categoryFilter 结果只保留的分类
+     */
+    RegexSearch(ContentResolver resolver, Uri uri, String[] projection, String selection,
+                String[] selectionArgs, CategoryFilter categoryFilter, Pattern pattern,
+                Listener listener) {
+        mResolver = resolver;
+        mUri = uri;
+        mProjection = projection;
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mCategoryFilter = categoryFilter;
+        mPattern = pattern;
+        mListener = listener;
+    }
+
+    void start() {
+        EXECUTOR.execute(this::run);
+    }
+
+    /**
+     * 取消搜索；取消后不会再回调
+     */
+    void cancel() {
+        mCancelled = true;
+    }
+
+    private void run() {
+        long totalDeadline = SystemClock.uptimeMillis() + TOTAL_BUDGET_MILLIS;
+        String[] queryProjection = SearchSnippets.baseProjection(mProjection);
+        List<Object[]> rows = new ArrayList<>();
+        int published = 0;
+        boolean truncated = false;
+
+        // 按列表的排序（修改时间倒序，再按ID倒序）做键集分页，每块从上一块的最后一行之后开始
+        Long lastModified = null;
+        long lastId = 0;
+        boolean exhausted = false;
+        while (!mCancelled && !exhausted) {
+            if (SystemClock.uptimeMillis() > totalDeadline || rows.size() >= MAX_RESULTS) {
+                truncated = true;
+                break;
+            }
+
+            Cursor chunk = mResolver.query(chunkUri(), queryProjection,
+                    chunkSelection(lastModified), chunkSelectionArgs(lastModified, lastId),
+                    NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE + " DESC, "
+                            + NotePad.Notes._ID + " DESC");
+            if (chunk == null) {
+                break;
+            }
+            try {
+                exhausted = chunk.getCount() < CHUNK_SIZE;
+                int[] sourceIndexes = SearchSnippets.sourceIndexes(chunk, mProjection);
+                int idIndex = chunk.getColumnIndexOrThrow(NotePad.Notes._ID);
+                int modifiedIndex = chunk.getColumnIndexOrThrow(
+                        NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE);
+                int titleIndex = chunk.getColumnIndexOrThrow(NotePad.Notes.COLUMN_NAME_TITLE);
+                int noteIndex = chunk.getColumnIndexOrThrow(NotePad.Notes.COLUMN_NAME_NOTE);
+
+                while (!mCancelled && chunk.moveToNext()) {
+                    lastId = chunk.getLong(idIndex);
+                    lastModified = chunk.getLong(modifiedIndex);
+
+                    long now = SystemClock.uptimeMillis();
+                    if (now > totalDeadline) {
+                        truncated = true;
+                        exhausted = true;
+                        break;
+                    }
+                    long noteDeadline = Math.min(now + NOTE_BUDGET_MILLIS, totalDeadline);
+                    SearchSnippets.Snippet snippet;
+                    try {
+                        snippet = match(chunk.getString(titleIndex), chunk.getString(noteIndex),
+                                noteDeadline);
+                    } catch (DeadlineExceededException e) {
+                        truncated = true;
+                        continue;
+                    }
+                    if (snippet != null) {
+                        Object[] row = new Object[mProjection.length];
+                        SearchSnippets.fillRow(chunk, sourceIndexes, snippet, row);
+                        rows.add(row);
+                    }
+                }
+            } finally {
+                chunk.close();
+            }
+
+            // 这一块有新结果时先发布部分结果
+            if (!exhausted && rows.size() > published) {
+                publish(rows, false, truncated);
+                published = rows.size();
+            }
+        }
+        publish(rows, true, truncated);
+    }
+
+    private Uri chunkUri() {
+        return mUri.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_LIMIT,
+                        String.valueOf(CHUNK_SIZE))
+                .build();
+    }
+
+    private String chunkSelection(Long lastModified) {
+        if (lastModified == null) {
+            return mSelection;
+        }
+        String after = NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE + " < ? OR ("
+                + NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE + " = ? AND "
+                + NotePad.Notes._ID + " < ?)";
+        return mSelection == null ? after : "(" + mSelection + ") AND (" + after + ")";
+    }
+
+    private String[] chunkSelectionArgs(Long lastModified, long lastId) {
+        if (lastModified == null) {
+            return mSelectionArgs;
+        }
+        String[] after = new String[] {
+                String.valueOf(lastModified), String.valueOf(lastModified), String.valueOf(lastId)
+        };
+        if (mSelectionArgs == null) {
+            return after;
+        }
+        String[] args = new String[mSelectionArgs.length + after.length];
+        System.arraycopy(mSelectionArgs, 0, args, 0, mSelectionArgs.length);
+        System.arraycopy(after, 0, args, mSelectionArgs.length, after.length);
+        return args;
+    }
+
+    /**
+     * 依次匹配标题和正文，返回第一处匹配的摘要
+     *
+     * @throws DeadlineExceededException 超出期限时
+     */
+    private SearchSnippets.Snippet match(String title, String note, long deadline) {
+        if (title != null) {
+            Matcher matcher = mPattern.matcher(new DeadlineCharSequence(title, deadline));
+            if (matcher.find()) {
+                return SearchSnippets.forMatch(NotePad.Notes.MATCH_FIELD_TITLE, title,
+                        matcher.start(), matcher.end());
+            }
+        }
+        if (note != null) {
+            Matcher matcher = mPattern.matcher(new DeadlineCharSequence(note, deadline));
+            if (matcher.find()) {
+                return SearchSnippets.forMatch(NotePad.Notes.MATCH_FIELD_NOTE, note,
+                        matcher.start(), matcher.end());
+            }
+        }
+        return null;
+    }
+
+    private void publish(List<Object[]> rows, final boolean finished, final boolean truncated) {
+        if (mCancelled) {
+            return;
+        }
+        MatrixCursor cursor = new MatrixCursor(mProjection, rows.size());
+        for (Object[] row : rows) {
+            cursor.addRow(row);
+        }
+        final NoteSnapshot results = NoteSnapshot.fromCursor(cursor, mCategoryFilter);
+        cursor.close();
+        mHandler.post(() -> {
+            if (!mCancelled) {
+                mListener.onResults(results, finished, truncated);
+            }
+        });
+    }
+
+    /**
+     * 超出时间预算
+     */
+    private static final class DeadlineExceededException extends RuntimeException {
+        // 只用于控制流程，不需要堆栈
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    /**
+     * 在读取字符时检查期限的包装。java.util.regex 的回溯都要经过 charAt，
+     * 因此即使表达式陷入灾难性回溯也能按时中止。
+     */
+    private static final class DeadlineCharSequence implements CharSequence {
+        private final CharSequence mText;
+        private final long mDeadline;
+        private int mReads;
+
+        DeadlineCharSequence(CharSequence text, long deadline) {
+            mText = text;
+            mDeadline = deadline;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (++mReads % DEADLINE_CHECK_INTERVAL == 0
+                    && SystemClock.uptimeMillis() > mDeadline) {
+                throw new DeadlineExceededException();
+            }
+            return mText.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return mText.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new DeadlineCharSequence(mText.subSequence(start, end), mDeadline);
+        }
+
+        @Override
+        public String toString() {
+            return mText.toString();
+        }
+    }
+}
@@ -0,0 +1,519 @@
+package com.example.android.notepad;
+
+import java.util.Arrays;
+
+/**
+ * 压缩位图：存放非负整数集合，按 Roaring 位图的方式分块。
+ *
+ * 整数的高16位选出一个容器，低16位存放在容器中。容器中的元素不超过 {@link #ARRAY_MAX} 个时
+ * 是有序的 char 数组（每个元素2字节），超过后换成 65536 位的位图（固定8KB）。
+ * 稀疏的集合只占数组的空间，稠密的集合每个元素只占1位；两个集合求交、求并时按高16位
+ * 对齐容器，再按容器类型选择归并、逐个查位或按64位字运算。
+ *
+ * 该类不是线程安全的。{@link #and} 和 {@link #or} 不修改参与运算的位图，返回新的位图。
+ */
+final class RoaringBitmap {
+
+    // 数组容器最多的元素数：4096个char与位图容器同为8KB
+    static final int ARRAY_MAX = 4096;
+
+    // 容器的高16位，按无符号顺序排列
+    private char[] mKeys;
+    private Container[] mContainers;
+    private int mSize;
+
+    RoaringBitmap() {
+        this(4);
+    }
+
+    private RoaringBitmap(int capacity) {
+        mKeys = new char[capacity];
+        mContainers = new Container[capacity];
+    }
+
+    /**
+     * 由给定的整数构建
+     */
+    static RoaringBitmap of(int... values) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        for (int value : values) {
+            bitmap.add(value);
+        }
+        return bitmap;
+    }
+
+    void add(int value) {
+        char key = highBits(value);
+        int index = indexOf(key);
+        if (index < 0) {
+            index = -index - 1;
+            insertContainer(index, key, new ArrayContainer());
+        }
+        mContainers[index] = mContainers[index].add((char) value);
+    }
+
+    void remove(int value) {
+        int index = indexOf(highBits(value));
+        if (index < 0) {
+            return;
+        }
+        Container container = mContainers[index].remove((char) value);
+        if (container.cardinality() == 0) {
+            removeContainer(index);
+        } else {
+            mContainers[index] = container;
+        }
+    }
+
+    boolean contains(int value) {
+        int index = indexOf(highBits(value));
+        return index >= 0 && mContainers[index].contains((char) value);
+    }
+
+    int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < mSize; i++) {
+            cardinality += mContainers[i].cardinality();
+        }
+        return cardinality;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * 所有元素，从小到大
+     */
+    int[] toArray() {
+        int[] values = new int[cardinality()];
+        int offset = 0;
+        for (int i = 0; i < mSize; i++) {
+            offset = mContainers[i].copyTo(mKeys[i] << 16, values, offset);
+        }
+        return values;
+    }
+
+    /**
+     * 估计占用的内存字节数
+     */
+    long sizeInBytes() {
+        long bytes = 16 + mKeys.length * 2L + mContainers.length * 4L;
+        for (int i = 0; i < mSize; i++) {
+            bytes += mContainers[i].sizeInBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * 交集：只有两边都有的高16位需要计算
+     */
+    static RoaringBitmap and(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap result = new RoaringBitmap(Math.max(1, Math.min(a.mSize, b.mSize)));
+        int i = 0;
+        int j = 0;
+        while (i < a.mSize && j < b.mSize) {
+            char keyA = a.mKeys[i];
+            char keyB = b.mKeys[j];
+            if (keyA < keyB) {
+                i++;
+            } else if (keyA > keyB) {
+                j++;
+            } else {
+                Container container = a.mContainers[i].and(b.mContainers[j]);
+                if (container.cardinality() > 0) {
+                    result.appendContainer(keyA, container);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 并集：只在一边出现的容器直接复制
+     */
+    static RoaringBitmap or(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap result = new RoaringBitmap(Math.max(1, a.mSize + b.mSize));
+        int i = 0;
+        int j = 0;
+        while (i < a.mSize || j < b.mSize) {
+            if (j >= b.mSize || (i < a.mSize && a.mKeys[i] < b.mKeys[j])) {
+                result.appendContainer(a.mKeys[i], a.mContainers[i].copy());
+                i++;
+            } else if (i >= a.mSize || b.mKeys[j] < a.mKeys[i]) {
+                result.appendContainer(b.mKeys[j], b.mContainers[j].copy());
+                j++;
+            } else {
+                result.appendContainer(a.mKeys[i], a.mContainers[i].or(b.mContainers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    private static char highBits(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value " + value);
+        }
+        return (char) (value >>> 16);
+    }
+
+    private int indexOf(char key) {
+        // 顺序追加时最后一个容器命中最多
+        if (mSize > 0 && mKeys[mSize - 1] == key) {
+            return mSize - 1;
+        }
+        int low = 0;
+        int high = mSize - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            char middleKey = mKeys[middle];
+            if (middleKey < key) {
+                low = middle + 1;
+            } else if (middleKey > key) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private void insertContainer(int index, char key, Container container) {
+        if (mSize == mKeys.length) {
+            int capacity = Math.max(4, mSize * 2);
+            mKeys = Arrays.copyOf(mKeys, capacity);
+            mContainers = Arrays.copyOf(mContainers, capacity);
+        }
+        System.arraycopy(mKeys, index, mKeys, index + 1, mSize - index);
+        System.arraycopy(mContainers, index, mContainers, index + 1, mSize - index);
+        mKeys[index] = key;
+        mContainers[index] = container;
+        mSize++;
+    }
+
+    private void appendContainer(char key, Container container) {
+        insertContainer(mSize, key, container);
+    }
+
+    private void removeContainer(int index) {
+        System.arraycopy(mKeys, index + 1, mKeys, index, mSize - index - 1);
+        System.arraycopy(mContainers, index + 1, mContainers, index, mSize - index - 1);
+        mSize--;
+        mContainers[mSize] = null;
+    }
+
+    /**
+     * 一个高16位下的低16位集合。修改操作可能换成另一种容器，调用方使用返回值
+     */
+    private abstract static class Container {
+        abstract Container add(char value);
+
+        abstract Container remove(char value);
+
+        abstract boolean contains(char value);
+
+        abstract int cardinality();
+
+        abstract Container and(Container other);
+
+        abstract Container or(Container other);
+
+        abstract Container copy();
+
+        /**
+         * 把元素加上高位后写入 out，返回写入后的位置
+         */
+        abstract int copyTo(int high, int[] out, int offset);
+
+        abstract long sizeInBytes();
+    }
+
+    /**
+     * 有序数组容器
+     */
+    private static final class ArrayContainer extends Container {
+        char[] mValues;
+        int mCardinality;
+
+        ArrayContainer() {
+            mValues = new char[4];
+        }
+
+        ArrayContainer(char[] values, int cardinality) {
+            mValues = values;
+            mCardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            int index = search(value);
+            if (index >= 0) {
+                return this;
+            }
+            if (mCardinality == ARRAY_MAX) {
+                return toBitmap().add(value);
+            }
+            index = -index - 1;
+            if (mCardinality == mValues.length) {
+                mValues = Arrays.copyOf(mValues, Math.min(ARRAY_MAX, mCardinality * 2));
+            }
+            System.arraycopy(mValues, index, mValues, index + 1, mCardinality - index);
+            mValues[index] = value;
+            mCardinality++;
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            int index = search(value);
+            if (index >= 0) {
+                System.arraycopy(mValues, index + 1, mValues, index, mCardinality - index - 1);
+                mCardinality--;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return search(value) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return mCardinality;
+        }
+
+        @Override
+        Container and(Container other) {
+            char[] result = new char[mCardinality];
+            int size = 0;
+            if (other instanceof BitmapContainer) {
+                BitmapContainer bitmap = (BitmapContainer) other;
+                for (int i = 0; i < mCardinality; i++) {
+                    if (bitmap.contains(mValues[i])) {
+                        result[size++] = mValues[i];
+                    }
+                }
+            } else {
+                ArrayContainer array = (ArrayContainer) other;
+                int i = 0;
+                int j = 0;
+                while (i < mCardinality && j < array.mCardinality) {
+                    char a = mValues[i];
+                    char b = array.mValues[j];
+                    if (a < b) {
+                        i++;
+                    } else if (a > b) {
+                        j++;
+                    } else {
+                        result[size++] = a;
+                        i++;
+                        j++;
+                    }
+                }
+            }
+            return new ArrayContainer(result, size);
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer) {
+                return other.or(this);
+            }
+            ArrayContainer array = (ArrayContainer) other;
+            if (mCardinality + array.mCardinality > ARRAY_MAX) {
+                return toBitmap().or(array);
+            }
+            char[] result = new char[mCardinality + array.mCardinality];
+            int size = 0;
+            int i = 0;
+            int j = 0;
+            while (i < mCardinality || j < array.mCardinality) {
+                if (j >= array.mCardinality
+                        || (i < mCardinality && mValues[i] < array.mValues[j])) {
+                    result[size++] = mValues[i++];
+                } else if (i >= mCardinality || array.mValues[j] < mValues[i]) {
+                    result[size++] = array.mValues[j++];
+                } else {
+                    result[size++] = mValues[i++];
+                    j++;
+                }
+            }
+            return new ArrayContainer(result, size);
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(mValues, mCardinality), mCardinality);
+        }
+
+        @Override
+        int copyTo(int high, int[] out, int offset) {
+            for (int i = 0; i < mCardinality; i++) {
+                out[offset++] = high | mValues[i];
+            }
+            return offset;
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 24 + mValues.length * 2L;
+        }
+
+        private int search(char value) {
+            int low = 0;
+            int high = mCardinality - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                char middleValue = mValues[middle];
+                if (middleValue < value) {
+                    low = middle + 1;
+                } else if (middleValue > value) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(low + 1);
+        }
+
+        private BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < mCardinality; i++) {
+                bitmap.set(mValues[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    /**
+     * 65536位的位图容器
+     */
+    private static final class BitmapContainer extends Container {
+        final long[] mWords;
+        int mCardinality;
+
+        BitmapContainer() {
+            mWords = new long[1024];
+        }
+
+        private BitmapContainer(long[] words, int cardinality) {
+            mWords = words;
+            mCardinality = cardinality;
+        }
+
+        void set(char value) {
+            long bit = 1L << value;
+            int word = value >>> 6;
+            if ((mWords[word] & bit) == 0) {
+                mWords[word] |= bit;
+                mCardinality++;
+            }
+        }
+
+        @Override
+        Container add(char value) {
+            set(value);
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            long bit = 1L << value;
+            int word = value >>> 6;
+            if ((mWords[word] & bit) != 0) {
+                mWords[word] &= ~bit;
+                mCardinality--;
+                if (mCardinality <= ARRAY_MAX) {
+                    return toArrayContainer();
+                }
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (mWords[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return mCardinality;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            long[] words = new long[mWords.length];
+            long[] otherWords = ((BitmapContainer) other).mWords;
+            int cardinality = 0;
+            for (int i = 0; i < words.length; i++) {
+                words[i] = mWords[i] & otherWords[i];
+                cardinality += Long.bitCount(words[i]);
+            }
+            BitmapContainer result = new BitmapContainer(words, cardinality);
+            return cardinality <= ARRAY_MAX ? result.toArrayContainer() : result;
+        }
+
+        @Override
+        Container or(Container other) {
+            long[] words = mWords.clone();
+            if (other instanceof ArrayContainer) {
+                BitmapContainer result = new BitmapContainer(words, mCardinality);
+                ArrayContainer array = (ArrayContainer) other;
+                for (int i = 0; i < array.mCardinality; i++) {
+                    result.set(array.mValues[i]);
+                }
+                return result;
+            }
+            long[] otherWords = ((BitmapContainer) other).mWords;
+            int cardinality = 0;
+            for (int i = 0; i < words.length; i++) {
+                words[i] |= otherWords[i];
+                cardinality += Long.bitCount(words[i]);
+            }
+            return new BitmapContainer(words, cardinality);
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(mWords.clone(), mCardinality);
+        }
+
+        @Override
+        int copyTo(int high, int[] out, int offset) {
+            for (int i = 0; i < mWords.length; i++) {
+                long word = mWords[i];
+                while (word != 0) {
+                    out[offset++] = high | (i << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+            }
+            return offset;
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 24 + mWords.length * 8L;
+        }
+
+        private ArrayContainer toArrayContainer() {
+            char[] values = new char[Math.max(4, mCardinality)];
+            int size = 0;
+            for (int i = 0; i < mWords.length; i++) {
+                long word = mWords[i];
+                while (word != 0) {
+                    values[size++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, size);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.android.notepad;
+
+import android.graphics.Typeface;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Spannable;
+import android.text.SpannableString;
+import android.text.style.StyleSpan;
+import android.text.style.UnderlineSpan;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 列表行的预渲染：在后台线程为即将滚入可见范围的行准备好显示用的文字，
+ * 包括读出正文开头并按宽度折好的预览（{@link PreviewLayout}）以及搜索结果带高亮样式的摘要，
+ * 绑定时只需把现成的对象设置到控件上。高亮样式的 span 没有状态，所有摘要共用同一组对象。
+ * 读出新的正文后在主线程通知监听者，绑定时还没有正文的行可以重新绑定。
+ *
+ * 还统计绑定中直接使用预渲染结果的比例，可通过 dumpsys 查看。
+ */
+class RowPrerenderer {
+
+    // 最多缓存的高亮摘要数
+    static final int MAX_HIGHLIGHTS = 256;
+
+    /**
+     * 一行搜索结果的高亮摘要
+     */
+    static final class Highlight {
+        final NoteSnapshot.Row row;
+        final CharSequence snippet;
+
+        Highlight(NoteSnapshot.Row row, CharSequence snippet) {
+            this.row = row;
+            this.snippet = snippet;
+        }
+    }
+
+    private static final StyleSpan BOLD = new StyleSpan(Typeface.BOLD);
+    private static final UnderlineSpan UNDERLINE = new UnderlineSpan();
+
+    // 所有列表共用一个预渲染线程
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final PreviewLayout mPreviewLayout;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // 读出新的正文后在主线程调用
+    private volatile Runnable mOnTextsLoaded;
+
+    // 按笔记ID缓存，绑定时查找不装箱
+    private final LongLruCache<Highlight> mHighlights = new LongLruCache<>(MAX_HIGHLIGHTS);
+
+    // 每次预取加一，被新的预取取代的任务直接放弃
+    private volatile int mGeneration;
+
+    // 绑定统计，只在主线程访问
+    private long mBinds;
+    private long mPrerenderedBinds;
+
+    RowPrerenderer(PreviewLayout previewLayout) {
+        mPreviewLayout = previewLayout;
+    }
+
+    /**
+     * 设置读出新的正文后在主线程执行的回调
+     */
+    void setOnTextsLoaded(Runnable onTextsLoaded) {
+        mOnTextsLoaded = onTextsLoaded;
+    }
+
+    /**
+     * 在后台线程预渲染快照中 [from, to) 范围内的行
+     */
+    void prefetch(final NoteSnapshot snapshot, int from, int to) {
+        final int start = Math.max(0, from);
+        final int end = Math.min(snapshot.size(), to);
+        if (start >= end) {
+            return;
+        }
+        final int generation = ++mGeneration;
+        EXECUTOR.execute(() -> {
+            if (generation != mGeneration) {
+                return;
+            }
+            List<NoteSnapshot.Row> rows = new ArrayList<>(end - start);
+            for (int i = start; i < end; i++) {
+                rows.add(snapshot.get(i));
+            }
+            // 这一段中还没有读过的正文开头一次查询读出
+            boolean loaded = mPreviewLayout.load(rows);
+            for (int i = 0; i < rows.size() && generation == mGeneration; i++) {
+                NoteSnapshot.Row row = rows.get(i);
+                mPreviewLayout.prepare(row);
+                if (row.matchField != NotePad.Notes.MATCH_FIELD_NONE && peekHighlight(row) == null) {
+                    Highlight highlight = new Highlight(row, snippet(row));
+                    synchronized (mHighlights) {
+                        mHighlights.put(row.id, highlight);
+                    }
+                }
+            }
+            Runnable onTextsLoaded = mOnTextsLoaded;
+            if (loaded && onTextsLoaded != null) {
+                mHandler.post(onTextsLoaded);
+            }
+        });
+    }
+
+    /**
+     * 返回已预渲染的高亮，没有时返回null
+     */
+    Highlight peekHighlight(NoteSnapshot.Row row) {
+        synchronized (mHighlights) {
+            Highlight highlight = mHighlights.get(row.id);
+            return highlight != null && highlight.row.sameMatch(row) ? highlight : null;
+        }
+    }
+
+    /**
+     * 记录一次绑定及其是否完全使用了预渲染的结果；只在主线程调用
+     */
+    void recordBind(boolean prerendered) {
+        mBinds++;
+        if (prerendered) {
+            mPrerenderedBinds++;
+        }
+    }
+
+    long binds() {
+        return mBinds;
+    }
+
+    long prerenderedBinds() {
+        return mPrerenderedBinds;
+    }
+
+    void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.print("prerendered binds: ");
+        writer.print(mPrerenderedBinds);
+        writer.print('/');
+        writer.print(mBinds);
+        if (mBinds > 0) {
+            writer.print(" (");
+            writer.print(mPrerenderedBinds * 100 / mBinds);
+            writer.print("%)");
+        }
+        writer.println();
+    }
+
+    /**
+     * 生成带高亮样式的摘要。没有预渲染时绑定在主线程直接调用，结果不放入缓存，
+     * 除了显示的摘要本身不再分配其他对象；缓存由后台的预渲染填充
+     */
+    static CharSequence snippet(NoteSnapshot.Row row) {
+        // 匹配位置和上下文已由Provider计算好，这里只需设置高亮样式
+        SpannableString snippet = new SpannableString(row.snippet);
+        snippet.setSpan(BOLD, row.snippetStart, row.snippetEnd,
+                Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+        snippet.setSpan(UNDERLINE, row.snippetStart, row.snippetEnd,
+                Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+        return snippet;
+    }
+}
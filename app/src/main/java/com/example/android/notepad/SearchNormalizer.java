@@ -0,0 +1,153 @@
+package com.example.android.notepad;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * 搜索规范化：NFKC兼容分解（全角转半角等）、大小写折叠并去掉标点。
+ *
+ * Provider在写入时用它生成标题和正文的规范化影子列，搜索时用同一个函数处理搜索词，
+ * 因此不区分大小写、全半角和标点的匹配只是对影子列的普通 LIKE，查询时没有额外开销。
+ * 文本按“基字符 + 组合标记”分段逐段规范化，所以规范化结果中的每个字符都能对应回
+ * 原文中的位置，供摘要高亮使用。
+ */
+final class SearchNormalizer {
+
+    /**
+     * 规范化结果以及每个字符在原文中对应的范围
+     */
+    static final class Mapping {
+        final String text;
+        // text 中第 i 个字符来自原文的 [sourceStart[i], sourceEnd[i])
+        final int[] sourceStart;
+        final int[] sourceEnd;
+
+        Mapping(String text, int[] sourceStart, int[] sourceEnd) {
+            this.text = text;
+            this.sourceStart = sourceStart;
+            this.sourceEnd = sourceEnd;
+        }
+    }
+
+    // 工具类，不允许实例化
+    private SearchNormalizer() {
+    }
+
+    /**
+     * 生成规范化文本，null 保持为 null
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder(text.length());
+        normalize(text, true, builder, null);
+        return builder.toString();
+    }
+
+    /**
+     * NFKC 和大小写折叠，保留标点；供按标点切词的搜索索引使用
+     */
+    static String fold(String text) {
+        if (text == null) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder(text.length());
+        normalize(text, false, builder, null);
+        return builder.toString();
+    }
+
+    /**
+     * 生成规范化文本及其到原文的位置映射
+     */
+    static Mapping map(String text) {
+        StringBuilder builder = new StringBuilder(text.length());
+        Offsets offsets = new Offsets(text.length());
+        normalize(text, true, builder, offsets);
+        return new Mapping(builder.toString(), Arrays.copyOf(offsets.starts, builder.length()),
+                Arrays.copyOf(offsets.ends, builder.length()));
+    }
+
+    /**
+     * 记录每个输出字符对应的原文范围；兼容分解可能使文本变长，数组按需扩容
+     */
+    private static final class Offsets {
+        int[] starts;
+        int[] ends;
+
+        Offsets(int capacity) {
+            starts = new int[Math.max(capacity, 16)];
+            ends = new int[starts.length];
+        }
+
+        void set(int index, int start, int end) {
+            if (index == starts.length) {
+                starts = Arrays.copyOf(starts, index * 2);
+                ends = Arrays.copyOf(ends, index * 2);
+            }
+            starts[index] = start;
+            ends[index] = end;
+        }
+    }
+
+    private static void normalize(String text, boolean stripPunctuation, StringBuilder out,
+                                  Offsets offsets) {
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+
+            // ASCII 快速路径：后面不跟组合标记的 ASCII 字符不需要走 Normalizer
+            if (c < 0x80 && (i + 1 == length || text.charAt(i + 1) < 0x80)) {
+                if (!stripPunctuation || !isPunctuation(c)) {
+                    if (offsets != null) {
+                        offsets.set(out.length(), i, i + 1);
+                    }
+                    out.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+                }
+                i++;
+                continue;
+            }
+
+            // 取出一个基字符及其后的组合标记作为一段，组合只会发生在段内
+            int end = i + Character.charCount(text.codePointAt(i));
+            while (end < length && isCombiningMark(text.codePointAt(end))) {
+                end += Character.charCount(text.codePointAt(end));
+            }
+            String segment = Normalizer.normalize(text.substring(i, end), Normalizer.Form.NFKC)
+                    .toLowerCase(Locale.ROOT);
+            for (int j = 0; j < segment.length(); j++) {
+                char n = segment.charAt(j);
+                if (!stripPunctuation || !isPunctuation(n)) {
+                    if (offsets != null) {
+                        offsets.set(out.length(), i, end);
+                    }
+                    out.append(n);
+                }
+            }
+            i = end;
+        }
+    }
+
+    private static boolean isCombiningMark(int codePoint) {
+        int type = Character.getType(codePoint);
+        return type == Character.NON_SPACING_MARK || type == Character.ENCLOSING_MARK
+                || type == Character.COMBINING_SPACING_MARK;
+    }
+
+    private static boolean isPunctuation(char c) {
+        switch (Character.getType(c)) {
+            case Character.CONNECTOR_PUNCTUATION:
+            case Character.DASH_PUNCTUATION:
+            case Character.START_PUNCTUATION:
+            case Character.END_PUNCTUATION:
+            case Character.INITIAL_QUOTE_PUNCTUATION:
+            case Character.FINAL_QUOTE_PUNCTUATION:
+            case Character.OTHER_PUNCTUATION:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
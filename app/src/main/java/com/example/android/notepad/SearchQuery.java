@@ -0,0 +1,322 @@
+package com.example.android.notepad;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 搜索查询语言的语法树与解析器。支持的语法：
+ * <ul>
+ *   <li>空格或 AND 连接的词条表示同时匹配，OR 表示任一匹配，AND 优先级高于 OR</li>
+ *   <li>词条前加 - 表示排除，例如 {@code 工作 AND 周报 -草稿}</li>
+ *   <li>双引号括起的短语按整体匹配，例如 {@code "weekly report"}</li>
+ *   <li>字段前缀 {@code title:}、{@code note:}、{@code category:} 限定匹配字段</li>
+ *   <li>圆括号分组</li>
+ * </ul>
+ * 解析器对不完整的输入（例如缺少右括号或引号）保持宽容，因为实时搜索时输入总是不完整的。
+ */
+final class SearchQuery {
+
+    /** 匹配标题或正文 */
+    static final int FIELD_ANY = 0;
+    /** 只匹配标题 */
+    static final int FIELD_TITLE = 1;
+    /** 只匹配正文 */
+    static final int FIELD_NOTE = 2;
+    /** 按分类名精确匹配 */
+    static final int FIELD_CATEGORY = 3;
+
+    /**
+     * 语法树节点
+     */
+    abstract static class Node {
+    }
+
+    /**
+     * 词条或短语
+     */
+    static final class Term extends Node {
+        final int field;
+        final String text;
+
+        Term(int field, String text) {
+            this.field = field;
+            this.text = text;
+        }
+
+        @Override
+        public String toString() {
+            return fieldPrefix(field) + text;
+        }
+    }
+
+    /**
+     * 所有子节点都需要匹配
+     */
+    static final class And extends Node {
+        final List<Node> children;
+
+        And(List<Node> children) {
+            this.children = children;
+        }
+
+        @Override
+        public String toString() {
+            return "AND" + children;
+        }
+    }
+
+    /**
+     * 任一子节点匹配即可
+     */
+    static final class Or extends Node {
+        final List<Node> children;
+
+        Or(List<Node> children) {
+            this.children = children;
+        }
+
+        @Override
+        public String toString() {
+            return "OR" + children;
+        }
+    }
+
+    /**
+     * 排除子节点匹配的笔记
+     */
+    static final class Not extends Node {
+        final Node child;
+
+        Not(Node child) {
+            this.child = child;
+        }
+
+        @Override
+        public String toString() {
+            return "-" + child;
+        }
+    }
+
+    private final String mInput;
+    private int mPosition;
+
+    // 当前所在的括号层数，只有在括号内时右括号才结束一个分组
+    private int mDepth;
+
+    private SearchQuery(String input) {
+        mInput = input;
+    }
+
+    /**
+     * 解析查询字符串
+     *
+     * @return 语法树，输入中没有任何词条时返回null
+     */
+    static Node parse(String input) {
+        if (input == null) {
+            return null;
+        }
+        return new SearchQuery(input).parseOr();
+    }
+
+    /**
+     * 收集语法树中所有非排除的文本词条（不含分类），用于结果高亮
+     */
+    static List<String> positiveTerms(Node node) {
+        List<String> terms = new ArrayList<>();
+        collectPositiveTerms(node, terms);
+        return terms;
+    }
+
+    private static void collectPositiveTerms(Node node, List<String> terms) {
+        if (node instanceof Term) {
+            Term term = (Term) node;
+            if (term.field != FIELD_CATEGORY) {
+                terms.add(term.text);
+            }
+        } else if (node instanceof And) {
+            for (Node child : ((And) node).children) {
+                collectPositiveTerms(child, terms);
+            }
+        } else if (node instanceof Or) {
+            for (Node child : ((Or) node).children) {
+                collectPositiveTerms(child, terms);
+            }
+        }
+    }
+
+    private Node parseOr() {
+        List<Node> children = new ArrayList<>();
+        Node first = parseAnd();
+        if (first != null) {
+            children.add(first);
+        }
+        while (skipKeyword("OR")) {
+            Node next = parseAnd();
+            if (next != null) {
+                children.add(next);
+            }
+        }
+        return combine(children, false);
+    }
+
+    private Node parseAnd() {
+        List<Node> children = new ArrayList<>();
+        while (true) {
+            skipWhitespace();
+            if (atEnd() || (peek() == ')' && mDepth > 0) || isKeyword("OR")) {
+                break;
+            }
+            if (skipKeyword("AND")) {
+                continue;
+            }
+            Node node = parseUnary();
+            if (node != null) {
+                children.add(node);
+            }
+        }
+        return combine(children, true);
+    }
+
+    private Node parseUnary() {
+        if (peek() == '-') {
+            mPosition++;
+            Node child = parsePrimary();
+            return child != null ? new Not(child) : null;
+        }
+        return parsePrimary();
+    }
+
+    private Node parsePrimary() {
+        char c = peek();
+        if (c == '(') {
+            mPosition++;
+            mDepth++;
+            Node node = parseOr();
+            mDepth--;
+            skipWhitespace();
+            if (peek() == ')') {
+                mPosition++;
+            }
+            return node;
+        }
+        if (c == ')') {
+            // 多余的右括号直接忽略
+            mPosition++;
+            return null;
+        }
+
+        int field = FIELD_ANY;
+        int colon = mInput.indexOf(':', mPosition);
+        if (colon > mPosition && !containsDelimiter(mPosition, colon)) {
+            int prefixField = parseField(mInput.substring(mPosition, colon));
+            if (prefixField != FIELD_ANY) {
+                field = prefixField;
+                mPosition = colon + 1;
+            }
+        }
+
+        String text = peek() == '"' ? readPhrase() : readWord();
+        return text.isEmpty() ? null : new Term(field, text);
+    }
+
+    private String readPhrase() {
+        mPosition++;
+        int end = mInput.indexOf('"', mPosition);
+        if (end < 0) {
+            end = mInput.length();
+        }
+        String phrase = mInput.substring(mPosition, end).trim();
+        mPosition = Math.min(end + 1, mInput.length());
+        return phrase;
+    }
+
+    private String readWord() {
+        int start = mPosition;
+        while (!atEnd() && !isDelimiter(peek())) {
+            mPosition++;
+        }
+        return mInput.substring(start, mPosition);
+    }
+
+    private static int parseField(String prefix) {
+        if ("title".equalsIgnoreCase(prefix) || "标题".equals(prefix)) {
+            return FIELD_TITLE;
+        } else if ("note".equalsIgnoreCase(prefix) || "正文".equals(prefix)) {
+            return FIELD_NOTE;
+        } else if ("category".equalsIgnoreCase(prefix) || "分类".equals(prefix)) {
+            return FIELD_CATEGORY;
+        }
+        return FIELD_ANY;
+    }
+
+    private static String fieldPrefix(int field) {
+        switch (field) {
+            case FIELD_TITLE:
+                return "title:";
+            case FIELD_NOTE:
+                return "note:";
+            case FIELD_CATEGORY:
+                return "category:";
+            default:
+                return "";
+        }
+    }
+
+    private static Node combine(List<Node> children, boolean and) {
+        if (children.isEmpty()) {
+            return null;
+        }
+        if (children.size() == 1) {
+            return children.get(0);
+        }
+        return and ? new And(Collections.unmodifiableList(children))
+                : new Or(Collections.unmodifiableList(children));
+    }
+
+    private boolean containsDelimiter(int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (isDelimiter(mInput.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isDelimiter(char c) {
+        return Character.isWhitespace(c) || c == '(' || c == ')' || c == '"';
+    }
+
+    /**
+     * 当前位置是否是独立的关键字（前后为分隔符，区分大小写，避免误伤普通英文词）
+     */
+    private boolean isKeyword(String keyword) {
+        int end = mPosition + keyword.length();
+        return mInput.startsWith(keyword, mPosition)
+                && (end == mInput.length() || isDelimiter(mInput.charAt(end)));
+    }
+
+    private boolean skipKeyword(String keyword) {
+        skipWhitespace();
+        if (isKeyword(keyword)) {
+            mPosition += keyword.length();
+            return true;
+        }
+        return false;
+    }
+
+    private void skipWhitespace() {
+        while (!atEnd() && Character.isWhitespace(peek())) {
+            mPosition++;
+        }
+    }
+
+    private boolean atEnd() {
+        return mPosition >= mInput.length();
+    }
+
+    private char peek() {
+        return atEnd() ? '\0' : mInput.charAt(mPosition);
+    }
+}
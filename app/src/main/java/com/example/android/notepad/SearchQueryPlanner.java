@@ -0,0 +1,261 @@
+package com.example.android.notepad;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 将 {@link SearchQuery} 语法树编译为一条SQL查询条件。
+ *
+ * SQLite 按书写顺序对 AND 条件短路求值，因此编译时会把每个 AND 分组中的子条件
+ * 按“估计命中比例 × 求值代价”从小到大排序：最有区分度、最便宜的条件先执行，
+ * 大多数行在第一个条件处就被排除，后面昂贵的 LIKE 扫描只作用于少量候选行。
+ */
+final class SearchQueryPlanner {
+
+    /**
+     * 估计某个词条在指定字段上的命中比例（0~1）
+     */
+    interface SelectivityEstimator {
+        double estimate(int field, String text);
+    }
+
+    /**
+     * 没有索引统计时使用的经验估计：分类等值匹配按预置分类数均分，
+     * 文本词条越长越有区分度
+     */
+    static final SelectivityEstimator DEFAULT_ESTIMATOR = (field, text) -> {
+        if (field == SearchQuery.FIELD_CATEGORY) {
+            return 1.0 / NotePadProvider.DatabaseHelper.PRESET_CATEGORIES.length;
+        }
+        double estimate = Math.pow(0.5, Math.min(text.length(), 8));
+        return field == SearchQuery.FIELD_ANY ? Math.min(1.0, estimate * 2) : estimate;
+    };
+
+    // 各类条件的相对求值代价：等值比较远比 LIKE 子串扫描便宜，同时扫描两列代价加倍
+    private static final double COST_EQUALS = 0.05;
+    private static final double COST_LIKE = 1.0;
+
+    /**
+     * 编译结果
+     */
+    static final class Plan {
+        /** WHERE 子句 */
+        final String selection;
+        /** WHERE 子句中 ? 对应的参数 */
+        final String[] selectionArgs;
+        /** 整个查询的估计命中比例 */
+        final double estimate;
+
+        Plan(String selection, String[] selectionArgs, double estimate) {
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            this.estimate = estimate;
+        }
+    }
+
+    /**
+     * 对一个子条件的估计，用于排序
+     */
+    private static final class Estimate {
+        final SearchQuery.Node node;
+        final double selectivity;
+        final double cost;
+
+        Estimate(SearchQuery.Node node, double selectivity, double cost) {
+            this.node = node;
+            this.selectivity = selectivity;
+            this.cost = cost;
+        }
+    }
+
+    private final SelectivityEstimator mEstimator;
+
+    SearchQueryPlanner(SelectivityEstimator estimator) {
+        mEstimator = estimator;
+    }
+
+    /**
+     * 编译语法树
+     */
+    Plan compile(SearchQuery.Node root) {
+        StringBuilder selection = new StringBuilder();
+        List<String> args = new ArrayList<>();
+        Estimate estimate = estimate(root);
+        append(estimate.node, selection, args);
+        return new Plan(selection.toString(), args.toArray(new String[args.size()]),
+                estimate.selectivity);
+    }
+
+    /**
+     * 递归估计每个节点的命中比例和代价，并返回 AND 子条件已排好序的新语法树
+     */
+    private Estimate estimate(SearchQuery.Node node) {
+        if (node instanceof SearchQuery.Term) {
+            SearchQuery.Term term = (SearchQuery.Term) node;
+            double selectivity = clamp(mEstimator.estimate(term.field, term.text));
+            double cost;
+            if (term.field == SearchQuery.FIELD_CATEGORY) {
+                cost = COST_EQUALS;
+            } else if (term.field == SearchQuery.FIELD_ANY) {
+                cost = 2 * COST_LIKE;
+            } else {
+                cost = COST_LIKE;
+            }
+            return new Estimate(node, selectivity, cost);
+        }
+
+        if (node instanceof SearchQuery.Not) {
+            Estimate child = estimate(((SearchQuery.Not) node).child);
+            return new Estimate(new SearchQuery.Not(child.node), 1 - child.selectivity,
+                    child.cost);
+        }
+
+        if (node instanceof SearchQuery.Or) {
+            // OR 需要对所有分支求值（直到命中），顺序影响较小，保持原顺序
+            List<SearchQuery.Node> children = new ArrayList<>();
+            double miss = 1;
+            double cost = 0;
+            for (SearchQuery.Node child : ((SearchQuery.Or) node).children) {
+                Estimate estimate = estimate(child);
+                children.add(estimate.node);
+                cost += miss * estimate.cost;
+                miss *= 1 - estimate.selectivity;
+            }
+            return new Estimate(new SearchQuery.Or(children), 1 - miss, cost);
+        }
+
+        List<Estimate> estimates = new ArrayList<>();
+        for (SearchQuery.Node child : ((SearchQuery.And) node).children) {
+            estimates.add(estimate(child));
+        }
+
+        // 经典的短路排序规则：按 代价 / (1 - 命中比例) 从小到大执行，
+        // 既便宜又能排除大部分行的条件排在最前
+        Collections.sort(estimates, new Comparator<Estimate>() {
+            @Override
+            public int compare(Estimate a, Estimate b) {
+                return Double.compare(rank(a), rank(b));
+            }
+        });
+
+        List<SearchQuery.Node> children = new ArrayList<>();
+        double selectivity = 1;
+        double cost = 0;
+        for (Estimate estimate : estimates) {
+            children.add(estimate.node);
+            cost += selectivity * estimate.cost;
+            selectivity *= estimate.selectivity;
+        }
+        return new Estimate(new SearchQuery.And(children), selectivity, cost);
+    }
+
+    private static double rank(Estimate estimate) {
+        return estimate.cost / Math.max(1e-9, 1 - estimate.selectivity);
+    }
+
+    private static double clamp(double selectivity) {
+        return Math.max(0, Math.min(1, selectivity));
+    }
+
+    private static void append(SearchQuery.Node node, StringBuilder selection, List<String> args) {
+        if (node instanceof SearchQuery.Term) {
+            appendTerm((SearchQuery.Term) node, selection, args);
+        } else if (node instanceof SearchQuery.Not) {
+            selection.append("NOT (");
+            append(((SearchQuery.Not) node).child, selection, args);
+            selection.append(')');
+        } else {
+            boolean and = node instanceof SearchQuery.And;
+            List<SearchQuery.Node> children = and
+                    ? ((SearchQuery.And) node).children : ((SearchQuery.Or) node).children;
+            for (int i = 0; i < children.size(); i++) {
+                if (i > 0) {
+                    selection.append(and ? " AND " : " OR ");
+                }
+                selection.append('(');
+                append(children.get(i), selection, args);
+                selection.append(')');
+            }
+        }
+    }
+
+    private static void appendTerm(SearchQuery.Term term, StringBuilder selection,
+                                   List<String> args) {
+        switch (term.field) {
+            case SearchQuery.FIELD_CATEGORY:
+                // 分类名称在分类表中查一次，之后逐行只比较整数ID
+                selection.append(NotePad.Notes.COLUMN_NAME_CATEGORY_ID).append(" IN (SELECT ")
+                        .append(NotePad.Categories._ID).append(" FROM ")
+                        .append(NotePad.Categories.TABLE_NAME).append(" WHERE ")
+                        .append(NotePad.Categories.COLUMN_NAME_NAME).append(" = ?)");
+                args.add(term.text);
+                break;
+            case SearchQuery.FIELD_TITLE:
+                appendTextMatch(NotePad.Notes.COLUMN_NAME_TITLE,
+                        NotePad.Notes.COLUMN_NAME_TITLE_NORMALIZED, term.text, selection, args);
+                appendPinyinMatch(term.text, selection, args);
+                break;
+            case SearchQuery.FIELD_NOTE:
+                appendTextMatch(NotePad.Notes.COLUMN_NAME_NOTE,
+                        NotePad.Notes.COLUMN_NAME_NOTE_NORMALIZED, term.text, selection, args);
+                break;
+            default:
+                appendTextMatch(NotePad.Notes.COLUMN_NAME_TITLE,
+                        NotePad.Notes.COLUMN_NAME_TITLE_NORMALIZED, term.text, selection, args);
+                appendPinyinMatch(term.text, selection, args);
+                selection.append(" OR ");
+                appendTextMatch(NotePad.Notes.COLUMN_NAME_NOTE,
+                        NotePad.Notes.COLUMN_NAME_NOTE_NORMALIZED, term.text, selection, args);
+                break;
+        }
+    }
+
+    /**
+     * 文本词条匹配规范化影子列，词条与影子列使用同一规则规范化，忽略大小写、全半角和标点；
+     * 词条只由标点组成（规范化后为空）时退回匹配原始列
+     */
+    private static void appendTextMatch(String column, String normalizedColumn, String text,
+                                        StringBuilder selection, List<String> args) {
+        String normalized = SearchNormalizer.normalize(text);
+        if (normalized.isEmpty()) {
+            appendLike(column, text, selection, args);
+        } else {
+            appendLike(normalizedColumn, normalized, selection, args);
+        }
+    }
+
+    /**
+     * 可能是拼音输入的词条再追加一个标题拼音前缀匹配（走拼音键索引的范围查询）
+     */
+    private static void appendPinyinMatch(String text, StringBuilder selection,
+                                          List<String> args) {
+        String normalized = SearchNormalizer.normalize(text);
+        if (PinyinIndex.isPinyinQuery(normalized)) {
+            selection.append(" OR ");
+            PinyinIndex.appendPrefixMatch(normalized, selection, args);
+        }
+    }
+
+    private static void appendLike(String column, String text, StringBuilder selection,
+                                   List<String> args) {
+        selection.append(column).append(" LIKE ? ESCAPE '\\'");
+        args.add("%" + escapeLike(text) + "%");
+    }
+
+    /**
+     * 转义 LIKE 模式中的通配符，用户输入的 % 和 _ 按字面匹配
+     */
+    static String escapeLike(String text) {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '%' || c == '_' || c == '\\') {
+                escaped.append('\\');
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.android.notepad;
+
+import android.net.Uri;
+
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 搜索结果缓存：以（规范化的搜索词、分类等查询条件、数据版本）为键，缓存结果笔记ID列表，
+ * 以及搜索时由索引得到的分类统计（相关度搜索，见 {@link CategoryCounts}）。
+ *
+ * 在分类之间来回切换、重复相同搜索时，命中缓存即可跳过全表的 LIKE 扫描和索引查询，
+ * 只按主键取回结果行。Provider的每次写入都会使数据版本加一，版本变化时整个缓存失效，
+ * 因此不会返回过期结果，也不会因为无关的写入以外的原因丢弃缓存。
+ * 所有方法都是同步的，可以在多个Loader线程中并发调用。
+ */
+class SearchResultCache {
+
+    // 最多缓存的查询数和总内存预算
+    static final int MAX_ENTRIES = 32;
+    static final long MAX_BYTES = 256 * 1024;
+
+    // 结果数超过该值时不缓存，避免生成过长的 IN 列表
+    static final int MAX_IDS_PER_ENTRY = 2000;
+
+    // 每个条目除ID数组和键以外的估计固定开销（字节）
+    private static final int ENTRY_OVERHEAD = 64;
+
+    // 参与缓存键的搜索参数，摘要高亮参数不影响结果集，不包含在内
+    private static final String[] SEARCH_PARAMETERS = new String[] {
+            NotePad.Notes.QUERY_PARAMETER_QUERY,
+            NotePad.Notes.QUERY_PARAMETER_FUZZY,
+            NotePad.Notes.QUERY_PARAMETER_RANKED
+    };
+
+    /**
+     * 一次搜索的结果
+     */
+    static final class Entry {
+        // 结果笔记ID，按结果顺序
+        final long[] ids;
+        // 搜索索引给出的分类统计，没有时为null
+        final CategoryCounts facets;
+
+        Entry(long[] ids, CategoryCounts facets) {
+            this.ids = ids;
+            this.facets = facets;
+        }
+    }
+
+    // 按访问顺序排列，最久未使用的条目在最前
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long mVersion = -1;
+    private long mBytes;
+
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+    private long mInvalidations;
+
+    /**
+     * 生成缓存键；URI中没有任何搜索参数时返回null，表示该查询不使用缓存
+     */
+    static String keyFor(Uri uri, String selection, String[] selectionArgs, String sortOrder) {
+        StringBuilder key = null;
+        for (String parameter : SEARCH_PARAMETERS) {
+            String value = uri.getQueryParameter(parameter);
+            if (value == null || value.trim().isEmpty()) {
+                continue;
+            }
+            if (key == null) {
+                key = new StringBuilder();
+            }
+            key.append(parameter).append('=').append(normalizeQuery(value)).append('\u0000');
+        }
+        if (key == null) {
+            return null;
+        }
+
+        // 行数限制会改变结果集
+        key.append(uri.getQueryParameter(NotePad.Notes.QUERY_PARAMETER_LIMIT)).append('\u0000');
+        // 标签筛选同样会改变结果集
+        key.append(uri.getQueryParameter(NotePad.Notes.QUERY_PARAMETER_TAGS_ALL)).append('\u0000');
+        key.append(uri.getQueryParameter(NotePad.Notes.QUERY_PARAMETER_TAGS_ANY)).append('\u0000');
+        // 相关度搜索限定的分类改变前k条结果
+        key.append(uri.getQueryParameter(NotePad.Notes.QUERY_PARAMETER_RANKED_CATEGORIES))
+                .append('\u0000');
+        key.append(selection).append('\u0000');
+        if (selectionArgs != null) {
+            for (String arg : selectionArgs) {
+                key.append(arg).append('\u0001');
+            }
+        }
+        return key.append('\u0000').append(sortOrder).toString();
+    }
+
+    /**
+     * 规范化搜索词：去掉首尾空白，连续空白合并为一个空格
+     */
+    static String normalizeQuery(String query) {
+        return query.trim().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * 查询缓存
+     *
+     * @param version 当前的数据版本
+     * @return 缓存的结果，未命中时返回null
+     */
+    synchronized Entry get(String key, long version) {
+        checkVersion(version);
+        Entry entry = mEntries.get(key);
+        if (entry != null) {
+            mHits++;
+        } else {
+            mMisses++;
+        }
+        return entry;
+    }
+
+    /**
+     * 存入查询结果
+     *
+     * @param version 执行查询前读取的数据版本；查询期间发生了写入时结果可能已过期，不缓存
+     * @param facets 搜索索引给出的分类统计，没有时为null
+     */
+    synchronized void put(String key, long version, long[] ids, CategoryCounts facets) {
+        if (ids.length > MAX_IDS_PER_ENTRY) {
+            return;
+        }
+        checkVersion(version);
+        if (version != mVersion) {
+            return;
+        }
+
+        Entry entry = new Entry(ids, facets);
+        Entry previous = mEntries.put(key, entry);
+        if (previous != null) {
+            mBytes -= sizeOf(key, previous);
+        }
+        mBytes += sizeOf(key, entry);
+
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        while ((mEntries.size() > MAX_ENTRIES || mBytes > MAX_BYTES) && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            mBytes -= sizeOf(eldest.getKey(), eldest.getValue());
+            iterator.remove();
+            mEvictions++;
+        }
+    }
+
+    /**
+     * 数据版本前进时清空缓存；来自更早版本的请求不改变缓存
+     */
+    private void checkVersion(long version) {
+        if (version > mVersion) {
+            if (!mEntries.isEmpty()) {
+                mInvalidations++;
+            }
+            mEntries.clear();
+            mBytes = 0;
+            mVersion = version;
+        }
+    }
+
+    private static long sizeOf(String key, Entry entry) {
+        return ENTRY_OVERHEAD + 2L * key.length() + 8L * entry.ids.length
+                + (entry.facets != null ? entry.facets.sizeInBytes() : 0);
+    }
+
+    synchronized long hits() {
+        return mHits;
+    }
+
+    synchronized long misses() {
+        return mMisses;
+    }
+
+    synchronized long bytes() {
+        return mBytes;
+    }
+
+    synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * 输出命中率和内存占用
+     */
+    synchronized void dump(PrintWriter writer) {
+        long lookups = mHits + mMisses;
+        writer.println("Search result cache:");
+        writer.println("  entries: " + mEntries.size() + "/" + MAX_ENTRIES
+                + ", memory: " + mBytes + "/" + MAX_BYTES + " bytes");
+        writer.println("  lookups: " + lookups + ", hits: " + mHits + ", hit rate: "
+                + (lookups == 0 ? "n/a" : (100 * mHits / lookups) + "%"));
+        writer.println("  evictions: " + mEvictions + ", invalidations: " + mInvalidations
+                + ", data version: " + mVersion);
+    }
+}
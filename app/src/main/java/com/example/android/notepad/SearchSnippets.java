@@ -0,0 +1,273 @@
+package com.example.android.notepad;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 搜索摘要：在Provider端（Loader的后台线程）为每条搜索结果预先计算匹配位置和上下文，
+ * 并作为额外的列返回，列表绑定时只需要设置高亮样式，不再扫描字符串。
+ */
+final class SearchSnippets {
+
+    // 匹配词前后保留的上下文字符数
+    private static final int CONTEXT_LENGTH = 5;
+
+    private static final String ELLIPSIS = "...";
+
+    // Provider为摘要追加的列
+    static final String[] SNIPPET_COLUMNS = new String[] {
+            NotePad.Notes.COLUMN_NAME_MATCH_FIELD,
+            NotePad.Notes.COLUMN_NAME_MATCH_LINE,
+            NotePad.Notes.COLUMN_NAME_SNIPPET,
+            NotePad.Notes.COLUMN_NAME_SNIPPET_HIGHLIGHT_START,
+            NotePad.Notes.COLUMN_NAME_SNIPPET_HIGHLIGHT_END
+    };
+
+    /**
+     * 一条笔记的匹配摘要
+     */
+    static final class Snippet {
+        final int field;
+        final int line;
+        final String text;
+        final int highlightStart;
+        final int highlightEnd;
+
+        Snippet(int field, int line, String text, int highlightStart, int highlightEnd) {
+            this.field = field;
+            this.line = line;
+            this.text = text;
+            this.highlightStart = highlightStart;
+            this.highlightEnd = highlightEnd;
+        }
+    }
+
+    // 工具类，不允许实例化
+    private SearchSnippets() {
+    }
+
+    /**
+     * 由搜索词得到高亮候选词：先尝试整个搜索词，再依次尝试其中以空白分隔的各个词
+     */
+    static List<String> keywordsFor(String query) {
+        List<String> keywords = new ArrayList<>();
+        if (query == null || query.isEmpty()) {
+            return keywords;
+        }
+        keywords.add(query);
+        if (query.indexOf(' ') >= 0) {
+            for (String keyword : query.split("\\s+")) {
+                if (!keyword.isEmpty()) {
+                    keywords.add(keyword);
+                }
+            }
+        }
+        return keywords;
+    }
+
+    /**
+     * 按候选词的顺序查找第一个有匹配的词：标题优先，其次是正文的第一处匹配。
+     * 候选词与文本使用与搜索相同的规则规范化后再比较，匹配位置映射回原文用于截取摘要。
+     *
+     * @return 匹配摘要，没有任何匹配时返回null
+     */
+    static Snippet find(String title, String note, List<String> keywords) {
+        SearchNormalizer.Mapping normalizedTitle = null;
+        SearchNormalizer.Mapping normalizedNote = null;
+        for (String keyword : keywords) {
+            String normalized = SearchNormalizer.normalize(keyword);
+            if (normalized.isEmpty()) {
+                continue;
+            }
+            if (title != null) {
+                if (normalizedTitle == null) {
+                    normalizedTitle = SearchNormalizer.map(title);
+                }
+                int index = normalizedTitle.text.indexOf(normalized);
+                if (index >= 0) {
+                    int start = normalizedTitle.sourceStart[index];
+                    int end = normalizedTitle.sourceEnd[index + normalized.length() - 1];
+                    return context(NotePad.Notes.MATCH_FIELD_TITLE, 0, title, 0, title.length(),
+                            start, end - start);
+                }
+            }
+            if (note != null) {
+                if (normalizedNote == null) {
+                    normalizedNote = SearchNormalizer.map(note);
+                }
+                int index = normalizedNote.text.indexOf(normalized);
+                if (index >= 0) {
+                    int start = normalizedNote.sourceStart[index];
+                    int end = normalizedNote.sourceEnd[index + normalized.length() - 1];
+                    return noteContext(note, start, end - start);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 为已知的匹配位置生成摘要，用于不经过关键词查找的匹配（例如正则表达式）
+     *
+     * @param field {@link NotePad.Notes#MATCH_FIELD_TITLE} 或 {@link NotePad.Notes#MATCH_FIELD_NOTE}
+     */
+    static Snippet forMatch(int field, String text, int start, int end) {
+        if (field == NotePad.Notes.MATCH_FIELD_TITLE) {
+            return context(field, 0, text, 0, text.length(), start, end - start);
+        }
+        return noteContext(text, start, end - start);
+    }
+
+    private static Snippet noteContext(String note, int index, int length) {
+        // 只在匹配位置附近确定所在行，不切分整篇正文
+        int lineStart = note.lastIndexOf('\n', index - 1) + 1;
+        int lineEnd = note.indexOf('\n', index);
+        if (lineEnd < 0) {
+            lineEnd = note.length();
+        }
+        int line = 1;
+        for (int i = note.indexOf('\n'); i >= 0 && i < lineStart; i = note.indexOf('\n', i + 1)) {
+            line++;
+        }
+        return context(NotePad.Notes.MATCH_FIELD_NOTE, line, note, lineStart,
+                Math.max(lineEnd, index + length), index, length);
+    }
+
+    /**
+     * 截取匹配词前后若干字符作为上下文，被截断的一侧加省略号
+     */
+    private static Snippet context(int field, int line, String text, int lineStart, int lineEnd,
+                                   int matchStart, int matchLength) {
+        int start = Math.max(lineStart, matchStart - CONTEXT_LENGTH);
+        int end = Math.min(lineEnd, matchStart + matchLength + CONTEXT_LENGTH);
+
+        StringBuilder builder = new StringBuilder(end - start + 2 * ELLIPSIS.length());
+        if (start > lineStart) {
+            builder.append(ELLIPSIS);
+        }
+        int highlightStart = builder.length() + (matchStart - start);
+        builder.append(text, start, end);
+        if (end < lineEnd) {
+            builder.append(ELLIPSIS);
+        }
+        return new Snippet(field, line, builder.toString(), highlightStart,
+                highlightStart + matchLength);
+    }
+
+    /**
+     * 计算实际查询数据库使用的投影：去掉摘要列，并确保包含计算摘要所需的标题和正文
+     */
+    static String[] baseProjection(String[] projection) {
+        if (projection == null) {
+            return null;
+        }
+        List<String> columns = new ArrayList<>();
+        List<String> snippetColumns = Arrays.asList(SNIPPET_COLUMNS);
+        for (String column : projection) {
+            if (!snippetColumns.contains(column)) {
+                columns.add(column);
+            }
+        }
+        if (!columns.contains(NotePad.Notes.COLUMN_NAME_TITLE)) {
+            columns.add(NotePad.Notes.COLUMN_NAME_TITLE);
+        }
+        if (!columns.contains(NotePad.Notes.COLUMN_NAME_NOTE)) {
+            columns.add(NotePad.Notes.COLUMN_NAME_NOTE);
+        }
+        return columns.toArray(new String[columns.size()]);
+    }
+
+    /**
+     * 读取查询结果并为每一行追加摘要列，返回按请求投影排列的新Cursor。传入的Cursor会被关闭。
+     */
+    static Cursor withSnippets(Cursor source, String[] projection, List<String> keywords) {
+        String[] columns;
+        if (projection != null) {
+            columns = projection;
+        } else {
+            String[] sourceColumns = source.getColumnNames();
+            columns = Arrays.copyOf(sourceColumns, sourceColumns.length + SNIPPET_COLUMNS.length);
+            System.arraycopy(SNIPPET_COLUMNS, 0, columns, sourceColumns.length,
+                    SNIPPET_COLUMNS.length);
+        }
+
+        int[] sourceIndexes = sourceIndexes(source, columns);
+        int titleIndex = source.getColumnIndexOrThrow(NotePad.Notes.COLUMN_NAME_TITLE);
+        int noteIndex = source.getColumnIndexOrThrow(NotePad.Notes.COLUMN_NAME_NOTE);
+
+        MatrixCursor result = new MatrixCursor(columns, source.getCount());
+        try {
+            Object[] row = new Object[columns.length];
+            while (source.moveToNext()) {
+                Snippet snippet = find(source.getString(titleIndex), source.getString(noteIndex),
+                        keywords);
+                fillRow(source, sourceIndexes, snippet, row);
+                result.addRow(row);
+            }
+        } finally {
+            source.close();
+        }
+        return result;
+    }
+
+    /**
+     * 预先解析每个输出列在源Cursor中的位置，摘要列用负数表示
+     */
+    static int[] sourceIndexes(Cursor source, String[] columns) {
+        List<String> snippetColumns = Arrays.asList(SNIPPET_COLUMNS);
+        int[] sourceIndexes = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            int snippetIndex = snippetColumns.indexOf(columns[i]);
+            sourceIndexes[i] = snippetIndex >= 0
+                    ? -1 - snippetIndex : source.getColumnIndexOrThrow(columns[i]);
+        }
+        return sourceIndexes;
+    }
+
+    /**
+     * 按 {@link #sourceIndexes} 的结果用源Cursor的当前行和摘要填充输出行
+     */
+    static void fillRow(Cursor source, int[] sourceIndexes, Snippet snippet, Object[] row) {
+        for (int i = 0; i < sourceIndexes.length; i++) {
+            int index = sourceIndexes[i];
+            row[i] = index >= 0 ? value(source, index) : snippetValue(snippet, -1 - index);
+        }
+    }
+
+    private static Object value(Cursor cursor, int index) {
+        switch (cursor.getType(index)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(index);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(index);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(index);
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            default:
+                return cursor.getString(index);
+        }
+    }
+
+    private static Object snippetValue(Snippet snippet, int snippetColumn) {
+        if (snippet == null) {
+            return snippetColumn == 0 ? NotePad.Notes.MATCH_FIELD_NONE : null;
+        }
+        switch (snippetColumn) {
+            case 0:
+                return snippet.field;
+            case 1:
+                return snippet.line;
+            case 2:
+                return snippet.text;
+            case 3:
+                return snippet.highlightStart;
+            default:
+                return snippet.highlightEnd;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.android.notepad;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 搜索分词工具：把文本规范化后切分为小写的字母/数字连续片段，供各类搜索索引共用
+ */
+final class SearchTokenizer {
+
+    // 工具类，不允许实例化
+    private SearchTokenizer() {
+    }
+
+    /**
+     * 将文本切分为词条，标点和空白作为分隔符
+     */
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return terms;
+        }
+
+        // 先做兼容分解和大小写折叠，全角字母数字与半角的切分结果一致
+        text = SearchNormalizer.fold(text);
+
+        int start = -1;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            if (Character.isLetterOrDigit(text.charAt(i))) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                terms.add(text.substring(start, i));
+                start = -1;
+            }
+        }
+        if (start >= 0) {
+            terms.add(text.substring(start));
+        }
+        return terms;
+    }
+}
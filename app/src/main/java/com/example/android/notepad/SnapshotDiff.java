@@ -0,0 +1,147 @@
+package com.example.android.notepad;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * 两个 {@link NoteSnapshot} 之间以笔记ID为键的差异：删除、插入、移动和内容变化。
+ *
+ * 移动按最少次数计算：两个快照中都存在的行，按新顺序排列其旧位置，
+ * 其中最长递增子序列上的行保持相对顺序不动，其余的行才算移动。
+ * 整个计算为 O(n log n)，在后台线程执行。
+ */
+final class SnapshotDiff {
+
+    private static final int[] NONE = new int[0];
+
+    /** 被删除的行在旧快照中的位置 */
+    final int[] removed;
+
+    /** 新插入的行在新快照中的位置 */
+    final int[] inserted;
+
+    /** 移动了的行在新快照中的位置 */
+    final int[] moved;
+
+    /** 内容变化的行在新快照中的位置（可能同时也移动了） */
+    final int[] changed;
+
+    /** 新快照中每一行在旧快照中的位置，-1 表示新插入 */
+    final int[] sources;
+
+    private SnapshotDiff(int[] removed, int[] inserted, int[] moved, int[] changed,
+                         int[] sources) {
+        this.removed = removed;
+        this.inserted = inserted;
+        this.moved = moved;
+        this.changed = changed;
+        this.sources = sources;
+    }
+
+    /**
+     * 两个快照是否完全相同
+     */
+    boolean isEmpty() {
+        return !isStructural() && changed.length == 0;
+    }
+
+    /**
+     * 行的增删或顺序是否变化；否则只有部分行的内容需要重新绑定
+     */
+    boolean isStructural() {
+        return removed.length > 0 || inserted.length > 0 || moved.length > 0;
+    }
+
+    static SnapshotDiff compute(NoteSnapshot oldSnapshot, NoteSnapshot newSnapshot) {
+        int oldSize = oldSnapshot.size();
+        int newSize = newSnapshot.size();
+
+        HashMap<Long, Integer> oldPositions = new HashMap<>(oldSize * 2);
+        for (int i = 0; i < oldSize; i++) {
+            oldPositions.put(oldSnapshot.id(i), i);
+        }
+
+        // 新快照中每一行对应的旧位置，-1 表示新插入
+        int[] sources = new int[newSize];
+        boolean[] kept = new boolean[oldSize];
+        int[] inserted = new int[newSize];
+        int insertedCount = 0;
+        int[] changed = new int[newSize];
+        int changedCount = 0;
+        for (int i = 0; i < newSize; i++) {
+            Integer oldPosition = oldPositions.get(newSnapshot.id(i));
+            if (oldPosition == null) {
+                sources[i] = -1;
+                inserted[insertedCount++] = i;
+                continue;
+            }
+            sources[i] = oldPosition;
+            kept[oldPosition] = true;
+            if (!oldSnapshot.sameContent(oldPosition, newSnapshot, i)) {
+                changed[changedCount++] = i;
+            }
+        }
+
+        int[] removed = new int[oldSize];
+        int removedCount = 0;
+        for (int i = 0; i < oldSize; i++) {
+            if (!kept[i]) {
+                removed[removedCount++] = i;
+            }
+        }
+
+        boolean[] stays = longestIncreasing(sources);
+        int[] moved = new int[newSize];
+        int movedCount = 0;
+        for (int i = 0; i < newSize; i++) {
+            if (sources[i] >= 0 && !stays[i]) {
+                moved[movedCount++] = i;
+            }
+        }
+
+        return new SnapshotDiff(trim(removed, removedCount), trim(inserted, insertedCount),
+                trim(moved, movedCount), trim(changed, changedCount), sources);
+    }
+
+    /**
+     * 标记非负元素组成的最长严格递增子序列（负数表示新插入的行，不参与计算）
+     */
+    private static boolean[] longestIncreasing(int[] values) {
+        int n = values.length;
+        // tails[k]：长度为 k+1 的递增子序列中结尾值最小的那个的下标
+        int[] tails = new int[n];
+        int[] previous = new int[n];
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            int value = values[i];
+            if (value < 0) {
+                continue;
+            }
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (values[tails[mid]] < value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+
+        boolean[] stays = new boolean[n];
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            stays[i] = true;
+        }
+        return stays;
+    }
+
+    private static int[] trim(int[] values, int count) {
+        return count == 0 ? NONE : Arrays.copyOf(values, count);
+    }
+}
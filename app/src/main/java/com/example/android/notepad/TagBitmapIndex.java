@@ -0,0 +1,201 @@
+package com.example.android.notepad;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * 标签的内存位图索引：每个标签一个 {@link RoaringBitmap}，存放带有该标签的笔记ID。
+ *
+ * 标签的组合筛选（全部包含 / 包含任一）由位图的交集和并集得到，不需要对关联表做连接查询。
+ * 求交集时从笔记最少的标签开始，结果为空时立即结束。
+ * 索引首次按标签筛选时从关联表构建，之后随标签的增删增量维护。
+ * 该类本身不是线程安全的，由 NotePadProvider 负责加锁。
+ */
+final class TagBitmapIndex {
+
+    // 笔记与标签的关联表
+    static final String JOIN_TABLE_NAME = "note_tags";
+
+    private static final String[] JOIN_PROJECTION = new String[] {
+            NotePad.Tags.COLUMN_NAME_TAG_ID,
+            NotePad.Tags.COLUMN_NAME_NOTE_ID
+    };
+
+    // 标签ID -> 带有该标签的笔记
+    private final HashMap<Long, RoaringBitmap> mBitmaps = new HashMap<>();
+
+    /**
+     * 创建标签表、关联表及其索引，以及删除笔记时自动清理关联的触发器
+     */
+    static void createTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + NotePad.Tags.TABLE_NAME + " ("
+                + NotePad.Tags._ID + " INTEGER PRIMARY KEY,"
+                + NotePad.Tags.COLUMN_NAME_NAME + " TEXT NOT NULL UNIQUE"
+                + ");");
+        db.execSQL("CREATE TABLE " + JOIN_TABLE_NAME + " ("
+                + NotePad.Tags.COLUMN_NAME_NOTE_ID + " INTEGER NOT NULL REFERENCES "
+                + NotePad.Notes.TABLE_NAME + "(" + NotePad.Notes._ID + "),"
+                + NotePad.Tags.COLUMN_NAME_TAG_ID + " INTEGER NOT NULL REFERENCES "
+                + NotePad.Tags.TABLE_NAME + "(" + NotePad.Tags._ID + "),"
+                + "PRIMARY KEY (" + NotePad.Tags.COLUMN_NAME_NOTE_ID + ", "
+                + NotePad.Tags.COLUMN_NAME_TAG_ID + ")"
+                + ");");
+        db.execSQL("CREATE INDEX " + JOIN_TABLE_NAME + "_tag ON " + JOIN_TABLE_NAME
+                + " (" + NotePad.Tags.COLUMN_NAME_TAG_ID + ");");
+        db.execSQL("CREATE TRIGGER " + JOIN_TABLE_NAME + "_cleanup AFTER DELETE ON "
+                + NotePad.Notes.TABLE_NAME + " BEGIN DELETE FROM " + JOIN_TABLE_NAME
+                + " WHERE " + NotePad.Tags.COLUMN_NAME_NOTE_ID + " = old." + NotePad.Notes._ID
+                + "; END;");
+    }
+
+    /**
+     * 从关联表构建索引
+     */
+    static TagBitmapIndex load(SQLiteDatabase db) {
+        TagBitmapIndex index = new TagBitmapIndex();
+        // 按笔记ID顺序读取，位图在末尾追加时不需要移动元素
+        Cursor c = db.query(JOIN_TABLE_NAME, JOIN_PROJECTION, null, null, null, null,
+                NotePad.Tags.COLUMN_NAME_NOTE_ID);
+        try {
+            while (c.moveToNext()) {
+                index.add(c.getLong(0), c.getLong(1));
+            }
+        } finally {
+            c.close();
+        }
+        return index;
+    }
+
+    void add(long tagId, long noteId) {
+        RoaringBitmap bitmap = mBitmaps.get(tagId);
+        if (bitmap == null) {
+            bitmap = new RoaringBitmap();
+            mBitmaps.put(tagId, bitmap);
+        }
+        bitmap.add(toInt(noteId));
+    }
+
+    void remove(long tagId, long noteId) {
+        RoaringBitmap bitmap = mBitmaps.get(tagId);
+        if (bitmap != null) {
+            bitmap.remove(toInt(noteId));
+            if (bitmap.isEmpty()) {
+                mBitmaps.remove(tagId);
+            }
+        }
+    }
+
+    /**
+     * 删除标签时移除它的整个位图
+     */
+    void removeTag(long tagId) {
+        mBitmaps.remove(tagId);
+    }
+
+    /**
+     * 删除笔记时从所有标签中移除
+     */
+    void removeNote(long noteId) {
+        int value = toInt(noteId);
+        for (RoaringBitmap bitmap : mBitmaps.values()) {
+            bitmap.remove(value);
+        }
+    }
+
+    /**
+     * 带有该标签的笔记数
+     */
+    int count(long tagId) {
+        RoaringBitmap bitmap = mBitmaps.get(tagId);
+        return bitmap != null ? bitmap.cardinality() : 0;
+    }
+
+    /**
+     * 有笔记的标签数
+     */
+    int size() {
+        return mBitmaps.size();
+    }
+
+    /**
+     * 估计占用的内存字节数
+     */
+    long sizeInBytes() {
+        long bytes = 0;
+        for (RoaringBitmap bitmap : mBitmaps.values()) {
+            bytes += 48 + bitmap.sizeInBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * 同时满足两组条件的笔记ID，从小到大：带有 allTags 中的每个标签，并且带有 anyTags 中的至少一个。
+     * 为null或空的一组不作限制；两组都不限制时返回null
+     */
+    long[] filter(long[] allTags, long[] anyTags) {
+        boolean hasAll = allTags != null && allTags.length > 0;
+        boolean hasAny = anyTags != null && anyTags.length > 0;
+        if (!hasAll && !hasAny) {
+            return null;
+        }
+        RoaringBitmap result = hasAll ? matchAll(allTags) : null;
+        if (hasAny && (result == null || !result.isEmpty())) {
+            RoaringBitmap any = matchAny(anyTags);
+            result = result == null ? any : RoaringBitmap.and(result, any);
+        }
+        int[] values = result.toArray();
+        long[] ids = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ids[i] = values[i];
+        }
+        return ids;
+    }
+
+    /**
+     * 带有所有给定标签的笔记。各位图按笔记数从少到多求交集，结果为空时提前结束
+     */
+    RoaringBitmap matchAll(long[] tagIds) {
+        RoaringBitmap[] bitmaps = new RoaringBitmap[tagIds.length];
+        for (int i = 0; i < tagIds.length; i++) {
+            bitmaps[i] = mBitmaps.get(tagIds[i]);
+            if (bitmaps[i] == null) {
+                return new RoaringBitmap();
+            }
+        }
+        Arrays.sort(bitmaps, CARDINALITY_ORDER);
+        RoaringBitmap result = bitmaps[0];
+        for (int i = 1; i < bitmaps.length && !result.isEmpty(); i++) {
+            result = RoaringBitmap.and(result, bitmaps[i]);
+        }
+        // 只有一个标签时返回副本，不暴露索引中的位图
+        return result == bitmaps[0] ? RoaringBitmap.or(result, new RoaringBitmap()) : result;
+    }
+
+    /**
+     * 带有任一给定标签的笔记
+     */
+    RoaringBitmap matchAny(long[] tagIds) {
+        RoaringBitmap result = new RoaringBitmap();
+        for (long tagId : tagIds) {
+            RoaringBitmap bitmap = mBitmaps.get(tagId);
+            if (bitmap != null) {
+                result = RoaringBitmap.or(result, bitmap);
+            }
+        }
+        return result;
+    }
+
+    private static final Comparator<RoaringBitmap> CARDINALITY_ORDER =
+            (a, b) -> Integer.compare(a.cardinality(), b.cardinality());
+
+    private static int toInt(long noteId) {
+        if (noteId < 0 || noteId > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Note id out of range: " + noteId);
+        }
+        return (int) noteId;
+    }
+}
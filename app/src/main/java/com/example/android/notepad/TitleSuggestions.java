@@ -0,0 +1,146 @@
+package com.example.android.notepad;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 搜索框的标题补全数据源：在内存中维护一棵 {@link TitleTrie}，
+ * 首次启动时在后台线程整体加载，之后根据Provider的变更通知只重新读取变化的笔记。
+ * 查询（{@link #suggest}）直接访问内存中的前缀树，不经过Provider。
+ *
+ * 前缀树只在主线程访问；后台线程只负责读取数据库，结果通过主线程的Handler应用。
+ */
+class TitleSuggestions {
+
+    // 每个前缀最多给出的建议数
+    static final int MAX_SUGGESTIONS = 8;
+
+    private static final String[] PROJECTION = new String[] {
+            NotePad.Notes._ID,
+            NotePad.Notes.COLUMN_NAME_TITLE,
+            NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE
+    };
+
+    // 所有数据库读取按提交顺序在同一个后台线程执行，保证更新按通知的顺序应用
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ContentResolver mResolver;
+
+    private TitleTrie mTrie = new TitleTrie(MAX_SUGGESTIONS);
+    private boolean mStarted;
+
+    private final ContentObserver mObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            // 单条笔记的变更只重新读取这条笔记，其余情况（批量修改或未知URI）整体重新加载
+            if (uri != null
+                    && uri.getPathSegments().size() == NotePad.Notes.NOTE_ID_PATH_POSITION + 1
+                    && TextUtils.isDigitsOnly(uri.getLastPathSegment())) {
+                reloadNote(ContentUris.parseId(uri));
+            } else {
+                reloadAll();
+            }
+        }
+    };
+
+    TitleSuggestions(Context context) {
+        mResolver = context.getContentResolver();
+    }
+
+    /**
+     * 开始监听变更并在后台加载所有标题
+     */
+    void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        mResolver.registerContentObserver(NotePad.Notes.CONTENT_URI, true, mObserver);
+        reloadAll();
+    }
+
+    /**
+     * 停止监听并释放后台线程
+     */
+    void stop() {
+        if (!mStarted) {
+            return;
+        }
+        mStarted = false;
+        mResolver.unregisterContentObserver(mObserver);
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * 返回与前缀匹配的标题，按修改时间从新到旧排列；必须在主线程调用
+     */
+    List<TitleTrie.Entry> suggest(String prefix) {
+        if (prefix == null) {
+            return Collections.emptyList();
+        }
+        return mTrie.suggest(prefix);
+    }
+
+    private void reloadAll() {
+        mExecutor.execute(() -> {
+            final TitleTrie trie = new TitleTrie(MAX_SUGGESTIONS);
+            Cursor c = mResolver.query(NotePad.Notes.CONTENT_URI, PROJECTION, null, null, null);
+            if (c == null) {
+                return;
+            }
+            try {
+                while (c.moveToNext()) {
+                    trie.put(c.getLong(0), c.getString(1), c.getLong(2));
+                }
+            } finally {
+                c.close();
+            }
+            mHandler.post(() -> mTrie = trie);
+        });
+    }
+
+    private void reloadNote(final long noteId) {
+        mExecutor.execute(() -> {
+            Cursor c = mResolver.query(
+                    ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE, noteId),
+                    PROJECTION, null, null, null);
+            if (c == null) {
+                return;
+            }
+            final String title;
+            final long modified;
+            final boolean exists;
+            try {
+                exists = c.moveToFirst();
+                title = exists ? c.getString(1) : null;
+                modified = exists ? c.getLong(2) : 0;
+            } finally {
+                c.close();
+            }
+            mHandler.post(() -> {
+                if (exists) {
+                    mTrie.put(noteId, title, modified);
+                } else {
+                    mTrie.remove(noteId);
+                }
+            });
+        });
+    }
+}
@@ -0,0 +1,298 @@
+package com.example.android.notepad;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 标题前缀树（压缩的基数树），用于搜索框的标题自动补全。
+ *
+ * 每个标题以规范化后的整个标题以及其中每个单词开头的后缀作为键插入，
+ * 因此输入标题中任意单词的前缀都能得到补全。每个节点缓存其子树中最近修改的前 k 个标题，
+ * 查询只需沿前缀走到对应节点并直接返回缓存，耗时与笔记数量无关；
+ * 插入和删除时只重新计算路径上节点的缓存。
+ *
+ * 非线程安全，调用方需保证只在一个线程中访问。
+ */
+final class TitleTrie {
+
+    /**
+     * 一条可供补全的标题
+     */
+    static final class Entry {
+        final long id;
+        final String title;
+        final long modified;
+
+        Entry(long id, String title, long modified) {
+            this.id = id;
+            this.title = title;
+            this.modified = modified;
+        }
+    }
+
+    // 最近修改的排在前面，修改时间相同时按ID倒序，保证顺序稳定
+    private static final Comparator<Entry> RECENCY = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            if (a.modified != b.modified) {
+                return a.modified > b.modified ? -1 : 1;
+            }
+            return Long.compare(b.id, a.id);
+        }
+    };
+
+    private static final Entry[] NO_ENTRIES = new Entry[0];
+
+    // 单个键的最大长度，长标题只索引开头部分
+    private static final int MAX_KEY_LENGTH = 64;
+
+    private static final class Node {
+        // 从父节点到本节点的边上的字符串
+        String label;
+        Node parent;
+        final List<Node> children = new ArrayList<>(2);
+        // 键恰好在本节点结束的标题
+        final List<Entry> entries = new ArrayList<>(1);
+        // 子树中最近修改的前 k 个标题
+        Entry[] top = NO_ENTRIES;
+
+        Node(String label, Node parent) {
+            this.label = label;
+            this.parent = parent;
+        }
+
+        Node child(char first) {
+            for (int i = 0; i < children.size(); i++) {
+                Node child = children.get(i);
+                if (child.label.charAt(0) == first) {
+                    return child;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final int mTopK;
+    private final Node mRoot = new Node("", null);
+    private final HashMap<Long, Entry> mEntries = new HashMap<>();
+
+    /**
+     * @param topK 每个前缀最多返回的标题数
+     */
+    TitleTrie(int topK) {
+        mTopK = topK;
+    }
+
+    int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * 树中的节点数（包括根节点），用于检查拆分、合并和删除后树保持压缩形式
+     */
+    int nodeCount() {
+        int count = 0;
+        ArrayList<Node> stack = new ArrayList<>();
+        stack.add(mRoot);
+        while (!stack.isEmpty()) {
+            Node node = stack.remove(stack.size() - 1);
+            count++;
+            stack.addAll(node.children);
+        }
+        return count;
+    }
+
+    /**
+     * 插入或替换一条笔记的标题
+     */
+    void put(long id, String title, long modified) {
+        remove(id);
+        if (title == null) {
+            return;
+        }
+        Entry entry = new Entry(id, title, modified);
+        mEntries.put(id, entry);
+        for (String key : keysFor(title)) {
+            insert(key, entry);
+        }
+    }
+
+    /**
+     * 移除一条笔记
+     */
+    void remove(long id) {
+        Entry entry = mEntries.remove(id);
+        if (entry == null) {
+            return;
+        }
+        for (String key : keysFor(entry.title)) {
+            Node node = findExact(key);
+            if (node != null && node.entries.remove(entry)) {
+                Node parent = prune(node);
+                updateTopUpwards(parent);
+            }
+        }
+    }
+
+    /**
+     * 返回以给定前缀开头（或含有以该前缀开头的单词）的标题，按修改时间从新到旧排列
+     */
+    List<Entry> suggest(String prefix) {
+        String key = SearchNormalizer.fold(prefix).trim();
+        if (key.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Node node = mRoot;
+        int matched = 0;
+        while (matched < key.length()) {
+            Node child = node.child(key.charAt(matched));
+            if (child == null) {
+                return Collections.emptyList();
+            }
+            String label = child.label;
+            int common = commonPrefix(label, key, matched);
+            if (matched + common == key.length()) {
+                // 前缀在这条边的中间或末尾结束，整个子树都匹配
+                node = child;
+                break;
+            }
+            if (common < label.length()) {
+                return Collections.emptyList();
+            }
+            matched += common;
+            node = child;
+        }
+        return Collections.unmodifiableList(Arrays.asList(node.top));
+    }
+
+    /**
+     * 规范化后的整个标题，以及每个空白之后开始的后缀
+     */
+    private static List<String> keysFor(String title) {
+        String folded = SearchNormalizer.fold(title).trim();
+        List<String> keys = new ArrayList<>();
+        if (folded.isEmpty()) {
+            return keys;
+        }
+        for (int i = 0; i < folded.length(); i++) {
+            if (i == 0 || (Character.isWhitespace(folded.charAt(i - 1))
+                    && !Character.isWhitespace(folded.charAt(i)))) {
+                String key = folded.substring(i, Math.min(folded.length(), i + MAX_KEY_LENGTH));
+                if (!keys.contains(key)) {
+                    keys.add(key);
+                }
+            }
+        }
+        return keys;
+    }
+
+    private void insert(String key, Entry entry) {
+        Node node = mRoot;
+        int matched = 0;
+        while (matched < key.length()) {
+            Node child = node.child(key.charAt(matched));
+            if (child == null) {
+                child = new Node(key.substring(matched), node);
+                node.children.add(child);
+                node = child;
+                matched = key.length();
+                break;
+            }
+            int common = commonPrefix(child.label, key, matched);
+            if (common < child.label.length()) {
+                // 在公共前缀处拆分这条边
+                Node middle = new Node(child.label.substring(0, common), node);
+                node.children.set(node.children.indexOf(child), middle);
+                child.label = child.label.substring(common);
+                child.parent = middle;
+                middle.children.add(child);
+                middle.top = child.top;
+                child = middle;
+            }
+            matched += common;
+            node = child;
+        }
+        node.entries.add(entry);
+        updateTopUpwards(node);
+    }
+
+    private Node findExact(String key) {
+        Node node = mRoot;
+        int matched = 0;
+        while (matched < key.length()) {
+            Node child = node.child(key.charAt(matched));
+            if (child == null || !key.startsWith(child.label, matched)) {
+                return null;
+            }
+            matched += child.label.length();
+            node = child;
+        }
+        return node;
+    }
+
+    /**
+     * 删除不再需要的节点，并把只有一个子节点的空节点与子节点合并，保持树的压缩形式
+     *
+     * @return 需要从其开始向上更新缓存的节点
+     */
+    private Node prune(Node node) {
+        while (node != mRoot && node.entries.isEmpty() && node.children.isEmpty()) {
+            Node parent = node.parent;
+            parent.children.remove(node);
+            node = parent;
+        }
+        if (node != mRoot && node.entries.isEmpty() && node.children.size() == 1) {
+            Node child = node.children.get(0);
+            child.label = node.label + child.label;
+            child.parent = node.parent;
+            node.parent.children.set(node.parent.children.indexOf(node), child);
+            return child.parent;
+        }
+        return node;
+    }
+
+    private void updateTopUpwards(Node node) {
+        for (; node != null; node = node.parent) {
+            node.top = computeTop(node);
+        }
+    }
+
+    /**
+     * 合并本节点的标题和各子节点的缓存，去重后保留最近修改的前 k 个
+     */
+    private Entry[] computeTop(Node node) {
+        List<Entry> candidates = new ArrayList<>(node.entries);
+        for (Node child : node.children) {
+            Collections.addAll(candidates, child.top);
+        }
+        if (candidates.isEmpty()) {
+            return NO_ENTRIES;
+        }
+        Collections.sort(candidates, RECENCY);
+        List<Entry> top = new ArrayList<>(Math.min(mTopK, candidates.size()));
+        for (Entry entry : candidates) {
+            if (top.size() == mTopK) {
+                break;
+            }
+            // 同一标题可能通过多个键出现在同一子树中
+            if (top.isEmpty() || top.get(top.size() - 1) != entry) {
+                top.add(entry);
+            }
+        }
+        return top.toArray(new Entry[top.size()]);
+    }
+
+    private static int commonPrefix(String label, String key, int offset) {
+        int max = Math.min(label.length(), key.length() - offset);
+        int i = 0;
+        while (i < max && label.charAt(i) == key.charAt(offset + i)) {
+            i++;
+        }
+        return i;
+    }
+}